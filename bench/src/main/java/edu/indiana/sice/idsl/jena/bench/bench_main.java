@@ -0,0 +1,34 @@
+package edu.indiana.sice.idsl.jena.bench;
+
+import org.openjdk.jmh.profile.*; // GCProfiler
+import org.openjdk.jmh.results.format.*; // ResultFormatType
+import org.openjdk.jmh.runner.*; // Runner
+import org.openjdk.jmh.runner.options.*; // ChainedOptionsBuilder, CommandLineOptions, OptionsBuilder, ProfilerConfig
+
+/**	Benchmark runner: JMH command line, e.g. a benchmark regex, -p
+	n_class=100000, -f, -wi, -i, with release comparison defaults:
+	GC profiler (allocation rate, bytes per op, GC count and time) and
+	JSON results to jmh-results.json, unless -rf or -rff given.
+
+	@author Jeremy Yang
+*/
+public class bench_main
+{
+  public static void main(String[] args) throws Exception
+  {
+    CommandLineOptions clo = new CommandLineOptions(args);
+    if (clo.shouldHelp() || clo.shouldList() || clo.shouldListProfilers() || clo.shouldListResultFormats()
+	|| clo.shouldListWithParams())
+    {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder opts = new OptionsBuilder().parent(clo);
+    boolean gc=false;
+    for (ProfilerConfig pc: clo.getProfilers()) gc |= pc.getKlass().equals(GCProfiler.class.getName()) || pc.getKlass().equals("gc");
+    if (!gc) opts.addProfiler(GCProfiler.class);
+    if (!clo.getResultFormat().hasValue()) opts.resultFormat(ResultFormatType.JSON);
+    if (!clo.getResult().hasValue()) opts.result("jmh-results.json");
+    new Runner(opts.build()).run();
+  }
+}
@@ -0,0 +1,193 @@
+package edu.indiana.sice.idsl.jena.bench;
+
+import java.io.*; // File, IOException, PrintWriter, Writer
+import java.nio.file.*; // Files
+import java.util.*; // ArrayList, Collections, List, Random
+import java.util.concurrent.*; // TimeUnit
+
+import org.apache.jena.ontology.*; // OntClass, OntModel
+
+import org.openjdk.jmh.annotations.*; // Benchmark, BenchmarkMode, Fork, Measurement, Mode, OperationsPerInvocation, OutputTimeUnit, Param, Scope, Setup, State, TearDown, Warmup
+
+import edu.indiana.sice.idsl.jena.*; // class_hierarchy, class_index, class_reach, jena_utils
+
+/**	Ontology benchmarks: class index, hierarchy and reachability index
+	build, hierarchy traversal, subsumption checks, and each export format, on synthetic ontologies from
+	ont_generator (parsing in parse_bench).  Parsed model, index and
+	hierarchy are built once per trial, so each benchmark times only its
+	own step.  Exports write to a counting null writer, so output I/O is
+	not timed.
+
+	@author Jeremy Yang
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+public class ont_bench
+{
+  @Param({"1000", "20000"})
+  public int n_class;
+
+  @Param({"4"})
+  public int branching;
+
+  @Param({"0.0", "0.2"})
+  public double multiparent;
+
+  /** Classes for GetSuperclassLists(), per-class OntModel traversal. */
+  private static final int N_SAMPLE=100;
+  /** Random class pairs for Subsumption(). */
+  private static final int N_PAIR=100000;
+
+  private File dir;
+  private OntModel omod;
+  private class_index cidx;
+  private class_hierarchy hier;
+  private class_reach reach;
+  private List<OntClass> sample;
+  private int [] subs, sups;
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Setup(Level.Trial)
+  public void Setup() throws IOException
+  {
+    dir = Files.createTempDirectory("ont_bench").toFile();
+    File f = new File(dir, "bench.owl");
+    ont_generator.Generate(f, null, n_class, branching, multiparent, 0, 1L);
+    omod = jena_utils.ReadOntologyFile(f.getPath(), "OWL", null);
+    cidx = new class_index(omod);
+    hier = new class_hierarchy(cidx);
+    reach = new class_reach(hier);
+    sample = new ArrayList<OntClass>();
+    Random rand = new Random(1L);
+    for (int i=0; i<N_SAMPLE; ++i)
+      sample.add(omod.getOntClass(ont_generator.ClassUri(rand.nextInt(n_class))));
+    subs = new int[N_PAIR];
+    sups = new int[N_PAIR];
+    for (int i=0; i<N_PAIR; ++i)
+    {
+      subs[i] = rand.nextInt(cidx.Size());
+      sups[i] = rand.nextInt(cidx.Size());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @TearDown(Level.Trial)
+  public void TearDown()
+  {
+    omod.close();
+    for (File f: dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Writer discarding output, counting chars, so exports are not
+	optimized away.
+  */
+  static class NullWriter extends Writer
+  {
+    long n=0;
+    @Override public void write(char [] buf, int off, int len) { n+=len; }
+    @Override public void write(String s, int off, int len) { n+=len; }
+    @Override public void write(int c) { ++n; }
+    @Override public void flush() { }
+    @Override public void close() { }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  public class_index BuildIndex()
+  {
+    return new class_index(omod);
+  }
+
+  @Benchmark
+  public class_hierarchy BuildHierarchy()
+  {
+    return new class_hierarchy(cidx);
+  }
+
+  @Benchmark
+  public class_reach BuildReach()
+  {
+    return new class_reach(hier);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  @OperationsPerInvocation(N_PAIR)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int Subsumption()
+  {
+    int n=0;
+    for (int i=0; i<N_PAIR; ++i) if (reach.IsSubclass(subs[i], sups[i])) ++n;
+    return n;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  public int [][] TopPaths()
+  {
+    return hier.GetTopPaths(3);
+  }
+
+  @Benchmark
+  public long MinimalPaths()
+  {
+    long n=0;
+    for (int i=0; i<hier.Size(); ++i) n += hier.GetMinimalPath(i).length;
+    return n;
+  }
+
+  @Benchmark
+  public long SuperclassLists() throws Exception
+  {
+    long n=0;
+    for (OntClass cls: sample) n += jena_utils.GetSuperclassLists(cls).size();
+    return n;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  public long ExportTSV() throws Exception
+  {
+    NullWriter w = new NullWriter();
+    jena_utils.OntModel2TSV(cidx, new PrintWriter(w), 0);
+    return w.n;
+  }
+
+  @Benchmark
+  public long ExportEdgelist() throws Exception
+  {
+    NullWriter w = new NullWriter();
+    jena_utils.OntModel2Edgelist(cidx, new PrintWriter(w), 0);
+    return w.n;
+  }
+
+  @Benchmark
+  public long ExportNodelist() throws Exception
+  {
+    NullWriter w = new NullWriter();
+    jena_utils.OntModel2Nodelist(cidx, new PrintWriter(w), 0);
+    return w.n;
+  }
+
+  @Benchmark
+  public long ExportCYJS() throws Exception
+  {
+    NullWriter w = new NullWriter();
+    jena_utils.OntModel2CYJS(cidx, new PrintWriter(w), true, 0);
+    return w.n;
+  }
+
+  @Benchmark
+  public long ExportGraphML() throws Exception
+  {
+    NullWriter w = new NullWriter();
+    jena_utils.OntModel2GraphML(cidx, Collections.<String,int[]>emptyMap(), w, 0);
+    return w.n;
+  }
+}
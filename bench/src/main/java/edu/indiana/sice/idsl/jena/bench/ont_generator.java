@@ -0,0 +1,168 @@
+package edu.indiana.sice.idsl.jena.bench;
+
+import java.io.*; // BufferedOutputStream, File, FileOutputStream, IOException, OutputStream
+import java.util.*; // Random
+
+import org.apache.commons.cli.*; // CommandLine, CommandLineParser, HelpFormatter, Options, ParseException, PosixParser
+
+import org.apache.jena.datatypes.xsd.*; // XSDDatatype
+import org.apache.jena.graph.*; // Node, NodeFactory, Triple
+import org.apache.jena.rdf.model.*; // Model, ModelFactory, Resource
+import org.apache.jena.riot.*; // RDFFormat, RIOT
+import org.apache.jena.riot.system.*; // StreamRDF, StreamRDFWriter
+import org.apache.jena.vocabulary.*; // OWL, RDF, RDFS
+
+/**	Synthetic ontology and instance data, reproducible from a seed, for
+	benchmarks.  Classes form a tree with the given branching factor,
+	class i the child of class (i-1)/branching, plus, with probability
+	multiparent, a second parent drawn from earlier classes, giving a
+	multi-hierarchy (still acyclic).  Classes have labels and comments,
+	as real ontologies do.  Ontology written as RDF/XML, as OWL files
+	usually are; instance data as N-Triples, each instance typed by a
+	random class, with label, value and a link to another instance.
+
+	@author Jeremy Yang
+*/
+public class ont_generator
+{
+  public static final String NS = "http://example.org/bench/";
+  private static String APPNAME="ONT_GENERATOR";
+
+  static { //shaded jar merges subsystem services files
+    RIOT.init();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static String ClassUri(int i) { return NS+"C"+i; }
+  public static String InstanceUri(int i) { return NS+"i"+i; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write ontology, n_class classes, as RDF/XML.  Returns edge
+	(subClassOf) count.
+  */
+  public static long WriteOntology(int n_class, int branching, double multiparent, long seed, OutputStream ostr)
+  {
+    Random rand = new Random(seed);
+    Model mod = ModelFactory.createDefaultModel();
+    mod.setNsPrefix("owl", OWL.NS);
+    mod.setNsPrefix("rdfs", RDFS.uri);
+    mod.setNsPrefix("b", NS);
+    Resource ont = mod.createResource(NS+"ontology");
+    mod.add(ont, RDF.type, OWL.Ontology);
+    long n_edge=0;
+    for (int i=0; i<n_class; ++i)
+    {
+      Resource cls = mod.createResource(ClassUri(i));
+      mod.add(cls, RDF.type, OWL.Class);
+      mod.add(cls, RDFS.label, "class "+i);
+      mod.add(cls, RDFS.comment, "Synthetic class "+i+", level "+Level(i, branching)+".");
+      if (i==0) continue;
+      int p = (i-1)/Math.max(1, branching);
+      mod.add(cls, RDFS.subClassOf, mod.createResource(ClassUri(p)));
+      ++n_edge;
+      if (i>1 && rand.nextDouble()<multiparent)
+      {
+        int q = rand.nextInt(i-1);
+        if (q>=p) ++q; //not the primary parent
+        mod.add(cls, RDFS.subClassOf, mod.createResource(ClassUri(q)));
+        ++n_edge;
+      }
+    }
+    RDFDataMgr.write(ostr, mod, RDFFormat.RDFXML_PLAIN);
+    return n_edge;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static int Level(int i, int branching)
+  {
+    int level=0;
+    for (; i>0; i=(i-1)/Math.max(1, branching)) ++level;
+    return level;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Stream instance data as N-Triples, 4 triples per instance.  Returns
+	triple count.
+  */
+  public static long WriteData(int n_class, int n_inst, long seed, OutputStream ostr)
+  {
+    Random rand = new Random(seed+1);
+    StreamRDF sink = StreamRDFWriter.getWriterStream(ostr, RDFFormat.NTRIPLES);
+    Node type = RDF.type.asNode();
+    Node label = RDFS.label.asNode();
+    Node value = NodeFactory.createURI(NS+"value");
+    Node related = NodeFactory.createURI(NS+"related");
+    sink.start();
+    long n_triple=0;
+    for (int i=0; i<n_inst; ++i)
+    {
+      Node s = NodeFactory.createURI(InstanceUri(i));
+      sink.triple(Triple.create(s, type, NodeFactory.createURI(ClassUri(rand.nextInt(n_class)))));
+      sink.triple(Triple.create(s, label, NodeFactory.createLiteral("instance "+i)));
+      sink.triple(Triple.create(s, value, NodeFactory.createLiteral(String.valueOf(rand.nextInt(1000)), XSDDatatype.XSDinteger)));
+      sink.triple(Triple.create(s, related, NodeFactory.createURI(InstanceUri(rand.nextInt(n_inst)))));
+      n_triple+=4;
+    }
+    sink.finish();
+    return n_triple;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write ontology and data files, e.g. to a benchmark temp directory.
+  */
+  public static void Generate(File ofile_ont, File ofile_data, int n_class, int branching, double multiparent, int n_inst, long seed)
+	throws IOException
+  {
+    try (OutputStream ostr = new BufferedOutputStream(new FileOutputStream(ofile_ont)))
+    {
+      WriteOntology(n_class, branching, multiparent, seed, ostr);
+    }
+    if (ofile_data==null) return;
+    try (OutputStream ostr = new BufferedOutputStream(new FileOutputStream(ofile_data)))
+    {
+      WriteData(n_class, n_inst, seed, ostr);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static void main(String[] args) throws Exception
+  {
+    int n_class=10000;
+    int branching=4;
+    double multiparent=0.1;
+    int n_inst=100000;
+    long seed=1L;
+    String HELPHEADER = "ONT_GENERATOR: Synthetic ontology (RDF/XML) and instance data (N-Triples), for benchmarks.";
+    Options opts = new Options();
+    opts.addOption(Option.builder("o_ont").hasArg().argName("OFILE").desc("output ontology file (RDF/XML)").required(true).build());
+    opts.addOption(Option.builder("o_data").hasArg().argName("OFILE").desc("output data file (N-Triples)").build());
+    opts.addOption(Option.builder("n_class").hasArg().argName("N").desc("class count ["+n_class+"]").build());
+    opts.addOption(Option.builder("branching").hasArg().argName("N").desc("subclasses per class, primary tree ["+branching+"]").build());
+    opts.addOption(Option.builder("multiparent").hasArg().argName("RATIO").desc("fraction of classes with a second parent ["+multiparent+"]").build());
+    opts.addOption(Option.builder("n_inst").hasArg().argName("N").desc("instance count, data file ["+n_inst+"]").build());
+    opts.addOption(Option.builder("seed").hasArg().argName("N").desc("random seed ["+seed+"]").build());
+    opts.addOption("h", "help", false, "Show this help.");
+    HelpFormatter helper = new HelpFormatter();
+    CommandLineParser clip = new PosixParser();
+    CommandLine clic = null;
+    try {
+      clic = clip.parse(opts, args);
+    } catch (ParseException e) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, e.getMessage(), true);
+      System.exit(0);
+    }
+    if (clic.hasOption("h")) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, "", true);
+      System.exit(0);
+    }
+    if (clic.hasOption("n_class")) n_class = Integer.parseInt(clic.getOptionValue("n_class"));
+    if (clic.hasOption("branching")) branching = Integer.parseInt(clic.getOptionValue("branching"));
+    if (clic.hasOption("multiparent")) multiparent = Double.parseDouble(clic.getOptionValue("multiparent"));
+    if (clic.hasOption("n_inst")) n_inst = Integer.parseInt(clic.getOptionValue("n_inst"));
+    if (clic.hasOption("seed")) seed = Long.parseLong(clic.getOptionValue("seed"));
+    File ofile_data = clic.hasOption("o_data")?new File(clic.getOptionValue("o_data")):null;
+    long t0 = System.nanoTime();
+    Generate(new File(clic.getOptionValue("o_ont")), ofile_data, n_class, branching, multiparent, n_inst, seed);
+    System.err.println(String.format("classes: %d; branching: %d; multiparent: %.2f; instances: %d; elapsed: %.3fs", n_class, branching, multiparent, ((ofile_data!=null)?n_inst:0), (System.nanoTime()-t0)/1e9));
+  }
+}
@@ -0,0 +1,76 @@
+package edu.indiana.sice.idsl.jena.bench;
+
+import java.io.*; // File, IOException
+import java.nio.file.*; // Files
+import java.util.concurrent.*; // TimeUnit
+
+import org.apache.jena.graph.*; // Graph
+import org.apache.jena.ontology.*; // OntModel
+
+import org.openjdk.jmh.annotations.*; // Benchmark, BenchmarkMode, Fork, Measurement, Mode, OutputTimeUnit, Param, Scope, Setup, State, TearDown, Warmup
+
+import edu.indiana.sice.idsl.jena.*; // jena_utils, rdf_loader
+
+/**	Parse benchmarks: ontology (RDF/XML) via jena_utils, uncached, and
+	instance data (N-Triples) via rdf_loader, single thread and chunked
+	in parallel, on synthetic files from ont_generator.
+
+	@author Jeremy Yang
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+public class parse_bench
+{
+  @Param({"1000", "20000"})
+  public int n_class;
+
+  @Param({"100000"})
+  public int n_inst;
+
+  private File dir;
+  private String ifile_ont;
+  private String ifile_data;
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Setup(Level.Trial)
+  public void Setup() throws IOException
+  {
+    dir = Files.createTempDirectory("parse_bench").toFile();
+    File f_ont = new File(dir, "bench.owl");
+    File f_data = new File(dir, "bench.nt");
+    ont_generator.Generate(f_ont, f_data, n_class, 4, 0.1, n_inst, 1L);
+    ifile_ont = f_ont.getPath();
+    ifile_data = f_data.getPath();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @TearDown(Level.Trial)
+  public void TearDown()
+  {
+    for (File f: dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  public OntModel ParseOntology() throws IOException
+  {
+    return jena_utils.ReadOntologyFile(ifile_ont, "OWL", null);
+  }
+
+  @Benchmark
+  public Graph [] ParseData() throws IOException
+  {
+    return rdf_loader.LoadFiles(new String[]{ifile_data}, null, 1, 0, 0);
+  }
+
+  @Benchmark
+  public Graph [] ParseDataChunked() throws IOException
+  {
+    return rdf_loader.LoadFiles(new String[]{ifile_data}, null, Runtime.getRuntime().availableProcessors(), 1L<<20, 0);
+  }
+}
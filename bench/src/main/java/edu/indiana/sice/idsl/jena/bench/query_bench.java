@@ -0,0 +1,93 @@
+package edu.indiana.sice.idsl.jena.bench;
+
+import java.io.*; // File, IOException, PrintWriter
+import java.nio.file.*; // Files
+import java.util.*; // HashMap, Map
+import java.util.concurrent.*; // TimeUnit
+
+import org.apache.jena.graph.*; // Graph
+import org.apache.jena.query.*; // Dataset, DatasetFactory
+import org.apache.jena.rdf.model.*; // Model, ModelFactory
+
+import org.openjdk.jmh.annotations.*; // Benchmark, BenchmarkMode, Fork, Measurement, Mode, OutputTimeUnit, Param, Scope, Setup, State, TearDown, Warmup
+
+import edu.indiana.sice.idsl.jena.*; // jena_utils, rdf_loader
+
+/**	SPARQL query throughput via jena_utils.QueryRDF(), over synthetic
+	ontology plus instance data from ont_generator, loaded once per trial
+	into one default graph.  Results written as TSV to a counting null
+	writer, so output I/O is not timed.
+
+	@author Jeremy Yang
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+public class query_bench
+{
+  @Param({"10000"})
+  public int n_class;
+
+  @Param({"100000"})
+  public int n_inst;
+
+  @Param({"type_count", "subclass_join", "value_filter", "related_path"})
+  public String query;
+
+  private static final String PREFIXES = "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n"
+	+"PREFIX b: <"+ont_generator.NS+">\n";
+
+  /** Benchmark queries by name. */
+  public static final Map<String,String> QUERIES = new HashMap<String,String>();
+  static {
+    QUERIES.put("type_count", PREFIXES
+	+"SELECT ?cls (COUNT(?s) AS ?n) WHERE { ?s a ?cls } GROUP BY ?cls ORDER BY DESC(?n) LIMIT 100");
+    QUERIES.put("subclass_join", PREFIXES
+	+"SELECT ?s ?cls ?sup WHERE { ?s a ?cls . ?cls rdfs:subClassOf ?sup . ?sup rdfs:label ?label }");
+    QUERIES.put("value_filter", PREFIXES
+	+"SELECT ?s ?label ?v WHERE { ?s b:value ?v ; rdfs:label ?label FILTER(?v < 10) }");
+    QUERIES.put("related_path", PREFIXES
+	+"SELECT ?s ?o WHERE { ?s b:related/b:related ?o } LIMIT 10000");
+  }
+
+  private File dir;
+  private Dataset dset;
+  private String rq;
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Setup(Level.Trial)
+  public void Setup() throws IOException
+  {
+    rq = QUERIES.get(query);
+    if (rq==null) throw new IllegalArgumentException("Unknown query: "+query);
+    dir = Files.createTempDirectory("query_bench").toFile();
+    File f_ont = new File(dir, "bench.owl");
+    File f_data = new File(dir, "bench.nt");
+    ont_generator.Generate(f_ont, f_data, n_class, 4, 0.1, n_inst, 1L);
+    Graph [] graphs = rdf_loader.LoadFiles(new String[]{f_ont.getPath(), f_data.getPath()}, null, 2, 0, 0);
+    Model mod = ModelFactory.createDefaultModel();
+    for (Graph g: graphs) mod.add(ModelFactory.createModelForGraph(g));
+    dset = DatasetFactory.create(mod);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @TearDown(Level.Trial)
+  public void TearDown()
+  {
+    dset.close();
+    for (File f: dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Benchmark
+  public long Query() throws IOException
+  {
+    ont_bench.NullWriter w = new ont_bench.NullWriter();
+    jena_utils.QueryRDF(dset, rq, "tsv", new PrintWriter(w), 0);
+    return w.n;
+  }
+}
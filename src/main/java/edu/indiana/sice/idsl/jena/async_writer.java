@@ -0,0 +1,141 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // Writer, IOException
+import java.util.*; // Arrays
+import java.util.concurrent.*; // ArrayBlockingQueue
+
+/**	Writer which hands filled buffers to a background thread, which does
+	the writes to the underlying writer, i.e. character encoding, any
+	compression and disk I/O, while the caller keeps producing output.
+	Close to drain and close the underlying writer.  Errors from the
+	background thread are rethrown on the next write, flush or close.
+
+	@author Jeremy Yang
+*/
+public class async_writer extends Writer
+{
+  private static final char [] EOF = new char[0];
+  private Writer out;
+  private ArrayBlockingQueue<char[]> queue;
+  private Thread thread;
+  private int bufsize;
+  private char [] buf;
+  private int n=0;
+  private volatile IOException error=null;
+  private boolean closed=false;
+
+  /////////////////////////////////////////////////////////////////////////////
+  public async_writer(Writer out)
+  {
+    this(out, 1<<16, 16);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param bufsize chars per buffer
+	@param depth max buffers queued before caller blocks
+  */
+  public async_writer(Writer out, int bufsize, int depth)
+  {
+    this.out = out;
+    this.bufsize = bufsize;
+    buf = new char[bufsize];
+    queue = new ArrayBlockingQueue<char[]>(depth);
+    thread = new Thread(this::Drain, "async_writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void Drain()
+  {
+    try {
+      while (true)
+      {
+        char [] chunk = queue.take();
+        if (chunk==EOF) break;
+        if (error!=null) continue; //discard, so producer never blocks
+        try { out.write(chunk); }
+        catch (IOException e) { error = e; }
+      }
+      if (error==null) out.flush();
+    }
+    catch (InterruptedException e) { error = new InterruptedIOException(e.getMessage()); }
+    catch (IOException e) { error = e; }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void Dispatch() throws IOException
+  {
+    if (error!=null) throw error;
+    if (n==0) return;
+    char [] chunk = (n==bufsize)?buf:Arrays.copyOf(buf, n);
+    try { queue.put(chunk); }
+    catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+    if (chunk==buf) buf = new char[bufsize];
+    n=0;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void write(char [] cbuf, int off, int len) throws IOException
+  {
+    if (closed) throw new IOException("async_writer closed");
+    while (len>0)
+    {
+      int k = Math.min(len, bufsize-n);
+      System.arraycopy(cbuf, off, buf, n, k);
+      n+=k; off+=k; len-=k;
+      if (n==bufsize) Dispatch();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void write(String str, int off, int len) throws IOException
+  {
+    if (closed) throw new IOException("async_writer closed");
+    while (len>0)
+    {
+      int k = Math.min(len, bufsize-n);
+      str.getChars(off, off+k, buf, n);
+      n+=k; off+=k; len-=k;
+      if (n==bufsize) Dispatch();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void write(int c) throws IOException
+  {
+    if (closed) throw new IOException("async_writer closed");
+    buf[n++] = (char)c;
+    if (n==bufsize) Dispatch();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Hands off buffered output; does not wait for the disk write.
+  */
+  @Override
+  public void flush() throws IOException
+  {
+    if (!closed) Dispatch();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void close() throws IOException
+  {
+    if (closed) return;
+    try { Dispatch(); }
+    catch (IOException e) { if (error==null) error = e; } //still drain and close
+    closed=true;
+    try {
+      queue.put(EOF);
+      thread.join();
+    }
+    catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+    try { out.close(); }
+    catch (IOException e) { if (error==null) error = e; }
+    if (error!=null) throw error;
+  }
+}
@@ -0,0 +1,257 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.util.*; //Arrays, ArrayDeque
+
+import org.apache.jena.ontology.*; // OntModel
+
+/**	Class hierarchy engine: minimal root paths and levels for all classes,
+	computed once over the subclass DAG and shared across classes.
+
+	Built on a class_index.  Direct superclasses are derived from the
+	asserted ones by dropping any parent which is also a parent of another
+	parent, as Jena does for listSuperClasses(true).  Subclass cycles are
+	detected as strongly connected components (Tarjan) and each cycle is
+	treated as one equivalence class.  Levels and minimal paths are then
+	computed by breadth first search from the roots over the condensed DAG,
+	so total cost is linear in classes plus edges.
+
+	@author Jeremy Yang
+*/
+public class class_hierarchy
+{
+  private class_index cidx;
+  private int [] parent_ptr; //CSR row offsets
+  private int [] parent_ids; //direct superclass ids
+  private int [] comp; //cycle component per class
+  private int ncomp;
+  private int [] level; //per component, 0=root
+  private int [] pred; //per component, next class toward root on a minimal path, -1 at roots
+  private int [] csize; //per component, class count
+  private int [] order; //components in BFS (level) order
+  private int n_cycles=0; //components with more than one class
+  private int n_cyclic=0; //classes in cycles
+
+  /////////////////////////////////////////////////////////////////////////////
+  public class_hierarchy(OntModel omod)
+  {
+    this(new class_index(omod));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public class_hierarchy(class_index cidx)
+  {
+    this.cidx = cidx;
+    int n = cidx.Size();
+    parent_ptr = new int[n+1];
+    parent_ids = new int[cidx.EdgeCount()];
+    int [] mark = new int[n];
+    Arrays.fill(mark, -1);
+    int k=0;
+    for (int c=0; c<n; ++c)
+    {
+      parent_ptr[c] = k;
+      int np = cidx.ParentCount(c);
+      for (int j=0; j<np; ++j) mark[cidx.GetParent(c, j)] = c;
+      for (int j=0; j<np; ++j) //unmark grandparents via other parents
+      {
+        int q = cidx.GetParent(c, j);
+        for (int jj=0; jj<cidx.ParentCount(q); ++jj)
+        {
+          int r = cidx.GetParent(q, jj);
+          if (r!=q && mark[r]==c && !IsMutual(q, r)) mark[r] = -1;
+        }
+      }
+      for (int j=0; j<np; ++j)
+      {
+        int p = cidx.GetParent(c, j);
+        if (mark[p]==c) parent_ids[k++] = p;
+      }
+    }
+    parent_ptr[n] = k;
+    parent_ids = Arrays.copyOf(parent_ids, k);
+    FindCycles();
+    ComputeLevels();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if each class is a parent of the other, i.e. equivalent.  Then
+	neither makes the other indirect.
+  */
+  private boolean IsMutual(int q, int r)
+  {
+    for (int j=0; j<cidx.ParentCount(r); ++j)
+      if (cidx.GetParent(r, j)==q) return true;
+    return false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Iterative Tarjan SCC over superclass edges.  Recursion is avoided
+	since hierarchies may be deep.
+  */
+  private void FindCycles()
+  {
+    int n = cidx.Size();
+    comp = new int[n];
+    csize = new int[n];
+    int [] index = new int[n];
+    int [] lowlink = new int[n];
+    boolean [] onstack = new boolean[n];
+    Arrays.fill(index, -1);
+    int [] stack = new int[n]; int sp=0;
+    int [] cstack = new int[n]; //call stack: class
+    int [] estack = new int[n]; //call stack: next edge
+    int counter=0;
+    ncomp=0;
+    for (int s=0; s<n; ++s)
+    {
+      if (index[s]>=0) continue;
+      int cp=0;
+      cstack[cp] = s; estack[cp] = 0; ++cp;
+      index[s] = lowlink[s] = counter++;
+      stack[sp++] = s; onstack[s] = true;
+      while (cp>0)
+      {
+        int v = cstack[cp-1];
+        if (parent_ptr[v]+estack[cp-1]<parent_ptr[v+1])
+        {
+          int w = parent_ids[parent_ptr[v]+estack[cp-1]++];
+          if (index[w]<0)
+          {
+            index[w] = lowlink[w] = counter++;
+            stack[sp++] = w; onstack[w] = true;
+            cstack[cp] = w; estack[cp] = 0; ++cp;
+          }
+          else if (onstack[w])
+            lowlink[v] = Math.min(lowlink[v], index[w]);
+          continue;
+        }
+        if (lowlink[v]==index[v])
+        {
+          int size=0;
+          int w;
+          do {
+            w = stack[--sp];
+            onstack[w] = false;
+            comp[w] = ncomp;
+            ++size;
+          } while (w!=v);
+          if (size>1) { ++n_cycles; n_cyclic+=size; }
+          csize[ncomp++] = size;
+        }
+        --cp;
+        if (cp>0) lowlink[cstack[cp-1]] = Math.min(lowlink[cstack[cp-1]], lowlink[v]);
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Breadth first search from root components over subclass edges,
+	ignoring edges within a cycle.  First visit gives minimal level.
+  */
+  private void ComputeLevels()
+  {
+    int n = cidx.Size();
+    //Children (CSR) and members per component (CSR).
+    int [] nchild = new int[n+1];
+    boolean [] hasparent = new boolean[ncomp];
+    for (int c=0; c<n; ++c)
+      for (int j=parent_ptr[c]; j<parent_ptr[c+1]; ++j)
+        if (comp[parent_ids[j]]!=comp[c]) { ++nchild[parent_ids[j]+1]; hasparent[comp[c]] = true; }
+    for (int c=0; c<n; ++c) nchild[c+1] += nchild[c];
+    int [] children = new int[nchild[n]];
+    int [] fill = Arrays.copyOf(nchild, n);
+    for (int c=0; c<n; ++c)
+      for (int j=parent_ptr[c]; j<parent_ptr[c+1]; ++j)
+        if (comp[parent_ids[j]]!=comp[c]) children[fill[parent_ids[j]]++] = c;
+    int [] nmemb = new int[ncomp+1];
+    for (int c=0; c<n; ++c) ++nmemb[comp[c]+1];
+    for (int k=0; k<ncomp; ++k) nmemb[k+1] += nmemb[k];
+    int [] members = new int[n];
+    fill = Arrays.copyOf(nmemb, ncomp);
+    for (int c=0; c<n; ++c) members[fill[comp[c]]++] = c;
+
+    level = new int[ncomp];
+    pred = new int[ncomp];
+    Arrays.fill(level, -1);
+    Arrays.fill(pred, -1);
+    order = new int[ncomp];
+    int i_order=0;
+    ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+    for (int c=0; c<n; ++c)
+    {
+      int k = comp[c];
+      if (hasparent[k] || level[k]>=0) continue;
+      level[k] = 0;
+      order[i_order++] = k;
+      for (int m=nmemb[k]; m<nmemb[k+1]; ++m) queue.add(members[m]);
+    }
+    while (!queue.isEmpty())
+    {
+      int p = queue.poll();
+      for (int j=nchild[p]; j<nchild[p+1]; ++j)
+      {
+        int k = comp[children[j]];
+        if (level[k]>=0) continue;
+        level[k] = level[comp[p]]+1;
+        pred[k] = p;
+        order[i_order++] = k;
+        for (int m=nmemb[k]; m<nmemb[k+1]; ++m) queue.add(members[m]);
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public class_index GetIndex() { return cidx; }
+  public int Size() { return cidx.Size(); }
+  /**	Direct superclass ids, excluding superclasses in same cycle. */
+  public int [] GetParents(int id)
+  {
+    int [] ps = new int[parent_ptr[id+1]-parent_ptr[id]];
+    int np=0;
+    for (int j=parent_ptr[id]; j<parent_ptr[id+1]; ++j)
+      if (comp[parent_ids[j]]!=comp[id]) ps[np++] = parent_ids[j];
+    return Arrays.copyOf(ps, np);
+  }
+  /**	Level in class hierarchy, i.e. length of minimal root path; 0=root. */
+  public int GetLevel(int id) { return level[comp[id]]; }
+  /**	Next superclass toward root on a minimal path, or -1 for roots. */
+  public int GetMinimalParent(int id) { return pred[comp[id]]; }
+  /**	Cycle component, shared by classes in one cycle, in [0-ComponentCount()). */
+  public int GetComponent(int id) { return comp[id]; }
+  public int ComponentCount() { return ncomp; }
+  public int CycleCount() { return n_cycles; }
+  public int CyclicClassCount() { return n_cyclic; }
+  public boolean IsCyclic(int id) { return (csize[comp[id]]>1); }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Return minimal superclass path, ordered from root, excluding class.
+  */
+  public int [] GetMinimalPath(int id)
+  {
+    int [] path = new int[GetLevel(id)];
+    int i=path.length;
+    for (int p=GetMinimalParent(id); p>=0; p=GetMinimalParent(p)) path[--i] = p;
+    return path;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Return minimal superclass path truncated to levels [0-(n-1)], ordered
+	from root, for all classes.  Top paths are shared by prefix, via
+	dynamic programming in level order, hence linear time for fixed n.
+  */
+  public int [][] GetTopPaths(int n)
+  {
+    int [][] tops = new int[ncomp][];
+    for (int k: order) //parents before children
+    {
+      if (pred[k]<0) { tops[k] = new int[0]; continue; }
+      int [] top_pred = tops[comp[pred[k]]];
+      if (top_pred.length>=n) { tops[k] = top_pred; continue; } //shared
+      tops[k] = Arrays.copyOf(top_pred, top_pred.length+1);
+      tops[k][top_pred.length] = pred[k];
+    }
+    int [][] paths = new int[cidx.Size()][];
+    for (int c=0; c<paths.length; ++c) paths[c] = tops[comp[c]];
+    return paths;
+  }
+}
@@ -0,0 +1,196 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.util.*; //ArrayList, Arrays, HashMap
+
+import org.apache.jena.graph.*; // Graph, Node, Triple
+import org.apache.jena.ontology.*; // OntModel, OntClass
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // RDFS
+
+/**	Compact integer-indexed ontology class index, built once and shared
+	by the exporters.  Classes get dense ids [0-n), with node, label and
+	comment arrays.  Asserted subclass edges (as from listSubClasses())
+	are stored as parent and child adjacency in CSR form, i.e. row offset
+	array plus id array.  Built in one pass each over listClasses() and
+	the rdfs:subClassOf, rdfs:label and rdfs:comment triples, rather than
+	per-class OntClass calls.
+
+	Ids [0-ListedCount()) are the listClasses() classes, which exporters
+	iterate, as before.  Further ids are sub- or superclasses outside
+	that set (e.g. owl:Thing, anonymous or untyped classes) which are
+	viewable as OntClass, kept for the hierarchy only.
+
+	@author Jeremy Yang
+*/
+public class class_index
+{
+  private Node [] nodes; //id -> node (URI or blank)
+  private int n_listed; //listClasses() classes, ids [0-n_listed)
+  private String [] labels;
+  private String [] comments;
+  private HashMap<Node,Integer> ids; //node -> id
+  private int [] child_ptr; //CSR row offsets, length n+1
+  private int [] child_ids; //subclass ids
+  private int [] parent_ptr;
+  private int [] parent_ids; //superclass ids
+
+  /////////////////////////////////////////////////////////////////////////////
+  public class_index(OntModel omod)
+  {
+    ids = new HashMap<Node,Integer>();
+    ArrayList<Node> nodelist = new ArrayList<Node>();
+    ExtendedIterator<OntClass> cls_itr = omod.listClasses(); //All classes.
+    while (cls_itr.hasNext())
+    {
+      Node node = cls_itr.next().asNode();
+      if (ids.containsKey(node)) continue;
+      ids.put(node, nodelist.size());
+      nodelist.add(node);
+    }
+    n_listed = nodelist.size();
+    Graph graph = omod.getGraph();
+    int [] srcs = new int[Math.max(16, nodelist.size())]; //superclass
+    int [] tgts = new int[srcs.length]; //subclass
+    int n_edge=0;
+    ExtendedIterator<Triple> trp_itr = graph.find(Node.ANY, RDFS.subClassOf.asNode(), Node.ANY);
+    while (trp_itr.hasNext())
+    {
+      Triple trp = trp_itr.next();
+      int i_sup = Intern(omod, nodelist, trp.getObject());
+      int i_sub = Intern(omod, nodelist, trp.getSubject());
+      if (i_sup<0 || i_sub<0 || i_sup==i_sub) continue;
+      if (n_edge==srcs.length)
+      {
+        srcs = Arrays.copyOf(srcs, 2*n_edge);
+        tgts = Arrays.copyOf(tgts, 2*n_edge);
+      }
+      srcs[n_edge] = i_sup;
+      tgts[n_edge] = i_sub;
+      ++n_edge;
+    }
+    nodes = nodelist.toArray(new Node[0]);
+    int n = nodes.length;
+    child_ptr = new int[n+1];
+    child_ids = Csr(srcs, tgts, n_edge, n, child_ptr);
+    //Parents as transpose of deduplicated children.
+    n_edge = child_ids.length;
+    for (int i=0; i<n; ++i)
+      for (int j=child_ptr[i]; j<child_ptr[i+1]; ++j)
+      { srcs[j] = child_ids[j]; tgts[j] = i; }
+    parent_ptr = new int[n+1];
+    parent_ids = Csr(srcs, tgts, n_edge, n, parent_ptr);
+
+    labels = new String[n];
+    comments = new String[n];
+    FillLiterals(graph, RDFS.label.asNode(), labels);
+    FillLiterals(graph, RDFS.comment.asNode(), comments);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Id for class node, adding classes not returned by listClasses() but
+	viewable as OntClass, as listSubClasses() would.  Returns -1 if not a
+	class.
+  */
+  private int Intern(OntModel omod, ArrayList<Node> nodelist, Node node)
+  {
+    Integer id = ids.get(node);
+    if (id!=null) return id;
+    if (node.isLiteral() || !omod.getRDFNode(node).canAs(OntClass.class)) return -1;
+    ids.put(node, nodelist.size());
+    nodelist.add(node);
+    return nodelist.size()-1;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Counting sort of edges into CSR rows by source; rows sorted and
+	duplicates (e.g. from imports) removed.  Fills ptr, returns ids.
+  */
+  private static int [] Csr(int [] srcs, int [] tgts, int n_edge, int n, int [] ptr)
+  {
+    int [] cnt = new int[n+1];
+    for (int e=0; e<n_edge; ++e) ++cnt[srcs[e]+1];
+    for (int i=0; i<n; ++i) cnt[i+1] += cnt[i];
+    int [] row = new int[n_edge];
+    int [] fill = Arrays.copyOf(cnt, n);
+    for (int e=0; e<n_edge; ++e) row[fill[srcs[e]]++] = tgts[e];
+    int k=0;
+    for (int i=0; i<n; ++i)
+    {
+      ptr[i] = k;
+      Arrays.sort(row, cnt[i], cnt[i+1]);
+      for (int j=cnt[i]; j<cnt[i+1]; ++j)
+        if (j==cnt[i] || row[j]!=row[j-1]) row[k++] = row[j];
+    }
+    ptr[n] = k;
+    return Arrays.copyOf(row, k);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	First literal value per class for the property, like getLabel(null).
+  */
+  private void FillLiterals(Graph graph, Node prop, String [] vals)
+  {
+    ExtendedIterator<Triple> trp_itr = graph.find(Node.ANY, prop, Node.ANY);
+    while (trp_itr.hasNext())
+    {
+      Triple trp = trp_itr.next();
+      Integer id = ids.get(trp.getSubject());
+      if (id==null || vals[id]!=null || !trp.getObject().isLiteral()) continue;
+      vals[id] = trp.getObject().getLiteralLexicalForm();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public int Size() { return nodes.length; }
+  /**	Classes from listClasses(), ids [0-ListedCount()).	*/
+  public int ListedCount() { return n_listed; }
+  public int EdgeCount() { return child_ids.length; }
+  public Node GetNode(int id) { return nodes[id]; }
+  /**	Returns URI, or null for anonymous classes.	*/
+  public String GetUri(int id) { return (nodes[id].isURI()?nodes[id].getURI():null); }
+  public String GetLabel(int id) { return labels[id]; }
+  public String GetComment(int id) { return comments[id]; }
+  /**	Returns id, or -1 if not an indexed class.	*/
+  public int GetId(Node node)
+  {
+    Integer id = ids.get(node);
+    return ((id!=null)?id:-1);
+  }
+  public int ChildCount(int id) { return child_ptr[id+1]-child_ptr[id]; }
+  public int GetChild(int id, int j) { return child_ids[child_ptr[id]+j]; }
+  public int ParentCount(int id) { return parent_ptr[id+1]-parent_ptr[id]; }
+  public int GetParent(int id, int j) { return parent_ids[parent_ptr[id]+j]; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Number of distinct descendants (transitive subclasses) per class.
+	Depth first search per class, with a visit stamp array in place of
+	sets, so cost is total descendants plus their edges.
+  */
+  public int [] DescendantCounts()
+  {
+    int n = nodes.length;
+    int [] counts = new int[n];
+    int [] stamp = new int[n];
+    Arrays.fill(stamp, -1);
+    int [] stack = new int[n];
+    for (int i=0; i<n; ++i)
+    {
+      int sp=0;
+      stack[sp++] = i;
+      stamp[i] = i;
+      while (sp>0)
+      {
+        int c = stack[--sp];
+        for (int j=child_ptr[c]; j<child_ptr[c+1]; ++j)
+        {
+          int d = child_ids[j];
+          if (stamp[d]==i) continue;
+          stamp[d] = i;
+          stack[sp++] = d;
+          ++counts[i];
+        }
+      }
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,421 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // DataInputStream, DataOutputStream, File, IOException, StringReader, StringWriter
+import java.nio.charset.*; // StandardCharsets
+import java.nio.file.*; // Files, StandardCopyOption
+import java.util.*; // ArrayDeque, Arrays, HashMap, Properties
+
+/**	Reachability index over the subclass DAG, for subsumption,
+	ancestor and descendant queries without traversing the ontology.
+	Built once from a class_hierarchy, whose cycle components (Tarjan)
+	are condensed, so classes in one cycle are mutual subclasses.
+
+	Interval labelling (Agrawal et al.): components are numbered in
+	postorder over a spanning forest, the minimal-path parents, so each
+	tree subtree is one interval [low, post].  Each component is then
+	labelled, children first, with the merged intervals of itself and
+	its DAG children, so tree-like parts need one interval and only
+	multi-parent reachability adds more.  A is a subclass of B iff the
+	post number of A's component lies in an interval of B's label: one
+	interval check for tree nodes, else binary search; labels with many
+	intervals fall back to a bitset over post numbers, for O(1) checks.
+	Descendants are read off the labels; ancestors by search up the
+	condensed DAG.  Serializable, with Write() and Read(), so later runs
+	need not parse the ontology; the file header holds a key of the
+	ontology source, via ReadKey(), to check the index is current.
+
+	@author Jeremy Yang
+*/
+public class class_reach
+{
+  private static final String MAGIC = "iu_idsl_jena class_reach 2";
+
+  private String [] uris; //class -> URI, null if anonymous
+  private HashMap<String,Integer> ids; //URI -> class
+  private int [] comp; //class -> component
+  private int ncomp;
+  private int [] post; //component -> postorder number
+  private int [] lab_ptr; //component -> label offset (CSR), in ints
+  private int [] lab; //label intervals, lo,hi pairs, sorted, disjoint
+  private long [][] bits; //component -> post number bitset, or null
+  private int [] up_ptr; //condensed DAG parents (CSR)
+  private int [] up_ids;
+  private int [] by_post; //post number -> component
+  private int [] memb_ptr; //component -> classes (CSR)
+  private int [] membs;
+  private ThreadLocal<int[]> marks = ThreadLocal.withInitial(() -> new int[ncomp+1]); //[ncomp] = stamp
+
+  /////////////////////////////////////////////////////////////////////////////
+  private class_reach() { }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public class_reach(class_hierarchy hier)
+  {
+    class_index cidx = hier.GetIndex();
+    int n = cidx.Size();
+    ncomp = hier.ComponentCount();
+    uris = new String[n];
+    comp = new int[n];
+    for (int c=0; c<n; ++c)
+    {
+      uris[c] = cidx.GetUri(c);
+      comp[c] = hier.GetComponent(c);
+    }
+    //Condensed DAG, parents and children (CSR).
+    int [] srcs = new int[Math.max(16, n)];
+    int [] tgts = new int[srcs.length];
+    int n_edge=0;
+    for (int c=0; c<n; ++c)
+      for (int p: hier.GetParents(c))
+      {
+        if (n_edge==srcs.length) { srcs = Arrays.copyOf(srcs, 2*n_edge); tgts = Arrays.copyOf(tgts, 2*n_edge); }
+        srcs[n_edge] = comp[c]; tgts[n_edge] = comp[p]; ++n_edge;
+      }
+    up_ptr = new int[ncomp+1];
+    up_ids = Csr(srcs, tgts, n_edge, ncomp, up_ptr);
+    int [] down_ptr = new int[ncomp+1];
+    int [] down_ids = Csr(up_ids, Rows(up_ptr), up_ids.length, ncomp, down_ptr);
+    //Spanning forest via minimal-path parents, postorder numbering.
+    int [] tpar = new int[ncomp];
+    Arrays.fill(tpar, -1);
+    for (int c=0; c<n; ++c)
+    {
+      int p = hier.GetMinimalParent(c);
+      if (p>=0) tpar[comp[c]] = comp[p];
+    }
+    int n_tree=0;
+    int [] tsrcs = new int[ncomp], ttgts = new int[ncomp];
+    for (int k=0; k<ncomp; ++k)
+      if (tpar[k]>=0) { tsrcs[n_tree] = tpar[k]; ttgts[n_tree] = k; ++n_tree; }
+    int [] tree_ptr = new int[ncomp+1];
+    int [] tree_ids = Csr(tsrcs, ttgts, n_tree, ncomp, tree_ptr);
+    post = new int[ncomp];
+    int [] low = new int[ncomp];
+    int [] stack = new int[ncomp], next = new int[ncomp];
+    int counter=0;
+    for (int r=0; r<ncomp; ++r)
+    {
+      if (tpar[r]>=0) continue;
+      int sp=0;
+      stack[sp] = r; next[sp] = tree_ptr[r]; low[r] = counter; ++sp;
+      while (sp>0)
+      {
+        int k = stack[sp-1];
+        if (next[sp-1]<tree_ptr[k+1])
+        {
+          int ch = tree_ids[next[sp-1]++];
+          stack[sp] = ch; next[sp] = tree_ptr[ch]; low[ch] = counter; ++sp;
+          continue;
+        }
+        post[k] = counter++;
+        --sp;
+      }
+    }
+    //Labels, children before parents (Kahn, from leaves).
+    int [][] labs = new int[ncomp][];
+    int [] nleft = new int[ncomp];
+    ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+    for (int k=0; k<ncomp; ++k)
+    {
+      nleft[k] = down_ptr[k+1]-down_ptr[k];
+      if (nleft[k]==0) queue.add(k);
+    }
+    while (!queue.isEmpty())
+    {
+      int k = queue.poll();
+      labs[k] = Merge(low[k], post[k], labs, down_ids, down_ptr[k], down_ptr[k+1]);
+      for (int j=up_ptr[k]; j<up_ptr[k+1]; ++j)
+        if (--nleft[up_ids[j]]==0) queue.add(up_ids[j]);
+    }
+    lab_ptr = new int[ncomp+1];
+    for (int k=0; k<ncomp; ++k) lab_ptr[k+1] = lab_ptr[k]+labs[k].length;
+    lab = new int[lab_ptr[ncomp]];
+    for (int k=0; k<ncomp; ++k) System.arraycopy(labs[k], 0, lab, lab_ptr[k], labs[k].length);
+    Index();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Row (source) per CSR entry.
+  */
+  private static int [] Rows(int [] ptr)
+  {
+    int [] rows = new int[ptr[ptr.length-1]];
+    for (int i=0; i<ptr.length-1; ++i)
+      for (int j=ptr[i]; j<ptr[i+1]; ++j) rows[j] = i;
+    return rows;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Edges into CSR rows by source, rows sorted and deduplicated.  Fills
+	ptr, returns ids.
+  */
+  private static int [] Csr(int [] srcs, int [] tgts, int n_edge, int n, int [] ptr)
+  {
+    int [] cnt = new int[n+1];
+    for (int e=0; e<n_edge; ++e) ++cnt[srcs[e]+1];
+    for (int i=0; i<n; ++i) cnt[i+1] += cnt[i];
+    int [] row = new int[n_edge];
+    int [] fill = Arrays.copyOf(cnt, n);
+    for (int e=0; e<n_edge; ++e) row[fill[srcs[e]]++] = tgts[e];
+    int k=0;
+    for (int i=0; i<n; ++i)
+    {
+      ptr[i] = k;
+      Arrays.sort(row, cnt[i], cnt[i+1]);
+      for (int j=cnt[i]; j<cnt[i+1]; ++j)
+        if (j==cnt[i] || row[j]!=row[j-1]) row[k++] = row[j];
+    }
+    ptr[n] = k;
+    return Arrays.copyOf(row, k);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Own interval merged with children's labels: sorted, overlapping and
+	adjacent intervals joined.
+  */
+  private static int [] Merge(int lo, int hi, int [][] labs, int [] down_ids, int j0, int j1)
+  {
+    int n_int=1;
+    for (int j=j0; j<j1; ++j) n_int += labs[down_ids[j]].length/2;
+    long [] ivs = new long[n_int];
+    int i=0;
+    ivs[i++] = ((long)lo<<32)|hi;
+    for (int j=j0; j<j1; ++j)
+    {
+      int [] l = labs[down_ids[j]];
+      for (int m=0; m<l.length; m+=2) ivs[i++] = ((long)l[m]<<32)|l[m+1];
+    }
+    Arrays.sort(ivs);
+    int [] out = new int[2*n_int];
+    int k=0;
+    for (long iv: ivs)
+    {
+      int a = (int)(iv>>>32), b = (int)iv;
+      if (k>0 && a<=out[k-1]+1) { out[k-1] = Math.max(out[k-1], b); continue; }
+      out[k++] = a; out[k++] = b;
+    }
+    return Arrays.copyOf(out, k);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Derived from the labels: bitsets for labels with many intervals,
+	where no larger than the intervals, post number lookup, URI lookup
+	and members per component.
+  */
+  private void Index()
+  {
+    bits = new long[ncomp][];
+    for (int k=0; k<ncomp; ++k)
+    {
+      int n_int = (lab_ptr[k+1]-lab_ptr[k])/2;
+      if (n_int<=8 || (long)n_int*64<ncomp) continue;
+      bits[k] = new long[(ncomp+63)/64];
+      for (int i=lab_ptr[k]; i<lab_ptr[k+1]; i+=2)
+        for (int p=lab[i]; p<=lab[i+1]; ++p) bits[k][p>>>6] |= (1L<<p);
+    }
+    by_post = new int[ncomp];
+    for (int k=0; k<ncomp; ++k) by_post[post[k]] = k;
+    ids = new HashMap<String,Integer>(2*uris.length);
+    for (int c=0; c<uris.length; ++c)
+      if (uris[c]!=null) ids.put(uris[c], c);
+    memb_ptr = new int[ncomp+1];
+    for (int c=0; c<comp.length; ++c) ++memb_ptr[comp[c]+1];
+    for (int k=0; k<ncomp; ++k) memb_ptr[k+1] += memb_ptr[k];
+    membs = new int[comp.length];
+    int [] fill = Arrays.copyOf(memb_ptr, ncomp);
+    for (int c=0; c<comp.length; ++c) membs[fill[comp[c]]++] = c;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public int Size() { return uris.length; }
+  public int ComponentCount() { return ncomp; }
+  public int IntervalCount() { return lab.length/2; }
+  public int BitsetCount()
+  {
+    int n=0;
+    for (long [] b: bits) if (b!=null) ++n;
+    return n;
+  }
+  /**	Class id for URI, or -1. */
+  public int GetId(String uri)
+  {
+    Integer id = ids.get(uri);
+    return (id!=null)?id:-1;
+  }
+  /**	Returns URI, or null for anonymous classes. */
+  public String GetUri(int id) { return uris[id]; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if sub is sup or a subclass of it, directly or indirectly.
+  */
+  public boolean IsSubclass(int sub, int sup)
+  {
+    int p = post[comp[sub]];
+    int k = comp[sup];
+    if (bits[k]!=null) return ((bits[k][p>>>6]&(1L<<p))!=0);
+    int lo=lab_ptr[k]/2, hi=lab_ptr[k+1]/2-1; //interval index range
+    while (lo<=hi)
+    {
+      int mid = (lo+hi)>>>1;
+      if (lab[2*mid+1]<p) lo = mid+1;
+      else if (lab[2*mid]>p) hi = mid-1;
+      else return true;
+    }
+    return false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	All subclasses, direct and indirect, excluding the class itself.
+  */
+  public int [] Descendants(int id)
+  {
+    int k = comp[id];
+    int n=0;
+    for (int i=lab_ptr[k]; i<lab_ptr[k+1]; i+=2)
+      for (int p=lab[i]; p<=lab[i+1]; ++p) n += memb_ptr[by_post[p]+1]-memb_ptr[by_post[p]];
+    int [] out = new int[n-1];
+    int m=0;
+    for (int i=lab_ptr[k]; i<lab_ptr[k+1]; i+=2)
+      for (int p=lab[i]; p<=lab[i+1]; ++p)
+        for (int j=memb_ptr[by_post[p]]; j<memb_ptr[by_post[p]+1]; ++j)
+          if (membs[j]!=id) out[m++] = membs[j];
+    return out;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	All superclasses, direct and indirect, excluding the class itself,
+	by search up the condensed DAG.
+  */
+  public int [] Ancestors(int id)
+  {
+    int [] mark = marks.get();
+    int stamp = ++mark[ncomp];
+    if (stamp==Integer.MAX_VALUE) { Arrays.fill(mark, 0); stamp = mark[ncomp] = 1; }
+    int [] stack = new int[16];
+    int sp=0, n=0;
+    int k0 = comp[id];
+    mark[k0] = stamp;
+    stack[sp++] = k0;
+    int [] out = new int[16];
+    while (sp>0)
+    {
+      int k = stack[--sp];
+      for (int j=memb_ptr[k]; j<memb_ptr[k+1]; ++j)
+      {
+        if (membs[j]==id) continue;
+        if (n==out.length) out = Arrays.copyOf(out, 2*n);
+        out[n++] = membs[j];
+      }
+      for (int j=up_ptr[k]; j<up_ptr[k+1]; ++j)
+      {
+        int q = up_ids[j];
+        if (mark[q]==stamp) continue;
+        mark[q] = stamp;
+        if (sp==stack.length) stack = Arrays.copyOf(stack, 2*sp);
+        stack[sp++] = q;
+      }
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write index to file, atomically, via temporary file, with key of
+	the ontology source (e.g. ont_cache.SourceKey()), null if none.
+  */
+  public void Write(File f, Properties key) throws IOException
+  {
+    File dir = f.getAbsoluteFile().getParentFile();
+    File f_tmp = File.createTempFile(f.getName(), ".tmp", dir);
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f_tmp), 1<<16)))
+    {
+      dos.writeUTF(MAGIC);
+      StringWriter key_str = new StringWriter();
+      if (key!=null) key.store(key_str, null);
+      byte [] key_bytes = key_str.toString().getBytes(StandardCharsets.UTF_8);
+      dos.writeInt(key_bytes.length);
+      dos.write(key_bytes);
+      dos.writeInt(uris.length);
+      for (String uri: uris)
+      {
+        if (uri==null) { dos.writeInt(-1); continue; }
+        byte [] bytes = uri.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+      }
+      WriteInts(dos, comp);
+      dos.writeInt(ncomp);
+      WriteInts(dos, post);
+      WriteInts(dos, lab_ptr);
+      WriteInts(dos, lab);
+      WriteInts(dos, up_ptr);
+      WriteInts(dos, up_ids);
+    }
+    Files.move(f_tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void WriteInts(DataOutputStream dos, int [] a) throws IOException
+  {
+    dos.writeInt(a.length);
+    for (int x: a) dos.writeInt(x);
+  }
+
+  private static int [] ReadInts(DataInputStream dis) throws IOException
+  {
+    int [] a = new int[dis.readInt()];
+    for (int i=0; i<a.length; ++i) a[i] = dis.readInt();
+    return a;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Source key of index written by Write(), empty if none.
+  */
+  public static Properties ReadKey(File f) throws IOException
+  {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1<<16)))
+    {
+      return ReadKey(dis, f);
+    }
+  }
+
+  private static Properties ReadKey(DataInputStream dis, File f) throws IOException
+  {
+    if (!MAGIC.equals(dis.readUTF())) throw new IOException("Not a class_reach index, or older version: "+f);
+    int len = dis.readInt();
+    if (len<0 || len>(1<<20)) throw new IOException("Bad class_reach index header: "+f);
+    byte [] bytes = new byte[len];
+    dis.readFully(bytes);
+    Properties key = new Properties();
+    key.load(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+    return key;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Read index written by Write().  Derived arrays are rebuilt.
+  */
+  public static class_reach Read(File f) throws IOException
+  {
+    class_reach reach = new class_reach();
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1<<16)))
+    {
+      ReadKey(dis, f);
+      reach.uris = new String[dis.readInt()];
+      for (int c=0; c<reach.uris.length; ++c)
+      {
+        int len = dis.readInt();
+        if (len<0) continue;
+        byte [] bytes = new byte[len];
+        dis.readFully(bytes);
+        reach.uris[c] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      reach.comp = ReadInts(dis);
+      reach.ncomp = dis.readInt();
+      reach.post = ReadInts(dis);
+      reach.lab_ptr = ReadInts(dis);
+      reach.lab = ReadInts(dis);
+      reach.up_ptr = ReadInts(dis);
+      reach.up_ids = ReadInts(dis);
+    }
+    reach.Index();
+    return reach;
+  }
+}
@@ -0,0 +1,290 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // FilterInputStream, InputStream, IOException
+import java.net.*; // Authenticator, CookieHandler, ProxySelector, URI
+import java.net.http.*; // HttpClient, HttpHeaders, HttpRequest, HttpResponse
+import java.time.*; // Duration, Instant, ZonedDateTime
+import java.time.format.*; // DateTimeFormatter
+import java.util.*; // Optional
+import java.util.concurrent.*; // CompletableFuture, Executor, TimeUnit
+import java.util.concurrent.atomic.*; // AtomicLong
+import javax.net.ssl.*; // SSLContext, SSLParameters, SSLSession
+
+import org.apache.jena.http.*; // HttpEnv
+import org.apache.jena.query.*; // Query, QueryExecution, QueryFactory
+import org.apache.jena.sparql.exec.http.*; // QueryExecutionHTTP, QueryExecutionHTTPBuilder
+
+/**	Shared HTTP client for all endpoint access.  One java.net.http client
+	is used for every query, so connections are pooled and kept alive
+	across queries, pages, batches and threads, and TCP/TLS setup is paid
+	once per connection, not per query.  Responses are requested gzip
+	compressed (Jena decodes gzip, not deflate).  Connect timeout is set
+	on the client, read timeout (until response headers) per request.
+
+	Requests failing to connect or time out, or answered 429, 502, 503 or
+	504, are retried with exponential backoff, or after Retry-After if
+	a 429 or 503 gives a longer one (up to RETRY_AFTER_MAX_S).  Callers
+	retrying on their own, e.g. query_pager, use Exec() without retries,
+	so retries do not multiply across layers; the Retry-After of the
+	calling thread's last such response is then via RetryAfterMs().
+	Each request is timed,
+	to response headers and to end of body, with wire bytes counted, and
+	logged if verbose; totals via Summary().  Synchronous send only;
+	sendAsync() is passed through untimed.
+
+	Configure() once, before use; it also becomes Jena's default client,
+	e.g. for SERVICE clauses.
+
+	@author Jeremy Yang
+*/
+public class http_client extends HttpClient
+{
+  public static final long RETRY_AFTER_MAX_S = 300;
+  private static http_client client = null;
+  private static ThreadLocal<Long> retry_after_ms = ThreadLocal.withInitial(() -> 0L);
+  private http_client no_retry; //same client and totals, retries off
+  private HttpClient http;
+  private long read_timeout_s; //0=none
+  private int retries;
+  private int verbose;
+  private AtomicLong n_req = new AtomicLong();
+  private AtomicLong n_retry = new AtomicLong();
+  private AtomicLong n_fail = new AtomicLong();
+  private AtomicLong n_bytes = new AtomicLong();
+  private AtomicLong t_total_ns = new AtomicLong();
+
+  /////////////////////////////////////////////////////////////////////////////
+  private http_client(long connect_timeout_s, long read_timeout_s, int retries, int verbose)
+  {
+    HttpClient.Builder builder = HttpEnv.httpClientBuilder(); //Jena defaults, e.g. redirects
+    if (connect_timeout_s>0) builder.connectTimeout(Duration.ofSeconds(connect_timeout_s));
+    this.http = builder.build();
+    this.read_timeout_s = read_timeout_s;
+    this.retries = Math.max(0, retries);
+    this.verbose = verbose;
+    no_retry = (this.retries==0)?this:new http_client(this);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Sibling without retries, sharing the connection pool and totals.
+  */
+  private http_client(http_client hc)
+  {
+    this.http = hc.http;
+    this.read_timeout_s = hc.read_timeout_s;
+    this.retries = 0;
+    this.verbose = hc.verbose;
+    this.n_req = hc.n_req;
+    this.n_retry = hc.n_retry;
+    this.n_fail = hc.n_fail;
+    this.n_bytes = hc.n_bytes;
+    this.t_total_ns = hc.t_total_ns;
+    this.no_retry = this;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Create the shared client, replacing any previous one.
+	@param read_timeout_s per request, until response headers, 0=none
+  */
+  public static synchronized http_client Configure(long connect_timeout_s, long read_timeout_s, int retries, int verbose)
+  {
+    client = new http_client(connect_timeout_s, read_timeout_s, retries, verbose);
+    HttpEnv.setDftHttpClient(client);
+    return client;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Shared client, with defaults if not configured.
+  */
+  public static synchronized http_client Get()
+  {
+    if (client==null) Configure(10, 0, 2, 0);
+    return client;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Query execution on the shared client, gzip requested.
+  */
+  public static QueryExecution Exec(String url, Query query)
+  {
+    return Exec(url, query, true);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param retry false if the caller retries, so this client does not
+  */
+  public static QueryExecution Exec(String url, Query query, boolean retry)
+  {
+    http_client hc = retry?Get():Get().no_retry;
+    QueryExecutionHTTPBuilder builder = QueryExecutionHTTP.service(url).httpClient(hc).query(query).httpHeader("Accept-Encoding", "gzip");
+    if (hc.read_timeout_s>0) builder.timeout(hc.read_timeout_s, TimeUnit.SECONDS);
+    return builder.build();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static QueryExecution Exec(String url, String rq)
+  {
+    return Exec(url, QueryFactory.create(rq));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static boolean IsRetryStatus(int status)
+  {
+    return (status==429 || status==502 || status==503 || status==504);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Retry-After of a 429 or 503 response, as delay seconds or HTTP
+	date, in ms, capped at RETRY_AFTER_MAX_S; 0 if none.
+  */
+  static long RetryAfterMs(HttpResponse<?> response)
+  {
+    if (response.statusCode()!=429 && response.statusCode()!=503) return 0;
+    Optional<String> val = response.headers().firstValue("Retry-After");
+    if (!val.isPresent()) return 0;
+    long ms;
+    try {
+      String v = val.get().trim();
+      if (v.matches("\\d+")) ms = 1000L*Long.parseLong(v);
+      else ms = Duration.between(Instant.now(), ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()).toMillis();
+    }
+    catch (RuntimeException e) { return 0; } //unparseable
+    return Math.max(0, Math.min(ms, 1000L*RETRY_AFTER_MAX_S));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Retry-After, in ms, of the last 429 or 503 response to the calling
+	thread, 0 if none or its last response was not one; for callers
+	retrying on their own.
+  */
+  public static long RetryAfterMs()
+  {
+    return retry_after_ms.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+	throws IOException, InterruptedException
+  {
+    for (int i_try=0; ; ++i_try)
+    {
+      long t0 = System.nanoTime();
+      n_req.incrementAndGet();
+      String err;
+      long backoff = 500L<<i_try;
+      retry_after_ms.set(0L);
+      try {
+        HttpResponse<T> response = http.send(request, handler);
+        if (IsRetryStatus(response.statusCode())) retry_after_ms.set(RetryAfterMs(response));
+        if (!IsRetryStatus(response.statusCode()) || i_try>=retries)
+          return Timed(response, t0);
+        if (response.body() instanceof InputStream) ((InputStream)response.body()).close();
+        err = "HTTP "+response.statusCode();
+        backoff = Math.max(backoff, retry_after_ms.get());
+      }
+      catch (IOException e) {
+        if (i_try>=retries || Thread.currentThread().isInterrupted()) { n_fail.incrementAndGet(); throw e; }
+        err = e.toString();
+      }
+      n_retry.incrementAndGet();
+      t_total_ns.addAndGet(System.nanoTime()-t0);
+      System.err.println(String.format("WARNING: %s %s failed (%s); retry %d/%d in %dms", request.method(), request.uri().getHost(), err, i_try+1, retries, backoff));
+      Thread.sleep(backoff);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Response with body stream counting bytes and timing to end of body,
+	logged on close.  Other body types are timed to response headers.
+  */
+  @SuppressWarnings("unchecked")
+  private <T> HttpResponse<T> Timed(HttpResponse<T> response, long t0)
+  {
+    double t_head = (System.nanoTime()-t0)/1e9;
+    if (!(response.body() instanceof InputStream))
+    {
+      t_total_ns.addAndGet(System.nanoTime()-t0);
+      Log(response, t_head, t_head, -1);
+      return response;
+    }
+    InputStream body = new FilterInputStream((InputStream)response.body()) {
+      private long n=0;
+      private boolean done=false;
+      @Override public int read() throws IOException
+      {
+        int b = super.read();
+        if (b>=0) ++n;
+        return b;
+      }
+      @Override public int read(byte [] buf, int off, int len) throws IOException
+      {
+        int k = super.read(buf, off, len);
+        if (k>0) n+=k;
+        return k;
+      }
+      @Override public void close() throws IOException
+      {
+        if (!done)
+        {
+          done=true;
+          long dt = System.nanoTime()-t0;
+          t_total_ns.addAndGet(dt);
+          n_bytes.addAndGet(n);
+          Log(response, t_head, dt/1e9, n);
+        }
+        super.close();
+      }
+    };
+    return new HttpResponse<T>() {
+      public int statusCode() { return response.statusCode(); }
+      public HttpRequest request() { return response.request(); }
+      public Optional<HttpResponse<T> > previousResponse() { return response.previousResponse(); }
+      public HttpHeaders headers() { return response.headers(); }
+      public T body() { return (T)body; }
+      public Optional<SSLSession> sslSession() { return response.sslSession(); }
+      public URI uri() { return response.uri(); }
+      public HttpClient.Version version() { return response.version(); }
+    };
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void Log(HttpResponse<?> response, double t_head, double t_total, long n)
+  {
+    if (verbose<2) return;
+    String enc = response.headers().firstValue("Content-Encoding").orElse("identity");
+    System.err.println(String.format("http: %d %s %s://%s%s; %s; %s; bytes: %s; headers: %.3fs; total: %.3fs", response.statusCode(), response.request().method(), response.uri().getScheme(), response.uri().getAuthority(), response.uri().getPath(), response.version(), enc, ((n>=0)?String.valueOf(n):"?"), t_head, t_total));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Totals: requests (including retries), retries, failures, wire bytes,
+	and summed request time.
+  */
+  public String Summary()
+  {
+    return String.format("http requests: %d; retries: %d; failed: %d; bytes: %d; request time: %.3fs", n_req.get(), n_retry.get(), n_fail.get(), n_bytes.get(), t_total_ns.get()/1e9);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public <T> CompletableFuture<HttpResponse<T> > sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+  {
+    return http.sendAsync(request, handler);
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T> > sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler, HttpResponse.PushPromiseHandler<T> push_handler)
+  {
+    return http.sendAsync(request, handler, push_handler);
+  }
+
+  @Override public Optional<CookieHandler> cookieHandler() { return http.cookieHandler(); }
+  @Override public Optional<Duration> connectTimeout() { return http.connectTimeout(); }
+  @Override public HttpClient.Redirect followRedirects() { return http.followRedirects(); }
+  @Override public Optional<ProxySelector> proxy() { return http.proxy(); }
+  @Override public SSLContext sslContext() { return http.sslContext(); }
+  @Override public SSLParameters sslParameters() { return http.sslParameters(); }
+  @Override public Optional<Authenticator> authenticator() { return http.authenticator(); }
+  @Override public HttpClient.Version version() { return http.version(); }
+  @Override public Optional<Executor> executor() { return http.executor(); }
+}
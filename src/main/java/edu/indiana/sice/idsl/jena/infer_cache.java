@@ -0,0 +1,201 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException, Reader, Writer
+import java.nio.file.*; // Files, StandardCopyOption
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // Collection, Properties
+
+/**	Cache of materialized inference closures, as N-Triples, one entry
+	per reasoner, ontology and data file, so re-running inference on
+	unchanged inputs copies the closure instead of deriving it.  Entries
+	live in CACHE_DIR/inferred, named by hash of reasoner name and the
+	ontology and data sources, with a key file holding validators for
+	both sources, as in ont_cache: path, mtime, size and content SHA-256
+	for files, HTTP validators for an ontology URL.  If mtime and size
+	are unchanged the entry is used without reading the sources;
+	otherwise content is hashed and decides.  Changes in imported
+	ontology documents are not detected.
+
+	The cache is bounded to max_bytes by Evict(), least recently used
+	first, where a hit updates the entry file mtime; called once a run's
+	closures are consumed, so none of them is evicted meanwhile.
+
+	@author Jeremy Yang
+*/
+public class infer_cache
+{
+  private File dir;
+  private long max_bytes;
+
+  /////////////////////////////////////////////////////////////////////////////
+  public infer_cache(String cache_dir)
+  {
+    this(cache_dir, ((long)ont_cache.DEFAULT_MAX_MB)<<20);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public infer_cache(String cache_dir, long max_bytes)
+  {
+    dir = new File(((cache_dir!=null)?cache_dir:ont_cache.DefaultDir())+File.separator+"inferred");
+    this.max_bytes = max_bytes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public File GetDir() { return dir; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String Id(String source)
+  {
+    return ont_cache.IsUrl(source)?source:new File(source).getAbsolutePath();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String EntryName(String reasoner, String ont_source, String data_file)
+  {
+    String id = reasoner+"\n"+Id(ont_source)+"\n"+Id(data_file);
+    return ont_cache.Hex(ont_cache.Sha256().digest(id.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if source unchanged since key_old, prefixed properties.  A
+	touched file with unchanged content updates key_new.
+  */
+  private static boolean Unchanged(String source, Properties key_old, String prefix, Properties key_new)
+	throws IOException
+  {
+    Properties key = ont_cache.SourceKey(source);
+    if (key==null) return false;
+    for (String k: key.stringPropertyNames()) key_new.setProperty(prefix+k, key.getProperty(k));
+    if (ont_cache.IsUrl(source))
+    {
+      for (String k: key.stringPropertyNames())
+        if (!key.getProperty(k).equals(key_old.getProperty(prefix+k))) return false;
+      return true;
+    }
+    String sha = key_old.getProperty(prefix+"sha256");
+    if (sha==null) return false;
+    key_new.setProperty(prefix+"sha256", sha);
+    boolean same = true;
+    for (String k: new String[]{"path", "mtime", "size"})
+      if (!key.getProperty(k).equals(key_old.getProperty(prefix+k))) same = false;
+    return (same || sha.equals(ont_cache.ContentHash(new File(source))));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Valid closure file, N-Triples, or null if none or stale.
+  */
+  public File Lookup(String reasoner, String ont_source, String data_file)
+  {
+    String name = EntryName(reasoner, ont_source, data_file);
+    File f_nt = new File(dir, name+".nt");
+    File f_key = new File(dir, name+".key");
+    if (!f_nt.isFile() || !f_key.isFile()) return null;
+    try {
+      Properties key_old = new Properties();
+      try (Reader rdr = Files.newBufferedReader(f_key.toPath(), StandardCharsets.UTF_8)) { key_old.load(rdr); }
+      if (!reasoner.equals(key_old.getProperty("reasoner"))) return null;
+      Properties key = new Properties();
+      key.setProperty("reasoner", reasoner);
+      key.setProperty("triples", key_old.getProperty("triples", "-1"));
+      if (!Unchanged(ont_source, key_old, "ont.", key) || !Unchanged(data_file, key_old, "data.", key)) return null;
+      if (!key.equals(key_old)) WriteKey(f_key, key); //touched only
+      f_nt.setLastModified(System.currentTimeMillis()); //LRU
+      return f_nt;
+    }
+    catch (IOException e) {
+      System.err.println("ERROR: inference cache lookup: "+e.getMessage());
+      return null;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Triple count of entry, from its key, or -1.
+  */
+  public long Triples(String reasoner, String ont_source, String data_file)
+  {
+    File f_key = new File(dir, EntryName(reasoner, ont_source, data_file)+".key");
+    Properties key = new Properties();
+    try (Reader rdr = Files.newBufferedReader(f_key.toPath(), StandardCharsets.UTF_8)) { key.load(rdr); }
+    catch (IOException e) { return -1; }
+    return Long.parseLong(key.getProperty("triples", "-1"));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	New temporary file in the cache directory, for a closure to Store().
+  */
+  public File NewTempFile() throws IOException
+  {
+    Files.createDirectories(dir.toPath());
+    return File.createTempFile("closure", ".tmp", dir);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void WriteKey(File f_key, Properties key) throws IOException
+  {
+    File f_tmp = File.createTempFile(f_key.getName(), ".tmp", dir);
+    try (Writer wtr = Files.newBufferedWriter(f_tmp.toPath(), StandardCharsets.UTF_8)) { key.store(wtr, "iu_idsl_jena inference closure key"); }
+    Files.move(f_tmp.toPath(), f_key.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Key for sources as now, with content hashes, or null if they cannot
+	be keyed.  Taken before inference, so sources changed meanwhile
+	leave a stale, not a wrong, entry.
+  */
+  public Properties NewKey(String reasoner, String ont_source, String data_file) throws IOException
+  {
+    Properties key = new Properties();
+    key.setProperty("reasoner", reasoner);
+    String [][] sources = {{"ont.", ont_source}, {"data.", data_file}};
+    for (String [] src: sources)
+    {
+      Properties k = ont_cache.SourceKey(src[1]);
+      if (k==null) return null;
+      if (!ont_cache.IsUrl(src[1])) k.setProperty("sha256", ont_cache.ContentHash(new File(src[1])));
+      for (String p: k.stringPropertyNames()) key.setProperty(src[0]+p, k.getProperty(p));
+    }
+    return key;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Store closure written to f_tmp (from NewTempFile()), moving it into
+	the cache, under key from NewKey().  The old key is removed first,
+	so an interrupted store leaves no entry, not a stale key over a new
+	closure.  Returns the entry file, or f_tmp if not stored.
+  */
+  public File Store(String reasoner, String ont_source, String data_file, Properties key, File f_tmp, long n_triple)
+  {
+    if (key==null) return f_tmp;
+    String name = EntryName(reasoner, ont_source, data_file);
+    try {
+      key.setProperty("triples", String.valueOf(n_triple));
+      File f_nt = new File(dir, name+".nt");
+      File f_key = new File(dir, name+".key");
+      Files.deleteIfExists(f_key.toPath()); //invalidate before replacing
+      Files.move(f_tmp.toPath(), f_nt.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      WriteKey(f_key, key);
+      return f_nt;
+    }
+    catch (IOException|RuntimeException e) {
+      System.err.println("ERROR: inference cache store: "+e.getMessage());
+      return f_tmp;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if f is an entry closure in the cache, not a temporary file.
+  */
+  public boolean IsEntry(File f)
+  {
+    return (f!=null && f.getName().endsWith(".nt") && dir.getAbsoluteFile().equals(f.getAbsoluteFile().getParentFile()));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Evict least recently used entries to within max_bytes, except keep,
+	e.g. the closures of the current run.
+  */
+  public void Evict(Collection<File> keep)
+  {
+    ont_cache.Evict(dir, ".nt", max_bytes, keep);
+  }
+}
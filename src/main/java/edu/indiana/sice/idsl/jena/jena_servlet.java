@@ -0,0 +1,104 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // BufferedReader, IOException
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // Enumeration, HashMap, NoSuchElementException, Optional
+
+import javax.servlet.*; // ServletConfig, ServletException
+import javax.servlet.http.*; // HttpServlet, HttpServletRequest, HttpServletResponse
+
+/**	Servlet serving ont_service operations, so a servlet container keeps
+	the ontology and dataset loaded across requests.  Op is the path
+	info, params the request parameters, e.g. GET .../class?uri=URI, or
+	POST SPARQL (application/sparql-query) to .../query.  Requests are
+	served concurrently from one shared ont_service.
+
+	Init parameters (web.xml): ifile_ont (required), otype [OWL], rdfs
+	(comma separated data files), dlang, reload_s [10], cache_dir,
+	nocache, verbose.
+
+	@author Jeremy Yang
+*/
+public class jena_servlet extends HttpServlet
+{
+  private static final long serialVersionUID = 1L;
+  private transient ont_service service = null;
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void init(ServletConfig conf) throws ServletException
+  {
+    super.init(conf);
+    String ifile_ont = conf.getInitParameter("ifile_ont");
+    if (ifile_ont==null) throw new ServletException("init parameter ifile_ont required");
+    String otype = Optional.ofNullable(conf.getInitParameter("otype")).orElse("OWL");
+    String rdfs = conf.getInitParameter("rdfs");
+    String reload_s = Optional.ofNullable(conf.getInitParameter("reload_s")).orElse("10");
+    String verbose = Optional.ofNullable(conf.getInitParameter("verbose")).orElse("0");
+    ont_cache cache = (conf.getInitParameter("nocache")!=null)?null:new ont_cache(conf.getInitParameter("cache_dir"));
+    try {
+      service = new ont_service(ifile_ont, otype, ((rdfs!=null)?rdfs.split(","):null), conf.getInitParameter("dlang"), cache, Runtime.getRuntime().availableProcessors(), Integer.parseInt(verbose));
+    }
+    catch (IOException e) { throw new ServletException("Load failed: "+e.getMessage(), e); }
+    service.Watch(Integer.parseInt(reload_s));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+	throws IOException, ServletException
+  {
+    request.setCharacterEncoding("UTF-8"); //before any parameter is read
+    String op = Optional.ofNullable(request.getPathInfo()).orElse("").replaceFirst("^/+", "").replaceFirst("/+$", "");
+    HashMap<String,String> params = new HashMap<String,String>();
+    for (Enumeration<String> e = request.getParameterNames(); e.hasMoreElements(); )
+    {
+      String name = e.nextElement();
+      params.put(name, request.getParameter(name));
+    }
+    String ctype = Optional.ofNullable(request.getContentType()).orElse("");
+    if (request.getMethod().equals("POST") && ctype.startsWith("application/sparql-query"))
+    {
+      StringBuilder sb = new StringBuilder();
+      BufferedReader rdr = request.getReader();
+      String line;
+      while ((line=rdr.readLine())!=null) sb.append(line+"\n");
+      params.put("sparql", sb.toString());
+    }
+    boolean [] opened = {false};
+    try {
+      service.Handle(op, params, () -> {
+        opened[0] = true;
+        response.setContentType(ont_service.ContentType(op, params));
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        return response.getWriter();
+      });
+    }
+    catch (IllegalArgumentException e) {
+      if (opened[0]) throw new ServletException(op+": "+e.getMessage(), e);
+      response.sendError((ont_service.IsOp(op)?HttpServletResponse.SC_BAD_REQUEST:HttpServletResponse.SC_NOT_FOUND), e.getMessage());
+    }
+    catch (NoSuchElementException e) {
+      if (opened[0]) throw new ServletException(op+": "+e.getMessage(), e);
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+    }
+    catch (IOException e) { throw e; }
+    catch (Exception e) { throw new ServletException(op+": "+e.getMessage(), e); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+	throws IOException, ServletException
+  {
+    doGet(request, response);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Override
+  public void destroy()
+  {
+    if (service!=null) service.Close();
+    super.destroy();
+  }
+}
@@ -2,15 +2,20 @@ package edu.indiana.sice.idsl.jena;
 
 import java.io.*;
 import java.nio.file.*; //Files, Path
+import java.nio.charset.*; //StandardCharsets
 import java.util.*; //Collections, Properties
 import java.util.regex.*;
+import java.util.zip.*; //GZIPOutputStream
+import java.util.concurrent.*; //ExecutorService, Executors, Future
 import java.net.*; //URL
+import javax.xml.stream.*; //XMLOutputFactory, XMLStreamWriter
 
 import org.apache.commons.cli.*; // CommandLine, CommandLineParser, HelpFormatter, OptionBuilder, Options, ParseException, PosixParser
 import org.apache.commons.cli.Option.*; // Builder
 
 import org.apache.jena.Jena; // VERSION
 import org.apache.jena.rdf.model.*; // Model
+import org.apache.jena.graph.*; // Node
 import org.apache.jena.ontology.*; // OntModel
 import org.apache.jena.reasoner.*; // Reasoner, ReasonerRegistry, InfModel
 import org.apache.jena.query.*; //ARQ, Dataset, DatasetFactory
@@ -18,10 +23,16 @@ import org.apache.jena.util.*; // FileManager,
 import org.apache.jena.util.iterator.*; // ExtendedIterator
 import org.apache.jena.sparql.*; //Sparql
 import org.apache.jena.sparql.core.*; //Prologue
-import org.apache.jena.sparql.engine.http.*; //QueryEngineHTTP
+import org.apache.jena.vocabulary.*; // OWL, RDFS
+import org.apache.jena.tdb.*; // TDBFactory, TDBLoader
+import org.apache.jena.system.*; // Txn
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
 
 import com.fasterxml.jackson.core.*; //JsonFactory, JsonGenerator
-import com.fasterxml.jackson.databind.*; //ObjectMapper, JsonNode
 
 // import org.apache.jena.atlas.logging.LogCtl; //FIX!
 
@@ -30,30 +41,169 @@ import com.fasterxml.jackson.databind.*; //ObjectMapper, JsonNode
 */
 public class jena_utils
 {
+  static { //jar-with-dependencies keeps only jena-core's subsystem services file
+    org.apache.jena.riot.RIOT.init();
+    ARQ.init();
+    TDB.init();
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   /**	First file should be default graph.
   */
-  public static void LoadRDF(String [] ifiles, Model [] rmods, Dataset dset)
+  public static void LoadRDF(String [] ifiles, Model [] rmods, Dataset dset) throws IOException
   {
+    LoadRDF(ifiles, null, 1, 0, rmods, dset, 0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	First file should be default graph.  Files parsed in parallel via
+	RIOT, one named graph per file; language from dlang if specified,
+	else from file extension.  N-Triples and N-Quads files larger than
+	chunksize bytes are parsed in parallel chunks (0 to disable).  Throws
+	if any file fails to parse.
+  */
+  public static void LoadRDF(String [] ifiles, String dlang, int nthreads, long chunksize, Model [] rmods, Dataset dset, int verbose)
+	throws IOException
+  {
+    System.err.println("ifile: "+ifiles[0]+" (DEFAULT GRAPH)");
+    Graph [] graphs = rdf_loader.LoadFiles(ifiles, dlang, nthreads, chunksize, verbose);
+    for (int i_mod=0; i_mod<rmods.length; ++i_mod)
+    {
+      rmods[i_mod] = ModelFactory.createModelForGraph(graphs[i_mod]);
+      dset.addNamedModel(ifiles[i_mod], rmods[i_mod]);
+    }
+    dset.setDefaultModel(rmods[0]);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Bulk load files into a persistent TDB dataset, one named graph per
+	file, named as in LoadRDF(); first file also loaded as default graph.
+	Later runs can open the store with OpenTDB() without re-parsing.
+	Files chunkable per rdf_loader.IsChunkable() are parsed in parallel
+	chunks, added by this thread in the write transaction.  One write
+	transaction per file, aborted if the file fails, so the store keeps
+	only whole files; throws on the first failure.  Graph names are
+	recorded in load order in TDB_GRAPHS, for OpenTDB().
+  */
+  public static Dataset LoadTDB(String tdb_dir, String [] ifiles, String dlang, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    Dataset dset = TDBFactory.createDataset(tdb_dir);
     int i_mod=0;
     for (String ifile: ifiles)
     {
-      System.err.println("ifile: "+ifile+((i_mod==0)?" (DEFAULT GRAPH)":""));
-      rmods[i_mod] = ModelFactory.createDefaultModel();
-      String fext = ifile.substring(1+ifile.lastIndexOf('.'));
-      String dlang = (fext.equalsIgnoreCase("TTL")?"TTL":(fext.equalsIgnoreCase("N3")?"N3":"RDF/XML"));
-      System.err.println("dlang: "+dlang);
+      System.err.println("ifile: "+ifile+((i_mod==0)?" (DEFAULT GRAPH)":"")+" -> TDB: "+tdb_dir);
+      long t0 = System.nanoTime();
+      final boolean is_default = (i_mod==0);
+      final Lang lang = rdf_loader.GuessLang(ifile, dlang);
       try {
-        InputStream instr = FileManager.get().open(ifile);
-        rmods[i_mod].read(instr, "", dlang); //arg2=base_uri, arg3=lang
+        dset.executeWrite(() -> {
+          if (rdf_loader.IsChunkable(ifile, lang, chunksize)) {
+            Graph graph = dset.getNamedModel(ifile).getGraph();
+            StreamRDF dest = is_default ? new rdf_loader.GraphPairSink(graph, dset.getDefaultModel().getGraph()) : new rdf_loader.GraphSink(graph);
+            try { rdf_loader.LoadFileChunked(ifile, lang, dest, nthreads, chunksize, verbose); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+            return;
+          }
+          TDBLoader.loadModel(dset.getNamedModel(ifile), ifile, (verbose>1));
+          if (is_default) TDBLoader.loadModel(dset.getDefaultModel(), ifile, (verbose>1));
+        });
       }
-      catch (Exception e) { System.err.println("ERROR: "+e.getMessage()); }
-
+      catch (UncheckedIOException e) { dset.close(); throw e.getCause(); }
+      catch (RuntimeException e) { dset.close(); throw new IOException(ifile+": "+e.getMessage(), e); }
+      AddTDBGraphName(tdb_dir, ifile);
+      if (verbose>0)
+        System.err.println(String.format("loaded: %s; elapsed: %.3fs", ifile, (System.nanoTime()-t0)/1e9));
       ++i_mod;
     }
-    for (i_mod=0;i_mod<rmods.length;++i_mod)
-      dset.addNamedModel(ifiles[i_mod], rmods[i_mod]);
-    dset.setDefaultModel(rmods[0]);
+    return dset;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Graph names in load order, one per line, kept in the TDB directory,
+	since TDB lists names unordered.
+  */
+  private static final String TDB_GRAPHS = "iu_idsl_jena.graphs";
+
+  private static List<String> ReadTDBGraphNames(String tdb_dir) throws IOException
+  {
+    Path path = Paths.get(tdb_dir, TDB_GRAPHS);
+    if (!Files.isRegularFile(path)) return new ArrayList<String>();
+    return Files.readAllLines(path, StandardCharsets.UTF_8);
+  }
+
+  private static void AddTDBGraphName(String tdb_dir, String name) throws IOException
+  {
+    if (ReadTDBGraphNames(tdb_dir).contains(name)) return;
+    Files.write(Paths.get(tdb_dir, TDB_GRAPHS), Collections.singletonList(name), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Load files into a transactional in-memory (TIM) dataset, one named
+	graph per file, named as in LoadRDF(); first file also loaded as
+	default graph, a copy, since TIM graphs do not share storage.  TIM
+	allows concurrent read transactions, e.g. for query_runner.  Files
+	are parsed straight into the dataset in the write transaction, in
+	parallel chunks if chunkable per rdf_loader.IsChunkable().  Named
+	graph models returned in rmods_out, file order.
+  */
+  public static Dataset LoadTIM(String [] ifiles, String dlang, int nthreads, long chunksize, ArrayList<Model> rmods_out, int verbose)
+	throws IOException
+  {
+    Dataset dset = DatasetFactory.createTxnMem();
+    for (int i_mod=0; i_mod<ifiles.length; ++i_mod)
+    {
+      String ifile = ifiles[i_mod];
+      System.err.println("ifile: "+ifile+((i_mod==0)?" (DEFAULT GRAPH)":"")+" -> TIM");
+      long t0 = System.nanoTime();
+      final boolean is_default = (i_mod==0);
+      final Lang lang = rdf_loader.GuessLang(ifile, dlang);
+      try {
+        Txn.executeWrite(dset, () -> {
+          Graph graph = dset.getNamedModel(ifile).getGraph();
+          StreamRDF dest = is_default ? new rdf_loader.GraphPairSink(graph, dset.getDefaultModel().getGraph()) : new rdf_loader.GraphSink(graph);
+          if (rdf_loader.IsChunkable(ifile, lang, chunksize)) {
+            try { rdf_loader.LoadFileChunked(ifile, lang, dest, nthreads, chunksize, verbose); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+          }
+          else
+            RDFParser.source(ifile).lang(lang).parse(dest);
+        });
+      }
+      catch (UncheckedIOException e) { throw e.getCause(); }
+      catch (RuntimeException e) { throw new IOException(ifile+": "+e.getMessage(), e); }
+      if (verbose>0)
+        System.err.println(String.format("loaded: %s; elapsed: %.3fs", ifile, (System.nanoTime()-t0)/1e9));
+      rmods_out.add(dset.getNamedModel(ifile));
+    }
+    return dset;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Open persistent TDB dataset, in a read transaction the caller must
+	end.  Named graph models returned in rmods_out, and names in
+	names_out, in load order as recorded by LoadTDB(), then any other
+	graphs in name order.
+  */
+  public static Dataset OpenTDB(String tdb_dir, ArrayList<Model> rmods_out, ArrayList<String> names_out)
+	throws IOException
+  {
+    System.err.println("TDB: "+tdb_dir);
+    Dataset dset = TDBFactory.createDataset(tdb_dir);
+    dset.begin(ReadWrite.READ);
+    ArrayList<String> names = new ArrayList<String>();
+    Iterator<String> name_itr = dset.listNames();
+    while (name_itr.hasNext()) names.add(name_itr.next());
+    Collections.sort(names);
+    LinkedHashSet<String> ordered = new LinkedHashSet<String>();
+    for (String name: ReadTDBGraphNames(tdb_dir)) if (names.contains(name)) ordered.add(name);
+    ordered.addAll(names);
+    for (String name: ordered)
+    {
+      rmods_out.add(dset.getNamedModel(name));
+      names_out.add(name);
+    }
+    return dset;
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -71,69 +221,131 @@ public class jena_utils
 
   /////////////////////////////////////////////////////////////////////////////
   public static OntModel LoadOntologyFile(String ifile_ont, String otype)
+  {
+    return LoadOntologyFile(ifile_ont, otype, null);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Load from snapshot cache if valid, else parse and store snapshot.
+	Null cache to bypass.
+  */
+  public static OntModel LoadOntologyFile(String ifile_ont, String otype, ont_cache cache)
   {
     System.err.println("ifile_ont: "+ifile_ont);
-    OntDocumentManager odocmgr = new OntDocumentManager();
-    OntModelSpec omodspec = new OntModelSpec(otype.equalsIgnoreCase("RDFS")?OntModelSpec.RDFS_MEM:OntModelSpec.OWL_MEM);
-    omodspec.setDocumentManager(odocmgr);
-    OntModel omod = ModelFactory.createOntologyModel(omodspec, null);
-    try {
-      InputStream instr = FileManager.get().open(ifile_ont);
-      omod.read(instr, ""); //arg2=base_uri
-    }
+    OntModel omod = LoadOntologySnapshot(ifile_ont, otype, cache);
+    if (omod!=null) return omod;
+    omod = CreateOntModel(otype, true);
+    try { ReadOntologyFile(omod, ifile_ont, cache); }
     catch (Exception e) { System.err.println("ERROR: "+e.getMessage()); }
     return omod;
   }
 
+  /////////////////////////////////////////////////////////////////////////////
+  /**	As LoadOntologyFile(), but errors are thrown, not reported, so no
+	partial model is returned, e.g. for reload of a changed file.
+  */
+  public static OntModel ReadOntologyFile(String ifile_ont, String otype, ont_cache cache)
+	throws IOException
+  {
+    OntModel omod = LoadOntologySnapshot(ifile_ont, otype, cache);
+    if (omod!=null) return omod;
+    omod = CreateOntModel(otype, true);
+    try { ReadOntologyFile(omod, ifile_ont, cache); }
+    catch (RuntimeException e) { throw new IOException(ifile_ont+": "+e.getMessage(), e); }
+    return omod;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void ReadOntologyFile(OntModel omod, String ifile_ont, ont_cache cache)
+	throws IOException
+  {
+    InputStream instr = FileManager.get().open(ifile_ont);
+    if (instr==null) throw new FileNotFoundException(ifile_ont);
+    try { omod.read(instr, ""); } //arg2=base_uri
+    finally { instr.close(); }
+    if (cache!=null) cache.Store(ifile_ont, omod.getGraph());
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   public static OntModel LoadOntologyUrl(String url_ont, String otype)
+  {
+    return LoadOntologyUrl(url_ont, otype, null);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Load from snapshot cache if valid, else read and store snapshot.
+	Null cache to bypass.
+  */
+  public static OntModel LoadOntologyUrl(String url_ont, String otype, ont_cache cache)
   {
     System.err.println("url_ont: "+url_ont);
+    OntModel omod = LoadOntologySnapshot(url_ont, otype, cache);
+    if (omod!=null) return omod;
+    omod = CreateOntModel(otype, true);
+    try {
+      omod.read(url_ont, "", null); //arg2=base_uri,arg3=lang, null means default RDF/XML
+      if (cache!=null) cache.Store(url_ont, omod.getGraph());
+    }
+    catch (Exception e) { System.err.println("ERROR: "+e.getMessage()); }
+    return omod;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static OntModel CreateOntModel(String otype, boolean imports)
+  {
     OntDocumentManager odocmgr = new OntDocumentManager();
+    odocmgr.setProcessImports(imports);
     OntModelSpec omodspec = new OntModelSpec(otype.equalsIgnoreCase("RDFS")?OntModelSpec.RDFS_MEM:OntModelSpec.OWL_MEM);
     omodspec.setDocumentManager(odocmgr);
-    OntModel omod = ModelFactory.createOntologyModel(omodspec, null);
-    try { omod.read(url_ont, "", null); } //arg2=base_uri,arg3=lang, null means default RDF/XML
-    catch (Exception e) { System.err.println("ERROR: "+e.getMessage()); }
+    return ModelFactory.createOntologyModel(omodspec, null);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Ontology from valid cache snapshot, else null.  Snapshot includes
+	imports, so they are not processed again.
+  */
+  private static OntModel LoadOntologySnapshot(String source, String otype, ont_cache cache)
+  {
+    if (cache==null) return null;
+    File f_snap = cache.Lookup(source);
+    if (f_snap==null) return null;
+    long t0 = System.nanoTime();
+    Graph graph = Factory.createDefaultGraph();
+    try { RDFDataMgr.read(graph, f_snap.getPath(), Lang.RDFTHRIFT); }
+    catch (Exception e) {
+      System.err.println("ERROR: snapshot: "+f_snap+": "+e.getMessage());
+      return null;
+    }
+    OntModel omod = ModelFactory.createOntologyModel(CreateOntModel(otype, false).getSpecification(), ModelFactory.createModelForGraph(graph));
+    System.err.println(String.format("snapshot: %s; triples: %d; elapsed: %.3fs", f_snap, omod.size(), (System.nanoTime()-t0)/1e9));
     return omod;
   }
 
   /////////////////////////////////////////////////////////////////////////////
   public static void DescribeRDF(Model rmod, int verbose)
   {
-    System.err.println("\tmodel size: "+rmod.size());
-    ResIterator res_itr = rmod.listSubjects(); //subjects (unique list)
-    int i_subj=0;
-    while (res_itr.hasNext())
-    {
-      Resource res = res_itr.nextResource();
-      ++i_subj;
-    }
-    System.err.println("\tsubject count: "+i_subj);
-    NodeIterator node_itr = rmod.listObjects();
-    int i_obj=0;
-    while (node_itr.hasNext())
-    {
-      RDFNode node = node_itr.nextNode();
-      ++i_obj;
-    }
-    System.err.println("\tobject count: "+i_obj);
-    //StmtIterator stmt_itr = rmod.listStatements(Resource s, Property p, RDFNode o); //query
-    //StmtIterator stmt_itr = rmod.listStatements(Selector s); //query
-    StmtIterator stmt_itr = rmod.listStatements();
-    int i_stmt=0;
-    while (stmt_itr.hasNext())
-    {
-      ++i_stmt;
-      Statement stmt = stmt_itr.nextStatement();
-      Resource subj = stmt.getSubject();
-      Property prop = stmt.getPredicate();
-      RDFNode obj = stmt.getObject();
-      if (verbose>1)
-        System.err.println(subj.toString()+"\t"+prop.toString()+"\t"+obj.toString()+" ("+stmt.getLanguage()+")");
-    }
-    System.err.println("\tstatement count: "+i_stmt);
+    try { DescribeRDF(rmod, true, 1, verbose); }
+    catch (IOException e) { System.err.println("ERROR: "+e.getMessage()); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Counts via rdf_stats, in one pass over the graph, on nthreads
+	workers; distinct subjects and objects exact or estimated.  Returns
+	counts, e.g. for rdf_stats.WriteJson().
+  */
+  public static rdf_stats.Counts DescribeRDF(Model rmod, boolean exact, int nthreads, int verbose)
+	throws IOException
+  {
+    rdf_stats.Counts counts = new rdf_stats(exact, nthreads, verbose).Describe(rmod.getGraph());
+    String approx = exact?"":" (estimated)";
+    System.err.println("\tmodel size: "+counts.Triples());
+    System.err.println("\tsubject count: "+counts.DistinctSubjects()+approx);
+    System.err.println("\tpredicate count: "+counts.DistinctPredicates());
+    System.err.println("\tobject count: "+counts.DistinctObjects()+approx);
+    System.err.println("\tclass count: "+counts.DistinctClasses());
+    System.err.println("\tstatement count: "+counts.Triples());
     if (verbose>2) rmod.write(System.err);
+    return counts;
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -157,20 +369,17 @@ public class jena_utils
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  public static void OntModelClassList(OntModel omod, PrintWriter fout_writer, int verbose)
+  public static void OntModelClassList(class_index cidx, PrintWriter fout_writer, int verbose)
   {
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses();
     int i_cls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
       ++i_cls;
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
-      String label=cls.getLabel(null);
-      String comment=cls.getComment(null);
+      String uri=cidx.GetUri(i);
+      String label=cidx.GetLabel(i);
+      String comment=cidx.GetComment(i);
       label=(label!=null)?label.replaceFirst("[\\s]+$", ""):"";
       fout_writer.write(String.format("<%s>\trdfs:label\t\"%s\" .\n", uri, label));
-      fout_writer.flush();
       if (verbose>1)
       {
         System.err.println(String.format("<%s>", uri));
@@ -178,50 +387,55 @@ public class jena_utils
         System.err.println(String.format("\rdfs:tcomment\t\"%s\" .", comment));
       }
     }
+    fout_writer.flush();
     System.err.println("classes: "+i_cls);
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  public static void OntModelRootclassList(OntModel omod, PrintWriter fout_writer)
+  /**	Root classes have no direct superclasses other than owl:Thing or
+	rdfs:Resource, as OntClass.isHierarchyRoot().
+  */
+  public static void OntModelRootclassList(class_hierarchy hier, PrintWriter fout_writer)
   {
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses();
+    class_index cidx = hier.GetIndex();
     int i_cls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
       ++i_cls;
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
-      String label=cls.getLabel(null);
+      if (cidx.GetNode(i).equals(OWL.Nothing.asNode())) continue;
+      boolean is_root=true;
+      for (int p: hier.GetParents(i))
+      {
+        Node sup = cidx.GetNode(p);
+        if (!sup.equals(OWL.Thing.asNode()) && !sup.equals(RDFS.Resource.asNode())) is_root=false;
+      }
+      if (!is_root) continue;
+      String uri=cidx.GetUri(i);
+      String label=cidx.GetLabel(i);
       label=(label!=null)?label.replaceFirst("[\\s]+$", ""):"";
-      if (cls.isHierarchyRoot())
-        fout_writer.write(String.format("<%s>\trdfs:label\t\"%s\" .\n", uri, label));
-      fout_writer.flush();
+      fout_writer.write(String.format("<%s>\trdfs:label\t\"%s\" .\n", uri, label));
     }
+    fout_writer.flush();
     System.err.println("classes: "+i_cls);
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  public static void OntModelSubclassList(OntModel omod, PrintWriter fout_writer, int verbose)
+  public static void OntModelSubclassList(class_index cidx, PrintWriter fout_writer, int verbose)
   {
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses();
     int i_cls=0;
     int i_subcls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
       ++i_cls;
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
-      String label=cls.getLabel(null);
-      String comment=cls.getComment(null);
+      String uri=cidx.GetUri(i);
+      String label=cidx.GetLabel(i);
       label=(label!=null)?label.replaceFirst("[\\s]+$", ""):"";
-      ExtendedIterator<OntClass> subcls_itr = cls.listSubClasses();
-      while (subcls_itr.hasNext())
+      for (int j=0; j<cidx.ChildCount(i); ++j)
       {
         ++i_subcls;
-        OntClass subcls = subcls_itr.next();
-        String uri_sub=subcls.getURI();
-        String label_sub=subcls.getLabel(null);
-        String comment_sub=subcls.getComment(null);
+        int i_sub = cidx.GetChild(i, j);
+        String uri_sub=cidx.GetUri(i_sub);
+        String label_sub=cidx.GetLabel(i_sub);
         label_sub=(label_sub!=null)?label_sub.replaceFirst("[\\s]+$", ""):"";
         fout_writer.write(String.format("<%s>\trdfs:subClassOf\t<%s> .\n", uri_sub, uri));
         if (verbose>1)
@@ -252,29 +466,29 @@ public class jena_utils
 
   /////////////////////////////////////////////////////////////////////////////
   /**	For all classes, identify and output level [0-maxlevel] superclasses (0=root).
+	Minimal root paths are computed once for all classes by class_hierarchy.
   */
-  public static void ListToplevelSuperclassMembership(OntModel omod, PrintWriter fout_writer, int maxlevel) throws Exception
+  public static void ListToplevelSuperclassMembership(class_hierarchy hier, PrintWriter fout_writer, int maxlevel) throws Exception
   {
     fout_writer.write("id\tlabel\turi");
     for (int j=0; j<=maxlevel; ++j) fout_writer.write("\tSuperClassUriLev_"+j+"\tSuperClassLabelLev_"+j);
     fout_writer.write("\n");
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses(); //All classes.
+    class_index cidx = hier.GetIndex();
+    int [][] tops = hier.GetTopPaths(maxlevel+1); //ordered from root
     int i_cls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri = cls.getURI();
+      String uri = cidx.GetUri(i);
       if (uri==null) continue; //error
       String id = Uri2Id(uri);
-      String label = CleanLabel(cls.getLabel(null));
+      String label = CleanLabel(cidx.GetLabel(i));
       fout_writer.write(String.format("%s\t%s\t%s", id, ((label!=null)?label:id), uri)); 
-      ArrayList<OntClass> sups = GetSuperclassListMinimal(cls);
-      if (sups!=null) Collections.reverse(sups); //Reverse so root is 1st.
+      int [] sups = tops[i];
       for (int j=0; j<=maxlevel; ++j) {
-        if (sups!=null && j<sups.size()) {
-          uri = sups.get(j).getURI();
+        if (j<sups.length) {
+          uri = cidx.GetUri(sups[j]);
           id = Uri2Id(uri);
-          label = CleanLabel(sups.get(j).getLabel(null));
+          label = CleanLabel(cidx.GetLabel(sups[j]));
           fout_writer.write("\t"+uri+"\t"+((label!=null)?label:id));
         }
         else { fout_writer.write("\t"); }
@@ -283,19 +497,24 @@ public class jena_utils
       ++i_cls;
     }
     System.err.println("nodes (classes): "+i_cls);
+    if (hier.CycleCount()>0)
+      System.err.println("subclass cycles: "+hier.CycleCount()+" (classes: "+hier.CyclicClassCount()+")");
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  /**	Return minimum length superclass list, ordered from root.
+  /**	Return minimum length superclass list, ordered from adjacent parent
+	to root.  Builds a class_hierarchy for the whole model, so for many
+	classes build one and use class_hierarchy.GetMinimalPath() instead.
   */
   public static ArrayList<OntClass> GetSuperclassListMinimal(OntClass cls) throws Exception
   {
-    ArrayList<OntClass> sups_min = null;
-    ArrayList<ArrayList<OntClass> > supss = GetSuperclassLists(cls);
-    for (int i=0; i<supss.size(); ++i) {
-      ArrayList<OntClass> sups_this = supss.get(i);
-      if (sups_min==null || sups_this.size()<sups_min.size()) sups_min = sups_this;
-    }
+    OntModel omod = cls.getOntModel();
+    class_hierarchy hier = new class_hierarchy(omod);
+    int i = hier.GetIndex().GetId(cls.asNode());
+    if (i<0 || hier.GetLevel(i)==0) return (null);
+    ArrayList<OntClass> sups_min = new ArrayList<OntClass>();
+    for (int p=hier.GetMinimalParent(i); p>=0; p=hier.GetMinimalParent(p))
+      sups_min.add(omod.getRDFNode(hier.GetIndex().GetNode(p)).as(OntClass.class));
     return (sups_min);
   }
 
@@ -304,6 +523,8 @@ public class jena_utils
 	Depth first search via recursion.
 	Multiple parents possible, in multi-hierarchy.
 	Minimum list length is level in class hierarchy.
+	Number of lists may grow exponentially with depth in multi-hierarchies;
+	use class_hierarchy for levels and minimal paths.
   */
   public static ArrayList<ArrayList<OntClass> > GetSuperclassLists(OntClass cls) throws Exception
   {
@@ -339,32 +560,27 @@ public class jena_utils
   /////////////////////////////////////////////////////////////////////////////
   /**	Converts ontology class hierarchy to TSV.
   */
-  public static void OntModel2TSV(OntModel omod, PrintWriter fout_writer, int verbose) throws Exception {
+  public static void OntModel2TSV(class_index cidx, PrintWriter fout_writer, int verbose) throws Exception {
     fout_writer.write("node_or_edge\tid\tlabel\tcomment\tsource\ttarget\turi\n");
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses(); //All classes.
     int i_cls=0;
     int i_subcls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
       String id = Uri2Id(uri);
-      String label = CleanLabel(cls.getLabel(null));
-      String comment = CleanComment(cls.getComment(null));
+      String label = CleanLabel(cidx.GetLabel(i));
+      String comment = CleanComment(cidx.GetComment(i));
       fout_writer.write(String.format("node\t%s\t%s\t%s\t\t\t%s\n", id, label, comment, uri)); 
       ++i_cls;
     }
-    cls_itr = omod.listClasses(); //rewind for subclasses/edges
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
-      ExtendedIterator<OntClass> subcls_itr = cls.listSubClasses();
-      while (subcls_itr.hasNext())
+      String uri=cidx.GetUri(i);
+      if (uri==null) continue; //error
+      for (int j=0; j<cidx.ChildCount(i); ++j)
       {
-        OntClass subcls = subcls_itr.next();
-        String uri_sub=subcls.getURI(); //target
+        String uri_sub=cidx.GetUri(cidx.GetChild(i, j)); //target
         if (uri_sub==null) continue; //error
         String label="has_subclass";
         fout_writer.write(String.format("edge\t\t%s\t\t%s\t%s\t\n", label, uri, uri_sub)); 
@@ -378,208 +594,341 @@ public class jena_utils
   /**	Converts ontology to edge list suitable for Pandas/NetworkX.
 	https://networkx.github.io/documentation/stable/reference/generated/networkx.convert_matrix.from_pandas_edgelist.html
   */
-  public static void OntModel2Edgelist(OntModel omod, PrintWriter fout_writer, int verbose) throws Exception
+  public static void OntModel2Edgelist(class_index cidx, PrintWriter fout_writer, int verbose) throws Exception
   {
     fout_writer.write("source\ttarget\tedge_attr\n");
-    HashSet<String> ids = new HashSet<String>();
-    ExtendedIterator<OntClass> cls_itr=omod.listClasses(); //All classes.
+    int i_cls=0;
     int i_edge=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls=cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
-      String id=uri.replaceFirst("^.*/","");
-      ids.add(id);
-      ExtendedIterator<OntClass> subcls_itr = cls.listSubClasses();
-      while (subcls_itr.hasNext())
+      String id=Uri2Id(uri);
+      ++i_cls;
+      for (int j=0; j<cidx.ChildCount(i); ++j)
       {
-        OntClass subcls = subcls_itr.next();
-        String uri_sub=subcls.getURI(); //target
+        String uri_sub=cidx.GetUri(cidx.GetChild(i, j)); //target
         if (uri_sub==null) continue; //error
-        String id_sub=uri_sub.replaceFirst("^.*/","");
+        String id_sub=Uri2Id(uri_sub);
         String edge_attr="has_subclass";
         fout_writer.write(String.format("%s\t%s\t%s\n", id, id_sub, edge_attr)); 
         ++i_edge;
       }
     }
-    System.err.println("nodes (classes): "+ids.size()+", edges (has_subclass): "+i_edge);
+    System.err.println("nodes (classes): "+i_cls+", edges (has_subclass): "+i_edge);
   }
   /////////////////////////////////////////////////////////////////////////////
   /**	Converts ontology classes to node list suitable for Pandas/NetworkX.
   */
-  public static void OntModel2Nodelist(OntModel omod, PrintWriter fout_writer, int verbose) throws Exception
+  public static void OntModel2Nodelist(class_index cidx, PrintWriter fout_writer, int verbose) throws Exception
   {
     fout_writer.write("id\turi\tlabel\tcomment\n");
-    HashSet<String> ids = new HashSet<String>();
-    ExtendedIterator<OntClass> cls_itr=omod.listClasses(); //All classes.
     int i_cls=0;
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls=cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
-      String id=uri.replaceFirst("^.*/","");
-      ids.add(id);
-      String label = CleanLabel(cls.getLabel(null));
-      String comment = CleanComment(cls.getComment(null));
+      String id=Uri2Id(uri);
+      String label = CleanLabel(cidx.GetLabel(i));
+      String comment = CleanComment(cidx.GetComment(i));
       fout_writer.write(String.format("%s\t%s\t%s\t%s\n", id, uri, label, comment)); 
       ++i_cls;
     }
-    System.err.println("nodes (classes): "+ids.size());
+    System.err.println("nodes (classes): "+i_cls);
   }
 
   /////////////////////////////////////////////////////////////////////////////
   /**	Converts ontology class hierarchy to a Cytoscape JS format directed
-	graph for processing and viewing.  Use Jackson-databind library.
+	graph for processing and viewing.  Nodes and edges are streamed via
+	Jackson JsonGenerator as iterated, so no object tree is built.
+	Compact mode disables pretty-printing.
   */
-  public static void OntModel2CYJS(OntModel omod, PrintWriter fout_writer, int verbose) throws Exception
+  public static void OntModel2CYJS(class_index cidx, PrintWriter fout_writer, boolean compact, int verbose) throws Exception
   {
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses();
     int i_cls=0;
     int i_subcls=0;
 
-    HashMap<String,Object> root = new HashMap<String,Object>();
-    root.put("format_version", "1.0");
-    root.put("generated_by", "edu.indiana.sice.idsl.jena.jena_utils");
-    root.put("target_cytoscapejs_version", "~2.1");
-    HashMap<String,Object> data = new HashMap<String,Object>();
-    data.put("shared_name", "ONTOLOGY_CLASS_HIERARCHY");
-    data.put("name", "ONTOLOGY_CLASS_HIERARCHY");
-    data.put("SUID", new Integer(52)); //integer
-    data.put("selected", new Boolean(true)); //boolean
-    root.put("data", data);
-
-    ArrayList<HashMap<String, Object> > nodes = new ArrayList<HashMap<String, Object> >();
-    while (cls_itr.hasNext())
+    JsonFactory jsf = new JsonFactory();
+    jsf.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    JsonGenerator jsg = jsf.createGenerator(fout_writer);
+    if (!compact) jsg.useDefaultPrettyPrinter();
+    jsg.writeStartObject();
+    jsg.writeStringField("format_version", "1.0");
+    jsg.writeStringField("generated_by", "edu.indiana.sice.idsl.jena.jena_utils");
+    jsg.writeStringField("target_cytoscapejs_version", "~2.1");
+    jsg.writeObjectFieldStart("data");
+    jsg.writeStringField("shared_name", "ONTOLOGY_CLASS_HIERARCHY");
+    jsg.writeStringField("name", "ONTOLOGY_CLASS_HIERARCHY");
+    jsg.writeNumberField("SUID", 52); //integer
+    jsg.writeBooleanField("selected", true); //boolean
+    jsg.writeEndObject();
+
+    jsg.writeObjectFieldStart("elements");
+    jsg.writeArrayFieldStart("nodes");
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
-      String id=uri.replaceFirst("^.*/","");
-      String label = CleanLabel(cls.getLabel(null));
-      String comment = CleanComment(cls.getComment(null));
-      HashMap<String, Object> node = new HashMap<String, Object>();
-      HashMap<String, Object> nodedata = new HashMap<String, Object>();
-      nodedata.put("id", id);
-      nodedata.put("name", uri);
-      nodedata.put("label", label);
-      nodedata.put("comment", comment);
-      node.put("data", nodedata);
-      nodes.add(node);
+      jsg.writeStartObject();
+      jsg.writeObjectFieldStart("data");
+      jsg.writeStringField("id", Uri2Id(uri));
+      jsg.writeStringField("name", uri);
+      jsg.writeStringField("label", CleanLabel(cidx.GetLabel(i)));
+      jsg.writeStringField("comment", CleanComment(cidx.GetComment(i)));
+      jsg.writeEndObject();
+      jsg.writeEndObject();
       ++i_cls;
     }
-    HashMap<String, Object> elements = new HashMap<String, Object>();
-    elements.put("nodes", nodes);
+    jsg.writeEndArray();
 
-    ArrayList<HashMap<String, Object> > edges = new ArrayList<HashMap<String, Object> >();
-    cls_itr = omod.listClasses(); //rewind for subclasses/edges
-    while (cls_itr.hasNext())
+    jsg.writeArrayFieldStart("edges");
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
-      String id=uri.replaceFirst("^.*/","");
-      ExtendedIterator<OntClass> subcls_itr = cls.listSubClasses();
-      while (subcls_itr.hasNext())
+      String id=Uri2Id(uri);
+      for (int j=0; j<cidx.ChildCount(i); ++j)
       {
-        OntClass subcls = subcls_itr.next();
-        String uri_sub=subcls.getURI();
+        String uri_sub=cidx.GetUri(cidx.GetChild(i, j));
         if (uri_sub==null) continue; //error
-        String id_sub=uri_sub.replaceFirst("^.*/","");
-        HashMap<String, Object> edge = new HashMap<String, Object>();
-        HashMap<String, Object> edgedata = new HashMap<String, Object>();
-        edgedata.put("source", id);
-        edgedata.put("target", id_sub);
-        edge.put("data", edgedata);
-        edges.add(edge);
+        jsg.writeStartObject();
+        jsg.writeObjectFieldStart("data");
+        jsg.writeStringField("source", id);
+        jsg.writeStringField("target", Uri2Id(uri_sub));
+        jsg.writeEndObject();
+        jsg.writeEndObject();
         ++i_subcls;
       }
     }
+    jsg.writeEndArray();
+    jsg.writeEndObject(); //elements
+    jsg.writeEndObject();
+    jsg.close(); //flushes, target left open
     System.err.println("nodes (classes): "+i_cls+", edges (subclasses): "+i_subcls);
-    elements.put("edges", edges);
-    root.put("elements", elements);
-
-    ObjectMapper mapper = new ObjectMapper();
-    //fout_writer.write(mapper.writeValueAsString(root)+"\n"); //ok but unpretty
+  }
 
-    JsonFactory jsf = mapper.getFactory();
-    JsonGenerator jsg = jsf.createGenerator(fout_writer);
-    jsg.useDefaultPrettyPrinter();
-    jsg.writeObject(root);
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Text for XMLStreamWriter, which does the escaping: whitespace
+	normalized as CleanLabel() and chars not allowed in XML 1.0 dropped.
+  */
+  private static String XmlText(String str)
+  {
+    if (str==null) return(null);
+    StringBuilder sb = new StringBuilder(str.length());
+    for (int i=0; i<str.length(); ++i)
+    {
+      char c = str.charAt(i);
+      if (c=='\t' || c=='\n' || c=='\r') sb.append(' ');
+      else if (c<0x20 || c==0xFFFE || c==0xFFFF) continue;
+      else sb.append(c);
+    }
+    return (sb.toString().replaceFirst("[\\s]+$", ""));
   }
 
   /////////////////////////////////////////////////////////////////////////////
   /**	Converts ontology class hierarchy to a GraphML format directed
-	graph for processing and viewing.
+	graph for processing and viewing.  Streamed via XMLStreamWriter, which
+	escapes ids, URIs, labels and comments.  Extra node attributes, e.g.
+	depth, are int arrays by class id, computed beforehand from the index
+	and written inline as GraphML int keys.
   */
-  public static void OntModel2GraphML(OntModel omod, PrintWriter fout_writer, int verbose)
+  public static void OntModel2GraphML(class_index cidx, Map<String,int[]> node_attrs, Writer fout_writer, int verbose)
+	throws XMLStreamException
   {
-    ExtendedIterator<OntClass> cls_itr = omod.listClasses();
     int i_cls=0;
     int i_subcls=0;
-    fout_writer.write(
-"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-+"<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"\n"
-+"         xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
-+"         xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns\n"
-+"         http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n"
-+"  <key id=\"name\" for=\"graph\" attr.name=\"name\" attr.type=\"string\"/>\n"
-+"  <key id=\"Author\" for=\"graph\" attr.name=\"Author\" attr.type=\"string\"/>\n"
-+"  <key id=\"name\" for=\"node\" attr.name=\"name\" attr.type=\"string\"/>\n"
-+"  <key id=\"uri\" for=\"node\" attr.name=\"uri\" attr.type=\"string\"/>\n"
-+"  <key id=\"comment\" for=\"node\" attr.name=\"comment\" attr.type=\"string\"/>\n"
-+"  <key id=\"type\" for=\"edge\" attr.name=\"type\" attr.type=\"string\"/>\n"
-+"  <key id=\"weight\" for=\"edge\" attr.name=\"weight\" attr.type=\"double\"/>\n"
-+"  <graph id=\"ONTOLOGY_CLASS_HIERARCHY\" edgedefault=\"directed\">\n"
-+"    <data key=\"name\">Ontology class hierarchy</data>\n"
-	);
+    XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(fout_writer);
+    xsw.writeStartDocument("UTF-8", "1.0");
+    xsw.writeCharacters("\n");
+    xsw.writeStartElement("graphml");
+    xsw.writeDefaultNamespace("http://graphml.graphdrawing.org/xmlns");
+    xsw.writeNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+    xsw.writeAttribute("http://www.w3.org/2001/XMLSchema-instance", "schemaLocation",
+	"http://graphml.graphdrawing.org/xmlns http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd");
+    WriteGraphMLKey(xsw, "graph_name", "graph", "name", "string"); //key ids must be unique
+    WriteGraphMLKey(xsw, "Author", "graph", "Author", "string");
+    WriteGraphMLKey(xsw, "name", "node", "name", "string");
+    WriteGraphMLKey(xsw, "uri", "node", "uri", "string");
+    WriteGraphMLKey(xsw, "comment", "node", "comment", "string");
+    if (node_attrs!=null)
+      for (String key: node_attrs.keySet())
+        WriteGraphMLKey(xsw, key, "node", key, "int");
+    WriteGraphMLKey(xsw, "type", "edge", "type", "string");
+    WriteGraphMLKey(xsw, "weight", "edge", "weight", "double");
+    xsw.writeCharacters("\n  ");
+    xsw.writeStartElement("graph");
+    xsw.writeAttribute("id", "ONTOLOGY_CLASS_HIERARCHY");
+    xsw.writeAttribute("edgedefault", "directed");
+    WriteGraphMLData(xsw, "graph_name", "Ontology class hierarchy", "\n    ");
 
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
+      String uri=cidx.GetUri(i);
       if (uri==null) continue; //error
-      String id=uri.replaceFirst("^.*/","");
-      String label = CleanLabel(cls.getLabel(null));
-      String comment = CleanComment(cls.getComment(null));
-      fout_writer.write(
-"    <node id=\""+id+"\">\n"
-+"      <data key=\"uri\">"+uri+"</data>\n"
-+"      <data key=\"name\">"+label+"</data>\n"
-+"      <data key=\"comment\">"+comment+"</data>\n"
-+"    </node>\n"
-	);
+      xsw.writeCharacters("\n    ");
+      xsw.writeStartElement("node");
+      xsw.writeAttribute("id", XmlText(Uri2Id(uri)));
+      WriteGraphMLData(xsw, "uri", XmlText(uri), "\n      ");
+      WriteGraphMLData(xsw, "name", XmlText(cidx.GetLabel(i)), "\n      ");
+      WriteGraphMLData(xsw, "comment", XmlText(cidx.GetComment(i)), "\n      ");
+      if (node_attrs!=null)
+        for (Map.Entry<String,int[]> attr: node_attrs.entrySet())
+          WriteGraphMLData(xsw, attr.getKey(), Integer.toString(attr.getValue()[i]), "\n      ");
+      xsw.writeCharacters("\n    ");
+      xsw.writeEndElement();
       ++i_cls;
     }
 
-    cls_itr = omod.listClasses(); //rewind for subclasses/edges
-    while (cls_itr.hasNext())
+    for (int i=0; i<cidx.ListedCount(); ++i)
     {
-      OntClass cls = cls_itr.next();
-      String uri=cls.getURI();
-      String id=uri.replaceFirst("^.*/","");
-      ExtendedIterator<OntClass> subcls_itr = cls.listSubClasses();
-      while (subcls_itr.hasNext())
+      String uri=cidx.GetUri(i);
+      if (uri==null) continue; //error
+      String id=XmlText(Uri2Id(uri));
+      for (int j=0; j<cidx.ChildCount(i); ++j)
       {
-        OntClass subcls = subcls_itr.next();
-        String uri_sub=subcls.getURI();
+        String uri_sub=cidx.GetUri(cidx.GetChild(i, j));
         if (uri_sub==null) continue; //error
-        String id_sub=uri_sub.replaceFirst("^.*/","");
-        fout_writer.write(
-"    <edge source=\""+id+"\" target=\""+id_sub+"\">\n"
-+"      <data key=\"type\">subclass</data>\n"
-+"    </edge>\n"
-	);
+        xsw.writeCharacters("\n    ");
+        xsw.writeStartElement("edge");
+        xsw.writeAttribute("source", id);
+        xsw.writeAttribute("target", XmlText(Uri2Id(uri_sub)));
+        WriteGraphMLData(xsw, "type", "subclass", "\n      ");
+        xsw.writeCharacters("\n    ");
+        xsw.writeEndElement();
         ++i_subcls;
       }
     }
-      fout_writer.write(
-"  </graph>\n"
-+"</graphml>\n"
-	);
+    xsw.writeCharacters("\n  ");
+    xsw.writeEndElement(); //graph
+    xsw.writeCharacters("\n");
+    xsw.writeEndElement(); //graphml
+    xsw.writeEndDocument();
+    xsw.writeCharacters("\n");
+    xsw.flush();
+    xsw.close(); //underlying writer left open
     System.err.println("nodes (classes): "+i_cls+", edges (subclasses): "+i_subcls);
   }
+  private static void WriteGraphMLKey(XMLStreamWriter xsw, String id, String domain, String name, String type)
+	throws XMLStreamException
+  {
+    xsw.writeCharacters("\n  ");
+    xsw.writeEmptyElement("key");
+    xsw.writeAttribute("id", id);
+    xsw.writeAttribute("for", domain);
+    xsw.writeAttribute("attr.name", name);
+    xsw.writeAttribute("attr.type", type);
+  }
+  private static void WriteGraphMLData(XMLStreamWriter xsw, String key, String val, String indent)
+	throws XMLStreamException
+  {
+    if (val==null) return; //GraphML data optional
+    xsw.writeCharacters(indent);
+    xsw.writeStartElement("data");
+    xsw.writeAttribute("key", key);
+    xsw.writeCharacters(val);
+    xsw.writeEndElement();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Extra GraphML node attributes by name: depth (minimal level, 0=root),
+	nchild (subclass count), ndesc (descendant count).
+  */
+  public static LinkedHashMap<String,int[]> GraphMLNodeAttributes(class_index cidx, String [] attrs)
+  {
+    LinkedHashMap<String,int[]> node_attrs = new LinkedHashMap<String,int[]>();
+    if (attrs==null) return node_attrs;
+    class_hierarchy hier = null;
+    for (String attr: attrs)
+    {
+      int [] vals = new int[cidx.Size()];
+      if (attr.equalsIgnoreCase("depth"))
+      {
+        if (hier==null) hier = new class_hierarchy(cidx);
+        for (int i=0; i<vals.length; ++i) vals[i] = hier.GetLevel(i);
+      }
+      else if (attr.equalsIgnoreCase("nchild"))
+        for (int i=0; i<vals.length; ++i) vals[i] = cidx.ChildCount(i);
+      else if (attr.equalsIgnoreCase("ndesc"))
+        vals = cidx.DescendantCounts();
+      else
+      {
+        System.err.println("ERROR: unknown GraphML node attribute: "+attr);
+        continue;
+      }
+      node_attrs.put(attr.toLowerCase(), vals);
+    }
+    return node_attrs;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Ontology export operations available in multi-output mode, each
+	via option "-o_"+name.
+  */
+  public static final String [] EXPORT_NAMES = {"tsv", "edgelist", "nodelist", "cyjs", "graphml",
+	"classes", "subclasses", "rootclasses", "toplevelsuperclassmembership"};
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run several exports from one ontology load and one class index, each
+	to its own output file.  Exports run concurrently on up to nthreads
+	threads, since the index and hierarchy are read-only once built.
+	@param ofiles export name -> output file
+  */
+  public static void ExportMulti(class_index cidx, Map<String,String> ofiles, int nthreads, int verbose)
+	throws Exception
+  {
+    final class_hierarchy hier = (ofiles.containsKey("rootclasses") || ofiles.containsKey("toplevelsuperclassmembership"))?new class_hierarchy(cidx):null;
+    final Map<String,int[]> node_attrs = ofiles.containsKey("graphml")?GraphMLNodeAttributes(cidx, graphml_attrs):null;
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, ofiles.size())));
+    LinkedHashMap<String,Future<?> > futures = new LinkedHashMap<String,Future<?> >();
+    for (Map.Entry<String,String> entry: ofiles.entrySet())
+    {
+      final String name = entry.getKey();
+      final String ofile_this = entry.getValue();
+      futures.put(name, exec.submit(() -> {
+        long t0 = System.nanoTime();
+        PrintWriter writer = OpenOutputFile(ofile_this, (gzip || ofile_this.endsWith(".gz")));
+        try {
+          if (name.equals("tsv")) OntModel2TSV(cidx, writer, verbose);
+          else if (name.equals("edgelist")) OntModel2Edgelist(cidx, writer, verbose);
+          else if (name.equals("nodelist")) OntModel2Nodelist(cidx, writer, verbose);
+          else if (name.equals("cyjs")) OntModel2CYJS(cidx, writer, compact, verbose);
+          else if (name.equals("graphml")) OntModel2GraphML(cidx, node_attrs, writer, verbose);
+          else if (name.equals("classes")) OntModelClassList(cidx, writer, verbose);
+          else if (name.equals("subclasses")) OntModelSubclassList(cidx, writer, verbose);
+          else if (name.equals("rootclasses")) OntModelRootclassList(hier, writer);
+          else if (name.equals("toplevelsuperclassmembership")) ListToplevelSuperclassMembership(hier, writer, maxlevel);
+        }
+        finally { writer.close(); }
+        if (writer.checkError()) throw new IOException("Write failed: "+ofile_this);
+        if (verbose>0)
+          System.err.println(String.format("%s: %s; elapsed: %.3fs", name, ofile_this, (System.nanoTime()-t0)/1e9));
+        return null;
+      }));
+    }
+    exec.shutdown();
+    int n_err=0;
+    for (Map.Entry<String,Future<?> > entry: futures.entrySet())
+    {
+      try { entry.getValue().get(); }
+      catch (ExecutionException e) {
+        System.err.println("ERROR: "+entry.getKey()+": "+e.getCause());
+        ++n_err;
+      }
+    }
+    if (n_err>0) throw new Exception("Exports failed: "+n_err+" of "+ofiles.size());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Output file writer.  Character encoding, optional gzip compression
+	and disk writes run on a background thread via async_writer.
+  */
+  public static PrintWriter OpenOutputFile(String ofile, boolean gzip) throws IOException
+  {
+    OutputStream ostream = new FileOutputStream(ofile);
+    if (gzip) ostream = new GZIPOutputStream(ostream, 1<<16);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(ostream, StandardCharsets.UTF_8), 1<<16);
+    return new PrintWriter(new async_writer(writer));
+  }
 
   /////////////////////////////////////////////////////////////////////////////
   public static void ValidateModel(Model mod, Reasoner reasoner)
@@ -606,42 +955,347 @@ public class jena_utils
 
   /////////////////////////////////////////////////////////////////////////////
   public static void QueryRDF(Dataset dset, String rq, PrintWriter fout_writer, int verbose)
+	throws IOException
+  {
+    QueryRDF(dset, rq, "txt", fout_writer, verbose);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results streamed in ofmt, per results_writer.FORMATS.  Returns row
+	count.
+  */
+  public static long QueryRDF(Dataset dset, String rq, String ofmt, PrintWriter fout_writer, int verbose)
+	throws IOException
   {
+    long t0 = System.nanoTime();
     Query query = QueryFactory.create(rq);
     QueryExecution qe = QueryExecutionFactory.create(query, dset);
-    ResultSet results = qe.execSelect();
-    Prologue prol = query.getPrologue(); //to abbreviate IRIs
-    fout_writer.write(ResultSetFormatter.asText(results,prol));
-    if (verbose>2) ResultSetFormatter.out(System.err, results, query);
-    qe.close();
+    try {
+      ResultSet results = qe.execSelect();
+      Prologue prol = query.getPrologue(); //to abbreviate IRIs
+      long n_row = results_writer.Write(results, ofmt, prol, fout_writer);
+      if (verbose>0) System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
+      return n_row;
+    }
+    finally { qe.close(); }
   }
 
   /////////////////////////////////////////////////////////////////////////////
   public static void QueryEndpoint(String url, String rq, PrintWriter fout_writer, int verbose)
+	throws IOException
   {
+    QueryEndpoint(url, rq, "txt", fout_writer, verbose);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results streamed in ofmt, per results_writer.FORMATS.
+  */
+  public static void QueryEndpoint(String url, String rq, String ofmt, PrintWriter fout_writer, int verbose)
+	throws IOException
+  {
+    QueryEndpoint(url, rq, ofmt, null, 0, 1, fout_writer, verbose);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results streamed in ofmt, per results_writer.FORMATS, via results
+	cache if not null.  If page_size>0, fetched in pages, up to nthreads
+	concurrently, via query_pager.  Returns row count.
+  */
+  public static long QueryEndpoint(String url, String rq, String ofmt, results_cache rcache, int page_size, int nthreads, PrintWriter fout_writer, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
     Query query = QueryFactory.create(rq);
-    QueryEngineHTTP qe = new QueryEngineHTTP(url,query);
-    ResultSet results = qe.execSelect();
     Prologue prol = query.getPrologue(); //to abbreviate IRIs
-    fout_writer.write(ResultSetFormatter.asText(results,prol));
-    if (verbose>2) ResultSetFormatter.out(System.err, results, query);
-    qe.close();
+    results_cache.Handler handler = (results) -> results_writer.Write(results, ofmt, prol, fout_writer);
+    results_cache.Source source;
+    if (page_size>0)
+      source = new query_pager(url, rq, page_size, nthreads, page_retries, verbose)::Fetch;
+    else
+      source = (h) -> {
+        QueryExecution qex = http_client.Exec(url, query);
+        try { return h.Handle(qex.execSelect()); }
+        finally { qex.close(); }
+      };
+    long n_row = (rcache!=null)?rcache.Run(url, rq, source, handler, verbose):source.Fetch(handler);
+    if (verbose>0) System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
+    return n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Template query run over values from a TSV column, in VALUES batches
+	of batch_size, up to nthreads concurrently, via query_batcher.
+	Against dset if not null, else endpoint url.  Merged results
+	streamed in ofmt.  Returns row count.
+  */
+  public static long QueryValues(Dataset dset, String url, String rq, String values_file, String values_col, String values_var, int batch_size, int nthreads, String ofmt, PrintWriter fout_writer, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    Prologue prol = QueryFactory.create(rq).getPrologue(); //to abbreviate IRIs
+    List<Node> values = query_batcher.ParseValues(query_batcher.ReadValues(values_file, values_col), rq);
+    query_batcher batcher = new query_batcher(rq, values_var, values, batch_size, nthreads, ((dset!=null)?query_batcher.ForDataset(dset):query_batcher.ForEndpoint(url)), verbose);
+    long n_row = batcher.Fetch((results) -> results_writer.Write(results, ofmt, prol, fout_writer));
+    if (verbose>0) System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
+    return n_row;
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  public static void InferAllStatements(Model mod, Reasoner reasoner, PrintWriter fout_writer, int verbose)
+  /**	All statements, asserted and entailed, streamed as N-Triples, from
+	the graph, without Statement objects.  Returns statement count.
+  */
+  public static long InferAllStatements(Model mod, Reasoner reasoner, PrintWriter fout_writer, int verbose)
   {
     InfModel infmod = ModelFactory.createInfModel(reasoner, mod);
-    //Resource A = infmod.getResource("http://foo#bar"); //DEBUG
-    Resource A = null ;
-    //System.err.println("A * * =>");
-    Iterator stmt_itr = infmod.listStatements((Resource)A, (Property)null, (RDFNode)null);
-    int i_stmt=0;
-    while (stmt_itr.hasNext()) {
-      fout_writer.write(""+stmt_itr.next()+"\n");
-      ++i_stmt;
+    return WriteNTriples(infmod.getGraph(), fout_writer);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static long WriteNTriples(Graph graph, Writer fout_writer)
+  {
+    StreamRDF sink = StreamRDFLib.writer(fout_writer);
+    sink.start();
+    long i_stmt=0;
+    ExtendedIterator<Triple> itr = graph.find();
+    try {
+      while (itr.hasNext()) {
+        sink.triple(itr.next());
+        ++i_stmt;
+      }
     }
-    System.err.println("statements: "+i_stmt);
+    finally { itr.close(); }
+    sink.finish();
+    return i_stmt;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Inference closure, asserted and entailed statements, per data file,
+	by engine: "transitive", the transitive reasoner, bound once to the
+	ontology and shared, over each file loaded in memory; or "rdfs",
+	rdfs_closure, which adds rdf:type and superproperty entailments and
+	streams the data without loading it.  Closures are cached per engine,
+	ontology and data file (infer_cache, null to bypass); missing ones
+	are derived concurrently, up to nthreads files at once, each streamed
+	to N-Triples, and the ontology is loaded only if needed.  With rdfs,
+	large N-Triples files are instead derived one at a time, in parallel
+	chunks of chunksize.  Closures are written in file order to
+	fout_writer, or, if tdb_dir specified, loaded into that TDB store,
+	one named graph per data file, first also as default graph; then the
+	cache is bounded, keeping this run's closures.  Returns statement
+	count.
+  */
+  public static long InferClosure(String engine, String ont_source, String otype, String [] ifiles, String dlang, infer_cache icache, ont_cache ocache, int nthreads, long chunksize, PrintWriter fout_writer, String tdb_dir, int verbose)
+	throws IOException
+  {
+    File [] closures = new File[ifiles.length];
+    ArrayList<Integer> misses = new ArrayList<Integer>();
+    for (int i=0; i<ifiles.length; ++i)
+    {
+      closures[i] = (icache!=null)?icache.Lookup(engine, ont_source, ifiles[i]):null;
+      if (closures[i]!=null) System.err.println("closure: "+ifiles[i]+" (cached: "+closures[i]+")");
+      else misses.add(i);
+    }
+    long n_stmt=0;
+    try {
+      if (!misses.isEmpty())
+      {
+        OntModel omod = ont_cache.IsUrl(ont_source)?LoadOntologyUrl(ont_source, otype, ocache):LoadOntologyFile(ont_source, otype, ocache);
+        final Reasoner reasoner = engine.equals("rdfs")?null:ReasonerRegistry.getTransitiveReasoner().bindSchema(omod);
+        final rdfs_closure rdfs = engine.equals("rdfs")?new rdfs_closure(omod.getGraph(), nthreads):null;
+        if (rdfs!=null && verbose>0)
+          System.err.println("rdfs closure: classes: "+rdfs.ClassCount()+", properties: "+rdfs.PropertyCount());
+        ArrayList<Integer> pooled = new ArrayList<Integer>();
+        for (int i: misses)
+        {
+          if (rdfs!=null && rdf_loader.IsChunkable(ifiles[i], rdf_loader.GuessLang(ifiles[i], dlang), chunksize))
+            closures[i] = DeriveClosure(engine, reasoner, rdfs, ont_source, ifiles[i], dlang, icache, nthreads, chunksize, verbose);
+          else
+            pooled.add(i);
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, pooled.size())));
+        ArrayList<Future<File>> futures = new ArrayList<Future<File>>();
+        for (int i: pooled)
+        {
+          final String ifile = ifiles[i];
+          futures.add(exec.submit(() -> DeriveClosure(engine, reasoner, rdfs, ont_source, ifile, dlang, icache, 1, chunksize, verbose)));
+        }
+        exec.shutdown();
+        Throwable failure = null;
+        for (int j=0; j<pooled.size(); ++j) //all collected, so none left behind to delete
+        {
+          try { closures[pooled.get(j)] = futures.get(j).get(); }
+          catch (InterruptedException e) { if (failure==null) failure = e; }
+          catch (ExecutionException e) { if (failure==null) failure = e.getCause(); }
+        }
+        if (failure instanceof IOException) throw (IOException)failure;
+        else if (failure!=null) throw new IOException(failure);
+      }
+      if (tdb_dir!=null)
+      {
+        Dataset dset = TDBFactory.createDataset(tdb_dir);
+        for (int i=0; i<ifiles.length; ++i)
+        {
+          final String ifile = ifiles[i];
+          final File f_nt = closures[i];
+          final boolean is_default = (i==0);
+          System.err.println("closure: "+ifile+((is_default)?" (DEFAULT GRAPH)":"")+" -> TDB: "+tdb_dir);
+          dset.executeWrite(() -> {
+            RDFDataMgr.read(dset.getNamedModel(ifile), f_nt.getPath(), Lang.NTRIPLES);
+            if (is_default) RDFDataMgr.read(dset.getDefaultModel(), f_nt.getPath(), Lang.NTRIPLES);
+          });
+          n_stmt += Txn.calculateRead(dset, () -> dset.getNamedModel(ifile).size());
+        }
+        dset.close();
+      }
+      else
+      {
+        char [] buf = new char[1<<16];
+        for (File f_nt: closures)
+        {
+          try (Reader rdr = Files.newBufferedReader(f_nt.toPath(), StandardCharsets.UTF_8)) {
+            int n;
+            while ((n=rdr.read(buf))>0) {
+              fout_writer.write(buf, 0, n);
+              for (int k=0; k<n; ++k) if (buf[k]=='\n') ++n_stmt;
+            }
+          }
+        }
+        fout_writer.flush();
+      }
+      if (icache!=null) icache.Evict(Arrays.asList(closures));
+    }
+    finally { //closures not stored as cache entries, e.g. unkeyable or failed store
+      for (File f_nt: closures)
+        if (f_nt!=null && (icache==null || !icache.IsEntry(f_nt))) f_nt.delete();
+    }
+    System.err.println("statements: "+n_stmt);
+    return n_stmt;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Closure of one data file, by reasoner or rdfs engine, to a new
+	N-Triples file, stored in icache if not null, else temporary.
+  */
+  private static File DeriveClosure(String engine, Reasoner reasoner, rdfs_closure rdfs, String ont_source, String ifile, String dlang, infer_cache icache, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    Properties key = (icache!=null)?icache.NewKey(engine, ont_source, ifile):null;
+    Lang lang = rdf_loader.GuessLang(ifile, dlang);
+    File f_tmp = (key!=null)?icache.NewTempFile():File.createTempFile("closure", ".nt");
+    long n_stmt;
+    boolean ok = false;
+    try (Writer wtr = Files.newBufferedWriter(f_tmp.toPath(), StandardCharsets.UTF_8)) {
+      if (rdfs!=null) {
+        StreamRDF nt = StreamRDFLib.writer(wtr);
+        n_stmt = rdfs.WriteSchema(nt);
+        nt.finish();
+        n_stmt += rdfs.Write(ifile, lang, wtr, nthreads, chunksize, verbose);
+      }
+      else {
+        Graph graph = Factory.createDefaultGraph();
+        rdf_loader.LoadFile(ifile, lang, graph, verbose);
+        n_stmt = WriteNTriples(ModelFactory.createInfModel(reasoner, ModelFactory.createModelForGraph(graph)).getGraph(), wtr);
+      }
+      ok = true;
+    }
+    finally { if (!ok) f_tmp.delete(); }
+    System.err.println(String.format("closure: %s; engine: %s; statements: %d; elapsed: %.3fs", ifile, engine, n_stmt, (System.nanoTime()-t0)/1e9));
+    return (key!=null)?icache.Store(engine, ont_source, ifile, key, f_tmp, n_stmt):f_tmp;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Reachability index from reach_file if it exists and was built from
+	ont_source unchanged, per the source key in its header (as ont_cache:
+	file path, mtime and size, or content hash; URL validators), or if no
+	ontology specified; else built from the ontology and, if reach_file
+	specified, written there, with the source key.
+  */
+  public static class_reach LoadReachIndex(String reach_file, String ont_source, String otype, ont_cache cache, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    File f = (reach_file!=null)?new File(reach_file):null;
+    boolean current = false;
+    if (f!=null && f.isFile())
+    {
+      try {
+        current = (ont_source==null || ont_cache.Unchanged(ont_source, class_reach.ReadKey(f)));
+      } catch (IOException e) {
+        if (ont_source==null) throw e;
+        System.err.println("Reach index stale or unreadable, rebuilding: "+e.getMessage());
+      }
+      if (!current && verbose>0) System.err.println("Reach index not current for "+ont_source+", rebuilding: "+f);
+    }
+    if (current)
+    {
+      class_reach reach = class_reach.Read(f);
+      System.err.println(String.format("reach index: %s; classes: %d; elapsed: %.3fs", f, reach.Size(), (System.nanoTime()-t0)/1e9));
+      return reach;
+    }
+    if (ont_source==null) throw new IOException("No ontology, and no reach index: "+reach_file);
+    Properties key = ont_cache.SourceKey(ont_source); //before load, so a change during it is not missed
+    if (key!=null && !ont_cache.IsUrl(ont_source)) key.setProperty("sha256", ont_cache.ContentHash(new File(ont_source)));
+    OntModel omod = ont_cache.IsUrl(ont_source)?LoadOntologyUrl(ont_source, otype, cache):LoadOntologyFile(ont_source, otype, cache);
+    t0 = System.nanoTime();
+    class_reach reach = new class_reach(new class_hierarchy(new class_index(omod)));
+    System.err.println(String.format("reach index: classes: %d; components: %d; intervals: %d; bitsets: %d; elapsed: %.3fs", reach.Size(), reach.ComponentCount(), reach.IntervalCount(), reach.BitsetCount(), (System.nanoTime()-t0)/1e9));
+    if (f!=null) reach.Write(f, key); //null key (unkeyable source): rebuilt every run
+    return reach;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Batch queries from TSV ("-" for stdin), "#" lines skipped, output
+	TSV.  op "subclass": columns sub, sup, output with true|false, empty
+	if either unknown; "ancestors" or "descendants": column class, output
+	one row per named ancestor or descendant.  Header line optional,
+	recognized by first column "sub" or "class", e.g. from this output.
+	Returns query count.
+  */
+  public static long ReachQuery(class_reach reach, String ifile, String op, PrintWriter fout_writer, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    long n_query=0, n_unknown=0, n_row=0;
+    boolean subclass = op.equals("subclass");
+    fout_writer.write(subclass?"sub\tsup\tsubclass\n":(op.equals("ancestors")?"class\tancestor\n":"class\tdescendant\n"));
+    try (BufferedReader buff = ifile.equals("-")?new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1<<16):Files.newBufferedReader(Paths.get(ifile), StandardCharsets.UTF_8))
+    {
+      String line;
+      boolean first = true;
+      while ((line=buff.readLine())!=null)
+      {
+        if (line.isEmpty() || line.charAt(0)=='#') continue;
+        int tab = line.indexOf('\t');
+        String uri = (tab<0)?line:line.substring(0, tab);
+        if (first && (uri.equals("sub") || uri.equals("class"))) { first = false; continue; } //header
+        first = false;
+        ++n_query;
+        int id = reach.GetId(uri);
+        if (subclass)
+        {
+          int tab2 = (tab<0)?-1:line.indexOf('\t', tab+1);
+          String uri_sup = (tab<0)?"":((tab2<0)?line.substring(tab+1):line.substring(tab+1, tab2));
+          int id_sup = reach.GetId(uri_sup);
+          fout_writer.write(uri); fout_writer.write('\t'); fout_writer.write(uri_sup); fout_writer.write('\t');
+          if (id<0 || id_sup<0) ++n_unknown;
+          else fout_writer.write(reach.IsSubclass(id, id_sup)?"true":"false");
+          fout_writer.write('\n');
+          continue;
+        }
+        if (id<0) { ++n_unknown; continue; }
+        for (int j: (op.equals("ancestors")?reach.Ancestors(id):reach.Descendants(id)))
+        {
+          if (reach.GetUri(j)==null) continue; //anonymous
+          fout_writer.write(uri); fout_writer.write('\t'); fout_writer.write(reach.GetUri(j)); fout_writer.write('\n');
+          ++n_row;
+        }
+      }
+    }
+    fout_writer.flush();
+    double t = (System.nanoTime()-t0)/1e9;
+    System.err.println(String.format("reach queries: %d (%s); unknown classes: %d%s; elapsed: %.3fs; rate: %.0f queries/s", n_query, op, n_unknown, (subclass?"":("; rows: "+n_row)), t, n_query/Math.max(t, 1e-9)));
+    return n_query;
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -653,17 +1307,47 @@ public class jena_utils
   private static String endpoint_url=null;
   private static String sparql=null;
   private static String ifile_sparql=null;
+  private static String sparql_dir=null;
+  private static String sparql_list=null;
+  private static String odir=null;
   private static String [] ifiles_rdf=null;
+  private static String tdb_dir=null;
   private static String dlang=null;
   private static String ofile=null;
+  private static String phase_report=null;
   private static String otype="OWL";
+  private static String ofmt="txt";
   private static int maxlevel=5;
+  private static Boolean compact=false;
+  private static Boolean gzip=false;
+  private static String [] graphml_attrs=null;
+  private static LinkedHashMap<String,String> ofiles_multi = new LinkedHashMap<String,String>(); //export name -> ofile
+  private static int nthreads=Runtime.getRuntime().availableProcessors();
+  private static int chunk_mb=64;
+  private static String cache_dir=ont_cache.DefaultDir();
+  private static Boolean nocache=false;
+  private static long cache_ttl=0; //seconds, 0=no results cache
+  private static int cache_max_mb=1024;
+  private static int page_size=0;
+  private static int page_retries=3;
+  private static long connect_timeout=10; //seconds
+  private static long read_timeout=0; //seconds, 0=none
+  private static int http_retries=2;
+  private static String values_file=null;
+  private static String values_col="1";
+  private static String values_var=null;
+  private static int values_batch=500;
   private static int verbose=0;
   //Operations:
   private static Boolean describe_ontology=false;
   private static Boolean describe_rdf=false;
+  private static Boolean profile_rdf=false;
+  private static Boolean stats_hll=false;
+  private static int stats_max_classes=1000;
   private static Boolean validate_ontology=false;
   private static Boolean validate_rdf=false;
+  private static long validate_chunk=0; //0=whole models
+  private static int validate_max_reports=100;
   private static Boolean list_classes=false;
   private static Boolean list_subclasses=false;
   private static Boolean list_rootclasses=false;
@@ -676,6 +1360,11 @@ public class jena_utils
   private static Boolean ont2nodelist=false;
   private static Boolean ont2tsv=false;
   private static Boolean infer_all=false;
+  private static String infer_tdb_dir=null;
+  private static String infer_engine="transitive";
+  private static String reach_index=null;
+  private static String reach_query=null;
+  private static String reach_op="subclass";
 
   /////////////////////////////////////////////////////////////////////////////
   public static void main(String [] args) throws Exception
@@ -683,19 +1372,67 @@ public class jena_utils
     String HELPHEADER =  "JENA_APP: Jena utilities";
     String HELPFOOTER = ("Notes:\n"
       +"  * 1st data file is default graph.\n"
+      +"  * -tdb_dir with -rdfs loads a TDB store once; later runs need only -tdb_dir.\n"
       +"  * OWL must be RDF/XML format.\n"
+      +"  * Parsed ontologies are cached as snapshots, refreshed when the source\n"
+      +"    changes (-nocache to bypass), up to -cache_max_mb, least recently used\n"
+      +"    evicted.  Changes in imported documents (owl:imports) are NOT detected;\n"
+      +"    after changing an import, use -nocache or delete CACHE_DIR.\n"
+      +"  * Endpoint query results are cached only if -cache_ttl>0 (default off),\n"
+      +"    per -cache_ttl and -cache_max_mb, in CACHE_DIR/results.\n"
+      +"  * Endpoint queries share one HTTP client: pooled keep-alive connections,\n"
+      +"    gzip responses, -connect_timeout, -read_timeout, -http_retries, after\n"
+      +"    Retry-After if given.  Paged queries retry per page (-page_retries),\n"
+      +"    not also per request.\n"
+      +"  * Query suite: -query_rdf with -sparql_dir or -sparql_list loads the data\n"
+      +"    once, in memory (TIM) or TDB, and runs the queries in concurrent read\n"
+      +"    transactions (-nthreads), results per query to ODIR, report TSV to OFILE.\n"
+      +"  * Template mode: -values_file runs the query once per batch of values,\n"
+      +"    bound to VALUES_VAR, batches concurrently, results merged.\n"
+      +"  * Query results stream in tsv|csv|json|ndjson; txt (default) table is\n"
+      +"    limited to "+results_writer.TXT_MAXROWS+" rows, and exits non-zero if\n"
+      +"    more.\n"
       +"  * Reasoner operations may be slow.\n"
-      +"  * Validation can be slow and memory intensive.");
+      +"  * -infer_all over -rdfs files writes the closure as N-Triples, or into\n"
+      +"    INFER_TDB_DIR if given, cached per ontology and data file in\n"
+      +"    CACHE_DIR/inferred, per -cache_max_mb (-nocache to bypass); data files\n"
+      +"    derived concurrently (-nthreads).  Over -tdb_dir, the store's graphs\n"
+      +"    are inferred in place by the transitive reasoner, to N-Triples.\n"
+      +"  * -reach_index: class reachability index (interval labels, bitset\n"
+      +"    fallback), built once from the ontology; -reach_query TSV answers\n"
+      +"    subclass, ancestors or descendants queries (-reach_op) from it.\n"
+      +"  * -infer_engine rdfs streams data through precomputed class and property\n"
+      +"    ancestors, without loading it, adding rdf:type and superproperty\n"
+      +"    entailments; duplicates possible.\n"
+      +"  * Validation can be slow and memory intensive; -validate_rdf binds the\n"
+      +"    ontology once, validates models concurrently (-nthreads), and streams\n"
+      +"    reports as TSV to OFILE, up to -validate_max_reports.  With\n"
+      +"    -validate_chunk N, larger models are validated in chunks of about N\n"
+      +"    triples, in bounded memory, but conflicts across chunks are missed,\n"
+      +"    and a clean result is reported as partial.\n"
+      +"  * Multi-output: -o_<name> options load the ontology once and run those\n"
+      +"    exports concurrently.\n"
+      +"  * -phase_report: wall, CPU, GC time, peak heap and item counts per phase\n"
+      +"    (sparql_read, ontology_parse, data_load, reasoning, traversal, export,\n"
+      +"    query), JSON if OFILE ends with .json, else TSV.");
     Options opts = new Options();
     opts.addOption(Option.builder("i").longOpt("ifile_ont").hasArg().argName("IFILE_ONT").desc("Input ontology file (OWL|RDFS)").build());
     opts.addOption(Option.builder("u").longOpt("url_ont").hasArg().argName("URL_ONT").desc("Input ontology URL (OWL|RDFS)").build());
     opts.addOption(Option.builder("ifile_sparql").hasArg().argName("IFILE_SPARQL").desc("Sparql file").build());
+    opts.addOption(Option.builder("sparql_dir").hasArg().argName("DIR").desc("Sparql files (*.rq), run concurrently, with -query_rdf").build());
+    opts.addOption(Option.builder("sparql_list").hasArg().argName("IFILE").desc("Sparql files listed, run concurrently, with -query_rdf").build());
+    opts.addOption(Option.builder("odir").hasArg().argName("ODIR").desc("output directory, results per query, with -sparql_dir|-sparql_list").build());
     opts.addOption(Option.builder("sparql").hasArg().argName("SPARQL").desc("Sparql").build());
     opts.addOption(Option.builder("endpoint_url").hasArg().argName("URL").desc("endpoint URL").build());
-    opts.addOption(Option.builder("rdfs").longOpt("ifile_rdf_list").hasArg().argName("ifile_rdf_list").desc("data file[s], comma-separated list (TTL|N3|RDF/XML)").build());
+    opts.addOption(Option.builder("rdfs").longOpt("ifile_rdf_list").hasArg().argName("ifile_rdf_list").desc("data file[s], comma-separated list (TTL|N3|RDF/XML|NT|NQ|TRIG|JSONLD|...)").build());
+    opts.addOption(Option.builder("tdb_dir").hasArg().argName("TDB_DIR").desc("TDB dataset directory; -rdfs files bulk loaded if specified, else opened").build());
     opts.addOption(Option.builder("o").longOpt("ofile").hasArg().argName("OFILE").desc("Output file").build());
+    opts.addOption(Option.builder("phase_report").hasArg().argName("OFILE").desc("per-phase time, CPU, GC, heap and counts (JSON|TSV)").build());
 
-    opts.addOption(Option.builder("describe_rdf").desc("requires RDF").build());
+    opts.addOption(Option.builder("describe_rdf").desc("statistics JSON per data graph, one parallel pass; requires RDF").build());
+    opts.addOption(Option.builder("profile_rdf").desc("statistics JSON of data files as parsed, not loaded; requires RDF, not ontology").build());
+    opts.addOption(Option.builder("stats_hll").desc("statistics: distinct subjects and objects estimated (HyperLogLog), bounded memory").build());
+    opts.addOption(Option.builder("stats_max_classes").hasArg().argName("N").desc("statistics: top classes by instance count, 0=all ["+stats_max_classes+"]").build());
     opts.addOption(Option.builder("describe_ontology").desc("requires ontology").build());
     opts.addOption(Option.builder("list_classes").desc("list ontology classes with labels").build());
     opts.addOption(Option.builder("list_subclasses").desc("list ontology subclass relationships").build());
@@ -709,11 +1446,39 @@ public class jena_utils
     opts.addOption(Option.builder("query_rdf").desc("query RDF").build());
     opts.addOption(Option.builder("query_endpoint").desc("query endpoint URL").build());
     opts.addOption(Option.builder("validate_rdf").desc("validate data + ontology").build());
+    opts.addOption(Option.builder("validate_chunk").hasArg().argName("N").desc("-validate_rdf: larger models validated in resource-centred chunks of about N triples, concurrently, missing conflicts across chunks (0=whole) ["+validate_chunk+"]").build());
+    opts.addOption(Option.builder("validate_max_reports").hasArg().argName("N").desc("-validate_rdf: stop after N reports (0=all) ["+validate_max_reports+"]").build());
     opts.addOption(Option.builder("validate_ontology").desc("validate ontology").build());
-    opts.addOption(Option.builder("infer_all").desc("infer all statements, asserted and entailed").build());
+    opts.addOption(Option.builder("infer_all").desc("infer all statements, asserted and entailed (N-Triples, or TDB with -infer_tdb_dir)").build());
+    opts.addOption(Option.builder("infer_tdb_dir").hasArg().argName("INFER_TDB_DIR").desc("-infer_all output TDB dataset directory, one named graph per -rdfs file").build());
+    opts.addOption(Option.builder("reach_index").hasArg().argName("FILE").desc("class reachability index, read if current, else built from ontology and written").build());
+    opts.addOption(Option.builder("reach_query").hasArg().argName("TSV").desc("batch class queries, per -reach_op, via reachability index (- for stdin)").build());
+    opts.addOption(Option.builder("reach_op").hasArg().argName("OP").desc("-reach_query operation: subclass (columns sub, sup), ancestors or descendants (column class); header line optional ["+reach_op+"]").build());
+    opts.addOption(Option.builder("infer_engine").hasArg().argName("ENGINE").desc("-infer_all engine, transitive reasoner or streaming RDFS closure with rdf:type and superproperty entailments (transitive|rdfs) ["+infer_engine+"]").build());
 
+    for (String name: EXPORT_NAMES)
+      opts.addOption(Option.builder("o_"+name).hasArg().argName("OFILE").desc("multi-output: "+name+" output file").build());
+    opts.addOption(Option.builder("nthreads").hasArg().argName("N").desc("threads for concurrent operations ["+nthreads+"]").build());
+    opts.addOption(Option.builder("cache_dir").hasArg().argName("DIR").desc("ontology snapshot cache directory ["+cache_dir+"]").build());
+    opts.addOption(Option.builder("nocache").desc("bypass ontology snapshot, inference closure and endpoint results caches").build());
+    opts.addOption(Option.builder("page_size").hasArg().argName("N").desc("endpoint query in pages of N rows, fetched concurrently (0=off) ["+page_size+"]").build());
+    opts.addOption(Option.builder("connect_timeout").hasArg().argName("SECONDS").desc("endpoint HTTP connect timeout ["+connect_timeout+"]").build());
+    opts.addOption(Option.builder("read_timeout").hasArg().argName("SECONDS").desc("endpoint HTTP response timeout (0=none) ["+read_timeout+"]").build());
+    opts.addOption(Option.builder("http_retries").hasArg().argName("N").desc("endpoint HTTP retries, on connect failure, timeout or 429/502/503/504 ["+http_retries+"]").build());
+    opts.addOption(Option.builder("page_retries").hasArg().argName("N").desc("retries per failed page, in place of -http_retries for pages (0=use -http_retries) ["+page_retries+"]").build());
+    opts.addOption(Option.builder("values_file").hasArg().argName("TSV").desc("query template mode: values from TSV column bound by VALUES batches; template without LIMIT, OFFSET, ORDER BY, DISTINCT, GROUP BY or aggregates").build());
+    opts.addOption(Option.builder("values_col").hasArg().argName("COL").desc("values column, header name or 1-based index ["+values_col+"]").build());
+    opts.addOption(Option.builder("values_var").hasArg().argName("VAR").desc("template variable bound to values [column name]").build());
+    opts.addOption(Option.builder("values_batch").hasArg().argName("N").desc("values per VALUES batch ["+values_batch+"]").build());
+    opts.addOption(Option.builder("cache_ttl").hasArg().argName("SECONDS").desc("endpoint results cache time to live, 0=no results cache ["+cache_ttl+"]").build());
+    opts.addOption(Option.builder("cache_max_mb").hasArg().argName("MB").desc("size limit per cache, ontology snapshots and endpoint results ["+cache_max_mb+"]").build());
+    opts.addOption(Option.builder("chunk_mb").hasArg().argName("MB").desc("parse NT|NQ data files larger than this in parallel chunks, 0 to disable ["+chunk_mb+"]").build());
+    opts.addOption(Option.builder("compact").desc("compact output, no pretty-printing (CYJS)").build());
+    opts.addOption(Option.builder("gzip").desc("gzip output file (also if OFILE ends with .gz)").build());
+    opts.addOption(Option.builder("graphml_attrs").hasArg().argName("ATTRS").desc("extra GraphML node attributes, comma-separated list (depth|nchild|ndesc)").build());
+    opts.addOption(Option.builder("ofmt").hasArg().argName("OFMT").desc("query results format (txt|tsv|csv|json|ndjson) ["+ofmt+"]").build());
     opts.addOption(Option.builder("ontology_type").hasArg().argName("OTYPE").desc("OWL|RDFS ["+otype+"]").build());
-    opts.addOption(Option.builder("dlang").hasArg().argName("LANG").desc("data language (RDF/XML|TTL|N3)").build());
+    opts.addOption(Option.builder("dlang").hasArg().argName("LANG").desc("data language, default from file extension (RDF/XML|TTL|N3|NT|NQ|TRIG|JSONLD|...)").build());
 
     opts.addOption("v", "verbose", false, "Verbose.");
     opts.addOption("vv", "vverbose", false, "Very verbose.");
@@ -730,19 +1495,32 @@ public class jena_utils
     }
     if (clic.hasOption("ifile_ont")) ifile_ont = clic.getOptionValue("ifile_ont");
     else if (clic.hasOption("url_ont")) url_ont = clic.getOptionValue("url_ont");
-    else {
+    else if (!clic.hasOption("profile_rdf") && !clic.hasOption("reach_index")) {
       helper.printHelp(APPNAME, HELPHEADER, opts, ("--ifile_ont or --url_ont requied."), true);
       System.exit(0);
     }
     if (clic.hasOption("o")) ofile = clic.getOptionValue("o");
+    if (clic.hasOption("phase_report")) phase_report = clic.getOptionValue("phase_report");
     if (clic.hasOption("dlang")) dlang = clic.getOptionValue("dlang");
     if (clic.hasOption("otype")) otype = clic.getOptionValue("otype");
+    if (clic.hasOption("ofmt")) ofmt = clic.getOptionValue("ofmt");
+    if (!results_writer.IsFormat(ofmt)) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, ("Unknown -ofmt: "+ofmt), true);
+      System.exit(0);
+    }
     if (clic.hasOption("endpoint_url")) endpoint_url = clic.getOptionValue("endpoint_url");
     if (clic.hasOption("sparql")) sparql = clic.getOptionValue("sparql");
     if (clic.hasOption("ifile_sparql")) ifile_sparql = clic.getOptionValue("ifile_sparql");
+    if (clic.hasOption("sparql_dir")) sparql_dir = clic.getOptionValue("sparql_dir");
+    if (clic.hasOption("sparql_list")) sparql_list = clic.getOptionValue("sparql_list");
+    if (clic.hasOption("odir")) odir = clic.getOptionValue("odir");
     if (clic.hasOption("ifile_rdf_list")) ifiles_rdf = Pattern.compile("[\\s,]+").split(clic.getOptionValue("ifile_rdf_list"));
+    if (clic.hasOption("tdb_dir")) tdb_dir = clic.getOptionValue("tdb_dir");
     if (clic.hasOption("describe_ontology")) describe_ontology = true;
     if (clic.hasOption("describe_rdf")) describe_rdf=true;
+    if (clic.hasOption("profile_rdf")) profile_rdf=true;
+    if (clic.hasOption("stats_hll")) stats_hll=true;
+    if (clic.hasOption("stats_max_classes")) stats_max_classes = Integer.parseInt(clic.getOptionValue("stats_max_classes"));
     if (clic.hasOption("list_subclasses")) list_subclasses=true;
     if (clic.hasOption("list_rootclasses")) list_rootclasses=true;
     if (clic.hasOption("list_toplevelsuperclassmembership")) list_toplevelsuperclassmembership=true;
@@ -751,10 +1529,50 @@ public class jena_utils
     if (clic.hasOption("ont2edgelist")) ont2edgelist=true;
     if (clic.hasOption("ont2nodelist")) ont2nodelist=true;
     if (clic.hasOption("ont2tsv")) ont2tsv=true;
+    if (clic.hasOption("compact")) compact=true;
+    for (String name: EXPORT_NAMES)
+      if (clic.hasOption("o_"+name)) ofiles_multi.put(name, clic.getOptionValue("o_"+name));
+    if (clic.hasOption("nthreads")) nthreads = Integer.parseInt(clic.getOptionValue("nthreads"));
+    if (clic.hasOption("cache_dir")) cache_dir = clic.getOptionValue("cache_dir");
+    if (clic.hasOption("nocache")) nocache=true;
+    if (clic.hasOption("page_size")) page_size = Integer.parseInt(clic.getOptionValue("page_size"));
+    if (clic.hasOption("page_retries")) page_retries = Integer.parseInt(clic.getOptionValue("page_retries"));
+    if (clic.hasOption("connect_timeout")) connect_timeout = Long.parseLong(clic.getOptionValue("connect_timeout"));
+    if (clic.hasOption("read_timeout")) read_timeout = Long.parseLong(clic.getOptionValue("read_timeout"));
+    if (clic.hasOption("http_retries")) http_retries = Integer.parseInt(clic.getOptionValue("http_retries"));
+    if (clic.hasOption("values_file")) values_file = clic.getOptionValue("values_file");
+    if (clic.hasOption("values_col")) values_col = clic.getOptionValue("values_col");
+    if (clic.hasOption("values_var")) values_var = clic.getOptionValue("values_var");
+    else if (!values_col.matches("\\d+")) values_var = values_col;
+    if (clic.hasOption("values_batch")) values_batch = Integer.parseInt(clic.getOptionValue("values_batch"));
+    if (values_file!=null && values_var==null) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, ("-values_var required with numeric -values_col"), true);
+      System.exit(0);
+    }
+    if (clic.hasOption("cache_ttl")) cache_ttl = Long.parseLong(clic.getOptionValue("cache_ttl"));
+    if (clic.hasOption("cache_max_mb")) cache_max_mb = Integer.parseInt(clic.getOptionValue("cache_max_mb"));
+    if (clic.hasOption("chunk_mb")) chunk_mb = Integer.parseInt(clic.getOptionValue("chunk_mb"));
+    if (clic.hasOption("gzip")) gzip=true;
+    if (clic.hasOption("graphml_attrs")) graphml_attrs = Pattern.compile("[\\s,]+").split(clic.getOptionValue("graphml_attrs"));
     if (clic.hasOption("list_classes")) list_classes=true;
     if (clic.hasOption("validate_rdf")) validate_rdf=true;
+    if (clic.hasOption("validate_chunk")) validate_chunk = Long.parseLong(clic.getOptionValue("validate_chunk"));
+    if (clic.hasOption("validate_max_reports")) validate_max_reports = Integer.parseInt(clic.getOptionValue("validate_max_reports"));
     if (clic.hasOption("validate_ontology")) validate_ontology=true;
     if (clic.hasOption("infer_all")) infer_all=true;
+    if (clic.hasOption("infer_tdb_dir")) infer_tdb_dir = clic.getOptionValue("infer_tdb_dir");
+    if (clic.hasOption("reach_index")) reach_index = clic.getOptionValue("reach_index");
+    if (clic.hasOption("reach_query")) reach_query = clic.getOptionValue("reach_query");
+    if (clic.hasOption("reach_op")) reach_op = clic.getOptionValue("reach_op").toLowerCase();
+    if (!reach_op.matches("subclass|ancestors|descendants")) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, ("-reach_op must be subclass, ancestors or descendants"), true);
+      System.exit(0);
+    }
+    if (clic.hasOption("infer_engine")) infer_engine = clic.getOptionValue("infer_engine").toLowerCase();
+    if (!infer_engine.matches("transitive|rdfs")) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, ("-infer_engine must be transitive or rdfs"), true);
+      System.exit(0);
+    }
     if (clic.hasOption("query_rdf")) query_rdf=true;
     if (clic.hasOption("query_endpoint")) query_endpoint=true;
     if (clic.hasOption("vvv")) verbose = 3;
@@ -773,13 +1591,19 @@ public class jena_utils
 //    else
 //      LogCtl.setLog4j();
 
-    PrintWriter fout_writer = (ofile!=null)?(new PrintWriter(new BufferedWriter(new FileWriter(new File(ofile),false)))):(new PrintWriter((OutputStream)System.out));
+    PrintWriter fout_writer = (ofile!=null)?OpenOutputFile(ofile, (gzip || ofile.endsWith(".gz"))):(new PrintWriter((OutputStream)System.out));
 
     if (verbose>0)
       System.err.println("Jena version: "+Jena.VERSION);
 
+    http_client.Configure(connect_timeout, read_timeout, http_retries, verbose);
+
+    phase_stats stats = new phase_stats();
+    boolean txt_truncated = false; //-ofmt txt cut at TXT_MAXROWS, exit non-zero
+
     if (ifile_sparql!=null) //read file into rq
     {
+      stats.Start("sparql_read");
       if (verbose>0)
         System.err.println("ifile_sparql: "+ifile_sparql);
       BufferedReader buff = new BufferedReader(new FileReader(ifile_sparql));
@@ -789,25 +1613,107 @@ public class jena_utils
       sparql="";
       while ((line=buff.readLine())!=null) sparql+=(line+"\n");
       buff.close();
+      stats.Stop(sparql.length(), "chars");
+    }
+
+    if (reach_query!=null || reach_index!=null) { // Index read if current, so ontology parsed only if needed.
+      if (describe_ontology || describe_rdf || profile_rdf || validate_ontology || validate_rdf || list_classes || list_subclasses || list_rootclasses || list_toplevelsuperclassmembership || query_rdf || query_endpoint || ont2graphml || ont2cyjs || ont2edgelist || ont2nodelist || ont2tsv || infer_all || !ofiles_multi.isEmpty()) {
+        helper.printHelp(APPNAME, HELPHEADER, opts, ("-reach_index/-reach_query cannot be combined with other operations"), true);
+        System.exit(0);
+      }
+      if (ifile_ont==null && url_ont==null && (reach_index==null || !new File(reach_index).isFile())) {
+        helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont, -url_ont or existing -reach_index required"), true);
+        System.exit(0);
+      }
+      stats.Start("reach_index");
+      class_reach reach = LoadReachIndex(reach_index, ((ifile_ont!=null)?ifile_ont:url_ont), otype, (nocache?null:new ont_cache(cache_dir, (cache_max_mb*1L)<<20)), verbose);
+      stats.Stop(reach.Size(), "classes");
+      if (reach_query!=null) {
+        stats.Start("query");
+        long n_query = ReachQuery(reach, reach_query, reach_op, fout_writer, verbose);
+        stats.Stop(n_query, "queries");
+      }
+      CloseOutput(fout_writer);
+      WritePhaseReport(stats);
+      return;
     }
 
-    java.util.Date t_0 = new java.util.Date();
+    if (infer_tdb_dir!=null && (!infer_all || tdb_dir!=null)) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-infer_tdb_dir requires -infer_all over -rdfs files, without -tdb_dir"), true); System.exit(0); }
+    if (infer_all && tdb_dir!=null && infer_engine.equals("rdfs")) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-infer_engine rdfs requires -rdfs files, without -tdb_dir"), true); System.exit(0); }
+    if (infer_all && tdb_dir==null) { // Closure cached per ontology and data file, so ontology loaded only if needed.
+      if (ifiles_rdf==null) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-rdfs or -tdb_dir required"), true); System.exit(0); }
+      if (ifile_ont==null && url_ont==null) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true); System.exit(0); }
+      stats.Start("reasoning");
+      long n_stmt = InferClosure(infer_engine, ((ifile_ont!=null)?ifile_ont:url_ont), otype, ifiles_rdf, dlang, (nocache?null:new infer_cache(cache_dir, (cache_max_mb*1L)<<20)), (nocache?null:new ont_cache(cache_dir, (cache_max_mb*1L)<<20)), nthreads, (chunk_mb*1L)<<20, fout_writer, infer_tdb_dir, verbose);
+      stats.Stop(n_stmt, "statements");
+      CloseOutput(fout_writer);
+      WritePhaseReport(stats);
+      return;
+    }
 
     // Input ontology
     OntModel omod = null;
+    if (ifile_ont!=null || url_ont!=null) stats.Start("ontology_parse");
     if (ifile_ont!=null)
-      omod = LoadOntologyFile(ifile_ont, otype);
+      omod = LoadOntologyFile(ifile_ont, otype, (nocache?null:new ont_cache(cache_dir, (cache_max_mb*1L)<<20)));
     else if (url_ont!=null)
-      omod = LoadOntologyUrl(url_ont, otype);
+      omod = LoadOntologyUrl(url_ont, otype, (nocache?null:new ont_cache(cache_dir, (cache_max_mb*1L)<<20)));
+    if (omod!=null) stats.Stop(omod.getBaseModel().size(), "triples");
 
     // Input dataset (1+ files, models, graphs)
     Model [] rmods = null;
+    String [] rmod_names = null; //graph names, as sources in reports
     Dataset dset = null; //for named graphs
-    if (ifiles_rdf!=null) {
+    if (profile_rdf) {
+      if (ifiles_rdf==null) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-rdfs required"), true); System.exit(0); }
+      stats.Start("profile");
+      rdf_stats.Counts counts = new rdf_stats(!stats_hll, nthreads, verbose).Profile(ifiles_rdf, dlang, (chunk_mb*1L)<<20);
+      rdf_stats.WriteJson(counts, String.join(",", ifiles_rdf), stats_max_classes, fout_writer);
+      stats.Stop(counts.Triples(), "triples");
+      CloseOutput(fout_writer);
+      WritePhaseReport(stats);
+      return;
+    }
+    if (ifiles_rdf!=null || tdb_dir!=null) stats.Start("data_load");
+    if (tdb_dir!=null) { // Persistent, load once.
+      try { if (ifiles_rdf!=null) LoadTDB(tdb_dir, ifiles_rdf, dlang, nthreads, (chunk_mb*1L)<<20, verbose).close(); }
+      catch (IOException e) {
+        System.err.println("ERROR: "+e.getMessage());
+        System.exit(1);
+      }
+      ArrayList<Model> rmodlist = new ArrayList<Model>();
+      ArrayList<String> namelist = new ArrayList<String>();
+      dset = OpenTDB(tdb_dir, rmodlist, namelist);
+      rmods = rmodlist.toArray(new Model[0]);
+      rmod_names = namelist.toArray(new String[0]);
+    }
+    else if (ifiles_rdf!=null && query_rdf && (sparql_dir!=null || sparql_list!=null)) { // Concurrent reads, need transactions.
+      ArrayList<Model> rmodlist = new ArrayList<Model>();
+      try { dset = LoadTIM(ifiles_rdf, dlang, nthreads, (chunk_mb*1L)<<20, rmodlist, verbose); }
+      catch (IOException e) {
+        System.err.println("ERROR: "+e.getMessage());
+        System.exit(1);
+      }
+      rmods = rmodlist.toArray(new Model[0]);
+      rmod_names = ifiles_rdf;
+    }
+    else if (ifiles_rdf!=null) {
       rmods = new Model[ifiles_rdf.length];
       dset = DatasetFactory.create();
-      LoadRDF(ifiles_rdf, rmods, dset);
+      try { LoadRDF(ifiles_rdf, dlang, nthreads, (chunk_mb*1L)<<20, rmods, dset, verbose); }
+      catch (IOException e) {
+        System.err.println("ERROR: "+e.getMessage());
+        System.exit(1);
+      }
+      rmod_names = ifiles_rdf;
+    }
+
+    if (ifiles_rdf!=null && tdb_dir==null) {
+      long n_triple=0;
+      for (Model rmod: rmods) n_triple += rmod.size();
+      stats.Stop(n_triple, "triples");
     }
+    else stats.Stop(-1, null); //TDB: size not counted, may be large
 
     if (verbose>0 && dset!=null) {
       DescribeDataset(dset, verbose);
@@ -821,10 +1727,20 @@ public class jena_utils
     else if (describe_rdf) {
       if (rmods==null)
         helper.printHelp(APPNAME, HELPHEADER, opts, ("-rdffiles required"), true);
-      for (Model rmod: rmods)
+      stats.Start("describe");
+      JsonGenerator jsg = rdf_stats.NewJsonGenerator(fout_writer);
+      jsg.writeStartArray();
+      long n_triple=0;
+      for (int i=0; i<rmods.length; ++i)
       {
-        DescribeRDF(rmod, verbose);
+        rdf_stats.Counts counts = DescribeRDF(rmods[i], !stats_hll, nthreads, verbose);
+        rdf_stats.WriteJson(counts, ((rmod_names!=null && i<rmod_names.length)?rmod_names[i]:("graph "+i)), stats_max_classes, jsg);
+        n_triple += counts.Triples();
       }
+      jsg.writeEndArray();
+      jsg.flush();
+      fout_writer.println();
+      stats.Stop(n_triple, "triples");
     }
     else if (validate_rdf) {
       if (rmods==null)
@@ -834,75 +1750,138 @@ public class jena_utils
         reasoner = ReasonerRegistry.getOWLReasoner();
         reasoner = reasoner.bindSchema(omod);
       }
-      for (Model rmod: rmods) {
-        ValidateModel(rmod, reasoner);
-      }
+      stats.Start("reasoning");
+      model_validator validator = new model_validator(reasoner, nthreads, validate_chunk, validate_max_reports, verbose);
+      boolean valid = validator.Validate(rmods, rmod_names, fout_writer);
+      if (!valid) System.err.println("Conflicts: "+validator.ErrorCount());
+      else if (validator.Partial()) System.err.println("No conflicts within chunks (partial: conflicts across chunks not checked).");
+      else System.err.println("OK, no conflicts.");
+      stats.Stop(validator.TripleCount(), "triples");
     }
-    else if (validate_ontology) {
+    else if (infer_all) { // Over TDB graphs, not cached.
       if (omod==null)
         helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      ValidateModel(omod, null);
+      stats.Start("reasoning");
+      Reasoner reasoner = ReasonerRegistry.getTransitiveReasoner().bindSchema(omod);
+      long n_stmt=0;
+      for (Model rmod: rmods)
+        n_stmt += InferAllStatements(rmod, reasoner, fout_writer, verbose);
+      fout_writer.flush();
+      stats.Stop(n_stmt, "statements");
     }
-    else if (infer_all) {
-      if (rmods==null)
-        helper.printHelp(APPNAME, HELPHEADER, opts, ("-rdffiles required"), true);
+    else if (validate_ontology) {
       if (omod==null)
-        helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont required"), true);
-      Reasoner reasoner = ReasonerRegistry.getTransitiveReasoner();
-      reasoner = reasoner.bindSchema(omod);
-      for (Model rmod: rmods) {
-        InferAllStatements(rmod, reasoner, fout_writer, verbose);
-      }
-    }
-    else if (list_classes) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModelClassList(omod, fout_writer, verbose);
-    }
-    else if (list_subclasses) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModelSubclassList(omod, fout_writer, verbose);
-    }
-    else if (list_rootclasses) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModelRootclassList(omod, fout_writer);
-    }
-    else if (list_toplevelsuperclassmembership) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      ListToplevelSuperclassMembership(omod, fout_writer, maxlevel);
-    }
-    else if (ont2graphml) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModel2GraphML(omod, fout_writer, verbose);
-    }
-    else if (ont2cyjs) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModel2CYJS(omod, fout_writer, verbose);
-    }
-    else if (ont2tsv) {
-      if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModel2TSV(omod, fout_writer, verbose);
+        helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
+      stats.Start("reasoning");
+      ValidateModel(omod, null);
+      stats.Stop(omod.size(), "triples");
     }
-    else if (ont2edgelist) {
+    else if (!ofiles_multi.isEmpty()) { // Multi-output, one load.
       if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModel2Edgelist(omod, fout_writer, verbose);
+      stats.Start("traversal");
+      class_index cidx = new class_index(omod);
+      stats.Stop(cidx.ListedCount(), "classes");
+      if (verbose>0)
+        System.err.println("class index: classes: "+cidx.ListedCount()+", subclass edges: "+cidx.EdgeCount());
+      stats.Start("export");
+      ExportMulti(cidx, ofiles_multi, nthreads, verbose);
+      stats.Stop(cidx.ListedCount()*(long)ofiles_multi.size(), "classes");
     }
-    else if (ont2nodelist) {
+    else if (list_classes || list_subclasses || list_rootclasses || list_toplevelsuperclassmembership
+	|| ont2graphml || ont2cyjs || ont2tsv || ont2edgelist || ont2nodelist) {
       if (omod==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-ifile_ont or -url_ont required"), true);
-      OntModel2Nodelist(omod, fout_writer, verbose);
+      stats.Start("traversal");
+      class_index cidx = new class_index(omod); //one pass, shared by exporters
+      class_hierarchy hier = (list_rootclasses || list_toplevelsuperclassmembership)?new class_hierarchy(cidx):null;
+      stats.Stop(cidx.ListedCount(), "classes");
+      if (verbose>0)
+        System.err.println("class index: classes: "+cidx.ListedCount()+", subclass edges: "+cidx.EdgeCount());
+      stats.Start("export");
+      if (list_classes)
+        OntModelClassList(cidx, fout_writer, verbose);
+      else if (list_subclasses)
+        OntModelSubclassList(cidx, fout_writer, verbose);
+      else if (list_rootclasses)
+        OntModelRootclassList(hier, fout_writer);
+      else if (list_toplevelsuperclassmembership)
+        ListToplevelSuperclassMembership(hier, fout_writer, maxlevel);
+      else if (ont2graphml)
+        OntModel2GraphML(cidx, GraphMLNodeAttributes(cidx, graphml_attrs), fout_writer, verbose);
+      else if (ont2cyjs)
+        OntModel2CYJS(cidx, fout_writer, compact, verbose);
+      else if (ont2tsv)
+        OntModel2TSV(cidx, fout_writer, verbose);
+      else if (ont2edgelist)
+        OntModel2Edgelist(cidx, fout_writer, verbose);
+      else if (ont2nodelist)
+        OntModel2Nodelist(cidx, fout_writer, verbose);
+      fout_writer.flush();
+      stats.Stop(cidx.ListedCount(), "classes");
     }
     else if (query_rdf) {
       if (dset==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-rdffiles required"), true);
+      if (sparql_dir!=null || sparql_list!=null) {
+        if (odir==null) { helper.printHelp(APPNAME, HELPHEADER, opts, ("-odir required"), true); System.exit(0); }
+        List<File> qfiles = (sparql_dir!=null)?query_runner.ListDir(sparql_dir):query_runner.ReadList(sparql_list);
+        stats.Start("query");
+        int n_err = query_runner.Run(dset, qfiles, ofmt, odir, nthreads, fout_writer, verbose);
+        stats.Stop(qfiles.size(), "queries");
+        if (tdb_dir!=null) { dset.end(); dset.close(); }
+        CloseOutput(fout_writer);
+        WritePhaseReport(stats);
+        if (n_err>0) System.exit(1);
+        return;
+      }
       if (sparql==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-sparql or -ifile_sparql required"), true);
-      QueryRDF(dset, sparql, fout_writer, verbose);
+      stats.Start("query");
+      long n_row;
+      if (values_file!=null)
+        n_row = QueryValues(dset, null, sparql, values_file, values_col, values_var, values_batch, nthreads, ofmt, fout_writer, verbose);
+      else
+        n_row = QueryRDF(dset, sparql, ofmt, fout_writer, verbose);
+      fout_writer.flush();
+      stats.Stop(n_row, "rows");
+      txt_truncated = results_writer.Truncated(ofmt, n_row);
     }
     else if (query_endpoint) { // Execute SELECT query using specified endpoint URL.
       if (endpoint_url==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-endpoint_url required"), true);
       if (sparql==null) helper.printHelp(APPNAME, HELPHEADER, opts, ("-sparql or -ifile_sparql required"), true);
-      QueryEndpoint(endpoint_url, sparql, fout_writer, verbose);
+      stats.Start("query");
+      long n_row;
+      if (values_file!=null)
+        n_row = QueryValues(null, endpoint_url, sparql, values_file, values_col, values_var, values_batch, nthreads, ofmt, fout_writer, verbose);
+      else
+        n_row = QueryEndpoint(endpoint_url, sparql, ofmt, ((nocache || cache_ttl<=0)?null:new results_cache(cache_dir, cache_ttl, (cache_max_mb*1L)<<20)), page_size, nthreads, fout_writer, verbose);
+      fout_writer.flush();
+      stats.Stop(n_row, "rows");
+      txt_truncated = results_writer.Truncated(ofmt, n_row);
+      if (verbose>0) System.err.println(http_client.Get().Summary());
     }
     else {
       helper.printHelp(APPNAME, HELPHEADER, opts, ("ERROR: no operation specified."), true);
     }
+    if (tdb_dir!=null) { dset.end(); dset.close(); }
+    CloseOutput(fout_writer);
+    WritePhaseReport(stats);
+    if (txt_truncated) System.exit(1);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Close output, exiting non-zero if any write failed, e.g. disk full
+	or closed pipe, which PrintWriter otherwise swallows.
+  */
+  private static void CloseOutput(PrintWriter fout_writer)
+  {
     fout_writer.close();
+    if (!fout_writer.checkError()) return;
+    System.err.println("ERROR: Write failed: "+((ofile!=null)?ofile:"stdout"));
+    System.exit(1);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void WritePhaseReport(phase_stats stats) throws IOException
+  {
+    if (verbose>0) System.err.println(stats.Summary());
+    if (phase_report!=null) stats.Write(phase_report);
   }
 }
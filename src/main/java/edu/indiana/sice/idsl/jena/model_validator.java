@@ -0,0 +1,207 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException, InterruptedIOException, PrintWriter
+import java.util.*; // ArrayList, Iterator, List, Set
+import java.util.concurrent.*; // ArrayBlockingQueue, BlockingQueue, ConcurrentHashMap, ExecutorService, Executors, Future
+import java.util.concurrent.atomic.*; // AtomicLong
+
+import org.apache.jena.graph.*; // Factory, Graph, GraphUtil, Node, Triple
+import org.apache.jena.rdf.model.*; // InfModel, Model, ModelFactory
+import org.apache.jena.reasoner.*; // Reasoner, ReasonerRegistry, ValidityReport
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // RDF
+
+/**	Concurrent validation of data models against an ontology, with one
+	OWL reasoner bound to the schema and shared.  Models of up to
+	chunk_triples are validated whole; larger ones are split into
+	resource-centred chunks, i.e. all statements of a run of subjects,
+	plus the rdf:type statements of resources they refer to, up to about
+	chunk_triples each, validated independently, so memory per chunk is
+	bounded.  Conflicts spanning chunks, beyond the types of referenced
+	resources, are not detected, so a clean result is then partial, per
+	Partial().  Chunks are built on the calling thread
+	(e.g. in its TDB transaction) and validated on nthreads workers, at
+	most 2*nthreads chunks in memory.
+
+	Reports are written as found, TSV, deduplicated per source, to at
+	most max_reports (0=all), after which validation stops early.
+
+	@author Jeremy Yang
+*/
+public class model_validator
+{
+  private Reasoner reasoner; //bound, null=bind per model
+  private int nthreads;
+  private long chunk_triples; //0=whole models
+  private int max_reports;
+  private int verbose;
+
+  private Set<String> seen = ConcurrentHashMap.newKeySet();
+  private AtomicLong n_error = new AtomicLong(0);
+  private AtomicLong n_warning = new AtomicLong(0);
+  private AtomicLong n_triple = new AtomicLong(0);
+  private AtomicLong n_chunk = new AtomicLong(0);
+  private volatile boolean stop = false;
+  private volatile boolean partial = false; //some model split into chunks
+  private volatile Throwable failure = null; //first worker failure, e.g. OutOfMemoryError
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static class Chunk
+  {
+    String source;
+    int i_chunk;
+    Graph graph;
+    Reasoner reasoner;
+    long n_src; //source statements, excluding referenced types
+    Chunk(String source, int i_chunk, Graph graph, Reasoner reasoner, long n_src)
+    {
+      this.source = source; this.i_chunk = i_chunk; this.graph = graph; this.reasoner = reasoner; this.n_src = n_src;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param reasoner OWL reasoner bound to the ontology, or null to bind
+	each model to itself, as its own schema
+  */
+  public model_validator(Reasoner reasoner, int nthreads, long chunk_triples, int max_reports, int verbose)
+  {
+    this.reasoner = reasoner;
+    this.nthreads = Math.max(1, nthreads);
+    this.chunk_triples = chunk_triples;
+    this.max_reports = max_reports;
+    this.verbose = verbose;
+    if (reasoner!=null) //prepare shared schema state before concurrent use
+      ModelFactory.createInfModel(reasoner, ModelFactory.createDefaultModel()).validate();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public long ErrorCount() { return n_error.get(); }
+  public long WarningCount() { return n_warning.get(); }
+  public long TripleCount() { return n_triple.get(); }
+  public long ChunkCount() { return n_chunk.get(); }
+  public boolean Stopped() { return stop; }
+  /** True if some model was validated in several chunks, so conflicts
+	across them were not checked. */
+  public boolean Partial() { return partial; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Validate models, names as sources in reports, writing reports to
+	fout as found.  Returns true if no errors.
+  */
+  public boolean Validate(Model [] mods, String [] names, PrintWriter fout) throws IOException
+  {
+    long t0 = System.nanoTime();
+    final Chunk EOF = new Chunk(null, -1, null, null, 0);
+    BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(nthreads);
+    fout.println("source\tchunk\tseverity\ttype\tdescription");
+    ExecutorService exec = Executors.newFixedThreadPool(nthreads);
+    ArrayList<Future<?> > futures = new ArrayList<Future<?> >();
+    for (int i=0; i<nthreads; ++i)
+      futures.add(exec.submit(() -> {
+        for (Chunk chunk=queue.take(); chunk!=EOF; chunk=queue.take())
+        {
+          if (stop) continue; //drain, so producer never blocks
+          try { Validate(chunk, fout); }
+          catch (Throwable e) { if (failure==null) failure = e; stop = true; } //incl. Errors, so workers keep draining
+        }
+        return null;
+      }));
+    exec.shutdown();
+    try {
+      boolean split = false;
+      try {
+        for (int i=0; i<mods.length && !stop; ++i)
+          Split(mods[i], ((names!=null && i<names.length)?names[i]:("graph "+i)), queue);
+        split = true;
+      }
+      finally {
+        if (!split) stop = true; //workers drain and exit
+        for (int i=0; i<nthreads; ++i) queue.put(EOF);
+      }
+      for (Future<?> f: futures) f.get();
+    }
+    catch (InterruptedException e) { exec.shutdownNow(); throw new InterruptedIOException(e.getMessage()); }
+    catch (ExecutionException e) { exec.shutdownNow(); throw new IOException(e.getCause()); }
+    fout.flush();
+    if (failure!=null) throw new IOException(failure);
+    double t = (System.nanoTime()-t0)/1e9;
+    System.err.println(String.format("validated: triples: %d; chunks: %d; errors: %d; warnings: %d%s; threads: %d; elapsed: %.3fs; rate: %.0f triples/s", n_triple.get(), n_chunk.get(), n_error.get(), n_warning.get(), (stop?" (stopped at max reports)":""), nthreads, t, n_triple.get()/Math.max(t, 1e-9)));
+    return (n_error.get()==0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Queue model whole, or in resource-centred chunks.  Graphs which
+	support transactions (e.g. TDB) are always copied, since workers are
+	outside the caller's transaction.
+  */
+  private void Split(Model mod, String source, BlockingQueue<Chunk> queue) throws InterruptedException
+  {
+    Reasoner rsnr = (reasoner!=null)?reasoner:ReasonerRegistry.getOWLReasoner().bindSchema(mod);
+    Graph graph = mod.getGraph();
+    boolean txn = graph.getTransactionHandler().transactionsSupported();
+    long size = graph.size();
+    if (!txn && (chunk_triples<=0 || size<=chunk_triples))
+    {
+      queue.put(new Chunk(source, 0, graph, rsnr, size));
+      return;
+    }
+    long budget = (chunk_triples>0)?chunk_triples:Long.MAX_VALUE;
+    Node type = RDF.type.asNode();
+    int i_chunk=0;
+    Graph chunk = Factory.createDefaultGraph();
+    long n_src=0;
+    ExtendedIterator<Node> subj_itr = GraphUtil.listSubjects(graph, Node.ANY, Node.ANY);
+    try {
+      while (subj_itr.hasNext() && !stop)
+      {
+        ExtendedIterator<Triple> itr = graph.find(subj_itr.next(), Node.ANY, Node.ANY);
+        try {
+          while (itr.hasNext())
+          {
+            Triple trp = itr.next();
+            chunk.add(trp);
+            ++n_src;
+            if (trp.getObject().isLiteral() || trp.getPredicate().equals(type)) continue;
+            ExtendedIterator<Triple> type_itr = graph.find(trp.getObject(), type, Node.ANY);
+            try { while (type_itr.hasNext()) chunk.add(type_itr.next()); }
+            finally { type_itr.close(); }
+          }
+        }
+        finally { itr.close(); }
+        if (chunk.size()>=budget)
+        {
+          queue.put(new Chunk(source, i_chunk++, chunk, rsnr, n_src));
+          chunk = Factory.createDefaultGraph();
+          n_src = 0;
+        }
+      }
+    }
+    finally { subj_itr.close(); }
+    if (!chunk.isEmpty()) queue.put(new Chunk(source, i_chunk++, chunk, rsnr, n_src));
+    if (i_chunk>1) partial = true;
+    if (verbose>0) System.err.println(String.format("validate: %s; triples: %d; chunks: %d", source, size, i_chunk));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void Validate(Chunk chunk, PrintWriter fout)
+  {
+    long t0 = System.nanoTime();
+    InfModel infmod = ModelFactory.createInfModel(chunk.reasoner, ModelFactory.createModelForGraph(chunk.graph));
+    ValidityReport validity = infmod.validate();
+    for (Iterator<ValidityReport.Report> itr = validity.getReports(); itr.hasNext() && !stop; )
+    {
+      ValidityReport.Report report = itr.next();
+      if (!seen.add(chunk.source+"\t"+report.getType()+"\t"+report.getDescription())) continue; //e.g. schema conflicts, in every chunk
+      synchronized (fout) {
+        if (stop) break;
+        (report.isError()?n_error:n_warning).incrementAndGet();
+        if (max_reports>0 && n_error.get()+n_warning.get()>=max_reports) stop = true;
+        fout.println(chunk.source+"\t"+chunk.i_chunk+"\t"+(report.isError()?"error":"warning")+"\t"+report.getType()+"\t"+report.getDescription().replaceAll("\\s+", " "));
+        fout.flush();
+      }
+    }
+    n_chunk.incrementAndGet();
+    n_triple.addAndGet(chunk.n_src);
+    if (verbose>1) System.err.println(String.format("validated: %s; chunk: %d; triples: %d; elapsed: %.3fs", chunk.source, chunk.i_chunk, chunk.graph.size(), (System.nanoTime()-t0)/1e9));
+  }
+}
@@ -0,0 +1,276 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException
+import java.net.*; // URL, HttpURLConnection
+import java.nio.file.*; // Files, Paths, StandardCopyOption
+import java.nio.charset.*; // StandardCharsets
+import java.security.*; // MessageDigest
+import java.util.*; // Arrays, Collection, Collections, Properties
+
+import org.apache.jena.graph.*; // Graph
+import org.apache.jena.riot.*; // RDFDataMgr, RDFFormat
+
+/**	Snapshot cache for parsed ontologies, so later runs skip the RDF/XML
+	parse.  A snapshot is the ontology graph (with imports) in RDF Thrift,
+	written after the first parse.  Entries are named by hash of the
+	source path or URL, with a key file holding the source validators.
+
+	For files, the key is path, mtime, size and content SHA-256.  If mtime
+	and size are unchanged the snapshot is used without reading the
+	source; otherwise content is hashed and, if changed, the entry is
+	stale.  For URLs, the key is the HTTP Last-Modified, ETag and
+	Content-Length from a HEAD request; URLs without any are not cached.
+	Changes in imported documents are not detected.
+
+	The cache is bounded to max_bytes of snapshots, evicting least
+	recently used entries, where a hit updates the snapshot mtime.  The
+	key is removed before a snapshot is replaced and written after, so an
+	interrupted store leaves no entry rather than a mismatched one.
+
+	@author Jeremy Yang
+*/
+public class ont_cache
+{
+  public static final int DEFAULT_MAX_MB = 1024;
+  private File dir;
+  private long max_bytes;
+
+  /////////////////////////////////////////////////////////////////////////////
+  public ont_cache(String cache_dir)
+  {
+    this(cache_dir, ((long)DEFAULT_MAX_MB)<<20);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public ont_cache(String cache_dir, long max_bytes)
+  {
+    this.dir = new File((cache_dir!=null)?cache_dir:DefaultDir());
+    this.max_bytes = max_bytes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static String DefaultDir()
+  {
+    return (System.getProperty("user.home")+File.separator+".cache"+File.separator+"iu_idsl_jena");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public File GetDir() { return dir; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static String Hex(byte [] bytes)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (byte b: bytes) sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static MessageDigest Sha256()
+  {
+    try { return MessageDigest.getInstance("SHA-256"); }
+    catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); } //required in every JRE
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static String ContentHash(File f) throws IOException
+  {
+    MessageDigest md = Sha256();
+    try (InputStream instr = new FileInputStream(f))
+    {
+      byte [] buf = new byte[1<<16];
+      int n;
+      while ((n=instr.read(buf))>0) md.update(buf, 0, n);
+    }
+    return Hex(md.digest());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static boolean IsUrl(String source)
+  {
+    return source.matches("(?i)^(https?|ftp)://.*");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entry name, by hash of absolute path or URL.
+  */
+  private static String EntryName(String source)
+  {
+    String id = IsUrl(source)?source:new File(source).getAbsolutePath();
+    return Hex(Sha256().digest(id.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if source unchanged since key_old, from SourceKey() plus, for
+	a file, "sha256": URL validators all equal; file path, mtime and size
+	equal, or else content hash equal, i.e. touched only.
+  */
+  static boolean Unchanged(String source, Properties key_old) throws IOException
+  {
+    Properties key = SourceKey(source);
+    if (key==null) return false;
+    if (IsUrl(source))
+    {
+      for (String k: key.stringPropertyNames())
+        if (!key.getProperty(k).equals(key_old.getProperty(k))) return false;
+      return true;
+    }
+    if (key.getProperty("path").equals(key_old.getProperty("path"))
+      && key.getProperty("mtime").equals(key_old.getProperty("mtime"))
+      && key.getProperty("size").equals(key_old.getProperty("size")))
+      return true;
+    return (key_old.getProperty("sha256")!=null && ContentHash(new File(source)).equals(key_old.getProperty("sha256")));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Current validators for source, without content hash; null if none.
+  */
+  static Properties SourceKey(String source) throws IOException
+  {
+    Properties key = new Properties();
+    if (IsUrl(source))
+    {
+      key.setProperty("url", source);
+      HttpURLConnection conn = (HttpURLConnection)(new URL(source).openConnection());
+      conn.setRequestMethod("HEAD");
+      conn.setConnectTimeout(10000);
+      conn.setReadTimeout(10000);
+      try {
+        if (conn.getResponseCode()!=HttpURLConnection.HTTP_OK) return null;
+        int n_val=0;
+        for (String h: new String[]{"Last-Modified", "ETag", "Content-Length"})
+        {
+          String val = conn.getHeaderField(h);
+          if (val!=null) { key.setProperty(h, val); ++n_val; }
+        }
+        return ((n_val>0)?key:null);
+      }
+      finally { conn.disconnect(); }
+    }
+    File f = new File(source);
+    if (!f.isFile()) return null;
+    key.setProperty("path", f.getAbsolutePath());
+    key.setProperty("mtime", String.valueOf(f.lastModified()));
+    key.setProperty("size", String.valueOf(f.length()));
+    return key;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Valid snapshot file for source, or null if none or stale.
+  */
+  public File Lookup(String source)
+  {
+    String name = EntryName(source);
+    File f_snap = new File(dir, name+".rt");
+    File f_key = new File(dir, name+".key");
+    if (!f_snap.isFile() || !f_key.isFile()) return null;
+    try {
+      Properties key_old = new Properties();
+      try (Reader rdr = Files.newBufferedReader(f_key.toPath(), StandardCharsets.UTF_8)) { key_old.load(rdr); }
+      Properties key = SourceKey(source);
+      if (key==null) return null;
+      if (IsUrl(source))
+      {
+        for (String k: key.stringPropertyNames())
+          if (!key.getProperty(k).equals(key_old.getProperty(k))) return null;
+        f_snap.setLastModified(System.currentTimeMillis()); //LRU
+        return f_snap;
+      }
+      if (key.getProperty("path").equals(key_old.getProperty("path"))
+        && key.getProperty("mtime").equals(key_old.getProperty("mtime"))
+        && key.getProperty("size").equals(key_old.getProperty("size")))
+      {
+        f_snap.setLastModified(System.currentTimeMillis()); //LRU
+        return f_snap;
+      }
+      //Touched or changed; hash decides, and a touch only updates the key.
+      if (!ContentHash(new File(source)).equals(key_old.getProperty("sha256"))) return null;
+      key.setProperty("sha256", key_old.getProperty("sha256"));
+      WriteKey(f_key, key);
+      f_snap.setLastModified(System.currentTimeMillis()); //LRU
+      return f_snap;
+    }
+    catch (IOException e) {
+      System.err.println("ERROR: cache lookup: "+e.getMessage());
+      return null;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void WriteKey(File f_key, Properties key) throws IOException
+  {
+    File f_tmp = File.createTempFile(f_key.getName(), ".tmp", dir);
+    try (Writer wtr = Files.newBufferedWriter(f_tmp.toPath(), StandardCharsets.UTF_8)) { key.store(wtr, "iu_idsl_jena ontology snapshot key"); }
+    Files.move(f_tmp.toPath(), f_key.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Delete least recently used entries, by mtime of entry files with
+	suffix ext, and their key files, until total size is within
+	max_bytes.  Entry keep, just stored, is not deleted.
+  */
+  static void Evict(File dir, String ext, long max_bytes, File keep)
+  {
+    Evict(dir, ext, max_bytes, Collections.singleton(keep));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static void Evict(File dir, String ext, long max_bytes, Collection<File> keep)
+  {
+    File [] files = dir.listFiles((d, name) -> name.endsWith(ext));
+    if (files==null) return;
+    long [] mtimes = new long[files.length];
+    Integer [] order = new Integer[files.length];
+    long total=0;
+    for (int i=0; i<files.length; ++i)
+    {
+      mtimes[i] = files[i].lastModified();
+      order[i] = i;
+      total += files[i].length();
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(mtimes[a], mtimes[b])); //oldest first
+    for (int i: order)
+    {
+      if (total<=max_bytes) break;
+      if (keep.contains(files[i])) continue;
+      String name = files[i].getName();
+      new File(dir, name.substring(0, name.length()-ext.length())+".key").delete(); //key first
+      long len = files[i].length();
+      if (files[i].delete()) total -= len;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write snapshot of graph for source.  Files are written to temporary
+	names then renamed, so concurrent runs never read a partial entry.
+	Key is taken before the graph is written, hence a source changed
+	meanwhile leaves a stale, not a wrong, entry.  Any old key is
+	removed before the snapshot is replaced, and the new key written
+	after, so a crash in between leaves no valid entry.
+  */
+  public void Store(String source, Graph graph)
+  {
+    String name = EntryName(source);
+    try {
+      Properties key = SourceKey(source);
+      if (key==null) return;
+      if (!IsUrl(source)) key.setProperty("sha256", ContentHash(new File(source)));
+      Files.createDirectories(dir.toPath());
+      File f_snap = new File(dir, name+".rt");
+      File f_tmp = File.createTempFile(name, ".tmp", dir);
+      try (OutputStream ostr = new BufferedOutputStream(new FileOutputStream(f_tmp), 1<<16))
+      {
+        RDFDataMgr.write(ostr, graph, RDFFormat.RDF_THRIFT);
+      }
+      catch (IOException|RuntimeException e) { f_tmp.delete(); throw e; }
+      File f_key = new File(dir, name+".key");
+      Files.deleteIfExists(f_key.toPath());
+      Files.move(f_tmp.toPath(), f_snap.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      WriteKey(f_key, key);
+      Evict(dir, ".rt", max_bytes, f_snap);
+    }
+    catch (IOException|RuntimeException e) {
+      System.err.println("ERROR: cache store: "+e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,484 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // BufferedWriter, File, IOException, OutputStream, OutputStreamWriter, PrintWriter
+import java.net.*; // InetSocketAddress, URLDecoder
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // ArrayList, Arrays, Date, HashMap, Map, NoSuchElementException, Optional
+import java.util.concurrent.*; // Executors, ScheduledExecutorService, TimeUnit
+import java.util.zip.*; // GZIPOutputStream
+
+import org.apache.commons.cli.*; // CommandLine, CommandLineParser, HelpFormatter, Options, ParseException, PosixParser
+
+import org.apache.jena.Jena;
+import org.apache.jena.graph.*; // Node, NodeFactory
+import org.apache.jena.ontology.*; // OntModel
+import org.apache.jena.query.*; // ARQ, Dataset, Query, QueryExecution, QueryExecutionFactory, QueryFactory
+import org.apache.jena.rdf.model.*; // Model
+import org.apache.jena.system.*; // Txn
+
+import com.fasterxml.jackson.core.*; // JsonFactory, JsonGenerator
+import com.sun.net.httpserver.*; // HttpExchange, HttpServer
+
+/**	Long-running service keeping an ontology, its class index and
+	hierarchy, and optionally a dataset, loaded ("hot"), so requests
+	skip JVM startup and parsing.  Operations are the jena_utils
+	ontology exports and lists, class lookups (parents, children,
+	minimal root path) answered from the in-memory index, and SPARQL
+	SELECT over the dataset (TIM, in read transactions) or else the
+	ontology.  Responses stream to the client writer.
+
+	Loaded state is immutable and replaced as a whole, so concurrent
+	requests need no locking, and a request in progress during a reload
+	completes on the state it started with.  If source files change
+	(mtime or size, unchanged over two checks, so files still being
+	written are not read), the changed ontology or dataset is reloaded
+	in the background and swapped in; if the reload fails, the old state
+	is kept.  A reload holds old and new in memory at once.
+
+	Served by jena_servlet in a servlet container, or by main() here, an
+	embedded JDK HTTP server: GET /OP?PARAM=VALUE..., or POST a form,
+	or POST SPARQL (application/sparql-query) to /query.
+
+	@author Jeremy Yang
+*/
+public class ont_service
+{
+  static { //jar-with-dependencies keeps only jena-core's subsystem services file
+    org.apache.jena.riot.RIOT.init();
+    ARQ.init();
+  }
+
+  public static final String [] OPS = {"status", "class", "classes", "subclasses", "rootclasses",
+	"toplevelsuperclassmembership", "tsv", "edgelist", "nodelist", "cyjs", "graphml", "query"};
+
+  /** Loaded ontology, index and dataset; read-only once built. */
+  private static class State
+  {
+    OntModel omod;
+    class_index cidx;
+    class_hierarchy hier;
+    Dataset dset; //null if no data files
+    String signature_ont;
+    String signature_rdf;
+    long loaded; //ms
+    double load_s;
+  }
+
+  private String ifile_ont;
+  private String otype;
+  private String [] ifiles_rdf;
+  private String dlang;
+  private ont_cache cache;
+  private int nthreads;
+  private int verbose;
+  private volatile State state;
+  private String signature_pending = null; //changed, awaiting stable
+  private String signature_failed = null; //not retried until changed again
+  private volatile int n_reload = 0;
+  private ScheduledExecutorService watcher = null;
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Loads ontology and data files, or throws.
+	@param ifiles_rdf data files, first as default graph, or null
+	@param cache ontology snapshot cache, or null
+  */
+  public ont_service(String ifile_ont, String otype, String [] ifiles_rdf, String dlang, ont_cache cache, int nthreads, int verbose)
+	throws IOException
+  {
+    this.ifile_ont = ifile_ont;
+    this.otype = otype;
+    this.ifiles_rdf = ifiles_rdf;
+    this.dlang = dlang;
+    this.cache = cache;
+    this.nthreads = Math.max(1, nthreads);
+    this.verbose = verbose;
+    this.state = Load(null);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Path, mtime and size of each file.
+  */
+  private static String Signature(String... ifiles)
+  {
+    StringBuilder sb = new StringBuilder();
+    if (ifiles==null) return "";
+    for (String ifile: ifiles)
+    {
+      File f = new File(ifile);
+      sb.append(f.getAbsolutePath()+"\t"+f.lastModified()+"\t"+f.length()+"\n");
+    }
+    return sb.toString();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Load state, reusing from prev (if not null) the ontology or dataset
+	whose sources are unchanged.
+  */
+  private State Load(State prev) throws IOException
+  {
+    long t0 = System.nanoTime();
+    State st = new State();
+    st.signature_ont = Signature(ifile_ont);
+    st.signature_rdf = Signature(ifiles_rdf);
+    if (prev!=null && st.signature_ont.equals(prev.signature_ont))
+    {
+      st.omod = prev.omod; st.cidx = prev.cidx; st.hier = prev.hier;
+    }
+    else
+    {
+      st.omod = jena_utils.ReadOntologyFile(ifile_ont, otype, cache);
+      st.cidx = new class_index(st.omod);
+      st.hier = new class_hierarchy(st.cidx);
+    }
+    if (prev!=null && st.signature_rdf.equals(prev.signature_rdf))
+      st.dset = prev.dset;
+    else if (ifiles_rdf!=null)
+      st.dset = jena_utils.LoadTIM(ifiles_rdf, dlang, nthreads, 64L<<20, new ArrayList<Model>(), verbose);
+    st.loaded = System.currentTimeMillis();
+    st.load_s = (System.nanoTime()-t0)/1e9;
+    System.err.println(String.format("loaded: %s; classes: %d; elapsed: %.3fs", ifile_ont, st.cidx.ListedCount(), st.load_s));
+    return st;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Check sources every period_s seconds, reloading when changed.
+  */
+  public synchronized void Watch(int period_s)
+  {
+    if (watcher!=null || period_s<=0) return;
+    watcher = Executors.newSingleThreadScheduledExecutor((r) -> { Thread t = new Thread(r, "ont_service-watch"); t.setDaemon(true); return t; });
+    watcher.scheduleWithFixedDelay(this::CheckReload, period_s, period_s, TimeUnit.SECONDS);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Reload if sources changed and unchanged since last check.  Runs on
+	the watcher thread only.
+  */
+  private void CheckReload()
+  {
+    State st = state;
+    String sig = Signature(ifile_ont)+Signature(ifiles_rdf);
+    if (sig.equals(st.signature_ont+st.signature_rdf) || sig.equals(signature_failed)) { signature_pending = null; return; }
+    if (!sig.equals(signature_pending)) { signature_pending = sig; return; } //wait until stable
+    signature_pending = null;
+    System.err.println("sources changed; reloading: "+ifile_ont);
+    try {
+      state = Load(st);
+      ++n_reload;
+    }
+    catch (Throwable e) {
+      signature_failed = sig;
+      System.err.println("ERROR: reload failed, keeping previous: "+e.getMessage());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public synchronized void Close()
+  {
+    if (watcher!=null) watcher.shutdownNow();
+    watcher = null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static boolean IsOp(String op)
+  {
+    return Arrays.asList(OPS).contains(op);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Response content type, per op and params.
+  */
+  public static String ContentType(String op, Map<String,String> params)
+  {
+    if (op.equals("status") || op.equals("class") || op.equals("cyjs")) return "application/json; charset=UTF-8";
+    if (op.equals("graphml")) return "application/xml; charset=UTF-8";
+    if (op.equals("query"))
+    {
+      String ofmt = params.getOrDefault("ofmt", "tsv").toLowerCase();
+      if (ofmt.equals("json")) return "application/sparql-results+json; charset=UTF-8";
+      if (ofmt.equals("ndjson")) return "application/x-ndjson; charset=UTF-8";
+      if (ofmt.equals("csv")) return "text/csv; charset=UTF-8";
+      if (ofmt.equals("tsv")) return "text/tab-separated-values; charset=UTF-8";
+      return "text/plain; charset=UTF-8";
+    }
+    if (op.equals("toplevelsuperclassmembership") || op.equals("tsv")) return "text/tab-separated-values; charset=UTF-8";
+    return "text/plain; charset=UTF-8";
+  }
+
+  /** Response writer, opened once the request is valid, e.g. after
+	sending status and headers. */
+  public interface Opener { PrintWriter Open() throws IOException; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Check request against state, before any response is sent, so errors
+	get a status.  Bad requests throw IllegalArgumentException, unknown
+	classes NoSuchElementException.
+  */
+  private static void Validate(State state, String op, Map<String,String> params)
+  {
+    if (!IsOp(op)) throw new IllegalArgumentException("Unknown op: "+op+"; ops: "+String.join(", ", OPS));
+    if (op.equals("class"))
+    {
+      String uri = params.get("uri");
+      if (uri==null) throw new IllegalArgumentException("uri required");
+      if (state.cidx.GetId(NodeFactory.createURI(uri))<0) throw new NoSuchElementException("Class not found: "+uri);
+    }
+    else if (op.equals("query"))
+    {
+      String rq = params.get("sparql");
+      if (rq==null) throw new IllegalArgumentException("sparql required");
+      if (!results_writer.IsFormat(params.getOrDefault("ofmt", "tsv"))) throw new IllegalArgumentException("Bad ofmt: "+params.get("ofmt"));
+      try { if (!QueryFactory.create(rq).isSelectType()) throw new IllegalArgumentException("SELECT query required"); }
+      catch (QueryException e) { throw new IllegalArgumentException(e.getMessage()); }
+    }
+    else if (op.equals("toplevelsuperclassmembership")) IntParam(params, "maxlevel", 5);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run op, response to writer.  Errors as Handle(String, Map, Opener).
+  */
+  public void Handle(String op, Map<String,String> params, PrintWriter writer)
+	throws Exception
+  {
+    Handle(op, params, () -> writer);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run op, response to the writer from opener, which is called only
+	once the request is valid; if not, IllegalArgumentException (bad
+	request) or NoSuchElementException (unknown class) is thrown first.
+	Validated and run on the same state, even if reloaded meanwhile.
+  */
+  public void Handle(String op, Map<String,String> params, Opener opener)
+	throws Exception
+  {
+    State st = state; //this request's state, even if reloaded meanwhile
+    long t0 = System.nanoTime();
+    Validate(st, op, params);
+    PrintWriter writer = opener.Open();
+    int v = 0; //no per-class logging in service
+    if (op.equals("status")) WriteStatus(st, writer);
+    else if (op.equals("class")) WriteClass(st, params.get("uri"), writer);
+    else if (op.equals("classes")) jena_utils.OntModelClassList(st.cidx, writer, v);
+    else if (op.equals("subclasses")) jena_utils.OntModelSubclassList(st.cidx, writer, v);
+    else if (op.equals("rootclasses")) jena_utils.OntModelRootclassList(st.hier, writer);
+    else if (op.equals("toplevelsuperclassmembership")) jena_utils.ListToplevelSuperclassMembership(st.hier, writer, IntParam(params, "maxlevel", 5));
+    else if (op.equals("tsv")) jena_utils.OntModel2TSV(st.cidx, writer, v);
+    else if (op.equals("edgelist")) jena_utils.OntModel2Edgelist(st.cidx, writer, v);
+    else if (op.equals("nodelist")) jena_utils.OntModel2Nodelist(st.cidx, writer, v);
+    else if (op.equals("cyjs")) jena_utils.OntModel2CYJS(st.cidx, writer, "true".equals(params.get("compact")), v);
+    else if (op.equals("graphml"))
+    {
+      String attrs = params.get("graphml_attrs");
+      jena_utils.OntModel2GraphML(st.cidx, jena_utils.GraphMLNodeAttributes(st.cidx, ((attrs!=null)?attrs.split("[\\s,]+"):null)), writer, v);
+    }
+    else if (op.equals("query")) Query(st, params.get("sparql"), params.getOrDefault("ofmt", "tsv"), writer);
+    else throw new IllegalArgumentException("Unknown op: "+op);
+    writer.flush();
+    if (verbose>0) System.err.println(String.format("%s: elapsed: %.3fs", op, (System.nanoTime()-t0)/1e9));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static int IntParam(Map<String,String> params, String name, int dflt)
+  {
+    String val = params.get(name);
+    if (val==null) return dflt;
+    try { return Integer.parseInt(val); }
+    catch (NumberFormatException e) { throw new IllegalArgumentException("Bad "+name+": "+val); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void WriteStatus(State st, PrintWriter writer) throws IOException
+  {
+    JsonGenerator jsg = new JsonFactory().createGenerator(writer);
+    jsg.writeStartObject();
+    jsg.writeStringField("ontology", ifile_ont);
+    jsg.writeNumberField("classes", st.cidx.ListedCount());
+    jsg.writeNumberField("subclass_edges", st.cidx.EdgeCount());
+    jsg.writeNumberField("triples", st.omod.getGraph().size());
+    if (ifiles_rdf!=null) jsg.writeStringField("rdfs", String.join(",", ifiles_rdf));
+    jsg.writeStringField("loaded", new Date(st.loaded).toString());
+    jsg.writeNumberField("load_s", st.load_s);
+    jsg.writeNumberField("reloads", n_reload);
+    jsg.writeStringField("jena", Jena.VERSION);
+    jsg.writeEndObject();
+    jsg.close();
+    writer.write("\n");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Class lookup, from the index: label, comment, level, direct parents
+	and children, and minimal path from root.
+  */
+  private static void WriteClass(State st, String uri, PrintWriter writer) throws IOException
+  {
+    class_index cidx = st.cidx;
+    int id = cidx.GetId(NodeFactory.createURI(uri));
+    if (id<0) throw new NoSuchElementException("Class not found: "+uri);
+    JsonGenerator jsg = new JsonFactory().createGenerator(writer);
+    jsg.writeStartObject();
+    WriteClassFields(jsg, cidx, id);
+    if (cidx.GetComment(id)!=null) jsg.writeStringField("comment", cidx.GetComment(id));
+    jsg.writeNumberField("level", st.hier.GetLevel(id));
+    jsg.writeArrayFieldStart("parents");
+    for (int j=0; j<cidx.ParentCount(id); ++j) { jsg.writeStartObject(); WriteClassFields(jsg, cidx, cidx.GetParent(id, j)); jsg.writeEndObject(); }
+    jsg.writeEndArray();
+    jsg.writeArrayFieldStart("children");
+    for (int j=0; j<cidx.ChildCount(id); ++j) { jsg.writeStartObject(); WriteClassFields(jsg, cidx, cidx.GetChild(id, j)); jsg.writeEndObject(); }
+    jsg.writeEndArray();
+    jsg.writeArrayFieldStart("path"); //from root
+    for (int p: st.hier.GetMinimalPath(id)) { jsg.writeStartObject(); WriteClassFields(jsg, cidx, p); jsg.writeEndObject(); }
+    jsg.writeEndArray();
+    jsg.writeEndObject();
+    jsg.close();
+    writer.write("\n");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void WriteClassFields(JsonGenerator jsg, class_index cidx, int id) throws IOException
+  {
+    Node node = cidx.GetNode(id);
+    jsg.writeStringField("uri", node.isURI()?node.getURI():("_:"+node.getBlankNodeLabel()));
+    if (cidx.GetLabel(id)!=null) jsg.writeStringField("label", cidx.GetLabel(id));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	SELECT over the dataset in a read transaction, else the ontology
+	model, which is never written once loaded.
+  */
+  private static void Query(State st, String rq, String ofmt, PrintWriter writer) throws IOException
+  {
+    Query query = QueryFactory.create(rq);
+    if (st.dset==null)
+    {
+      try (QueryExecution qex = QueryExecutionFactory.create(query, st.omod)) { results_writer.Write(qex.execSelect(), ofmt, query.getPrologue(), writer); }
+      return;
+    }
+    Txn.executeRead(st.dset, () -> {
+      try (QueryExecution qex = QueryExecutionFactory.create(query, st.dset)) { results_writer.Write(qex.execSelect(), ofmt, query.getPrologue(), writer); }
+      catch (IOException e) { throw new UncheckedIOException(e); }
+    });
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parse application/x-www-form-urlencoded parameters into params.
+  */
+  public static void ParseParams(String qs, Map<String,String> params) throws UnsupportedEncodingException
+  {
+    if (qs==null || qs.isEmpty()) return;
+    for (String pair: qs.split("&"))
+    {
+      int i = pair.indexOf('=');
+      String key = URLDecoder.decode((i<0)?pair:pair.substring(0, i), "UTF-8");
+      String val = (i<0)?"":URLDecoder.decode(pair.substring(i+1), "UTF-8");
+      params.put(key, val);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Embedded server request handler: op from path, params from query
+	string and form or SPARQL body; gzip if accepted.
+  */
+  private void Serve(HttpExchange exch) throws IOException
+  {
+    try {
+      String op = exch.getRequestURI().getPath().replaceFirst("^/+", "").replaceFirst("/+$", "");
+      HashMap<String,String> params = new HashMap<String,String>();
+      ParseParams(exch.getRequestURI().getRawQuery(), params);
+      if (exch.getRequestMethod().equals("POST"))
+      {
+        String ctype = Optional.ofNullable(exch.getRequestHeaders().getFirst("Content-Type")).orElse("");
+        String body = new String(exch.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (ctype.startsWith("application/sparql-query")) params.put("sparql", body);
+        else ParseParams(body, params);
+      }
+      boolean gzip = Optional.ofNullable(exch.getRequestHeaders().getFirst("Accept-Encoding")).orElse("").contains("gzip");
+      PrintWriter [] writer = {null};
+      try {
+        Handle(op, params, () -> {
+          exch.getResponseHeaders().set("Content-Type", ContentType(op, params));
+          if (gzip) exch.getResponseHeaders().set("Content-Encoding", "gzip");
+          exch.sendResponseHeaders(200, 0); //chunked
+          OutputStream ostream = gzip?new GZIPOutputStream(exch.getResponseBody(), 1<<16):exch.getResponseBody();
+          writer[0] = new PrintWriter(new BufferedWriter(new OutputStreamWriter(ostream, StandardCharsets.UTF_8), 1<<16));
+          return writer[0];
+        });
+      }
+      catch (IllegalArgumentException e) {
+        if (writer[0]!=null) throw e;
+        SendError(exch, (IsOp(op)?400:404), e.getMessage());
+      }
+      catch (NoSuchElementException e) {
+        if (writer[0]!=null) throw e;
+        SendError(exch, 404, e.getMessage());
+      }
+      finally { if (writer[0]!=null) writer[0].close(); }
+    }
+    catch (Exception e) {
+      System.err.println("ERROR: "+exch.getRequestURI()+": "+e);
+    }
+    finally { exch.close(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void SendError(HttpExchange exch, int status, String msg) throws IOException
+  {
+    byte [] bytes = (msg+"\n").getBytes(StandardCharsets.UTF_8);
+    exch.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+    exch.sendResponseHeaders(status, bytes.length);
+    exch.getResponseBody().write(bytes);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String APPNAME="ONT_SERVICE";
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static void main(String [] args) throws Exception
+  {
+    String HELPHEADER = "ONT_SERVICE: Ontology and dataset service, embedded HTTP server";
+    String HELPFOOTER = ("Jena version: "+Jena.VERSION+"\n"
+      +"Requests: GET /OP?PARAM=VALUE..., e.g. /class?uri=URI, /query?sparql=SPARQL&ofmt=tsv\n"
+      +"OPS: "+String.join(", ", OPS)+"\n"
+      +"Sources are reloaded when changed, checked every -reload_s seconds.\n"
+      +"Changes in imported documents (owl:imports) are not detected.\n");
+    Options opts = new Options();
+    opts.addOption(Option.builder("ifile_ont").hasArg().argName("IFILE_ONT").desc("input ontology (RDF/XML)").required(true).build());
+    opts.addOption(Option.builder("otype").hasArg().argName("OTYPE").desc("ontology type (OWL|RDFS) [OWL]").build());
+    opts.addOption(Option.builder("rdfs").hasArg().argName("RDFS").desc("data files (comma separated), 1st as default graph").build());
+    opts.addOption(Option.builder("dlang").hasArg().argName("DLANG").desc("data language, else from file extension").build());
+    opts.addOption(Option.builder("port").hasArg().argName("PORT").desc("server port [8080]").build());
+    opts.addOption(Option.builder("nthreads").hasArg().argName("N").desc("request threads [2x CPUs]").build());
+    opts.addOption(Option.builder("reload_s").hasArg().argName("SECONDS").desc("source change check period (0=never) [10]").build());
+    opts.addOption(Option.builder("cache_dir").hasArg().argName("DIR").desc("ontology snapshot cache, up to "+ont_cache.DEFAULT_MAX_MB+" MB ["+ont_cache.DefaultDir()+"]").build());
+    opts.addOption(Option.builder("nocache").desc("bypass ontology snapshot cache").build());
+    opts.addOption("v", "verbose", false, "Verbose.");
+    opts.addOption("h", "help", false, "Show this help.");
+    HelpFormatter helper = new HelpFormatter();
+    CommandLineParser clip = new PosixParser();
+    CommandLine clic = null;
+    try {
+      clic = clip.parse(opts, args);
+    } catch (ParseException e) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, e.getMessage(), true);
+      System.exit(0);
+    }
+    if (clic.hasOption("h")) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, HELPFOOTER, true);
+      System.exit(0);
+    }
+    int port = Integer.parseInt(clic.getOptionValue("port", "8080"));
+    int nthreads = Integer.parseInt(clic.getOptionValue("nthreads", String.valueOf(2*Runtime.getRuntime().availableProcessors())));
+    int reload_s = Integer.parseInt(clic.getOptionValue("reload_s", "10"));
+    String [] ifiles_rdf = clic.hasOption("rdfs")?clic.getOptionValue("rdfs").split(","):null;
+    ont_cache cache = clic.hasOption("nocache")?null:new ont_cache(clic.getOptionValue("cache_dir"));
+    int verbose = clic.hasOption("v")?1:0;
+
+    ont_service service = new ont_service(clic.getOptionValue("ifile_ont"), clic.getOptionValue("otype", "OWL"), ifiles_rdf, clic.getOptionValue("dlang"), cache, Runtime.getRuntime().availableProcessors(), verbose);
+    service.Watch(reload_s);
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/", service::Serve);
+    server.setExecutor(Executors.newFixedThreadPool(nthreads));
+    server.start();
+    System.err.println("listening: http://localhost:"+port+"/ ("+String.join(", ", OPS)+")");
+  }
+}
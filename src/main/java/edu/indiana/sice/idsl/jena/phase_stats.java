@@ -0,0 +1,213 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException, PrintWriter
+import java.lang.management.*; // GarbageCollectorMXBean, ManagementFactory, MemoryPoolMXBean, MemoryType, OperatingSystemMXBean
+import java.time.*; // Instant
+import java.util.*; // ArrayList, List
+
+import com.fasterxml.jackson.core.*; // JsonEncoding, JsonFactory, JsonGenerator
+
+/**	Per-phase instrumentation, e.g. SPARQL file read, ontology parse,
+	data load, reasoning, traversal, export and query, so a slow run can
+	be blamed on a stage without a profiler.  Each phase records wall
+	time, process CPU time (all threads, so parallel phases show CPU >
+	wall), peak heap, GC time and count, and an item count with unit,
+	e.g. triples, classes or rows.  Phases are sequential: Start() ends
+	any open phase.
+
+	Peak heap is the sum of heap pool peaks, reset at phase start, so an
+	upper bound on the true peak; heap_end is heap used at phase end.
+	Report as TSV or JSON via Write(), one row per phase plus a total.
+
+	@author Jeremy Yang
+*/
+public class phase_stats
+{
+  /////////////////////////////////////////////////////////////////////////////
+  public static class Phase
+  {
+    public String name;
+    public double wall_s;
+    public double cpu_s; //-1=unavailable
+    public double gc_s;
+    public long gc_count;
+    public long heap_peak;
+    public long heap_end;
+    public long items; //-1=unknown
+    public String unit;
+  }
+
+  private ArrayList<Phase> phases = new ArrayList<Phase>();
+  private Phase current = null;
+  private long t_start = System.nanoTime();
+  private long t0, cpu0, gc_t0, gc_n0;
+  private String started = Instant.now().toString();
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Begin phase, ending the open one, if any, with unknown count.
+  */
+  public synchronized void Start(String name)
+  {
+    if (current!=null) Stop(-1, null);
+    current = new Phase();
+    current.name = name;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType()==MemoryType.HEAP) pool.resetPeakUsage();
+    gc_t0 = GcTime();
+    gc_n0 = GcCount();
+    cpu0 = CpuTime();
+    t0 = System.nanoTime();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	End open phase, with item count (-1=unknown) and unit.  Returns the
+	phase, or null if none open.
+  */
+  public synchronized Phase Stop(long items, String unit)
+  {
+    if (current==null) return null;
+    Phase ph = current;
+    ph.wall_s = (System.nanoTime()-t0)/1e9;
+    long cpu = CpuTime();
+    ph.cpu_s = (cpu>=0 && cpu0>=0)?(cpu-cpu0)/1e9:-1;
+    ph.gc_s = (GcTime()-gc_t0)/1e3;
+    ph.gc_count = GcCount()-gc_n0;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType()==MemoryType.HEAP && pool.getPeakUsage()!=null) ph.heap_peak += pool.getPeakUsage().getUsed();
+    ph.heap_end = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    ph.items = items;
+    ph.unit = unit;
+    phases.add(ph);
+    current = null;
+    return ph;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public synchronized List<Phase> GetPhases() { return new ArrayList<Phase>(phases); }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Process CPU time, ns, all threads; -1 if unavailable.
+  */
+  private static long CpuTime()
+  {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean)
+      return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+    return -1;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static long GcTime()
+  {
+    long t=0;
+    for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) t += Math.max(0, gc.getCollectionTime());
+    return t;
+  }
+
+  private static long GcCount()
+  {
+    long n=0;
+    for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+    return n;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Totals over phases; peak heap is the max over phases.
+  */
+  private Phase Total()
+  {
+    Phase tot = new Phase();
+    tot.name = "total";
+    tot.wall_s = (System.nanoTime()-t_start)/1e9; //including untimed gaps
+    tot.items = -1;
+    for (Phase ph: phases)
+    {
+      tot.cpu_s = (tot.cpu_s<0 || ph.cpu_s<0)?-1:tot.cpu_s+ph.cpu_s;
+      tot.gc_s += ph.gc_s;
+      tot.gc_count += ph.gc_count;
+      tot.heap_peak = Math.max(tot.heap_peak, ph.heap_peak);
+      tot.heap_end = ph.heap_end;
+    }
+    return tot;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Report format from file name: JSON if *.json, else TSV.
+  */
+  public static String FormatFor(String ofile)
+  {
+    return ofile.toLowerCase().endsWith(".json")?"JSON":"TSV";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write report, ending any open phase.
+	@param fmt JSON|TSV
+  */
+  public synchronized void Write(PrintWriter fout, String fmt) throws IOException
+  {
+    if (current!=null) Stop(-1, null);
+    ArrayList<Phase> rows = new ArrayList<Phase>(phases);
+    rows.add(Total());
+    if (fmt.equalsIgnoreCase("JSON"))
+    {
+      JsonGenerator jsg = new JsonFactory().createGenerator(fout);
+      jsg.useDefaultPrettyPrinter();
+      jsg.writeStartObject();
+      jsg.writeStringField("started", started);
+      jsg.writeNumberField("processors", Runtime.getRuntime().availableProcessors());
+      jsg.writeNumberField("heap_max", Runtime.getRuntime().maxMemory());
+      jsg.writeArrayFieldStart("phases");
+      for (Phase ph: rows)
+      {
+        jsg.writeStartObject();
+        jsg.writeStringField("phase", ph.name);
+        jsg.writeNumberField("wall_s", Round(ph.wall_s));
+        jsg.writeNumberField("cpu_s", Round(ph.cpu_s));
+        jsg.writeNumberField("gc_s", Round(ph.gc_s));
+        jsg.writeNumberField("gc_count", ph.gc_count);
+        jsg.writeNumberField("heap_peak", ph.heap_peak);
+        jsg.writeNumberField("heap_end", ph.heap_end);
+        jsg.writeNumberField("items", ph.items);
+        if (ph.unit!=null) jsg.writeStringField("unit", ph.unit);
+        if (ph.items>=0 && ph.wall_s>0) jsg.writeNumberField("items_per_s", Round(ph.items/ph.wall_s));
+        jsg.writeEndObject();
+      }
+      jsg.writeEndArray();
+      jsg.writeEndObject();
+      jsg.flush();
+      fout.println();
+    }
+    else
+    {
+      fout.println("phase\twall_s\tcpu_s\tgc_s\tgc_count\theap_peak\theap_end\titems\tunit\titems_per_s");
+      for (Phase ph: rows)
+        fout.println(String.format("%s\t%.3f\t%.3f\t%.3f\t%d\t%d\t%d\t%d\t%s\t%s", ph.name, ph.wall_s, ph.cpu_s, ph.gc_s, ph.gc_count, ph.heap_peak, ph.heap_end, ph.items, ((ph.unit!=null)?ph.unit:""), ((ph.items>=0 && ph.wall_s>0)?String.format("%.1f", ph.items/ph.wall_s):"")));
+    }
+    fout.flush();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static double Round(double x) { return Math.round(x*1000.0)/1000.0; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write report to file, format per FormatFor().
+  */
+  public void Write(String ofile) throws IOException
+  {
+    try (PrintWriter fout = new PrintWriter(new FileWriter(ofile)))
+    {
+      Write(fout, FormatFor(ofile));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	One line per phase, e.g. for stderr.
+  */
+  public synchronized String Summary()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Phase ph: phases)
+      sb.append(String.format("phase: %s; wall: %.3fs; cpu: %.3fs; gc: %.3fs; heap peak: %.1fMB%s\n", ph.name, ph.wall_s, ph.cpu_s, ph.gc_s, ph.heap_peak/1048576.0, ((ph.items>=0)?("; "+ph.items+" "+ph.unit):"")));
+    return sb.toString().replaceFirst("\\s+$", "");
+  }
+}
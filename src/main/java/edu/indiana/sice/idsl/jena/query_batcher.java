@@ -0,0 +1,220 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // BufferedReader, IOException
+import java.nio.file.*; // Files, Paths
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // ArrayDeque, ArrayList, Iterator, LinkedHashSet, List
+import java.util.concurrent.*; // ExecutorService, Executors, Future
+import java.util.function.*; // Function
+
+import org.apache.jena.graph.*; // Node, NodeFactory
+import org.apache.jena.query.*; // Dataset, Query, QueryExecution, QueryExecutionFactory, QueryFactory, ResultSet
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding, BindingFactory
+import org.apache.jena.sparql.syntax.*; // ElementData, ElementGroup
+import org.apache.jena.sparql.util.*; // NodeFactoryExtra
+import org.apache.jena.system.*; // Txn
+
+/**	Query template run over input values in VALUES batches.  A column of
+	values is read from a TSV file; each batch of values is bound to a
+	template variable by a VALUES block at the start of the WHERE
+	clause, so one query answers a batch.  Batches run concurrently, up
+	to nthreads in flight, against a local dataset or an endpoint, and
+	results are passed on as one result set in batch order.  Solution
+	modifiers and aggregates would apply per batch, so templates with
+	them are rejected.
+
+	Values are read as: RDF terms if in N-Triples/Turtle form (<iri>,
+	"literal", _:b), prefixed names if the prefix is declared in the
+	template, IRIs if scheme://..., else plain literals.
+
+	@author Jeremy Yang
+*/
+public class query_batcher
+{
+  private Query template;
+  private Var var;
+  private List<Node> values;
+  private int batch_size;
+  private int nthreads;
+  private Function<Query,ResultSet> exec; //returns materialized results
+  private int verbose;
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param exec query to materialized results, e.g. ForDataset(), ForEndpoint()
+  */
+  public query_batcher(String rq, String varname, List<Node> values, int batch_size, int nthreads, Function<Query,ResultSet> exec, int verbose)
+  {
+    this.template = QueryFactory.create(rq);
+    if (!template.isSelectType()) throw new IllegalArgumentException("Template requires SELECT query.");
+    if (!(template.getQueryPattern() instanceof ElementGroup)) throw new IllegalArgumentException("Template requires WHERE clause.");
+    if (template.hasLimit() || template.hasOffset() || template.hasOrderBy() || template.isDistinct() || template.isReduced() || template.hasGroupBy() || template.hasAggregators() || template.hasHaving())
+      throw new IllegalArgumentException("Template cannot have LIMIT, OFFSET, ORDER BY, DISTINCT, REDUCED, GROUP BY, HAVING or aggregates, which would apply per batch, not to the merged results.");
+    this.var = Var.alloc(varname.replaceFirst("^[?$]", ""));
+    this.values = values;
+    this.batch_size = Math.max(1, batch_size);
+    this.nthreads = Math.max(1, nthreads);
+    this.exec = exec;
+    this.verbose = verbose;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Executes in a read transaction per batch, so safe for concurrent
+	batches, in-memory or TDB.
+  */
+  public static Function<Query,ResultSet> ForDataset(Dataset dset)
+  {
+    return (q) -> Txn.calculateRead(dset, () -> {
+      try (QueryExecution qex = QueryExecutionFactory.create(q, dset)) { return ResultSetFactory.copyResults(qex.execSelect()); }
+    });
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static Function<Query,ResultSet> ForEndpoint(String url)
+  {
+    return (q) -> {
+      try (QueryExecution qex = http_client.Exec(url, q)) { return ResultSetFactory.copyResults(qex.execSelect()); }
+    };
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Distinct values, in input order, from TSV column, by header name or
+	1-based index.  First line is header.
+  */
+  public static List<String> ReadValues(String ifile, String col) throws IOException
+  {
+    LinkedHashSet<String> vals = new LinkedHashSet<String>();
+    try (BufferedReader buff = Files.newBufferedReader(Paths.get(ifile), StandardCharsets.UTF_8))
+    {
+      String line = buff.readLine();
+      if (line==null) return new ArrayList<String>();
+      String [] header = line.split("\t", -1);
+      int j_col = -1;
+      for (int j=0; j<header.length; ++j) if (header[j].equals(col)) j_col = j;
+      if (j_col<0 && col.matches("\\d+")) j_col = Integer.parseInt(col)-1;
+      if (j_col<0 || j_col>=header.length) throw new IOException("Column not found: "+col+" ("+ifile+")");
+      while ((line=buff.readLine())!=null)
+      {
+        String [] fields = line.split("\t", -1);
+        if (j_col<fields.length && !fields[j_col].trim().isEmpty()) vals.add(fields[j_col].trim());
+      }
+    }
+    return new ArrayList<String>(vals);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Value to node, per class doc, with prefixes from template.
+  */
+  public static Node ParseValue(String val, Query template)
+  {
+    if (val.startsWith("<") || val.startsWith("\"") || val.startsWith("_:"))
+      return NodeFactoryExtra.parseNode(val);
+    if (val.matches("^[A-Za-z][A-Za-z0-9+.-]*://.*"))
+      return NodeFactory.createURI(val);
+    int i = val.indexOf(':');
+    if (i>0)
+    {
+      String ns = template.getPrefixMapping().getNsPrefixURI(val.substring(0, i));
+      if (ns!=null) return NodeFactory.createURI(ns+val.substring(i+1));
+    }
+    return NodeFactory.createLiteral(val);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static List<Node> ParseValues(List<String> vals, String rq)
+  {
+    Query template = QueryFactory.create(rq);
+    ArrayList<Node> nodes = new ArrayList<Node>(vals.size());
+    for (String val: vals) nodes.add(ParseValue(val, template));
+    return nodes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Template with VALUES block for var prepended to WHERE clause.
+  */
+  public Query BatchQuery(int i_batch)
+  {
+    ElementData data = new ElementData();
+    data.add(var);
+    int i_end = Math.min(values.size(), (i_batch+1)*batch_size);
+    for (int i=i_batch*batch_size; i<i_end; ++i)
+      data.add(BindingFactory.binding(var, values.get(i)));
+    Query q = template.cloneQuery();
+    ElementGroup where = new ElementGroup();
+    where.addElement(data);
+    for (Element elem: ((ElementGroup)template.getQueryPattern()).getElements()) where.addElement(elem);
+    q.setQueryPattern(where);
+    return q;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private List<Binding> RunBatch(int i_batch, List<String> vars_out)
+  {
+    long t0 = System.nanoTime();
+    ResultSet results = exec.apply(BatchQuery(i_batch));
+    ArrayList<Binding> rows = new ArrayList<Binding>();
+    while (results.hasNext()) rows.add(results.nextBinding());
+    synchronized (vars_out) { if (vars_out.isEmpty()) vars_out.addAll(results.getResultVars()); }
+    if (verbose>1) System.err.println(String.format("batch: %d; rows: %d; elapsed: %.3fs", i_batch, rows.size(), (System.nanoTime()-t0)/1e9));
+    return rows;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run batches, passing merged results to handler.  Returns handler
+	row count.  Usable as results_cache.Source.
+  */
+  public long Fetch(results_cache.Handler handler) throws IOException
+  {
+    int nbatch = (values.size()+batch_size-1)/batch_size;
+    if (verbose>0) System.err.println(String.format("values: %d; batches: %d; batch size: %d", values.size(), nbatch, batch_size));
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    List<String> vars = new ArrayList<String>();
+    ArrayDeque<Future<List<Binding> > > inflight = new ArrayDeque<Future<List<Binding> > >();
+    int [] next_batch = {0};
+    Runnable submit = () -> {
+      while (inflight.size()<nthreads && next_batch[0]<nbatch)
+      {
+        final int i_batch = next_batch[0]++;
+        inflight.add(pool.submit(() -> RunBatch(i_batch, vars)));
+      }
+    };
+    try {
+      submit.run();
+      List<Binding> first = inflight.isEmpty()?new ArrayList<Binding>():Take(inflight.poll());
+      if (vars.isEmpty()) { template.setResultVars(); vars.addAll(template.getResultVars()); }
+      Iterator<Binding> rows = new Iterator<Binding>() {
+        private List<Binding> batch = first;
+        private int i=0;
+        public boolean hasNext()
+        {
+          while (i>=batch.size())
+          {
+            submit.run();
+            if (inflight.isEmpty()) return false;
+            batch = Take(inflight.poll());
+            i=0;
+          }
+          return true;
+        }
+        public Binding next()
+        {
+          if (!hasNext()) throw new NoSuchElementException();
+          return batch.get(i++);
+        }
+      };
+      submit.run();
+      return handler.Handle(ResultSetStream.create(Var.varList(vars), rows));
+    }
+    catch (UncheckedIOException e) { throw e.getCause(); }
+    finally { pool.shutdownNow(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static List<Binding> Take(Future<List<Binding> > future)
+  {
+    try { return future.get(); }
+    catch (ExecutionException e) { throw new UncheckedIOException(new IOException("Batch failed: "+e.getCause().getMessage(), e.getCause())); }
+    catch (InterruptedException e) { throw new UncheckedIOException(new InterruptedIOException(e.getMessage())); }
+  }
+}
@@ -0,0 +1,214 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException, PrintWriter
+import java.util.*; // ArrayList, HashMap, HashSet, Iterator, List, Map
+import java.util.concurrent.*; // CompletionService, ExecutorCompletionService, ExecutorService, Executors, Future, TimeUnit
+
+import org.apache.jena.graph.*; // Node, NodeFactory
+import org.apache.jena.query.*; // Query, QueryExecution, QueryFactory, ResultSet
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding, BindingFactory
+
+/**	Federated fan-out: one SELECT run against several endpoints at once,
+	e.g. mirrors or sources sharing a schema.  Each endpoint runs on its
+	own thread, so total time is about that of the slowest endpoint, not
+	the sum.  Results are passed on as one result set, endpoint by
+	endpoint in order of completion, so rows from fast endpoints stream
+	while slow ones are still running.
+
+	Each endpoint is given timeout seconds from the start; an endpoint
+	not done by then is aborted.  Failed or timed out endpoints are
+	reported with a warning and skipped; only if all fail is it an error.
+	Optionally a source variable is bound to each row's endpoint URL, and
+	duplicate rows (ignoring source) are dropped, keeping the first seen,
+	which holds all distinct rows in memory.
+
+	@author Jeremy Yang
+*/
+public class query_federator
+{
+  private List<String> urls;
+  private Query query;
+  private long timeout_ms; //per endpoint, 0=none
+  private Var source_var; //null=none
+  private boolean dedup;
+  private int verbose;
+  private List<String[]> stats = new ArrayList<String[]>(); //url, status, rows, latency_s, error
+  private long t_start;
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param source_var variable bound to endpoint URL per row, or null
+  */
+  public query_federator(List<String> urls, String rq, long timeout_s, String source_var, boolean dedup, int verbose)
+  {
+    this.urls = urls;
+    this.query = QueryFactory.create(rq);
+    if (!query.isSelectType()) throw new IllegalArgumentException("Federated query requires SELECT query.");
+    this.timeout_ms = 1000L*Math.max(0, timeout_s);
+    this.source_var = (source_var!=null)?Var.alloc(source_var.replaceFirst("^[?$]", "")):null;
+    this.dedup = dedup;
+    this.verbose = verbose;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Endpoint query result, materialized on the worker thread.
+  */
+  private static class EndpointResult
+  {
+    int i_url;
+    List<Binding> rows;
+    double t;
+    EndpointResult(int i_url, List<Binding> rows, double t)
+    {
+      this.i_url=i_url; this.rows=rows; this.t=t;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private EndpointResult RunEndpoint(int i_url, QueryExecution [] qexs)
+  {
+    long t0 = System.nanoTime();
+    String url = urls.get(i_url);
+    if (verbose>1) System.err.println("endpoint: "+url);
+    QueryExecution qex = http_client.Exec(url, query);
+    synchronized (qexs) { qexs[i_url] = qex; } //for abort on timeout
+    try {
+      ResultSet results = qex.execSelect();
+      ArrayList<Binding> rows = new ArrayList<Binding>();
+      while (results.hasNext()) rows.add(results.nextBinding());
+      return new EndpointResult(i_url, rows, (System.nanoTime()-t0)/1e9);
+    }
+    finally { qex.close(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run query on all endpoints, passing merged results to handler.
+	Returns handler row count.  Usable as results_cache.Source.
+  */
+  public long Fetch(results_cache.Handler handler) throws IOException
+  {
+    long t0 = t_start = System.nanoTime();
+    stats.clear();
+    ExecutorService exec = Executors.newFixedThreadPool(urls.size());
+    CompletionService<EndpointResult> ecs = new ExecutorCompletionService<EndpointResult>(exec);
+    QueryExecution [] qexs = new QueryExecution[urls.size()];
+    HashMap<Future<EndpointResult>,Integer> pending = new HashMap<Future<EndpointResult>,Integer>();
+    for (int i=0; i<urls.size(); ++i)
+    {
+      final int i_url = i;
+      pending.put(ecs.submit(() -> RunEndpoint(i_url, qexs)), i_url);
+    }
+    exec.shutdown();
+    long deadline = t0+1000000L*timeout_ms;
+    List<String> vars = new ArrayList<String>();
+    query.setResultVars();
+    vars.addAll(query.getResultVars());
+    if (source_var!=null && !vars.contains(source_var.getVarName())) vars.add(source_var.getVarName());
+    HashSet<Binding> seen = dedup?new HashSet<Binding>():null;
+    int [] n_ok = {0};
+    Iterator<Binding> rows = new Iterator<Binding>() {
+      private List<Binding> batch = new ArrayList<Binding>();
+      private Node source = null;
+      private int i=0;
+      private Binding b_next = null;
+      public boolean hasNext()
+      {
+        while (b_next==null)
+        {
+          while (i>=batch.size())
+          {
+            if (pending.isEmpty()) return false;
+            EndpointResult er = Take(ecs, pending, qexs, deadline);
+            if (er==null) continue; //failed or timed out
+            ++n_ok[0];
+            batch = er.rows;
+            source = NodeFactory.createURI(urls.get(er.i_url));
+            i=0;
+          }
+          Binding b = batch.get(i++);
+          if (seen!=null && !seen.add(b)) continue;
+          b_next = (source_var!=null)?BindingFactory.binding(b, source_var, source):b;
+        }
+        return true;
+      }
+      public Binding next()
+      {
+        if (!hasNext()) throw new NoSuchElementException();
+        Binding b = b_next;
+        b_next = null;
+        return b;
+      }
+    };
+    try {
+      long n_row = handler.Handle(ResultSetStream.create(Var.varList(vars), rows));
+      if (n_ok[0]==0) throw new IOException("All endpoints failed ("+urls.size()+").");
+      if (verbose>0) System.err.println(String.format("endpoints: %d; ok: %d; rows: %d; elapsed: %.3fs", urls.size(), n_ok[0], n_row, (System.nanoTime()-t0)/1e9));
+      return n_row;
+    }
+    catch (UncheckedIOException e) { throw e.getCause(); }
+    finally {
+      for (Future<EndpointResult> f: pending.keySet()) f.cancel(true);
+      exec.shutdownNow();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Next completed endpoint result, or null if the next to complete
+	failed, or all pending timed out, recording stats either way.
+  */
+  private EndpointResult Take(CompletionService<EndpointResult> ecs, Map<Future<EndpointResult>,Integer> pending, QueryExecution [] qexs, long deadline)
+  {
+    Future<EndpointResult> f;
+    try {
+      if (timeout_ms==0) f = ecs.take();
+      else f = ecs.poll(Math.max(0, deadline-System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException e) { throw new UncheckedIOException(new InterruptedIOException(e.getMessage())); }
+    if (f==null) //deadline passed; abort the rest
+    {
+      for (Map.Entry<Future<EndpointResult>,Integer> e: pending.entrySet())
+      {
+        int i_url = e.getValue();
+        e.getKey().cancel(true);
+        synchronized (qexs) { if (qexs[i_url]!=null) qexs[i_url].abort(); }
+        AddStats(urls.get(i_url), "TIMEOUT", 0, timeout_ms/1e3, "timeout after "+(timeout_ms/1000)+"s");
+        System.err.println("WARNING: endpoint timed out: "+urls.get(i_url));
+      }
+      pending.clear();
+      return null;
+    }
+    int i_url = pending.remove(f);
+    try {
+      EndpointResult er = f.get();
+      AddStats(urls.get(i_url), "OK", er.rows.size(), er.t, "");
+      if (verbose>1) System.err.println(String.format("endpoint: %s; rows: %d; elapsed: %.3fs", urls.get(i_url), er.rows.size(), er.t));
+      return er;
+    }
+    catch (ExecutionException e) {
+      String err = e.getCause().toString().replaceAll("\\s+", " ");
+      AddStats(urls.get(i_url), "ERROR", 0, (System.nanoTime()-t_start)/1e9, err); //failure noticed, about when it failed
+      System.err.println("WARNING: endpoint failed: "+urls.get(i_url)+": "+err);
+      return null;
+    }
+    catch (InterruptedException e) { throw new UncheckedIOException(new InterruptedIOException(e.getMessage())); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private void AddStats(String url, String status, long n_row, double t, String err)
+  {
+    stats.add(new String[]{url, status, String.valueOf(n_row), String.format("%.3f", t), err});
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Per-endpoint stats TSV, in order of completion, from last Fetch():
+	url, status (OK|ERROR|TIMEOUT), rows (before de-duplication),
+	latency_s, error.  Header optional, for appending runs.
+  */
+  public void WriteStats(PrintWriter fout, boolean header)
+  {
+    if (header) fout.println("url\tstatus\trows\tlatency_s\terror");
+    for (String [] row: stats) fout.println(String.join("\t", row));
+    fout.flush();
+  }
+}
@@ -0,0 +1,195 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException
+import java.util.*; // ArrayDeque, ArrayList, Iterator, List
+import java.util.concurrent.*; // ExecutorService, Executors, Future
+
+import org.apache.jena.query.*; // Query, QueryExecution, QueryFactory, ResultSet
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding
+
+/**	Paginated endpoint SELECT.  The query is rewritten into pages with
+	LIMIT and OFFSET, ordered by its ORDER BY, or else by all projected
+	variables, so pages are stable.  Pages are fetched concurrently, up
+	to nthreads in flight, each retried with exponential backoff, or
+	after the endpoint's Retry-After if longer, and
+	passed on as one result set in page order, so output streams while
+	later pages are fetched.  A LIMIT or OFFSET in the original query
+	bounds the pages.
+
+	A short page ends the results, once a probe for one row past it
+	comes back empty.  Otherwise the endpoint caps rows per query below
+	the page size (e.g. Virtuoso ResultSetMaxRows), rows would be lost,
+	and Fetch() fails, to be rerun with a smaller page size.
+
+	Only pages in flight are held in memory, at most nthreads+1 pages.
+
+	@author Jeremy Yang
+*/
+public class query_pager
+{
+  private String url;
+  private Query query;
+  private int page_size;
+  private int nthreads;
+  private int retries;
+  private int verbose;
+  private long offset0; //original OFFSET
+  private long limit0; //original LIMIT, or -1
+
+  /////////////////////////////////////////////////////////////////////////////
+  public query_pager(String url, String rq, int page_size, int nthreads, int retries, int verbose)
+  {
+    this.url = url;
+    this.query = QueryFactory.create(rq);
+    if (!query.isSelectType()) throw new IllegalArgumentException("Pagination requires SELECT query.");
+    this.page_size = Math.max(1, page_size);
+    this.nthreads = Math.max(1, nthreads);
+    this.retries = Math.max(0, retries);
+    this.verbose = verbose;
+    offset0 = query.hasOffset()?query.getOffset():0;
+    limit0 = query.hasLimit()?query.getLimit():-1;
+    if (!query.hasOrderBy())
+    {
+      query.setResultVars();
+      for (Var var: query.getProjectVars()) query.addOrderBy(var, Query.ORDER_DEFAULT);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Page row limit, up to the original LIMIT, <=0 if past it.
+  */
+  private long PageLimit(long i_page)
+  {
+    long n = page_size;
+    if (limit0>=0) n = Math.min(n, limit0-i_page*page_size);
+    return n;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Query for n rows from offset, relative to the original OFFSET.
+  */
+  private Query RowsQuery(long offset, long n)
+  {
+    Query q = query.cloneQuery();
+    q.setOffset(offset0+offset);
+    q.setLimit(n);
+    return q;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Page query, or null if page is past original LIMIT.
+  */
+  private Query PageQuery(long i_page)
+  {
+    long n = PageLimit(i_page);
+    return (n>0)?RowsQuery(i_page*page_size, n):null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if page is the last, i.e. full pages are not, and a short,
+	non-empty page is only if no row follows it.  Throws if one does,
+	i.e. the endpoint capped the page.
+  */
+  private boolean IsLast(long i_page, List<Binding> page)
+  {
+    long n = PageLimit(i_page);
+    if (page.size()>=n) return false;
+    if (page.isEmpty()) return true;
+    List<Binding> probe;
+    try { probe = FetchPage(i_page, RowsQuery(i_page*page_size+page.size(), 1), new ArrayList<String>()); }
+    catch (Exception e) { throw new UncheckedIOException(new IOException("Page probe failed: "+e.getMessage(), e)); }
+    if (probe.isEmpty()) return true;
+    throw new UncheckedIOException(new IOException(String.format("Page %d returned %d of %d rows, but more rows follow; endpoint row limit below page size? Rerun with -page_size %d or less.", i_page, page.size(), n, page.size())));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Fetch page rows, retrying with backoff.
+  */
+  private List<Binding> FetchPage(long i_page, Query q, List<String> vars_out) throws Exception
+  {
+    for (int i_try=0; ; ++i_try)
+    {
+      long t0 = System.nanoTime();
+      QueryExecution qex = http_client.Exec(url, q, (retries==0)); //HTTP retries only if no page retries
+      try {
+        ResultSet results = qex.execSelect();
+        ArrayList<Binding> rows = new ArrayList<Binding>(page_size);
+        while (results.hasNext()) rows.add(results.nextBinding());
+        synchronized (vars_out) { if (vars_out.isEmpty()) vars_out.addAll(results.getResultVars()); }
+        if (verbose>1) System.err.println(String.format("page: %d; rows: %d; elapsed: %.3fs", i_page, rows.size(), (System.nanoTime()-t0)/1e9));
+        return rows;
+      }
+      catch (Exception e) {
+        if (i_try>=retries || Thread.currentThread().isInterrupted()) throw e; //no retry once cancelled
+        long backoff = Math.max(500L<<i_try, http_client.RetryAfterMs());
+        System.err.println(String.format("WARNING: page %d failed (%s); retry %d/%d in %dms", i_page, e.getMessage(), i_try+1, retries, backoff));
+        Thread.sleep(backoff);
+      }
+      finally { qex.close(); }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Fetch pages, passing results to handler.  Returns handler row count.
+	Usable as results_cache.Source.
+  */
+  public long Fetch(results_cache.Handler handler) throws IOException
+  {
+    ExecutorService exec = Executors.newFixedThreadPool(nthreads);
+    List<String> vars = new ArrayList<String>();
+    ArrayDeque<Future<List<Binding> > > inflight = new ArrayDeque<Future<List<Binding> > >();
+    long [] next_page = {0};
+    Runnable submit = () -> {
+      while (inflight.size()<nthreads)
+      {
+        final long i_page = next_page[0];
+        final Query q = PageQuery(i_page);
+        if (q==null) return;
+        inflight.add(exec.submit(() -> FetchPage(i_page, q, vars)));
+        ++next_page[0];
+      }
+    };
+    try {
+      submit.run();
+      if (inflight.isEmpty()) return handler.Handle(ResultSetStream.create(Var.varList(vars), Collections.<Binding>emptyIterator()));
+      List<Binding> first = Take(inflight.poll());
+      Iterator<Binding> rows = new Iterator<Binding>() {
+        private List<Binding> page = first;
+        private long i_page=0;
+        private int i=0;
+        private boolean last = IsLast(0, first);
+        public boolean hasNext()
+        {
+          while (i>=page.size())
+          {
+            if (last || inflight.isEmpty()) return false;
+            submit.run();
+            page = Take(inflight.poll());
+            i=0;
+            last = IsLast(++i_page, page);
+          }
+          return true;
+        }
+        public Binding next()
+        {
+          if (!hasNext()) throw new NoSuchElementException();
+          return page.get(i++);
+        }
+      };
+      submit.run();
+      return handler.Handle(ResultSetStream.create(Var.varList(vars), rows));
+    }
+    catch (UncheckedIOException e) { throw e.getCause(); }
+    finally { exec.shutdownNow(); } //cancel pages past the end
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static List<Binding> Take(Future<List<Binding> > future)
+  {
+    try { return future.get(); }
+    catch (ExecutionException e) { throw new UncheckedIOException(new IOException("Page fetch failed: "+e.getCause().getMessage(), e.getCause())); }
+    catch (InterruptedException e) { throw new UncheckedIOException(new InterruptedIOException(e.getMessage())); }
+  }
+}
@@ -0,0 +1,122 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException, PrintWriter, UncheckedIOException
+import java.nio.file.*; // Files
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // ArrayList, Arrays, HashSet, List
+import java.util.concurrent.*; // ExecutorService, Executors, Future
+
+import org.apache.jena.query.*; // Dataset, Query, QueryExecution, QueryExecutionFactory, QueryFactory, ResultSet
+import org.apache.jena.system.*; // Txn
+
+/**	Concurrent read-only queries over one loaded dataset, e.g. a
+	regression suite, so data is loaded once for all queries.  Each
+	query runs in its own read transaction, up to nthreads at once, so
+	the dataset must be transactional: TIM (in-memory, as from
+	jena_utils.LoadTIM()) or TDB.  Results stream to one file per query,
+	named for the query file; a report TSV gives status, rows, bytes and
+	latency per query.
+
+	@author Jeremy Yang
+*/
+public class query_runner
+{
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Query files, *.rq in a directory, in name order.
+  */
+  public static List<File> ListDir(String idir) throws IOException
+  {
+    File [] files = new File(idir).listFiles((dir, name) -> name.endsWith(".rq"));
+    if (files==null) throw new IOException("Cannot read directory: "+idir);
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Query files listed one per line; blank lines and # comments skipped;
+	relative paths from the list file directory.
+  */
+  public static List<File> ReadList(String ifile) throws IOException
+  {
+    File dir = new File(ifile).getAbsoluteFile().getParentFile();
+    ArrayList<File> files = new ArrayList<File>();
+    for (String line: Files.readAllLines(new File(ifile).toPath(), StandardCharsets.UTF_8))
+    {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      File f = new File(line);
+      files.add(f.isAbsolute()?f:new File(dir, line));
+    }
+    return files;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run queries concurrently, results in ofmt (per results_writer.FORMATS)
+	to odir.  Writes report TSV, in input order.  Returns count of failed
+	queries.
+  */
+  public static int Run(Dataset dset, List<File> qfiles, String ofmt, String odir, int nthreads, PrintWriter fout_report, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    Files.createDirectories(new File(odir).toPath());
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, qfiles.size())));
+    ArrayList<Future<String> > futures = new ArrayList<Future<String> >();
+    HashSet<String> names = new HashSet<String>();
+    for (File f: qfiles)
+    {
+      String name = f.getName().replaceFirst("\\.rq$", "");
+      for (int i=2; !names.add(name); ++i) name = f.getName().replaceFirst("\\.rq$", "")+"_"+i; //same name, other directory
+      File ofile = new File(odir, name+"."+ofmt.toLowerCase());
+      futures.add(exec.submit(() -> RunQueryToFile(dset, f, ofile, ofmt, verbose)));
+    }
+    exec.shutdown();
+    fout_report.println("query\tofile\tstatus\trows\tbytes\tlatency_s\terror");
+    int n_err=0;
+    double t_sum=0.0;
+    for (int i=0; i<qfiles.size(); ++i)
+    {
+      String row;
+      try { row = futures.get(i).get(); }
+      catch (ExecutionException e) { row = qfiles.get(i).getPath()+"\t\tERROR\t\t\t\t"+e.getCause(); }
+      catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+      String [] fields = row.split("\t", -1);
+      if (fields[2].equals("ERROR")) ++n_err;
+      if (!fields[5].isEmpty()) t_sum += Double.parseDouble(fields[5]);
+      fout_report.println(row);
+    }
+    fout_report.flush();
+    double t = (System.nanoTime()-t0)/1e9;
+    System.err.println(String.format("queries: %d; failed: %d; threads: %d; elapsed: %.3fs; sum of latencies: %.3fs (%.1fx)", qfiles.size(), n_err, nthreads, t, t_sum, t_sum/Math.max(t, 1e-9)));
+    return n_err;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run one query file in a read transaction, results to ofile.  Returns
+	report TSV row; errors are reported in the row, not thrown.
+  */
+  private static String RunQueryToFile(Dataset dset, File f, File ofile, String ofmt, int verbose)
+  {
+    long t0 = System.nanoTime();
+    long [] n_row = {0};
+    String err=null;
+    try (PrintWriter fout = new PrintWriter(Files.newBufferedWriter(ofile.toPath(), StandardCharsets.UTF_8)))
+    {
+      Query query = QueryFactory.create(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+      Txn.executeRead(dset, () -> {
+        try (QueryExecution qex = QueryExecutionFactory.create(query, dset))
+        {
+          n_row[0] = results_writer.Write(qex.execSelect(), ofmt, query.getPrologue(), fout);
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+      });
+      if (fout.checkError()) throw new IOException("Write failed: "+ofile);
+      if (results_writer.Truncated(ofmt, n_row[0])) throw new IOException("Text table truncated to "+results_writer.TXT_MAXROWS+" rows: "+ofile);
+    }
+    catch (Exception e) { err = e.toString().replaceAll("\\s+", " "); }
+    double t = (System.nanoTime()-t0)/1e9;
+    if (verbose>0)
+      System.err.println(String.format("%s: %s; rows: %d; elapsed: %.3fs", f.getName(), ((err==null)?"OK":"ERROR"), n_row[0], t));
+    return String.format("%s\t%s\t%s\t%d\t%d\t%.3f\t%s", f.getPath(), ofile.getPath(), ((err==null)?"OK":"ERROR"), n_row[0], ofile.length(), t, ((err==null)?"":err));
+  }
+}
@@ -0,0 +1,354 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException
+import java.nio.*; // ByteBuffer
+import java.nio.channels.*; // FileChannel
+import java.nio.file.*; // Paths, StandardOpenOption
+import java.util.*; // ArrayList, LinkedHashMap, UUID
+import java.util.concurrent.*; // ExecutorService, Executors, Future
+import java.util.concurrent.atomic.*; // AtomicBoolean
+import java.util.function.*; // Supplier
+
+import org.apache.jena.graph.*; // Graph, Triple, Factory
+import org.apache.jena.riot.*; // Lang, RDFLanguages, RDFParser
+import org.apache.jena.riot.lang.*; // LabelToNode
+import org.apache.jena.riot.system.*; // StreamRDF, StreamRDFBase
+import org.apache.jena.sparql.core.*; // Quad
+
+/**	RDF file loading via RIOT streaming parsers, in parallel over files,
+	each file to its own graph.  Large uncompressed line-based files
+	(N-Triples, N-Quads) are also parsed in parallel within the file, as
+	memory mapped chunks split at line boundaries.
+
+	@author Jeremy Yang
+*/
+public class rdf_loader
+{
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Sink adding triples to a graph, with count.  Quads (N-Quads, TriG)
+	are added as triples, i.e. a file's graphs are merged into one.
+  */
+  public static class GraphSink extends StreamRDFBase
+  {
+    private Graph graph;
+    private long n_trp=0;
+    public GraphSink(Graph graph) { this.graph = graph; }
+    @Override public void triple(Triple trp) { graph.add(trp); ++n_trp; }
+    @Override public void quad(Quad quad) { graph.add(quad.asTriple()); ++n_trp; }
+    @Override public void prefix(String prefix, String iri) { graph.getPrefixMapping().setNsPrefix(prefix, iri); }
+    public long Count() { return n_trp; }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Sink adding triples to two graphs, e.g. named and default.
+  */
+  public static class GraphPairSink extends GraphSink
+  {
+    private Graph graph2;
+    public GraphPairSink(Graph graph, Graph graph2) { super(graph); this.graph2 = graph2; }
+    @Override public void triple(Triple trp) { super.triple(trp); graph2.add(trp); }
+    @Override public void quad(Quad quad) { triple(quad.asTriple()); }
+    @Override public void prefix(String prefix, String iri) { super.prefix(prefix, iri); graph2.getPrefixMapping().setNsPrefix(prefix, iri); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Sink collecting triples into batches for a consumer queue, so chunk
+	parser threads never touch the target graph.
+  */
+  private static class BatchSink extends StreamRDFBase
+  {
+    private static final int BATCH_SIZE = 10000;
+    private BlockingQueue<List<Triple> > queue;
+    private ArrayList<Triple> batch = new ArrayList<Triple>(BATCH_SIZE);
+    private long n_trp=0;
+    public BatchSink(BlockingQueue<List<Triple> > queue) { this.queue = queue; }
+    @Override public void triple(Triple trp)
+    {
+      batch.add(trp); ++n_trp;
+      if (batch.size()==BATCH_SIZE) Flush();
+    }
+    @Override public void quad(Quad quad) { triple(quad.asTriple()); }
+    @Override public void finish() { Flush(); }
+    private void Flush()
+    {
+      if (batch.isEmpty()) return;
+      try { queue.put(batch); }
+      catch (InterruptedException e) { throw new RiotException("Interrupted"); }
+      batch = new ArrayList<Triple>(BATCH_SIZE);
+    }
+    public long Count() { return n_trp; }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	InputStream over a (mapped) buffer.
+  */
+  private static class BufferInputStream extends InputStream
+  {
+    private ByteBuffer buf;
+    public BufferInputStream(ByteBuffer buf) { this.buf = buf; }
+    @Override public int read() { return (buf.hasRemaining()?(buf.get()&0xFF):-1); }
+    @Override public int read(byte [] b, int off, int len)
+    {
+      if (len==0) return 0;
+      if (!buf.hasRemaining()) return -1;
+      len = Math.min(len, buf.remaining());
+      buf.get(b, off, len);
+      return len;
+    }
+    @Override public int available() { return buf.remaining(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Language from dlang if specified, else from file extension (any
+	RIOT language, compressed .gz|.bz2 ok), else RDF/XML.
+  */
+  public static Lang GuessLang(String ifile, String dlang)
+  {
+    Lang lang = null;
+    if (dlang!=null)
+    {
+      lang = RDFLanguages.nameToLang(dlang);
+      if (lang==null) System.err.println("ERROR: unknown language: "+dlang);
+    }
+    if (lang==null) lang = RDFLanguages.filenameToLang(ifile);
+    return ((lang!=null)?lang:Lang.RDFXML);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parse file into graph, streaming.  Returns triple count.
+  */
+  public static long LoadFile(String ifile, Lang lang, Graph graph, int verbose)
+  {
+    long t0 = System.nanoTime();
+    GraphSink sink = new GraphSink(graph);
+    RDFParser.create().source(ifile).forceLang(lang).parse(sink);
+    double t = (System.nanoTime()-t0)/1e9;
+    System.err.println(String.format("loaded: %s; lang: %s; triples: %d; elapsed: %.3fs; rate: %.0f triples/s", ifile, lang.getLabel(), sink.Count(), t, sink.Count()/Math.max(t, 1e-9)));
+    return sink.Count();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if file can be parsed in chunks: N-Triples or N-Quads, not
+	compressed, and larger than one chunk.
+  */
+  public static boolean IsChunkable(String ifile, Lang lang, long chunksize)
+  {
+    if (chunksize<=0) return false;
+    if (!lang.equals(Lang.NTRIPLES) && !lang.equals(Lang.NQUADS)) return false;
+    if (ifile.matches("(?i).*\\.(gz|bz2|xz|zip)$")) return false;
+    File f = new File(ifile);
+    return (f.isFile() && f.length()>chunksize);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Chunk boundaries, about chunksize bytes apart, each just after a
+	newline.  Returns offsets, first 0 and last file size.
+  */
+  private static long [] ChunkBounds(FileChannel chan, long chunksize) throws IOException
+  {
+    long size = chan.size();
+    ArrayList<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    ByteBuffer buf = ByteBuffer.allocate(1<<13);
+    long pos = chunksize;
+    while (pos<size)
+    {
+      long nl = -1;
+      for (long p=pos; nl<0 && p<size; p+=buf.limit())
+      {
+        buf.clear();
+        if (chan.read(buf, p)<=0) break;
+        buf.flip();
+        for (int i=0; i<buf.limit(); ++i)
+          if (buf.get(i)=='\n') { nl = p+i; break; }
+      }
+      if (nl<0 || nl+1>=size) break; //last line
+      bounds.add(nl+1);
+      pos = nl+1+chunksize;
+    }
+    bounds.add(size);
+    long [] a = new long[bounds.size()];
+    for (int i=0; i<a.length; ++i) a[i] = bounds.get(i);
+    return a;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parse one large N-Triples or N-Quads file in parallel.  The file is
+	memory mapped and split into chunks of about chunksize bytes at line
+	boundaries, parsed on up to nthreads workers.  Workers pass triple
+	batches to the calling thread, the only one writing to dest, so dest
+	may be an in-memory graph or a TDB graph in the caller's write
+	transaction.  Blank node labels map to nodes by hash of a per-file
+	seed and the label, so a label denotes the same node in every chunk.
+	Quads are added as triples, as for GraphSink.  Returns triple count.
+	If any chunk fails, no further batches are added and this throws, but
+	dest holds part of the file, so the caller must discard it, e.g.
+	abort the write transaction, as LoadTDB() and LoadTIM() do, or drop
+	the graph, as LoadFiles() does.
+  */
+  public static long LoadFileChunked(String ifile, Lang lang, StreamRDF dest, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    final List<Triple> EOC = new ArrayList<Triple>(); //end-of-chunk marker
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    try (FileChannel chan = FileChannel.open(Paths.get(ifile), StandardOpenOption.READ))
+    {
+      long [] bounds = ChunkBounds(chan, chunksize);
+      int nchunk = bounds.length-1;
+      if (verbose>1) System.err.println(String.format("ifile: %s; bytes: %d; chunks: %d", ifile, bounds[nchunk], nchunk));
+      final UUID seed = UUID.randomUUID();
+      BlockingQueue<List<Triple> > queue = new ArrayBlockingQueue<List<Triple> >(4*Math.max(1, nthreads));
+      ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, nchunk)));
+      ArrayList<Future<Long> > futures = new ArrayList<Future<Long> >();
+      for (int i=0; i<nchunk; ++i)
+      {
+        long len = bounds[i+1]-bounds[i];
+        if (len>Integer.MAX_VALUE) { exec.shutdownNow(); throw new IOException("Chunk too large to map: "+len+" bytes"); }
+        final ByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, bounds[i], len);
+        futures.add(exec.submit(() -> {
+          BatchSink sink = new BatchSink(queue);
+          try {
+            RDFParser.create().source(new BufferInputStream(buf)).forceLang(lang)
+              .labelToNode(LabelToNode.createScopeByDocumentHash(seed)).parse(sink);
+          }
+          catch (RuntimeException e) { failed.set(true); throw e; }
+          finally { queue.put(EOC); }
+          return sink.Count();
+        }));
+      }
+      exec.shutdown();
+      dest.start();
+      try {
+        for (int n_done=0; n_done<nchunk; )
+        {
+          List<Triple> batch = queue.take();
+          if (batch==EOC) { ++n_done; continue; }
+          if (failed.get()) continue; //drain, so workers finish
+          for (Triple trp: batch) dest.triple(trp);
+        }
+      }
+      catch (InterruptedException e) { exec.shutdownNow(); throw new InterruptedIOException(e.getMessage()); }
+      catch (RuntimeException e) { exec.shutdownNow(); throw e; }
+      finally { dest.finish(); }
+      long n_trp=0;
+      for (int i=0; i<nchunk; ++i)
+      {
+        try { n_trp += futures.get(i).get(); }
+        catch (ExecutionException e) {
+          throw new IOException(String.format("%s: chunk %d (bytes %d-%d): %s", ifile, i, bounds[i], bounds[i+1], e.getCause().getMessage()));
+        }
+        catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+      }
+      double t = (System.nanoTime()-t0)/1e9;
+      System.err.println(String.format("loaded: %s; lang: %s; chunks: %d; triples: %d; elapsed: %.3fs; rate: %.0f triples/s", ifile, lang.getLabel(), nchunk, n_trp, t, n_trp/Math.max(t, 1e-9)));
+      return n_trp;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parse one large N-Triples or N-Quads file in parallel chunks, as
+	LoadFileChunked(), but each chunk to its own sink, new from sinks,
+	called on the worker thread, e.g. per-chunk accumulators, so no
+	triples are handed between threads and no graph is built.  Returns
+	sinks in chunk order.
+  */
+  public static <T extends StreamRDF> List<T> ParseFileChunked(String ifile, Lang lang, Supplier<T> sinks, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    try (FileChannel chan = FileChannel.open(Paths.get(ifile), StandardOpenOption.READ))
+    {
+      long [] bounds = ChunkBounds(chan, chunksize);
+      int nchunk = bounds.length-1;
+      if (verbose>1) System.err.println(String.format("ifile: %s; bytes: %d; chunks: %d", ifile, bounds[nchunk], nchunk));
+      final UUID seed = UUID.randomUUID();
+      ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, nchunk)));
+      ArrayList<Future<T> > futures = new ArrayList<Future<T> >();
+      for (int i=0; i<nchunk; ++i)
+      {
+        long len = bounds[i+1]-bounds[i];
+        if (len>Integer.MAX_VALUE) { exec.shutdownNow(); throw new IOException("Chunk too large to map: "+len+" bytes"); }
+        final ByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, bounds[i], len);
+        futures.add(exec.submit(() -> {
+          T sink = sinks.get();
+          RDFParser.create().source(new BufferInputStream(buf)).forceLang(lang)
+            .labelToNode(LabelToNode.createScopeByDocumentHash(seed)).parse(sink);
+          return sink;
+        }));
+      }
+      exec.shutdown();
+      ArrayList<T> result = new ArrayList<T>();
+      for (int i=0; i<nchunk; ++i)
+      {
+        try { result.add(futures.get(i).get()); }
+        catch (ExecutionException e) {
+          exec.shutdownNow();
+          throw new IOException(String.format("%s: chunk %d (bytes %d-%d): %s", ifile, i, bounds[i], bounds[i+1], e.getCause().getMessage()));
+        }
+        catch (InterruptedException e) { exec.shutdownNow(); throw new InterruptedIOException(e.getMessage()); }
+      }
+      if (verbose>0)
+        System.err.println(String.format("parsed: %s; lang: %s; chunks: %d; elapsed: %.3fs", ifile, lang.getLabel(), nchunk, (System.nanoTime()-t0)/1e9));
+      return result;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parse files in parallel, on up to nthreads workers, each file into a
+	new graph.  Graphs are not shared while parsing, so no locking.  Files
+	chunkable per IsChunkable() are first loaded one at a time, each with
+	all nthreads workers.  All files are attempted; failures are then
+	reported in one exception.  Graphs of failed files are dropped, not
+	kept partial.
+  */
+  public static Graph [] LoadFiles(String [] ifiles, String dlang, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    Graph [] graphs = new Graph[ifiles.length];
+    long n_trp=0;
+    ArrayList<String> errs = new ArrayList<String>();
+    ArrayList<Integer> i_pool = new ArrayList<Integer>();
+    for (int i=0; i<ifiles.length; ++i)
+    {
+      graphs[i] = Factory.createDefaultGraph();
+      Lang lang = GuessLang(ifiles[i], dlang);
+      if (!IsChunkable(ifiles[i], lang, chunksize)) { i_pool.add(i); continue; }
+      try { n_trp += LoadFileChunked(ifiles[i], lang, new GraphSink(graphs[i]), nthreads, chunksize, verbose); }
+      catch (IOException|RuntimeException e) {
+        System.err.println("ERROR: "+e.getMessage());
+        errs.add(ifiles[i]);
+        graphs[i] = Factory.createDefaultGraph(); //partial, dropped
+      }
+    }
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, i_pool.size())));
+    ArrayList<Future<Long> > futures = new ArrayList<Future<Long> >();
+    for (int i: i_pool)
+    {
+      final String ifile = ifiles[i];
+      final Graph graph = graphs[i];
+      final Lang lang = GuessLang(ifile, dlang);
+      if (verbose>1) System.err.println("ifile: "+ifile+"; lang: "+lang.getLabel());
+      futures.add(exec.submit(() -> LoadFile(ifile, lang, graph, verbose)));
+    }
+    exec.shutdown();
+    for (int j=0; j<i_pool.size(); ++j)
+    {
+      String ifile = ifiles[i_pool.get(j)];
+      try { n_trp += futures.get(j).get(); }
+      catch (ExecutionException e) {
+        System.err.println("ERROR: "+ifile+": "+e.getCause().getMessage());
+        errs.add(ifile);
+        graphs[i_pool.get(j)] = Factory.createDefaultGraph(); //partial, dropped
+      }
+      catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+    }
+    double t = (System.nanoTime()-t0)/1e9;
+    if (verbose>0)
+      System.err.println(String.format("files: %d; triples: %d; elapsed: %.3fs; rate: %.0f triples/s", ifiles.length, n_trp, t, n_trp/Math.max(t, 1e-9)));
+    if (!errs.isEmpty())
+      throw new IOException("Failed to load "+errs.size()+" of "+ifiles.length+" files: "+String.join(", ", errs));
+    return graphs;
+  }
+}
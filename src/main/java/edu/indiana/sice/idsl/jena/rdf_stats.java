@@ -0,0 +1,397 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException, InterruptedIOException, PrintWriter
+import java.util.*; // ArrayList, Collections, HashMap, List, Map, Set
+import java.util.concurrent.*; // ArrayBlockingQueue, BlockingQueue, ConcurrentHashMap, ExecutorService, Executors, Future
+import java.util.concurrent.atomic.*; // AtomicReference
+
+import org.apache.jena.graph.*; // Graph, Node, Triple
+import org.apache.jena.riot.*; // Lang, RDFParser
+import org.apache.jena.riot.system.*; // StreamRDFBase
+import org.apache.jena.sparql.core.*; // Quad
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // RDF
+
+import com.fasterxml.jackson.core.*; // JsonFactory, JsonGenerator
+
+/**	Dataset statistics in one pass over the triples, split across
+	threads: triple count, distinct subjects and objects (exact, or
+	HyperLogLog estimates for bounded memory), subject and object term
+	kinds, per-predicate frequencies, literal datatype and language
+	counts, and instance counts per class (rdf:type objects).  Distinct
+	predicates and classes are always exact, as histogram keys.
+
+	Sources: a graph, iterated once as triples (no Statement objects)
+	and handed in batches to worker threads; or files, profiled as
+	parsed, without building a graph, large N-Triples/N-Quads files in
+	parallel chunks via rdf_loader.ParseFileChunked().  Each worker has
+	its own Counts, merged at the end; exact distinct sets are shared
+	concurrent sets.  Counts from files are of parsed triples, so
+	duplicate triples, and their class instances, count more than once.
+
+	@author Jeremy Yang
+*/
+public class rdf_stats
+{
+  /** HyperLogLog precision, 2^p registers, standard error about 0.8%. */
+  public static final int HLL_P = 14;
+
+  private boolean exact;
+  private int nthreads;
+  private int verbose;
+  private Set<Node> subjects_exact = null;
+  private Set<Node> objects_exact = null;
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param exact exact distinct counts, memory proportional to distinct
+	terms, else HyperLogLog estimates
+  */
+  public rdf_stats(boolean exact, int nthreads, int verbose)
+  {
+    this.exact = exact;
+    this.nthreads = Math.max(1, nthreads);
+    this.verbose = verbose;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	HyperLogLog distinct count estimator (Flajolet et al. 2007), with
+	linear counting for small cardinalities.  Mergeable, so per-thread
+	sketches combine to the sketch of the union.
+  */
+  public static class HyperLogLog
+  {
+    private int p;
+    private byte [] reg;
+    public HyperLogLog(int p) { this.p = p; this.reg = new byte[1<<p]; }
+    public void Add(long h)
+    {
+      int i = (int)(h>>>(64-p));
+      int rho = Long.numberOfLeadingZeros((h<<p)|(1L<<(p-1)))+1;
+      if (rho>reg[i]) reg[i] = (byte)rho;
+    }
+    public void Merge(HyperLogLog o)
+    {
+      for (int i=0; i<reg.length; ++i) if (o.reg[i]>reg[i]) reg[i] = o.reg[i];
+    }
+    public long Estimate()
+    {
+      int m = reg.length;
+      double sum=0.0;
+      int n_zero=0;
+      for (byte r: reg) { sum += 1.0/(1L<<r); if (r==0) ++n_zero; }
+      double e = (0.7213/(1.0+1.079/m))*m*m/sum;
+      if (e<=2.5*m && n_zero>0) e = m*Math.log((double)m/n_zero);
+      return Math.round(e);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	64-bit hash of term, over its string forms (FNV-1a, then mixed),
+	since Node.hashCode() is only 32 bits.
+  */
+  public static long Hash(Node node)
+  {
+    long h = 0xcbf29ce484222325L;
+    if (node.isURI()) h = Hash(h, node.getURI());
+    else if (node.isBlank()) h = Hash(Hash(h, "_:"), node.getBlankNodeLabel());
+    else if (node.isLiteral())
+      h = Hash(Hash(Hash(h, node.getLiteralLexicalForm()), node.getLiteralLanguage()), node.getLiteralDatatypeURI());
+    else h = Hash(h, node.toString());
+    h ^= h>>>33; h *= 0xff51afd7ed558ccdL; //murmur3 fmix64
+    h ^= h>>>33; h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h>>>33;
+    return h;
+  }
+
+  private static long Hash(long h, String s)
+  {
+    if (s==null) return h;
+    for (int i=0; i<s.length(); ++i) { h ^= s.charAt(i); h *= 0x100000001b3L; }
+    h ^= 0xff; h *= 0x100000001b3L; //separator
+    return h;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Counts from one worker, also a parser sink.  Quads counted as
+	triples.
+  */
+  public static class Counts extends StreamRDFBase
+  {
+    long n_triple=0;
+    long n_subj_iri=0, n_subj_bnode=0;
+    long n_obj_iri=0, n_obj_bnode=0, n_obj_literal=0;
+    HashMap<Node,long[]> predicates = new HashMap<Node,long[]>();
+    HashMap<String,long[]> datatypes = new HashMap<String,long[]>();
+    HashMap<String,long[]> languages = new HashMap<String,long[]>();
+    HashMap<Node,long[]> classes = new HashMap<Node,long[]>();
+    Set<Node> subjects_exact; //shared, null if estimated
+    Set<Node> objects_exact;
+    HyperLogLog subjects_hll;
+    HyperLogLog objects_hll;
+
+    Counts(Set<Node> subjects_exact, Set<Node> objects_exact)
+    {
+      this.subjects_exact = subjects_exact;
+      this.objects_exact = objects_exact;
+      if (subjects_exact==null) { subjects_hll = new HyperLogLog(HLL_P); objects_hll = new HyperLogLog(HLL_P); }
+    }
+
+    private static <K> void Increment(Map<K,long[]> counts, K key, long n)
+    {
+      long [] c = counts.get(key);
+      if (c==null) counts.put(key, new long[]{n});
+      else c[0]+=n;
+    }
+
+    public void Add(Triple trp)
+    {
+      ++n_triple;
+      Node s = trp.getSubject(), p = trp.getPredicate(), o = trp.getObject();
+      if (s.isBlank()) ++n_subj_bnode; else ++n_subj_iri;
+      if (o.isLiteral())
+      {
+        ++n_obj_literal;
+        Increment(datatypes, o.getLiteralDatatypeURI(), 1);
+        if (!o.getLiteralLanguage().isEmpty()) Increment(languages, o.getLiteralLanguage().toLowerCase(), 1);
+      }
+      else if (o.isBlank()) ++n_obj_bnode;
+      else ++n_obj_iri;
+      Increment(predicates, p, 1);
+      if (p.equals(RDF.Nodes.type)) Increment(classes, o, 1);
+      if (subjects_exact!=null) { subjects_exact.add(s); objects_exact.add(o); }
+      else { subjects_hll.Add(Hash(s)); objects_hll.Add(Hash(o)); }
+    }
+
+    @Override public void triple(Triple trp) { Add(trp); }
+    @Override public void quad(Quad quad) { Add(quad.asTriple()); }
+
+    public void Merge(Counts o)
+    {
+      n_triple += o.n_triple;
+      n_subj_iri += o.n_subj_iri; n_subj_bnode += o.n_subj_bnode;
+      n_obj_iri += o.n_obj_iri; n_obj_bnode += o.n_obj_bnode; n_obj_literal += o.n_obj_literal;
+      for (Map.Entry<Node,long[]> e: o.predicates.entrySet()) Increment(predicates, e.getKey(), e.getValue()[0]);
+      for (Map.Entry<String,long[]> e: o.datatypes.entrySet()) Increment(datatypes, e.getKey(), e.getValue()[0]);
+      for (Map.Entry<String,long[]> e: o.languages.entrySet()) Increment(languages, e.getKey(), e.getValue()[0]);
+      for (Map.Entry<Node,long[]> e: o.classes.entrySet()) Increment(classes, e.getKey(), e.getValue()[0]);
+      if (subjects_hll!=null) { subjects_hll.Merge(o.subjects_hll); objects_hll.Merge(o.objects_hll); }
+    }
+
+    public long Triples() { return n_triple; }
+    public boolean IsExact() { return (subjects_exact!=null); }
+    public long DistinctSubjects() { return IsExact()?subjects_exact.size():subjects_hll.Estimate(); }
+    public long DistinctObjects() { return IsExact()?objects_exact.size():objects_hll.Estimate(); }
+    public long DistinctPredicates() { return predicates.size(); }
+    public long DistinctClasses() { return classes.size(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	New worker counts, sharing this engine's exact sets, if any.
+  */
+  private synchronized Counts NewCounts()
+  {
+    if (exact && subjects_exact==null)
+    {
+      subjects_exact = ConcurrentHashMap.newKeySet();
+      objects_exact = ConcurrentHashMap.newKeySet();
+    }
+    return new Counts(subjects_exact, objects_exact);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Statistics of graph, one pass.  This thread iterates, workers count.
+  */
+  public Counts Describe(Graph graph) throws IOException
+  {
+    long t0 = System.nanoTime();
+    subjects_exact = objects_exact = null;
+    Counts total = NewCounts();
+    if (nthreads==1)
+    {
+      ExtendedIterator<Triple> itr = graph.find();
+      try { while (itr.hasNext()) total.Add(itr.next()); }
+      finally { itr.close(); }
+    }
+    else
+    {
+      final int BATCH_SIZE = 10000;
+      final List<Triple> EOF = new ArrayList<Triple>();
+      BlockingQueue<List<Triple> > queue = new ArrayBlockingQueue<List<Triple> >(4*nthreads);
+      AtomicReference<Throwable> failure = new AtomicReference<Throwable>(); //first worker failure, e.g. OutOfMemoryError
+      ExecutorService exec = Executors.newFixedThreadPool(nthreads);
+      ArrayList<Future<Counts> > futures = new ArrayList<Future<Counts> >();
+      for (int i=0; i<nthreads; ++i)
+        futures.add(exec.submit(() -> {
+          Counts counts = NewCounts();
+          for (List<Triple> batch=queue.take(); batch!=EOF; batch=queue.take())
+          {
+            if (failure.get()!=null) continue; //drain, so producer never blocks
+            try { for (Triple trp: batch) counts.Add(trp); }
+            catch (Throwable e) { failure.compareAndSet(null, e); counts = null; }
+          }
+          return counts;
+        }));
+      exec.shutdown();
+      ExtendedIterator<Triple> itr = graph.find();
+      boolean done = false;
+      try {
+        ArrayList<Triple> batch = new ArrayList<Triple>(BATCH_SIZE);
+        while (itr.hasNext() && failure.get()==null)
+        {
+          batch.add(itr.next());
+          if (batch.size()==BATCH_SIZE) { queue.put(batch); batch = new ArrayList<Triple>(BATCH_SIZE); }
+        }
+        if (!batch.isEmpty()) queue.put(batch);
+        for (int i=0; i<nthreads; ++i) queue.put(EOF);
+        done = true;
+        for (Future<Counts> f: futures)
+        {
+          Counts counts = f.get();
+          if (counts!=null) total.Merge(counts);
+        }
+      }
+      catch (InterruptedException e) { exec.shutdownNow(); throw new InterruptedIOException(e.getMessage()); }
+      catch (ExecutionException e) { exec.shutdownNow(); throw new IOException(e.getCause()); }
+      finally {
+        itr.close();
+        if (!done) exec.shutdownNow(); //producer failed, workers interrupted
+      }
+      if (failure.get()!=null) throw new IOException(failure.get());
+    }
+    if (verbose>0) System.err.println(String.format("stats: triples: %d; threads: %d; elapsed: %.3fs", total.Triples(), nthreads, (System.nanoTime()-t0)/1e9));
+    return total;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Statistics of files, combined, profiled as parsed, no graph built.
+	Files parsed in parallel; files chunkable per
+	rdf_loader.IsChunkable() one at a time, in parallel chunks.
+  */
+  public Counts Profile(String [] ifiles, String dlang, long chunksize) throws IOException
+  {
+    long t0 = System.nanoTime();
+    subjects_exact = objects_exact = null;
+    Counts total = NewCounts();
+    ArrayList<String> pool = new ArrayList<String>();
+    for (String ifile: ifiles)
+    {
+      Lang lang = rdf_loader.GuessLang(ifile, dlang);
+      if (!rdf_loader.IsChunkable(ifile, lang, chunksize)) { pool.add(ifile); continue; }
+      for (Counts counts: rdf_loader.ParseFileChunked(ifile, lang, this::NewCounts, nthreads, chunksize, verbose))
+        total.Merge(counts);
+    }
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, pool.size())));
+    ArrayList<Future<Counts> > futures = new ArrayList<Future<Counts> >();
+    for (String ifile: pool)
+    {
+      Lang lang = rdf_loader.GuessLang(ifile, dlang);
+      futures.add(exec.submit(() -> {
+        Counts counts = NewCounts();
+        RDFParser.create().source(ifile).forceLang(lang).parse(counts);
+        return counts;
+      }));
+    }
+    exec.shutdown();
+    for (int i=0; i<pool.size(); ++i)
+    {
+      try { total.Merge(futures.get(i).get()); }
+      catch (ExecutionException e) { exec.shutdownNow(); throw new IOException(pool.get(i)+": "+e.getCause().getMessage()); }
+      catch (InterruptedException e) { exec.shutdownNow(); throw new InterruptedIOException(e.getMessage()); }
+    }
+    if (verbose>0) System.err.println(String.format("stats: files: %d; triples: %d; threads: %d; elapsed: %.3fs", ifiles.length, total.Triples(), nthreads, (System.nanoTime()-t0)/1e9));
+    return total;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write JSON report.  Histograms in descending count order, classes
+	limited to top max_classes (0=all).
+  */
+  public static void WriteJson(Counts counts, String source, int max_classes, PrintWriter fout) throws IOException
+  {
+    JsonGenerator jsg = NewJsonGenerator(fout);
+    WriteJson(counts, source, max_classes, jsg);
+    jsg.flush();
+    fout.println();
+    fout.flush();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Pretty-printing generator, not closing fout, e.g. for an array of
+	reports via WriteJson(..., JsonGenerator).
+  */
+  public static JsonGenerator NewJsonGenerator(PrintWriter fout) throws IOException
+  {
+    JsonFactory jsf = new JsonFactory();
+    jsf.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    JsonGenerator jsg = jsf.createGenerator(fout);
+    jsg.useDefaultPrettyPrinter();
+    return jsg;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write report object to generator.
+  */
+  public static void WriteJson(Counts counts, String source, int max_classes, JsonGenerator jsg) throws IOException
+  {
+    jsg.writeStartObject();
+    jsg.writeStringField("source", source);
+    jsg.writeNumberField("triples", counts.n_triple);
+    jsg.writeObjectFieldStart("distinct");
+    jsg.writeStringField("method", counts.IsExact()?"exact":("hyperloglog_p"+HLL_P));
+    jsg.writeNumberField("subjects", counts.DistinctSubjects());
+    jsg.writeNumberField("predicates", counts.DistinctPredicates());
+    jsg.writeNumberField("objects", counts.DistinctObjects());
+    jsg.writeNumberField("classes", counts.DistinctClasses());
+    jsg.writeEndObject();
+    jsg.writeObjectFieldStart("subject_kinds");
+    jsg.writeNumberField("iri", counts.n_subj_iri);
+    jsg.writeNumberField("bnode", counts.n_subj_bnode);
+    jsg.writeEndObject();
+    jsg.writeObjectFieldStart("object_kinds");
+    jsg.writeNumberField("iri", counts.n_obj_iri);
+    jsg.writeNumberField("bnode", counts.n_obj_bnode);
+    jsg.writeNumberField("literal", counts.n_obj_literal);
+    jsg.writeEndObject();
+    jsg.writeArrayFieldStart("predicates");
+    for (Map.Entry<String,Long> e: Sorted(counts.predicates, 0))
+    {
+      jsg.writeStartObject();
+      jsg.writeStringField("predicate", e.getKey());
+      jsg.writeNumberField("count", e.getValue());
+      jsg.writeEndObject();
+    }
+    jsg.writeEndArray();
+    jsg.writeObjectFieldStart("datatypes");
+    for (Map.Entry<String,Long> e: Sorted(counts.datatypes, 0)) jsg.writeNumberField(e.getKey(), e.getValue());
+    jsg.writeEndObject();
+    jsg.writeObjectFieldStart("languages");
+    for (Map.Entry<String,Long> e: Sorted(counts.languages, 0)) jsg.writeNumberField(e.getKey(), e.getValue());
+    jsg.writeEndObject();
+    jsg.writeArrayFieldStart("classes");
+    for (Map.Entry<String,Long> e: Sorted(counts.classes, max_classes))
+    {
+      jsg.writeStartObject();
+      jsg.writeStringField("class", e.getKey());
+      jsg.writeNumberField("instances", e.getValue());
+      jsg.writeEndObject();
+    }
+    jsg.writeEndArray();
+    jsg.writeEndObject();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entries by descending count, then key; top n (0=all).
+  */
+  private static <K> List<Map.Entry<String,Long> > Sorted(Map<K,long[]> counts, int n)
+  {
+    ArrayList<Map.Entry<String,Long> > entries = new ArrayList<Map.Entry<String,Long> >();
+    for (Map.Entry<K,long[]> e: counts.entrySet())
+    {
+      K k = e.getKey();
+      String key = (k instanceof Node)?(((Node)k).isURI()?((Node)k).getURI():k.toString()):String.valueOf(k);
+      entries.add(new AbstractMap.SimpleEntry<String,Long>(key, e.getValue()[0]));
+    }
+    Collections.sort(entries, (a, b) -> (!a.getValue().equals(b.getValue()))?Long.compare(b.getValue(), a.getValue()):a.getKey().compareTo(b.getKey()));
+    return (n>0 && entries.size()>n)?entries.subList(0, n):entries;
+  }
+}
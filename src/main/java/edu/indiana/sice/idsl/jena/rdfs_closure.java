@@ -0,0 +1,284 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // IOException, StringWriter, Writer
+import java.util.*; // ArrayList, BitSet, HashMap, List
+import java.util.concurrent.*; // ExecutorService, Executors, Future
+
+import org.apache.jena.graph.*; // Graph, Node, Triple
+import org.apache.jena.riot.*; // Lang, RDFParser
+import org.apache.jena.riot.system.*; // StreamRDF, StreamRDFBase, StreamRDFLib
+import org.apache.jena.sparql.core.*; // Quad
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // RDF, RDFS
+
+/**	RDFS closure engine, for the inference closure of instance data,
+	without InfModel: rdfs:subClassOf and rdfs:subPropertyOf closure of
+	the schema (RDFS rules 5 and 11, reflexive, as from the transitive
+	reasoner), rdf:type propagation to superclasses (rule 9) and
+	statements for superproperties (rule 7).  Ancestor sets of the
+	schema's named classes and properties are precomputed once, as
+	sorted dense id arrays, via per-worker bitsets, so memory is bounded
+	by the schema, not the data.  Data is streamed through once, each
+	statement written with its entailments; large N-Triples/N-Quads
+	files in parallel chunks, as rdf_loader.ParseFileChunked().
+
+	Schema statements in the data are passed through, not reasoned
+	over.  Entailments are not deduplicated across statements, so e.g.
+	a type asserted both for a class and its superclass is written
+	twice; loading into a store, e.g. TDB, removes duplicates.
+
+	@author Jeremy Yang
+*/
+public class rdfs_closure
+{
+  private static final Node TYPE = RDF.type.asNode();
+  private static final int FLUSH_CHARS = 1<<20; //chunk sink buffer
+
+  private Graph schema;
+  private Node [] classes; //id -> class
+  private HashMap<Node,Integer> class_ids;
+  private int [][] class_ancs; //id -> ancestor ids, sorted, excluding self
+  private Node [] props;
+  private HashMap<Node,Integer> prop_ids;
+  private int [][] prop_ancs;
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Precompute ancestor sets from the schema's rdfs:subClassOf and
+	rdfs:subPropertyOf statements between named (URI) nodes, cycles ok,
+	on up to nthreads workers.
+  */
+  public rdfs_closure(Graph schema, int nthreads)
+  {
+    this.schema = schema;
+    class_ids = new HashMap<Node,Integer>();
+    ArrayList<Node> clist = new ArrayList<Node>();
+    int [][] cparents = Parents(schema, RDFS.subClassOf.asNode(), class_ids, clist);
+    classes = clist.toArray(new Node[0]);
+    class_ancs = Ancestors(cparents, nthreads);
+    prop_ids = new HashMap<Node,Integer>();
+    ArrayList<Node> plist = new ArrayList<Node>();
+    int [][] pparents = Parents(schema, RDFS.subPropertyOf.asNode(), prop_ids, plist);
+    props = plist.toArray(new Node[0]);
+    prop_ancs = Ancestors(pparents, nthreads);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public int ClassCount() { return classes.length; }
+  public int PropertyCount() { return props.length; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Parent adjacency from pred statements, interning named nodes, also
+	those whose only statements involve anonymous ones, so their
+	reflexive statements are written, as by the transitive reasoner.
+  */
+  private static int [][] Parents(Graph schema, Node pred, HashMap<Node,Integer> ids, ArrayList<Node> nodelist)
+  {
+    ArrayList<int[]> edges = new ArrayList<int[]>();
+    ExtendedIterator<Triple> itr = schema.find(Node.ANY, pred, Node.ANY);
+    try {
+      while (itr.hasNext())
+      {
+        Triple trp = itr.next();
+        int i = trp.getSubject().isURI()?Intern(trp.getSubject(), ids, nodelist):-1;
+        int j = trp.getObject().isURI()?Intern(trp.getObject(), ids, nodelist):-1;
+        if (i>=0 && j>=0) edges.add(new int[]{i, j});
+      }
+    }
+    finally { itr.close(); }
+    int [] n_parent = new int[nodelist.size()];
+    for (int [] e: edges) ++n_parent[e[0]];
+    int [][] parents = new int[nodelist.size()][];
+    for (int i=0; i<parents.length; ++i) parents[i] = new int[n_parent[i]];
+    Arrays.fill(n_parent, 0);
+    for (int [] e: edges) parents[e[0]][n_parent[e[0]]++] = e[1];
+    return parents;
+  }
+
+  private static int Intern(Node node, HashMap<Node,Integer> ids, ArrayList<Node> nodelist)
+  {
+    Integer id = ids.get(node);
+    if (id!=null) return id;
+    ids.put(node, nodelist.size());
+    nodelist.add(node);
+    return nodelist.size()-1;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Ancestors per node, by search over parents, marking a scratch bitset
+	per worker; workers take interleaved ids.
+  */
+  private static int [][] Ancestors(int [][] parents, int nthreads)
+  {
+    int n = parents.length;
+    int [][] ancs = new int[n][];
+    int nworker = Math.max(1, Math.min(nthreads, n/1000+1));
+    ExecutorService exec = Executors.newFixedThreadPool(nworker);
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int w=0; w<nworker; ++w)
+    {
+      final int w0 = w;
+      futures.add(exec.submit(() -> {
+        BitSet seen = new BitSet(n);
+        int [] stack = new int[Math.max(16, n)];
+        for (int i=w0; i<n; i+=nworker)
+        {
+          int sp=0;
+          for (int p: parents[i]) if (!seen.get(p)) { seen.set(p); stack[sp++] = p; }
+          while (sp>0)
+          {
+            int j = stack[--sp];
+            for (int p: parents[j]) if (!seen.get(p)) { seen.set(p); stack[sp++] = p; }
+          }
+          seen.clear(i);
+          ancs[i] = seen.stream().toArray();
+          seen.clear();
+        }
+      }));
+    }
+    exec.shutdown();
+    try { for (Future<?> f: futures) f.get(); }
+    catch (InterruptedException|ExecutionException e) { throw new RuntimeException(e); }
+    return ancs;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Schema closure: schema statements, with reflexive and transitive
+	rdfs:subClassOf and rdfs:subPropertyOf, as from the transitive
+	reasoner.  Returns statement count.
+  */
+  public long WriteSchema(StreamRDF out)
+  {
+    long n=0;
+    Node sub_cls = RDFS.subClassOf.asNode();
+    Node sub_prop = RDFS.subPropertyOf.asNode();
+    ExtendedIterator<Triple> itr = schema.find();
+    try {
+      while (itr.hasNext())
+      {
+        Triple trp = itr.next();
+        Node pred = trp.getPredicate();
+        if ((pred.equals(sub_cls) || pred.equals(sub_prop)) && trp.getSubject().isURI() && trp.getObject().isURI()) continue; //in closure
+        out.triple(trp);
+        ++n;
+      }
+    }
+    finally { itr.close(); }
+    n += WriteSchema(out, classes, class_ancs, RDFS.subClassOf.asNode());
+    n += WriteSchema(out, props, prop_ancs, RDFS.subPropertyOf.asNode());
+    return n;
+  }
+
+  private static long WriteSchema(StreamRDF out, Node [] nodes, int [][] ancs, Node pred)
+  {
+    long n=0;
+    for (int i=0; i<nodes.length; ++i)
+    {
+      out.triple(Triple.create(nodes[i], pred, nodes[i]));
+      for (int a: ancs[i]) out.triple(Triple.create(nodes[i], pred, nodes[a]));
+      n += 1+ancs[i].length;
+    }
+    return n;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write statement and its entailments.  Returns statement count.
+  */
+  public long Apply(Triple trp, StreamRDF out)
+  {
+    out.triple(trp);
+    long n=1;
+    Node pred = trp.getPredicate();
+    if (pred.equals(TYPE)) return n+Types(trp.getSubject(), trp.getObject(), out);
+    Integer i_prop = prop_ids.get(pred);
+    if (i_prop==null) return n;
+    for (int a: prop_ancs[i_prop])
+    {
+      out.triple(Triple.create(trp.getSubject(), props[a], trp.getObject()));
+      ++n;
+      if (props[a].equals(TYPE)) n += Types(trp.getSubject(), trp.getObject(), out);
+    }
+    return n;
+  }
+
+  private long Types(Node subj, Node cls, StreamRDF out)
+  {
+    Integer i_cls = class_ids.get(cls);
+    if (i_cls==null) return 0;
+    for (int a: class_ancs[i_cls]) out.triple(Triple.create(subj, TYPE, classes[a]));
+    return class_ancs[i_cls].length;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Sink applying the closure, writing to out.  Quads as triples.
+  */
+  public class ClosureSink extends StreamRDFBase
+  {
+    protected StreamRDF out;
+    protected long n_in=0, n_out=0;
+    public ClosureSink(StreamRDF out) { this.out = out; }
+    @Override public void triple(Triple trp) { ++n_in; n_out += Apply(trp, out); }
+    @Override public void quad(Quad quad) { triple(quad.asTriple()); }
+    public long CountIn() { return n_in; }
+    public long CountOut() { return n_out; }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Chunk sink, buffering N-Triples, appended to the shared writer in
+	blocks, under its lock, so chunks interleave by block.
+  */
+  private class ChunkSink extends ClosureSink
+  {
+    private StringWriter buf;
+    private Writer fout;
+    ChunkSink(StringWriter buf, Writer fout)
+    {
+      super(StreamRDFLib.writer(buf));
+      this.buf = buf;
+      this.fout = fout;
+    }
+    @Override public void triple(Triple trp)
+    {
+      super.triple(trp);
+      if (buf.getBuffer().length()>=FLUSH_CHARS) Flush();
+    }
+    @Override public void finish() { Flush(); }
+    private void Flush()
+    {
+      out.finish(); //flushes to buf
+      synchronized (fout) {
+        try { fout.write(buf.toString()); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+      }
+      buf.getBuffer().setLength(0);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Closure of one data file, as N-Triples, without the schema closure;
+	parsed in parallel chunks if rdf_loader.IsChunkable(), statement
+	order then varies.  Returns statement count written.
+  */
+  public long Write(String ifile, Lang lang, Writer fout, int nthreads, long chunksize, int verbose)
+	throws IOException
+  {
+    long t0 = System.nanoTime();
+    long n_in=0, n_out=0;
+    if (rdf_loader.IsChunkable(ifile, lang, chunksize))
+    {
+      List<ChunkSink> sinks = rdf_loader.ParseFileChunked(ifile, lang, () -> new ChunkSink(new StringWriter(), fout), nthreads, chunksize, verbose);
+      for (ChunkSink sink: sinks) { n_in += sink.CountIn(); n_out += sink.CountOut(); }
+    }
+    else
+    {
+      StreamRDF nt = StreamRDFLib.writer(fout);
+      ClosureSink sink = new ClosureSink(nt);
+      RDFParser.create().source(ifile).forceLang(lang).parse(sink); //sink does not pass finish() to nt
+      nt.finish();
+      n_in = sink.CountIn();
+      n_out = sink.CountOut();
+    }
+    if (verbose>0)
+      System.err.println(String.format("closure: %s; statements: %d in, %d out; elapsed: %.3fs", ifile, n_in, n_out, (System.nanoTime()-t0)/1e9));
+    return n_out;
+  }
+}
@@ -0,0 +1,270 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException
+import java.nio.file.*; // Files, StandardCopyOption
+import java.nio.charset.*; // StandardCharsets
+import java.security.*; // MessageDigest
+import java.util.*; // Arrays, Iterator, List
+import java.util.function.*; // Supplier
+
+import org.apache.jena.query.*; // QueryExecution, QueryFactory, ResultSet
+import org.apache.jena.riot.thrift.*; // Binding2Thrift, ThriftRDF
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding
+
+/**	On-disk cache of SPARQL endpoint SELECT results, so a query re-run
+	against an endpoint is answered locally.  Keyed by endpoint URL and
+	normalized query (parsed and re-serialized, so layout and comments do
+	not matter).  Entries hold results in binary RDF Thrift result set
+	form, replayed through any output format, hence the key need not
+	include the format.
+
+	On a miss, results are written to the entry as the caller consumes
+	them, so output still streams; the entry is kept only if all rows
+	were read.  Entries expire ttl seconds after creation, per the
+	header, hit or not; the cache is bounded to max_bytes by evicting
+	least recently used entries, where a hit updates the entry file
+	mtime.  Each entry starts with a header of
+	creation time, row count, endpoint and query, checked on lookup; the
+	row count, patched in once all rows are written, detects truncated
+	entries on replay.  Entries live in CACHE_DIR/results, CACHE_DIR
+	shared with the other caches.
+
+	A hit is replayed to the handler as is: once the header is read,
+	errors, e.g. a truncated entry, propagate rather than fall back to
+	the source, since the handler may have output rows already.
+
+	@author Jeremy Yang
+*/
+public class results_cache
+{
+  private static final String MAGIC = "iu_idsl_jena results 2";
+  private File dir;
+  private long ttl_ms;
+  private long max_bytes;
+
+  /** Consumer of results, e.g. results_writer, returning row count. */
+  public interface Handler { long Handle(ResultSet results) throws IOException; }
+  /** Producer of results, passing them to handler, e.g. query_pager. */
+  public interface Source { long Fetch(Handler handler) throws IOException; }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	@param cache_dir cache root, entries in its results subdirectory
+  */
+  public results_cache(String cache_dir, long ttl_s, long max_bytes)
+  {
+    this.dir = new File(((cache_dir!=null)?cache_dir:ont_cache.DefaultDir())+File.separator+"results");
+    this.ttl_ms = 1000L*ttl_s;
+    this.max_bytes = max_bytes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Query as parsed and serialized; if unparseable (e.g. extensions),
+	with whitespace collapsed.
+  */
+  public static String Normalize(String rq)
+  {
+    try { return QueryFactory.create(rq).serialize(); }
+    catch (Exception e) { return rq.trim().replaceAll("\\s+", " "); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String EntryName(String url, String rq_norm)
+  {
+    MessageDigest md;
+    try { md = MessageDigest.getInstance("SHA-256"); }
+    catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); } //required in every JRE
+    md.update(url.getBytes(StandardCharsets.UTF_8));
+    md.update((byte)'\n');
+    md.update(rq_norm.getBytes(StandardCharsets.UTF_8));
+    StringBuilder sb = new StringBuilder();
+    for (byte b: md.digest()) sb.append(String.format("%02x", b));
+    return sb.toString().substring(0, 32)+".rs";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void WriteString(DataOutputStream dos, String s) throws IOException
+  {
+    byte [] bytes = s.getBytes(StandardCharsets.UTF_8);
+    dos.writeInt(bytes.length);
+    dos.write(bytes);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String ReadString(DataInputStream dis) throws IOException
+  {
+    int len = dis.readInt();
+    if (len<0 || len>(1<<26)) throw new IOException("Bad header string length: "+len);
+    byte [] bytes = new byte[len];
+    dis.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Creation time from entry header, or -1 if unreadable.
+  */
+  private static long ReadCreated(File f)
+  {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1<<10)))
+    {
+      return MAGIC.equals(dis.readUTF())?dis.readLong():-1;
+    }
+    catch (IOException e) { return -1; }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entry stream positioned after the header, with its row count.
+  */
+  private static class Entry
+  {
+    DataInputStream dis;
+    long n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entry positioned after a valid, current header, or null if none,
+	expired or unreadable.
+  */
+  private Entry OpenEntry(File f, String url, String rq_norm)
+  {
+    if (!f.isFile()) return null;
+    Entry entry = new Entry();
+    try {
+      entry.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1<<16));
+      boolean valid = MAGIC.equals(entry.dis.readUTF());
+      long created = entry.dis.readLong();
+      entry.n_row = entry.dis.readLong();
+      valid &= (System.currentTimeMillis()-created<ttl_ms) && (entry.n_row>=0);
+      valid &= url.equals(ReadString(entry.dis)) && rq_norm.equals(ReadString(entry.dis));
+      if (valid) return entry;
+    }
+    catch (IOException e) { System.err.println("ERROR: results cache: "+f+": "+e.getMessage()); }
+    try { if (entry.dis!=null) entry.dis.close(); }
+    catch (IOException e) { }
+    return null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entry results, failing at the end if fewer rows than its header.
+  */
+  private static ResultSet Replay(Entry entry, File f)
+  {
+    ResultSet results = ThriftRDF.readResultSet(entry.dis);
+    List<Var> vs = Var.varList(results.getResultVars());
+    Iterator<Binding> checked = new Iterator<Binding>() {
+      long n=0;
+      public boolean hasNext()
+      {
+        if (results.hasNext()) return true;
+        if (n!=entry.n_row) throw new UncheckedIOException(new IOException("results cache: "+f+": truncated, rows: "+n+" of "+entry.n_row));
+        return false;
+      }
+      public Binding next() { ++n; return results.nextBinding(); }
+    };
+    return ResultSetStream.create(vs, checked);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results from cache if a valid entry exists, else from the query
+	execution, cached while consumed.  Returns row count from handler.
+  */
+  public long Run(String url, String rq, Supplier<QueryExecution> qex_supplier, Handler handler, int verbose)
+	throws IOException
+  {
+    return Run(url, rq, (Handler h) -> {
+      QueryExecution qex = qex_supplier.get();
+      try { return h.Handle(qex.execSelect()); }
+      finally { qex.close(); }
+    }, handler, verbose);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results from cache if a valid entry exists, else from source,
+	cached while consumed.  Returns row count from handler.
+  */
+  public long Run(String url, String rq, Source source, Handler handler, int verbose)
+	throws IOException
+  {
+    String rq_norm = Normalize(rq);
+    File f = new File(dir, EntryName(url, rq_norm));
+    Entry entry = OpenEntry(f, url, rq_norm);
+    if (entry!=null)
+    {
+      f.setLastModified(System.currentTimeMillis()); //LRU
+      if (verbose>0) System.err.println("results cache hit: "+f);
+      try { return handler.Handle(Replay(entry, f)); }
+      finally { entry.dis.close(); }
+    }
+    if (verbose>1) System.err.println("results cache miss: "+f);
+    Files.createDirectories(dir.toPath());
+    File f_tmp = File.createTempFile(f.getName(), ".tmp", dir);
+    boolean [] complete = {false};
+    long [] n_out = {0};
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f_tmp), 1<<16)))
+    {
+      dos.writeUTF(MAGIC);
+      dos.writeLong(System.currentTimeMillis());
+      dos.writeLong(-1); //row count, patched when complete
+      WriteString(dos, url);
+      WriteString(dos, rq_norm);
+      return source.Fetch((ResultSet results) -> {
+        List<Var> vs = Var.varList(results.getResultVars());
+        Binding2Thrift b2t = new Binding2Thrift(dos, vs, false);
+        Iterator<Binding> tee = new Iterator<Binding>() {
+          public boolean hasNext() { return results.hasNext(); }
+          public Binding next() { Binding b = results.nextBinding(); b2t.output(b); ++n_out[0]; return b; }
+        };
+        long n_row = handler.Handle(ResultSetStream.create(vs, tee));
+        complete[0] = !results.hasNext();
+        b2t.close();
+        dos.flush();
+        return n_row;
+      });
+    }
+    finally
+    {
+      if (complete[0])
+      {
+        try (RandomAccessFile raf = new RandomAccessFile(f_tmp, "rw"))
+        {
+          raf.seek(2+MAGIC.getBytes(StandardCharsets.UTF_8).length+8); //after magic, creation time
+          raf.writeLong(n_out[0]);
+        }
+        catch (IOException e) { f_tmp.delete(); throw e; }
+        Files.move(f_tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Evict();
+      }
+      else f_tmp.delete(); //incomplete or failed
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Delete expired entries, by creation time in the header, since a
+	hit refreshes the mtime, and unreadable ones; then least recently
+	used entries, by mtime, until total size is within max_bytes.
+  */
+  public synchronized void Evict()
+  {
+    File [] files = dir.listFiles((d, name) -> name.endsWith(".rs"));
+    if (files==null) return;
+    long now = System.currentTimeMillis();
+    long [] mtimes = new long[files.length];
+    Integer [] order = new Integer[files.length];
+    long total=0;
+    for (int i=0; i<files.length; ++i)
+    {
+      mtimes[i] = files[i].lastModified();
+      order[i] = i;
+      total += files[i].length();
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(mtimes[a], mtimes[b])); //oldest first
+    for (int i: order)
+    {
+      long created = ReadCreated(files[i]);
+      if (total<=max_bytes && created>=0 && now-created<ttl_ms) continue;
+      long len = files[i].length();
+      if (files[i].delete()) total -= len;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // Writer, IOException
+import java.util.*; // ArrayList, List
+
+import org.apache.jena.graph.*; // Node
+import org.apache.jena.query.*; // ResultSet, ResultSetFormatter
+import org.apache.jena.riot.out.*; // NodeFmtLib
+import org.apache.jena.sparql.core.*; // Prologue, Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding
+import org.apache.jena.vocabulary.*; // XSD
+
+import com.fasterxml.jackson.core.*; //JsonFactory, JsonGenerator
+
+/**	Streaming SPARQL SELECT result output, row by row as the result set
+	is consumed, so memory is constant and first rows appear promptly.
+	Formats: TSV and CSV (SPARQL 1.1 Query Results CSV/TSV), JSON
+	(SPARQL 1.1 Query Results JSON), NDJSON (one JSON binding object per
+	line, as in SPARQL JSON "bindings").  TXT is the Jena text table,
+	which needs all rows for column widths, hence capped at TXT_MAXROWS;
+	callers fail if the cap is hit, per Truncated().
+
+	@author Jeremy Yang
+*/
+public class results_writer
+{
+  public static final String [] FORMATS = {"txt", "tsv", "csv", "json", "ndjson"};
+  public static final int TXT_MAXROWS = 10000;
+  private static final int FLUSH_ROWS = 10000; //also after first row
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	True if n_row rows written in ofmt were cut at TXT_MAXROWS, which
+	callers treat as failure, so rows are not lost silently.
+  */
+  public static boolean Truncated(String ofmt, long n_row)
+  {
+    return (ofmt.equalsIgnoreCase("txt") && n_row>TXT_MAXROWS);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  public static boolean IsFormat(String ofmt)
+  {
+    for (String fmt: FORMATS) if (fmt.equalsIgnoreCase(ofmt)) return true;
+    return false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write results in format ofmt.  Prologue, for TXT only, to abbreviate
+	IRIs.  Returns row count.
+  */
+  public static long Write(ResultSet results, String ofmt, Prologue prol, Writer wtr)
+	throws IOException
+  {
+    if (ofmt.equalsIgnoreCase("tsv")) return WriteTSV(results, wtr);
+    else if (ofmt.equalsIgnoreCase("csv")) return WriteCSV(results, wtr);
+    else if (ofmt.equalsIgnoreCase("json")) return WriteJSON(results, wtr, false);
+    else if (ofmt.equalsIgnoreCase("ndjson")) return WriteJSON(results, wtr, true);
+    else return WriteTXT(results, prol, wtr);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static Var [] Vars(List<String> vars)
+  {
+    Var [] vs = new Var[vars.size()];
+    for (int j=0; j<vs.length; ++j) vs[j] = Var.alloc(vars.get(j));
+    return vs;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void RowDone(long n_row, Writer wtr) throws IOException
+  {
+    if (n_row==1 || n_row%FLUSH_ROWS==0) wtr.flush();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Values in Turtle/N-Triples term syntax; unbound as empty.
+  */
+  public static long WriteTSV(ResultSet results, Writer wtr) throws IOException
+  {
+    List<String> vars = results.getResultVars();
+    for (int j=0; j<vars.size(); ++j) wtr.write(((j>0)?"\t":"")+"?"+vars.get(j));
+    wtr.write("\n");
+    Var [] vs = Vars(vars);
+    long n_row=0;
+    while (results.hasNext())
+    {
+      Binding b = results.nextBinding();
+      for (int j=0; j<vs.length; ++j)
+      {
+        if (j>0) wtr.write("\t");
+        Node node = b.get(vs[j]);
+        if (node!=null) wtr.write(NodeFmtLib.str(node));
+      }
+      wtr.write("\n");
+      RowDone(++n_row, wtr);
+    }
+    return n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Values as plain strings (IRI, lexical form, _:label), quoted if
+	needed; unbound as empty.
+  */
+  public static long WriteCSV(ResultSet results, Writer wtr) throws IOException
+  {
+    List<String> vars = results.getResultVars();
+    for (int j=0; j<vars.size(); ++j) wtr.write(((j>0)?",":"")+CsvQuote(vars.get(j)));
+    wtr.write("\r\n");
+    Var [] vs = Vars(vars);
+    long n_row=0;
+    while (results.hasNext())
+    {
+      Binding b = results.nextBinding();
+      for (int j=0; j<vs.length; ++j)
+      {
+        if (j>0) wtr.write(",");
+        Node node = b.get(vs[j]);
+        if (node==null) continue;
+        else if (node.isURI()) wtr.write(CsvQuote(node.getURI()));
+        else if (node.isLiteral()) wtr.write(CsvQuote(node.getLiteralLexicalForm()));
+        else if (node.isBlank()) wtr.write("_:"+node.getBlankNodeLabel());
+        else wtr.write(CsvQuote(node.toString()));
+      }
+      wtr.write("\r\n");
+      RowDone(++n_row, wtr);
+    }
+    return n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String CsvQuote(String s)
+  {
+    if (s.indexOf(',')<0 && s.indexOf('"')<0 && s.indexOf('\n')<0 && s.indexOf('\r')<0) return s;
+    return "\""+s.replace("\"", "\"\"")+"\"";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	SPARQL JSON results, or with ndjson, one binding object per line.
+  */
+  public static long WriteJSON(ResultSet results, Writer wtr, boolean ndjson) throws IOException
+  {
+    JsonFactory jsf = new JsonFactory();
+    jsf.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    JsonGenerator jsg = jsf.createGenerator(wtr);
+    if (ndjson) jsg.setRootValueSeparator(null);
+    List<String> vars = results.getResultVars();
+    Var [] vs = Vars(vars);
+    if (!ndjson)
+    {
+      jsg.writeStartObject();
+      jsg.writeObjectFieldStart("head");
+      jsg.writeArrayFieldStart("vars");
+      for (String var: vars) jsg.writeString(var);
+      jsg.writeEndArray();
+      jsg.writeEndObject();
+      jsg.writeObjectFieldStart("results");
+      jsg.writeArrayFieldStart("bindings");
+    }
+    long n_row=0;
+    while (results.hasNext())
+    {
+      Binding b = results.nextBinding();
+      jsg.writeStartObject();
+      for (Var v: vs)
+      {
+        Node node = b.get(v);
+        if (node==null) continue;
+        jsg.writeObjectFieldStart(v.getVarName());
+        WriteJSONTerm(jsg, node);
+        jsg.writeEndObject();
+      }
+      jsg.writeEndObject();
+      if (ndjson) jsg.writeRaw("\n");
+      ++n_row;
+      if (n_row==1 || n_row%FLUSH_ROWS==0) jsg.flush();
+    }
+    if (!ndjson)
+    {
+      jsg.writeEndArray();
+      jsg.writeEndObject();
+      jsg.writeEndObject();
+      jsg.writeRaw("\n");
+    }
+    jsg.close();
+    return n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void WriteJSONTerm(JsonGenerator jsg, Node node) throws IOException
+  {
+    if (node.isURI())
+    {
+      jsg.writeStringField("type", "uri");
+      jsg.writeStringField("value", node.getURI());
+    }
+    else if (node.isBlank())
+    {
+      jsg.writeStringField("type", "bnode");
+      jsg.writeStringField("value", node.getBlankNodeLabel());
+    }
+    else if (node.isLiteral())
+    {
+      jsg.writeStringField("type", "literal");
+      jsg.writeStringField("value", node.getLiteralLexicalForm());
+      String lang = node.getLiteralLanguage();
+      String dtype = node.getLiteralDatatypeURI();
+      if (lang!=null && !lang.isEmpty()) jsg.writeStringField("xml:lang", lang);
+      else if (dtype!=null && !dtype.equals(XSD.xstring.getURI())) jsg.writeStringField("datatype", dtype);
+    }
+    else
+    {
+      jsg.writeStringField("type", "literal");
+      jsg.writeStringField("value", node.toString());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Text table of at most TXT_MAXROWS rows; rest are counted, not
+	written, with an error message.  Returns all rows counted.
+  */
+  public static long WriteTXT(ResultSet results, Prologue prol, Writer wtr) throws IOException
+  {
+    List<String> vars = results.getResultVars();
+    ArrayList<Binding> rows = new ArrayList<Binding>();
+    long n_row=0;
+    while (results.hasNext())
+    {
+      Binding b = results.nextBinding();
+      if (n_row++<TXT_MAXROWS) rows.add(b);
+    }
+    ArrayList<Var> vs = new ArrayList<Var>();
+    for (String var: vars) vs.add(Var.alloc(var));
+    wtr.write(ResultSetFormatter.asText(ResultSetStream.create(vs, rows.iterator()), prol));
+    if (n_row>TXT_MAXROWS)
+      System.err.println(String.format("ERROR: text table truncated to %d of %d rows; use a streaming format (-ofmt tsv|csv|json|ndjson).", TXT_MAXROWS, n_row));
+    return n_row;
+  }
+}
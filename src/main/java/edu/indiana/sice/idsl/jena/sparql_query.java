@@ -1,7 +1,8 @@
 package edu.indiana.sice.idsl.jena;
 
 import java.io.*; // BufferedReader, File, FileOutputStream, FileReader, IOException
-import java.util.*; // Properties
+import java.util.*; // ArrayList, Arrays, List, Properties
+import java.util.concurrent.*; // ExecutorService, Executors, Future
 
 import org.apache.commons.cli.*; // CommandLine, CommandLineParser, HelpFormatter, OptionBuilder, Options, ParseException, PosixParser
 import org.apache.commons.cli.Option.*; // Builder
@@ -11,7 +12,7 @@ import org.apache.logging.log4j.util.*; // PropertyFilePropertySource
 
 import org.apache.jena.Jena;
 import org.apache.jena.riot.*; //RDFFormat, RDFDataMgr
-import org.apache.jena.query.*; //QueryExecution, QueryExecutionFactory, ResultSet, ResultSetFormatter
+import org.apache.jena.query.*; //QueryExecution, ResultSet, ResultSetFormatter
 
 /**	Based on code from Matt Gianni, YarcData (April 2014).
 
@@ -21,19 +22,35 @@ public class sparql_query
 {
   static Logger logger = LogManager.getLogger(sparql_query.class);
 
+  static { //jar-with-dependencies keeps only jena-core's subsystem services file
+    RIOT.init();
+    ARQ.init();
+  }
+
   /////////////////////////////////////////////////////////////////////////////
+  /**	Run .rq files in idir in turn, in file name order, results to one
+	stream, each via RunQueryOutput(), as RunQueriesBatch(), so all
+	endpoints (-url), results cache, paging and VALUES batches apply.
+  */
   public static void RunQueries(String url, String idir, String ofmt, OutputStream ostream,int verbose)
       throws IOException
   {
-    File d = new File(idir);
-    for (File f: d.listFiles())
+    File [] files = new File(idir).listFiles();
+    if (files==null) throw new IOException("Cannot read directory: "+idir);
+    Arrays.sort(files);
+    for (File f: files)
     {
       if ( f.getPath().endsWith(".rq") ) // only process .rq files
       {
         if (verbose>1) System.err.println("query file: "+f.getPath());
+        stats.Start("sparql_read");
         String rq = ReadFile(f.getPath());
-        QueryExecution qex = RunQuery(url, rq, verbose);
-        OutputResults(qex, ostream, ofmt, verbose);
+        stats.Stop(rq.length(), "chars");
+        long t0 = System.nanoTime();
+        stats.Start("query");
+        long n_row = RunQueryOutput(url, rq, ostream, ofmt, verbose);
+        stats.Stop(n_row, "rows");
+        System.err.println(String.format("%s: rows: %d; elapsed: %.3fs", f.getName(), n_row, (System.nanoTime()-t0)/1e9));
       }
       else
       {
@@ -42,6 +59,111 @@ public class sparql_query
     }      
   }
 
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run .rq files in idir concurrently, on up to nthreads workers, each
+	query's results to its own file in odir, named for the query file.
+	Writes summary TSV, in query file name order, with latency (query
+	start to results written), row count, bytes and status per query.
+	Returns count of failed queries.
+  */
+  public static int RunQueriesBatch(String url, String idir, String ofmt, String odir, int nthreads, PrintWriter fout_summary, int verbose)
+      throws IOException
+  {
+    long t0 = System.nanoTime();
+    File [] files = new File(idir).listFiles((dir, name) -> name.endsWith(".rq"));
+    if (files==null) throw new IOException("Cannot read directory: "+idir);
+    Arrays.sort(files);
+    new File(odir).mkdirs();
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, files.length)));
+    ArrayList<Future<String> > futures = new ArrayList<Future<String> >();
+    for (File f: files)
+    {
+      File ofile = new File(odir, f.getName().replaceFirst("\\.rq$", "")+"."+FormatExtension(ofmt));
+      futures.add(exec.submit(() -> RunQueryToFile(url, f, ofile, ofmt, verbose)));
+    }
+    exec.shutdown();
+    fout_summary.println("query\tofile\tstatus\trows\tbytes\tlatency_s\terror");
+    int n_err=0;
+    for (int i=0; i<files.length; ++i)
+    {
+      String row;
+      try { row = futures.get(i).get(); }
+      catch (ExecutionException e) { row = files[i].getName()+"\t\tERROR\t\t\t\t"+e.getCause(); }
+      catch (InterruptedException e) { throw new InterruptedIOException(e.getMessage()); }
+      if (row.split("\t", -1)[2].equals("ERROR")) ++n_err;
+      fout_summary.println(row);
+    }
+    fout_summary.flush();
+    System.err.println(String.format("queries: %d; failed: %d; threads: %d; elapsed: %.3fs", files.length, n_err, nthreads, (System.nanoTime()-t0)/1e9));
+    return n_err;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run one query file, results to ofile.  Returns summary TSV row.
+	Errors are reported in the row, not thrown.
+  */
+  private static String RunQueryToFile(String url, File f, File ofile, String ofmt, int verbose)
+  {
+    long t0 = System.nanoTime();
+    long n_row=0;
+    String err=null;
+    if (verbose>1) System.err.println("query file: "+f.getPath());
+    try (OutputStream ostream = new BufferedOutputStream(new FileOutputStream(ofile)))
+    {
+      n_row = RunQueryOutput(url, ReadFile(f.getPath()), ostream, ofmt, verbose);
+    }
+    catch (Exception e) { err = e.toString().replaceAll("\\s+", " "); }
+    double t = (System.nanoTime()-t0)/1e9;
+    if (verbose>0)
+      System.err.println(String.format("%s: %s; rows: %d; elapsed: %.3fs", f.getName(), ((err==null)?"OK":"ERROR"), n_row, t));
+    return String.format("%s\t%s\t%s\t%d\t%d\t%.3f\t%s", f.getName(), ofile.getPath(), ((err==null)?"OK":"ERROR"), n_row, ofile.length(), t, ((err==null)?"":err));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Run query and output results, via results cache unless disabled.
+	With several endpoints (-url), query is federated, not cached.
+	Returns row count.
+  */
+  private static long RunQueryOutput(String url, String rq, OutputStream ostream, String ofmt, int verbose)
+      throws IOException
+  {
+    results_cache.Handler handler = (result) -> { FormatResults(result, ostream, ofmt); return (long)result.getRowNumber(); };
+    results_cache.Source source;
+    if (urls.size()>1)
+    {
+      query_federator fed = new query_federator(urls, rq, url_timeout, source_var, dedup, verbose);
+      try { return fed.Fetch(handler); } //not cached
+      finally {
+        synchronized (sparql_query.class) { //batch queries share the stats output
+          if (fout_urlstats!=null) { fed.WriteStats(fout_urlstats, !urlstats_header); urlstats_header=true; }
+          else if (verbose>0 || idir==null) fed.WriteStats(new PrintWriter(new OutputStreamWriter(System.err)), true);
+        }
+      }
+    }
+    else if (values_file!=null)
+    {
+      List<org.apache.jena.graph.Node> values = query_batcher.ParseValues(query_batcher.ReadValues(values_file, values_col), rq);
+      return new query_batcher(rq, values_var, values, values_batch, nthreads, query_batcher.ForEndpoint(url), verbose).Fetch(handler); //not cached
+    }
+    else if (page_size>0)
+      source = new query_pager(url, rq, page_size, page_threads, page_retries, verbose)::Fetch;
+    else
+      source = (h) -> {
+        QueryExecution qex = RunQuery(url, rq, verbose);
+        try { return h.Handle(qex.execSelect()); }
+        finally { qex.close(); }
+      };
+    return ((rcache!=null)?rcache.Run(url, rq, source, handler, verbose):source.Fetch(handler));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static String FormatExtension(String ofmt)
+  {
+    if (ofmt.equalsIgnoreCase("JSON")) return "json";
+    else if (ofmt.equalsIgnoreCase("TSV")) return "tsv";
+    else return "xml";
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   public static QueryExecution RunQuery(String url, String rq, int verbose)
       throws IOException
@@ -49,38 +171,48 @@ public class sparql_query
     if (verbose>1) logger.info("endpoint: "+url);
     if (verbose>1) System.err.println("endpoint: "+url);
     if (verbose>2) System.err.println("query: "+rq);
-    QueryExecution qex = QueryExecutionFactory.sparqlService(url, rq);
+    QueryExecution qex = http_client.Exec(url, rq);
     return qex;
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  public static void OutputResults(QueryExecution qex, OutputStream ostream, String ofmt, int verbose) throws IOException
+  /**	Returns row count, -1 if output failed.
+  */
+  public static long OutputResults(QueryExecution qex, OutputStream ostream, String ofmt, int verbose) throws IOException
   {
     long t0 = System.nanoTime();
     ResultSet result = qex.execSelect();
-    
+    long n_row=-1;
     try {
-      if (ofmt.equalsIgnoreCase("XML"))
-      {
-        ResultSetFormatter.outputAsXML(ostream, result);
-      }
-      else if (ofmt.equalsIgnoreCase("JSON"))
-      {
-        ResultSetFormatter.outputAsJSON(ostream, result);
-      }
-      else if (ofmt.equalsIgnoreCase("TSV"))
-      {
-        ResultSetFormatter.outputAsTSV(ostream, result);
-      }
-      else
-      {
-        ResultSetFormatter.outputAsXML(ostream, result);
-      }
+      FormatResults(result, ostream, ofmt);
+      n_row = result.getRowNumber();
     } catch (Exception e) {
       System.err.println(e.toString());
     }
-    System.err.println(String.format("elapsed: %.3fs", (System.nanoTime()-t0)/1e9));
+    System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
     qex.close();
+    return n_row;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void FormatResults(ResultSet result, OutputStream ostream, String ofmt)
+  {
+    if (ofmt.equalsIgnoreCase("XML"))
+    {
+      ResultSetFormatter.outputAsXML(ostream, result);
+    }
+    else if (ofmt.equalsIgnoreCase("JSON"))
+    {
+      ResultSetFormatter.outputAsJSON(ostream, result);
+    }
+    else if (ofmt.equalsIgnoreCase("TSV"))
+    {
+      ResultSetFormatter.outputAsTSV(ostream, result);
+    }
+    else
+    {
+      ResultSetFormatter.outputAsXML(ostream, result);
+    }
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -101,26 +233,83 @@ public class sparql_query
   private static String APPNAME="SPARQL_QUERY";
   private static int verbose=0;
   private static String url=null;
+  private static List<String> urls=new ArrayList<String>();
+  private static long url_timeout=300; //seconds
+  private static String source_var=null;
+  private static boolean dedup=false;
+  private static PrintWriter fout_urlstats=null;
+  private static boolean urlstats_header=false;
   private static String ifile=null;
   private static String rq=null;
   private static String idir=null;
   private static String ofile=null;
+  private static String phase_report=null;
+  private static phase_stats stats=new phase_stats();
   private static String ofmt="TTL";
+  private static String odir=null;
+  private static int nthreads=4;
+  private static String cache_dir=ont_cache.DefaultDir();
+  private static long cache_ttl=0; //seconds, 0=no results cache
+  private static int cache_max_mb=1024;
+  private static results_cache rcache=null;
+  private static int page_size=0;
+  private static int page_threads=4;
+  private static int page_retries=3;
+  private static long connect_timeout=10; //seconds
+  private static long read_timeout=0; //seconds, 0=none
+  private static int http_retries=2;
+  private static String values_file=null;
+  private static String values_col="1";
+  private static String values_var=null;
+  private static int values_batch=500;
 
   /////////////////////////////////////////////////////////////////////////////
   public static void main(String[] args) throws Exception
   {
     String HELPHEADER =  "SPARQL_APP: Query Sparql endpoint.";
     String HELPFOOTER = ("Jena version: "+Jena.VERSION+" ("+Jena.BUILD_DATE+")\n"
-      +"OFMTS: RDF|TTL|NT|NTRIPLES|JSON|TSV\n");
+      +"OFMTS: RDF|TTL|NT|NTRIPLES|JSON|TSV\n"
+      +"Batch: -idir with -odir runs queries concurrently, results per query\n"
+      +"in ODIR, summary TSV to OFILE or stdout.\n"
+      +"Results are cached only if -cache_ttl>0 (default off), in\n"
+      +"CACHE_DIR/results, as jena_utils, per -cache_ttl and -cache_max_mb.\n"
+      +"All queries share one HTTP client: pooled keep-alive connections, gzip\n"
+      +"responses, timeouts and retries, after Retry-After if given; per-request\n"
+      +"timing with -vv.  Paged queries retry per page (-page_retries), not\n"
+      +"also per request.\n"
+      +"Federated: several -url (repeated or comma separated) run concurrently,\n"
+      +"results merged, per-endpoint stats TSV to stderr or -url_stats.\n"
+      +"-phase_report: wall, CPU, GC time, peak heap and counts per phase\n"
+      +"(sparql_read, query), JSON if OFILE ends with .json, else TSV.\n");
     Options opts = new Options();
-    opts.addOption(Option.builder("url").longOpt("endpoint_url").hasArg().argName("URL").desc("endpoint URL").required(true).build());
+    opts.addOption(Option.builder("url").longOpt("endpoint_url").hasArgs().argName("URL").desc("endpoint URL(s), several for federated query").required(true).build());
+    opts.addOption(Option.builder("url_timeout").hasArg().argName("SECONDS").desc("per-endpoint timeout, federated (0=none) ["+url_timeout+"]").build());
+    opts.addOption(Option.builder("source_var").hasArg().argName("VAR").desc("federated: variable bound to each row's endpoint URL").build());
+    opts.addOption(Option.builder("dedup").desc("federated: drop duplicate rows across endpoints").build());
+    opts.addOption(Option.builder("url_stats").hasArg().argName("OFILE").desc("federated: per-endpoint stats TSV").build());
     opts.addOption(Option.builder("i").longOpt("ifile_sparql").hasArg().argName("IFILE_SPARQL").desc("Input Sparql file").build());
     opts.addOption(Option.builder("rq").longOpt("sparql").hasArg().argName("SPARQL").desc("Sparql").build());
 
     opts.addOption(Option.builder("o").longOpt("ofile").hasArg().argName("OFILE").desc("Output file").build());
+    opts.addOption(Option.builder("phase_report").hasArg().argName("OFILE").desc("per-phase time, CPU, GC, heap and counts (JSON|TSV)").build());
     opts.addOption(Option.builder("idir").hasArg().argName("IDIR").desc("Input directory").build());
     opts.addOption(Option.builder("ofmt").hasArg().argName("OFMT").desc("Output format").build());
+    opts.addOption(Option.builder("odir").hasArg().argName("ODIR").desc("Output directory, batch mode (with -idir)").build());
+    opts.addOption(Option.builder("cache_dir").hasArg().argName("CACHE_DIR").desc("cache directory, results in CACHE_DIR/results ["+cache_dir+"]").build());
+    opts.addOption(Option.builder("cache_ttl").hasArg().argName("SECONDS").desc("results cache time to live, 0=no results cache ["+cache_ttl+"]").build());
+    opts.addOption(Option.builder("cache_max_mb").hasArg().argName("MB").desc("results cache size limit ["+cache_max_mb+"]").build());
+    opts.addOption(Option.builder("page_size").hasArg().argName("N").desc("query in pages of N rows, fetched concurrently (0=off) ["+page_size+"]").build());
+    opts.addOption(Option.builder("page_threads").hasArg().argName("N").desc("concurrent page fetches per query ["+page_threads+"]").build());
+    opts.addOption(Option.builder("connect_timeout").hasArg().argName("SECONDS").desc("HTTP connect timeout ["+connect_timeout+"]").build());
+    opts.addOption(Option.builder("read_timeout").hasArg().argName("SECONDS").desc("HTTP response timeout (0=none) ["+read_timeout+"]").build());
+    opts.addOption(Option.builder("http_retries").hasArg().argName("N").desc("HTTP retries, on connect failure, timeout or 429/502/503/504 ["+http_retries+"]").build());
+    opts.addOption(Option.builder("page_retries").hasArg().argName("N").desc("retries per failed page, in place of -http_retries for pages (0=use -http_retries) ["+page_retries+"]").build());
+    opts.addOption(Option.builder("values_file").hasArg().argName("TSV").desc("query template mode: values from TSV column bound by VALUES batches, run concurrently (-nthreads); template without LIMIT, OFFSET, ORDER BY, DISTINCT, GROUP BY or aggregates").build());
+    opts.addOption(Option.builder("values_col").hasArg().argName("COL").desc("values column, header name or 1-based index ["+values_col+"]").build());
+    opts.addOption(Option.builder("values_var").hasArg().argName("VAR").desc("template variable bound to values [column name]").build());
+    opts.addOption(Option.builder("values_batch").hasArg().argName("N").desc("values per VALUES batch ["+values_batch+"]").build());
+    opts.addOption(Option.builder("nocache").desc("bypass results cache").build());
+    opts.addOption(Option.builder("nthreads").hasArg().argName("N").desc("concurrent queries, batch mode ["+nthreads+"]").build());
     opts.addOption("v", "verbose", false, "Verbose.");
     opts.addOption("vv", "vverbose", false, "Very verbose.");
     opts.addOption("vvv", "vvverbose", false, "Very very verbose.");
@@ -134,9 +323,42 @@ public class sparql_query
       helper.printHelp(APPNAME, HELPHEADER, opts, e.getMessage(), true);
       System.exit(0);
     }
+    if (clic.hasOption("url")) {
+      for (String val: clic.getOptionValues("url"))
+        for (String u: val.split(",")) if (!u.trim().isEmpty() && !urls.contains(u.trim())) urls.add(u.trim());
+      url = urls.get(0);
+    }
+    if (clic.hasOption("url_timeout")) url_timeout = Long.parseLong(clic.getOptionValue("url_timeout"));
+    if (clic.hasOption("source_var")) source_var = clic.getOptionValue("source_var");
+    if (clic.hasOption("dedup")) dedup = true;
+    if (clic.hasOption("url_stats")) fout_urlstats = new PrintWriter(new FileWriter(clic.getOptionValue("url_stats")));
+    if (clic.hasOption("idir")) idir = clic.getOptionValue("idir");
+    if (clic.hasOption("ofmt")) ofmt = clic.getOptionValue("ofmt");
+    if (clic.hasOption("odir")) odir = clic.getOptionValue("odir");
+    if (clic.hasOption("nthreads")) nthreads = Integer.parseInt(clic.getOptionValue("nthreads"));
+    if (clic.hasOption("cache_dir")) cache_dir = clic.getOptionValue("cache_dir");
+    if (clic.hasOption("cache_ttl")) cache_ttl = Long.parseLong(clic.getOptionValue("cache_ttl"));
+    if (clic.hasOption("cache_max_mb")) cache_max_mb = Integer.parseInt(clic.getOptionValue("cache_max_mb"));
+    if (clic.hasOption("page_size")) page_size = Integer.parseInt(clic.getOptionValue("page_size"));
+    if (clic.hasOption("page_threads")) page_threads = Integer.parseInt(clic.getOptionValue("page_threads"));
+    if (clic.hasOption("page_retries")) page_retries = Integer.parseInt(clic.getOptionValue("page_retries"));
+    if (clic.hasOption("connect_timeout")) connect_timeout = Long.parseLong(clic.getOptionValue("connect_timeout"));
+    if (clic.hasOption("read_timeout")) read_timeout = Long.parseLong(clic.getOptionValue("read_timeout"));
+    if (clic.hasOption("http_retries")) http_retries = Integer.parseInt(clic.getOptionValue("http_retries"));
+    if (clic.hasOption("values_file")) values_file = clic.getOptionValue("values_file");
+    if (clic.hasOption("values_col")) values_col = clic.getOptionValue("values_col");
+    if (clic.hasOption("values_var")) values_var = clic.getOptionValue("values_var");
+    else if (!values_col.matches("\\d+")) values_var = values_col;
+    if (clic.hasOption("values_batch")) values_batch = Integer.parseInt(clic.getOptionValue("values_batch"));
+    if (values_file!=null && values_var==null) {
+      helper.printHelp(APPNAME, HELPHEADER, opts, "-values_var required with numeric -values_col", true);
+      System.exit(0);
+    }
+    if (!clic.hasOption("nocache") && cache_ttl>0) rcache = new results_cache(cache_dir, cache_ttl, (cache_max_mb*1L)<<20);
     if (clic.hasOption("ifile_sparql")) ifile = clic.getOptionValue("ifile_sparql");
     if (clic.hasOption("sparql")) rq = clic.getOptionValue("sparql");
     if (clic.hasOption("o")) ofile = clic.getOptionValue("o");
+    if (clic.hasOption("phase_report")) phase_report = clic.getOptionValue("phase_report");
     if (clic.hasOption("vvv")) verbose = 3;
     else if (clic.hasOption("vv")) verbose = 2;
     else if (clic.hasOption("v")) verbose = 1;
@@ -145,8 +367,11 @@ public class sparql_query
       System.exit(0);
     }
 
+    http_client.Configure(connect_timeout, read_timeout, http_retries, verbose);
+
     Properties props = new Properties();
-    props.load(new FileInputStream(System.getProperty("user.home")+"/.log4j/properties/log4j.properties")); 
+    File log4j_propfile = new File(System.getProperty("user.home")+"/.log4j/properties/log4j.properties");
+    if (log4j_propfile.canRead()) props.load(new FileInputStream(log4j_propfile)); 
 
     if (rq==null && ifile==null && idir==null) helper.printHelp(APPNAME, HELPHEADER, opts,"--sparql or --ifile_sparql or -idir required", true);
 
@@ -157,7 +382,21 @@ public class sparql_query
       catch (Exception e) { helper.printHelp(APPNAME, HELPHEADER, opts, e.getMessage(), true); }
     }
 
-    if (idir!=null)
+    if (idir!=null && odir!=null)
+    {
+      if (verbose>0) System.err.println("idir: "+idir+"; odir: "+odir);
+      PrintWriter fout_summary = new PrintWriter(new OutputStreamWriter(ostream));
+      stats.Start("query");
+      int n_err = RunQueriesBatch(url, idir, ofmt, odir, nthreads, fout_summary, verbose);
+      stats.Stop(-1, null);
+      if (ofile!=null) ostream.close();
+      if (fout_urlstats!=null) fout_urlstats.close();
+      if (verbose>0) System.err.println(http_client.Get().Summary());
+      WritePhaseReport();
+      if (n_err>0) System.exit(1);
+      return;
+    }
+    else if (idir!=null)
     {
       if (verbose>0) System.err.println("idir: "+idir);
       RunQueries(url, idir, ofmt, ostream, verbose);
@@ -165,20 +404,38 @@ public class sparql_query
     else if (rq!=null)
     {
       if (verbose>0) System.err.println("ifile: "+ifile);
-      QueryExecution qex = RunQuery(url, rq, verbose);
-      OutputResults(qex, ostream, ofmt, verbose);
+      long t0 = System.nanoTime();
+      stats.Start("query");
+      long n_row = RunQueryOutput(url, rq, ostream, ofmt, verbose);
+      stats.Stop(n_row, "rows");
+      System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
     }
     else
     {
       if (verbose>0) System.err.println("ifile: "+ifile);
+      stats.Start("sparql_read");
       rq = ReadFile(ifile);
-      QueryExecution qex = RunQuery(url, rq, verbose);
-      OutputResults(qex, ostream, ofmt, verbose);
+      stats.Stop(rq.length(), "chars");
+      long t0 = System.nanoTime();
+      stats.Start("query");
+      long n_row = RunQueryOutput(url, rq, ostream, ofmt, verbose);
+      stats.Stop(n_row, "rows");
+      System.err.println(String.format("rows: %d; elapsed: %.3fs", n_row, (System.nanoTime()-t0)/1e9));
     }
 
+    if (fout_urlstats!=null) fout_urlstats.close();
+    if (verbose>0) System.err.println(http_client.Get().Summary());
     if (ofile!=null)
     {
       try { ostream.close(); } catch (Exception e) { System.err.println(e.getMessage()); }
     }
+    WritePhaseReport();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private static void WritePhaseReport() throws IOException
+  {
+    if (verbose>0) System.err.println(stats.Summary());
+    if (phase_report!=null) stats.Write(phase_report);
   }
 }
@@ -0,0 +1,207 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // StringReader
+import java.util.*; // HashSet, Random, Set
+
+import org.junit.*; // Test
+import static org.junit.Assert.*;
+
+import org.apache.jena.graph.*; // Node, NodeFactory
+import org.apache.jena.ontology.*; // OntClass, OntModel, OntModelSpec
+import org.apache.jena.rdf.model.*; // ModelFactory
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+
+/**	class_hierarchy cycle condensation, levels, minimal and top paths,
+	against brute force over the class_index edges, and direct
+	superclasses against listSuperClasses(true).
+*/
+public class ClassHierarchyTest
+{
+  static OntModel Load(String ttl)
+  {
+    OntModel omod = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+    omod.read(new StringReader(ClassIndexTest.PREFIXES+ttl), null, "TTL");
+    return omod;
+  }
+
+  static int Id(class_index cidx, String name)
+  {
+    return cidx.GetId(NodeFactory.createURI("http://x/"+name));
+  }
+
+  /**	Random subclass graph, n classes, each with up to 3 parents among
+	lower numbers, plus back edges making cycles.
+  */
+  static String RandomOnt(int n, int n_back, long seed)
+  {
+    Random rand = new Random(seed);
+    StringBuilder sb = new StringBuilder();
+    for (int i=0; i<n; ++i)
+    {
+      sb.append(":C"+i+" a owl:Class .\n");
+      int np = (i==0)?0:rand.nextInt(4);
+      for (int j=0; j<np; ++j) sb.append(":C"+i+" rdfs:subClassOf :C"+rand.nextInt(i)+" .\n");
+    }
+    for (int k=0; k<n_back; ++k)
+    {
+      int i = 1+rand.nextInt(n-1);
+      sb.append(":C"+rand.nextInt(i)+" rdfs:subClassOf :C"+i+" .\n");
+    }
+    return sb.toString();
+  }
+
+  /**	Reachability over class_index superclass edges, reflexive.
+  */
+  static boolean [][] Closure(class_index cidx)
+  {
+    int n = cidx.Size();
+    boolean [][] reach = new boolean[n][n];
+    for (int i=0; i<n; ++i)
+    {
+      reach[i][i] = true;
+      for (int j=0; j<cidx.ParentCount(i); ++j) reach[i][cidx.GetParent(i, j)] = true;
+    }
+    for (int k=0; k<n; ++k)
+      for (int i=0; i<n; ++i)
+        if (reach[i][k])
+          for (int j=0; j<n; ++j)
+            if (reach[k][j]) reach[i][j] = true;
+    return reach;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Components are the mutually reachable classes; levels are shortest
+	distances to a root component; paths are valid and minimal.
+  */
+  static void CheckHierarchy(class_hierarchy hier)
+  {
+    class_index cidx = hier.GetIndex();
+    int n = cidx.Size();
+    boolean [][] reach = Closure(cidx);
+    int n_cyclic=0;
+    for (int i=0; i<n; ++i)
+    {
+      boolean cyclic=false;
+      for (int j=0; j<n; ++j)
+      {
+        boolean mutual = (reach[i][j] && reach[j][i]);
+        assertEquals(mutual, hier.GetComponent(i)==hier.GetComponent(j));
+        if (mutual && i!=j) cyclic=true;
+      }
+      assertEquals(cyclic, hier.IsCyclic(i));
+      if (cyclic) ++n_cyclic;
+    }
+    assertEquals(n_cyclic, hier.CyclicClassCount());
+    //Levels by relaxation over components, from roots.
+    int [] lev = new int[n];
+    Arrays.fill(lev, Integer.MAX_VALUE);
+    for (int i=0; i<n; ++i) if (hier.GetParents(i).length==0 && !HasComponentParent(hier, i)) lev[i] = 0;
+    for (boolean changed=true; changed; )
+    {
+      changed = false;
+      for (int i=0; i<n; ++i)
+        for (int j=0; j<n; ++j)
+        {
+          int d = Integer.MAX_VALUE;
+          if (hier.GetComponent(i)==hier.GetComponent(j)) d = lev[j];
+          else if (Contains(hier.GetParents(i), j) && lev[j]<Integer.MAX_VALUE) d = lev[j]+1;
+          if (d<lev[i]) { lev[i] = d; changed = true; }
+        }
+    }
+    for (int i=0; i<n; ++i)
+    {
+      assertEquals(cidx.GetNode(i).toString(), lev[i], hier.GetLevel(i));
+      int [] path = hier.GetMinimalPath(i);
+      assertEquals(lev[i], path.length);
+      for (int k=0; k<path.length; ++k)
+      {
+        assertEquals(k, hier.GetLevel(path[k]));
+        int sub = (k+1<path.length)?path[k+1]:i;
+        assertTrue(IsComponentParent(hier, sub, path[k]));
+      }
+      for (int m=0; m<=3; ++m)
+      {
+        int [] top = hier.GetTopPaths(m)[i];
+        assertArrayEquals(Arrays.copyOf(path, Math.min(m, path.length)), top);
+      }
+    }
+  }
+
+  static boolean Contains(int [] ids, int id)
+  {
+    for (int i: ids) if (i==id) return true;
+    return false;
+  }
+
+  /**	True if some class in sub's component has p as a direct parent.	*/
+  static boolean IsComponentParent(class_hierarchy hier, int sub, int p)
+  {
+    for (int c=0; c<hier.Size(); ++c)
+      if (hier.GetComponent(c)==hier.GetComponent(sub) && Contains(hier.GetParents(c), p)) return true;
+    return false;
+  }
+
+  static boolean HasComponentParent(class_hierarchy hier, int i)
+  {
+    for (int c=0; c<hier.Size(); ++c)
+      if (hier.GetComponent(c)==hier.GetComponent(i) && hier.GetParents(c).length>0) return true;
+    return false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testHandBuilt()
+  {
+    class_hierarchy hier = new class_hierarchy(Load(
+      ":A a owl:Class .\n"+
+      ":B a owl:Class ; rdfs:subClassOf :A .\n"+
+      ":C a owl:Class ; rdfs:subClassOf :A , :B .\n"+ //A indirect
+      ":D a owl:Class ; rdfs:subClassOf :C , [ a owl:Restriction ; owl:onProperty :p ; owl:someValuesFrom :A ] .\n"+
+      ":E a owl:Class ; rdfs:subClassOf :D , :F .\n"+
+      ":F a owl:Class ; rdfs:subClassOf :E .\n"+ //cycle E,F
+      ":G a owl:Class ; rdfs:subClassOf :F .\n"));
+    class_index cidx = hier.GetIndex();
+    CheckHierarchy(hier);
+    assertArrayEquals(new int[]{Id(cidx, "B")}, hier.GetParents(Id(cidx, "C")));
+    assertEquals(1, hier.CycleCount());
+    assertEquals(hier.GetComponent(Id(cidx, "E")), hier.GetComponent(Id(cidx, "F")));
+    assertEquals(hier.GetLevel(Id(cidx, "E"))+1, hier.GetLevel(Id(cidx, "G")));
+    assertEquals(2, hier.GetLevel(Id(cidx, "C")));
+    assertEquals(1, hier.GetLevel(Id(cidx, "D"))); //via anonymous restriction, a root
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testRandom()
+  {
+    for (long seed=1; seed<=5; ++seed)
+      CheckHierarchy(new class_hierarchy(Load(RandomOnt(60, (int)seed, seed))));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Direct superclasses as listSuperClasses(true), on an acyclic
+	ontology with redundant edges.
+  */
+  @Test public void testDirectParents()
+  {
+    OntModel omod = Load(RandomOnt(60, 0, 7));
+    class_hierarchy hier = new class_hierarchy(omod);
+    class_index cidx = hier.GetIndex();
+    for (int i=0; i<cidx.ListedCount(); ++i)
+    {
+      Set<Node> direct = new HashSet<Node>();
+      ExtendedIterator<OntClass> itr = omod.getRDFNode(cidx.GetNode(i)).as(OntClass.class).listSuperClasses(true);
+      while (itr.hasNext()) direct.add(itr.next().asNode());
+      Set<Node> parents = new HashSet<Node>();
+      for (int p: hier.GetParents(i)) parents.add(cidx.GetNode(p));
+      assertEquals(cidx.GetNode(i).toString(), direct, parents);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEmpty()
+  {
+    class_hierarchy hier = new class_hierarchy(Load(""));
+    assertEquals(0, hier.Size());
+    assertEquals(0, hier.ComponentCount());
+    assertEquals(0, hier.GetTopPaths(2).length);
+  }
+}
@@ -0,0 +1,133 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // StringReader
+import java.util.*; // HashSet, Set
+
+import org.junit.*; // Test
+import static org.junit.Assert.*;
+
+import org.apache.jena.graph.*; // Node
+import org.apache.jena.ontology.*; // OntClass, OntModel, OntModelSpec
+import org.apache.jena.rdf.model.*; // ModelFactory
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // OWL
+
+/**	class_index against OntModel listClasses(), listSubClasses() and
+	listSuperClasses() on small hand-built ontologies.
+*/
+public class ClassIndexTest
+{
+  static final String PREFIXES = "@prefix : <http://x/> .\n@prefix owl: <http://www.w3.org/2002/07/owl#> .\n@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n";
+
+  static OntModel Load(String ttl)
+  {
+    OntModel omod = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+    omod.read(new StringReader(PREFIXES+ttl), null, "TTL");
+    return omod;
+  }
+
+  static Set<Node> Nodes(ExtendedIterator<OntClass> itr)
+  {
+    Set<Node> nodes = new HashSet<Node>();
+    while (itr.hasNext()) nodes.add(itr.next().asNode());
+    return nodes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static final String ONT = 
+    ":A a owl:Class ; rdfs:label \"A\" ; rdfs:comment \"class A\" .\n"+
+    ":B a owl:Class ; rdfs:subClassOf :A , owl:Thing .\n"+
+    ":C a owl:Class ; rdfs:subClassOf :A , :B , :A .\n"+ //multiple parents, duplicate
+    ":D a owl:Class ; rdfs:subClassOf :C , [ a owl:Restriction ; owl:onProperty :p ; owl:someValuesFrom :A ] .\n"+
+    ":E a owl:Class ; rdfs:subClassOf :E .\n"+ //self
+    ":H a owl:Class ; rdfs:subClassOf :I . :I a owl:Class ; rdfs:subClassOf :H .\n"; //cycle
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testListedMatchesListClasses()
+  {
+    OntModel omod = Load(ONT);
+    class_index cidx = new class_index(omod);
+    Set<Node> listed = Nodes(omod.listClasses());
+    assertEquals(listed.size(), cidx.ListedCount());
+    for (int i=0; i<cidx.ListedCount(); ++i) assertTrue(listed.contains(cidx.GetNode(i)));
+    assertTrue(cidx.Size()>=cidx.ListedCount());
+    //owl:Thing is kept for the hierarchy, but not listed.
+    int i_thing = cidx.GetId(OWL.Thing.asNode());
+    assertFalse(listed.contains(OWL.Thing.asNode()));
+    assertTrue(i_thing<0 || i_thing>=cidx.ListedCount());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEdgesMatchOntModel()
+  {
+    OntModel omod = Load(ONT);
+    class_index cidx = new class_index(omod);
+    for (int i=0; i<cidx.ListedCount(); ++i)
+    {
+      OntClass cls = omod.getRDFNode(cidx.GetNode(i)).as(OntClass.class);
+      Set<Node> subs = Nodes(cls.listSubClasses());
+      subs.remove(cls.asNode());
+      Set<Node> sups = Nodes(cls.listSuperClasses());
+      sups.remove(cls.asNode());
+      Set<Node> children = new HashSet<Node>();
+      for (int j=0; j<cidx.ChildCount(i); ++j) assertTrue(children.add(cidx.GetNode(cidx.GetChild(i, j)))); //deduplicated
+      Set<Node> parents = new HashSet<Node>();
+      for (int j=0; j<cidx.ParentCount(i); ++j) assertTrue(parents.add(cidx.GetNode(cidx.GetParent(i, j))));
+      assertEquals(cidx.GetNode(i).toString(), subs, children);
+      assertEquals(cidx.GetNode(i).toString(), sups, parents);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testLiterals()
+  {
+    class_index cidx = new class_index(Load(ONT));
+    int i_a = cidx.GetId(NodeFactory.createURI("http://x/A"));
+    assertEquals("A", cidx.GetLabel(i_a));
+    assertEquals("class A", cidx.GetComment(i_a));
+    assertNull(cidx.GetLabel(cidx.GetId(NodeFactory.createURI("http://x/B"))));
+    assertEquals(-1, cidx.GetId(NodeFactory.createURI("http://x/nothing")));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testDescendantCounts()
+  {
+    class_index cidx = new class_index(Load(ONT));
+    int [] counts = cidx.DescendantCounts();
+    //Brute force: transitive closure of child edges.
+    for (int i=0; i<cidx.Size(); ++i)
+    {
+      Set<Integer> seen = new HashSet<Integer>();
+      Deque<Integer> stack = new ArrayDeque<Integer>();
+      stack.push(i);
+      while (!stack.isEmpty())
+      {
+        int c = stack.pop();
+        for (int j=0; j<cidx.ChildCount(c); ++j)
+          if (seen.add(cidx.GetChild(c, j))) stack.push(cidx.GetChild(c, j));
+      }
+      seen.remove(i);
+      assertEquals(cidx.GetNode(i).toString(), seen.size(), counts[i]);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Untyped superclass, which listSuperClasses() fails to convert, is
+	skipped.
+  */
+  @Test public void testUntyped()
+  {
+    class_index cidx = new class_index(Load(ONT+":F a owl:Class ; rdfs:subClassOf :G .\n:G rdfs:label \"G\" .\n"));
+    assertEquals(-1, cidx.GetId(NodeFactory.createURI("http://x/G")));
+    assertEquals(0, cidx.ParentCount(cidx.GetId(NodeFactory.createURI("http://x/F"))));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEmpty()
+  {
+    class_index cidx = new class_index(Load(""));
+    assertEquals(0, cidx.ListedCount());
+    assertEquals(0, cidx.EdgeCount());
+    assertEquals(0, cidx.DescendantCounts().length);
+  }
+}
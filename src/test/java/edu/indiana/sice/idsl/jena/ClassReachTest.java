@@ -0,0 +1,202 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, FileOutputStream, IOException, OutputStream, PrintWriter, StringWriter
+import java.util.*; // Arrays, Properties
+
+import org.junit.*; // Rule, Test
+import org.junit.rules.*; // TemporaryFolder
+import static org.junit.Assert.*;
+
+/**	class_reach subsumption, ancestors and descendants against brute
+	force over the class_index edges, on hand-built and random ontologies;
+	Write() and Read() round trip; and LoadReachIndex() reuse only while
+	the ontology source is unchanged.
+*/
+public class ClassReachTest
+{
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  static class_reach Build(String ttl)
+  {
+    return new class_reach(new class_hierarchy(new class_index(ClassHierarchyTest.Load(ttl))));
+  }
+
+  static int [] Sorted(int [] ids)
+  {
+    int [] out = ids.clone();
+    Arrays.sort(out);
+    return out;
+  }
+
+  /**	Ontology file as RDF/XML, as LoadOntologyFile() reads.
+  */
+  static void WriteOnt(File f, String ttl) throws IOException
+  {
+    try (OutputStream os = new FileOutputStream(f)) { ClassHierarchyTest.Load(ttl).write(os, "RDF/XML"); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	All queries as the reflexive closure of the superclass edges.
+  */
+  static void CheckReach(class_reach reach, class_index cidx)
+  {
+    int n = cidx.Size();
+    assertEquals(n, reach.Size());
+    boolean [][] closure = ClassHierarchyTest.Closure(cidx);
+    for (int i=0; i<n; ++i)
+    {
+      String uri = cidx.GetNode(i).isURI()?cidx.GetNode(i).getURI():null;
+      assertEquals(uri, reach.GetUri(i));
+      if (uri!=null) assertEquals(i, reach.GetId(uri));
+      int n_anc=0, n_desc=0;
+      for (int j=0; j<n; ++j)
+      {
+        assertEquals(i+" "+j, closure[i][j], reach.IsSubclass(i, j));
+        if (i!=j && closure[i][j]) ++n_anc;
+        if (i!=j && closure[j][i]) ++n_desc;
+      }
+      int [] anc = Sorted(reach.Ancestors(i));
+      int [] desc = Sorted(reach.Descendants(i));
+      assertEquals(n_anc, anc.length);
+      assertEquals(n_desc, desc.length);
+      for (int j: anc) assertTrue(i!=j && closure[i][j]);
+      for (int j: desc) assertTrue(i!=j && closure[j][i]);
+    }
+  }
+
+  static void CheckSame(class_reach a, class_reach b)
+  {
+    assertEquals(a.Size(), b.Size());
+    assertEquals(a.ComponentCount(), b.ComponentCount());
+    for (int i=0; i<a.Size(); ++i)
+    {
+      assertEquals(a.GetUri(i), b.GetUri(i));
+      assertArrayEquals(Sorted(a.Ancestors(i)), Sorted(b.Ancestors(i)));
+      assertArrayEquals(Sorted(a.Descendants(i)), Sorted(b.Descendants(i)));
+      for (int j=0; j<a.Size(); ++j) assertEquals(a.IsSubclass(i, j), b.IsSubclass(i, j));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static final String ONT =
+    ":A a owl:Class .\n"+
+    ":B a owl:Class ; rdfs:subClassOf :A .\n"+
+    ":C a owl:Class ; rdfs:subClassOf :A , :B .\n"+ //multiple parents
+    ":D a owl:Class ; rdfs:subClassOf :C , [ a owl:Restriction ; owl:onProperty :p ; owl:someValuesFrom :A ] .\n"+
+    ":E a owl:Class ; rdfs:subClassOf :D , :F .\n"+
+    ":F a owl:Class ; rdfs:subClassOf :E .\n"+ //cycle E,F
+    ":G a owl:Class ; rdfs:subClassOf :F , :G .\n"+ //self
+    ":X a owl:Class .\n"; //isolated
+
+  @Test public void testHandBuilt()
+  {
+    class_index cidx = new class_index(ClassHierarchyTest.Load(ONT));
+    class_reach reach = new class_reach(new class_hierarchy(cidx));
+    CheckReach(reach, cidx);
+    int a = reach.GetId("http://x/A"), e = reach.GetId("http://x/E"), f = reach.GetId("http://x/F"), g = reach.GetId("http://x/G");
+    assertTrue(reach.IsSubclass(g, a));
+    assertFalse(reach.IsSubclass(a, g));
+    assertTrue(reach.IsSubclass(e, f) && reach.IsSubclass(f, e));
+    assertEquals(-1, reach.GetId("http://x/none"));
+    assertEquals(0, reach.Descendants(reach.GetId("http://x/X")).length);
+    assertEquals(0, reach.Ancestors(reach.GetId("http://x/X")).length);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testRandom()
+  {
+    for (long seed=1; seed<=5; ++seed)
+    {
+      class_index cidx = new class_index(ClassHierarchyTest.Load(ClassHierarchyTest.RandomOnt(80, (int)seed, seed)));
+      CheckReach(new class_reach(new class_hierarchy(cidx)), cidx);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEmpty()
+  {
+    class_reach reach = Build("");
+    assertEquals(0, reach.Size());
+    assertEquals(0, reach.ComponentCount());
+    assertEquals(-1, reach.GetId("http://x/A"));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testWriteRead() throws IOException
+  {
+    Properties key = new Properties();
+    key.setProperty("path", "/x/ont.owl");
+    for (String ttl: new String[]{ONT, ClassHierarchyTest.RandomOnt(80, 3, 11), ""})
+    {
+      class_reach reach = Build(ttl);
+      File f = tmp.newFile();
+      reach.Write(f, key);
+      assertEquals(key, class_reach.ReadKey(f));
+      CheckSame(reach, class_reach.Read(f));
+    }
+    File f = tmp.newFile();
+    Build(ONT).Write(f, null);
+    assertTrue(class_reach.ReadKey(f).isEmpty());
+    try (PrintWriter w = new PrintWriter(f, "UTF-8")) { w.println("not an index"); }
+    try {
+      class_reach.Read(f);
+      fail("not an index");
+    }
+    catch (IOException e) { }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Header line skipped, if present, so output can be input.
+  */
+  @Test public void testReachQuery() throws IOException
+  {
+    class_reach reach = Build(ONT);
+    for (String header: new String[]{"", "sub\tsup\n", "sub\tsup\tsubclass\n"})
+    {
+      File f = tmp.newFile();
+      try (PrintWriter w = new PrintWriter(f, "UTF-8")) { w.print(header+"# comment\nhttp://x/G\thttp://x/A\nhttp://x/A\thttp://x/G\thttp://x/extra\nhttp://x/none\thttp://x/A\n"); }
+      StringWriter sw = new StringWriter();
+      assertEquals(3, jena_utils.ReachQuery(reach, f.getPath(), "subclass", new PrintWriter(sw), 0));
+      assertEquals("sub\tsup\tsubclass\nhttp://x/G\thttp://x/A\ttrue\nhttp://x/A\thttp://x/G\tfalse\nhttp://x/none\thttp://x/A\t\n", sw.toString());
+    }
+    File f = tmp.newFile();
+    try (PrintWriter w = new PrintWriter(f, "UTF-8")) { w.print("class\nhttp://x/C\n"); }
+    StringWriter sw = new StringWriter();
+    assertEquals(1, jena_utils.ReachQuery(reach, f.getPath(), "ancestors", new PrintWriter(sw), 0));
+    assertEquals(3, sw.toString().split("\n").length); //header, A, B
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Index reused while the ontology is unchanged, or only touched;
+	rebuilt when its content or the source changes.
+  */
+  @Test public void testLoadReachIndex() throws IOException
+  {
+    File f_ont = tmp.newFile("ont.owl");
+    File f_ont2 = tmp.newFile("ont2.owl");
+    File f_reach = new File(tmp.getRoot(), "ont.reach");
+    WriteOnt(f_ont, ONT);
+    WriteOnt(f_ont2, ONT+":Y a owl:Class .\n");
+    class_reach reach = jena_utils.LoadReachIndex(f_reach.getPath(), f_ont.getPath(), "OWL", null, 0);
+    assertTrue(f_reach.isFile());
+    assertTrue(reach.GetId("http://x/A")>=0);
+    assertEquals(-1, reach.GetId("http://x/Y"));
+    //Unchanged, or touched only: reused, not rewritten.
+    assertTrue(f_reach.setLastModified(f_reach.lastModified()-10000));
+    long mtime = f_reach.lastModified();
+    CheckSame(reach, jena_utils.LoadReachIndex(f_reach.getPath(), f_ont.getPath(), "OWL", null, 0));
+    assertTrue(f_ont.setLastModified(f_ont.lastModified()+10000));
+    CheckSame(reach, jena_utils.LoadReachIndex(f_reach.getPath(), f_ont.getPath(), "OWL", null, 0));
+    assertEquals(mtime, f_reach.lastModified());
+    //No ontology: read as is.
+    CheckSame(reach, jena_utils.LoadReachIndex(f_reach.getPath(), null, "OWL", null, 0));
+    //Other source, though older than the index: rebuilt.
+    assertTrue(f_ont2.setLastModified(mtime-10000));
+    assertTrue(jena_utils.LoadReachIndex(f_reach.getPath(), f_ont2.getPath(), "OWL", null, 0).GetId("http://x/Y")>=0);
+    //Content changed, though older than the index: rebuilt.
+    WriteOnt(f_ont2, ONT);
+    assertTrue(f_ont2.setLastModified(mtime-10000));
+    assertEquals(-1, jena_utils.LoadReachIndex(f_reach.getPath(), f_ont2.getPath(), "OWL", null, 0).GetId("http://x/Y"));
+    assertEquals(-1, class_reach.Read(f_reach).GetId("http://x/Y"));
+  }
+}
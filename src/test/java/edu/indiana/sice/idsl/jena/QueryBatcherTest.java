@@ -0,0 +1,185 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException, PrintWriter
+import java.util.*; // ArrayList, Arrays, Collections, List
+
+import org.junit.*; // Rule, Test
+import org.junit.rules.*; // TemporaryFolder
+import static org.junit.Assert.*;
+
+import org.apache.jena.graph.*; // Node, NodeFactory
+import org.apache.jena.query.*; // Dataset, DatasetFactory, Query, QueryExecution, QueryExecutionFactory, QueryFactory, ResultSet
+import org.apache.jena.rdf.model.*; // Model, ModelFactory
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.binding.*; // Binding
+
+/**	query_batcher VALUES batches against the template run once per
+	value, over a small in-memory dataset; and value parsing.
+*/
+public class QueryBatcherTest
+{
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  static final String RQ = "PREFIX x: <http://x/>\nSELECT ?s ?o WHERE { ?s x:p ?o }";
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	s0..s9, each with i%3 objects (none for multiples of 3), and s0 a
+	literal object.
+  */
+  static Dataset Data()
+  {
+    Model mod = ModelFactory.createDefaultModel();
+    for (int i=0; i<10; ++i)
+      for (int j=0; j<i%3; ++j)
+        mod.add(mod.createResource("http://x/s"+i), mod.createProperty("http://x/p"), mod.createResource("http://x/o"+j));
+    mod.add(mod.createResource("http://x/s0"), mod.createProperty("http://x/p"), "lit");
+    return DatasetFactory.wrap(mod);
+  }
+
+  static List<Node> Values(int... ids)
+  {
+    List<Node> vals = new ArrayList<Node>();
+    for (int i: ids) vals.add(NodeFactory.createURI("http://x/s"+i));
+    return vals;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Rows of the template with ?s bound to val, by substitution.
+  */
+  static List<String> Single(Dataset dset, Node val)
+  {
+    String rq = RQ.replace("?s x:p", "<"+val.getURI()+"> x:p").replace("SELECT ?s ?o", "SELECT ?o");
+    List<String> rows = new ArrayList<String>();
+    try (QueryExecution qex = QueryExecutionFactory.create(QueryFactory.create(rq), dset))
+    {
+      ResultSet results = qex.execSelect();
+      while (results.hasNext()) rows.add(val+" "+results.nextBinding().get(Var.alloc("o")));
+    }
+    return rows;
+  }
+
+  static List<String> Batched(Dataset dset, List<Node> vals, int batch_size, int nthreads, List<Node> subjects_out) throws IOException
+  {
+    List<String> rows = new ArrayList<String>();
+    query_batcher qb = new query_batcher(RQ, "?s", vals, batch_size, nthreads, query_batcher.ForDataset(dset), 0);
+    long n = qb.Fetch((ResultSet results) -> {
+      assertEquals(Arrays.asList("s", "o"), results.getResultVars());
+      while (results.hasNext())
+      {
+        Binding b = results.nextBinding();
+        subjects_out.add(b.get(Var.alloc("s")));
+        rows.add(b.get(Var.alloc("s"))+" "+b.get(Var.alloc("o")));
+      }
+      return rows.size();
+    });
+    assertEquals(rows.size(), n);
+    return rows;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testBatchesMatchSingle() throws IOException
+  {
+    Dataset dset = Data();
+    List<Node> vals = Values(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 42); //s42 absent
+    List<String> expected = new ArrayList<String>();
+    for (Node val: vals) expected.addAll(Single(dset, val));
+    Collections.sort(expected);
+    for (int batch_size: new int[]{1, 2, 3, 4, 11, 100})
+      for (int nthreads: new int[]{1, 3})
+      {
+        List<Node> subjects = new ArrayList<Node>();
+        List<String> rows = Batched(dset, vals, batch_size, nthreads, subjects);
+        //Batch order: each row's batch no earlier than the previous row's.
+        int i_prev = 0;
+        for (Node s: subjects)
+        {
+          int i_batch = vals.indexOf(s)/batch_size;
+          assertTrue("batch order, batch_size "+batch_size, i_batch>=i_prev);
+          i_prev = i_batch;
+        }
+        Collections.sort(rows);
+        assertEquals("batch_size "+batch_size+", nthreads "+nthreads, expected, rows);
+      }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testNoValues() throws IOException
+  {
+    List<Node> subjects = new ArrayList<Node>();
+    assertEquals(0, Batched(Data(), new ArrayList<Node>(), 5, 2, subjects).size());
+    assertEquals(0, Batched(Data(), Values(3, 6, 42), 2, 2, subjects).size());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testBatchQuery()
+  {
+    query_batcher qb = new query_batcher(RQ, "s", Values(0, 1, 2, 3, 4), 2, 1, null, 0);
+    String rq = qb.BatchQuery(2).toString();
+    assertTrue(rq, rq.contains("VALUES ?s"));
+    assertTrue(rq, rq.contains("x:s4"));
+    assertFalse(rq, rq.contains("x:s3"));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test(expected=IllegalArgumentException.class) public void testNotSelect()
+  {
+    new query_batcher("ASK { ?s ?p ?o }", "s", Values(0), 1, 1, null, 0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Modifiers and aggregates would apply per batch, e.g. one COUNT row
+	per batch, so are rejected; subqueries keep their own.
+  */
+  @Test public void testModifiersRejected()
+  {
+    for (String rq: new String[]{
+        RQ+" LIMIT 10", RQ+" OFFSET 2", RQ+" ORDER BY ?o",
+        RQ.replace("SELECT", "SELECT DISTINCT"), RQ.replace("SELECT", "SELECT REDUCED"),
+        "PREFIX x: <http://x/>\nSELECT (COUNT(*) AS ?n) WHERE { ?s x:p ?o }",
+        "PREFIX x: <http://x/>\nSELECT ?s WHERE { ?s x:p ?o } GROUP BY ?s",
+        "PREFIX x: <http://x/>\nSELECT ?s (COUNT(?o) AS ?n) WHERE { ?s x:p ?o } GROUP BY ?s HAVING (COUNT(?o)>1)"})
+    {
+      try {
+        new query_batcher(rq, "s", Values(0), 1, 1, null, 0);
+        fail("not rejected: "+rq);
+      }
+      catch (IllegalArgumentException e) { }
+    }
+    new query_batcher("PREFIX x: <http://x/>\nSELECT ?s ?n WHERE { { SELECT ?s (COUNT(?o) AS ?n) WHERE { ?s x:p ?o } GROUP BY ?s } }", "s", Values(0), 1, 1, null, 0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testReadValues() throws IOException
+  {
+    File f = tmp.newFile("ids.tsv");
+    try (PrintWriter w = new PrintWriter(f, "UTF-8"))
+    {
+      w.println("name\tid");
+      w.println("a\thttp://x/s1");
+      w.println("b\t");
+      w.println("c\t http://x/s2 ");
+      w.println("d\thttp://x/s1"); //duplicate
+      w.println("e"); //short line
+    }
+    assertEquals(Arrays.asList("http://x/s1", "http://x/s2"), query_batcher.ReadValues(f.getPath(), "id"));
+    assertEquals(Arrays.asList("a", "b", "c", "d", "e"), query_batcher.ReadValues(f.getPath(), "1"));
+    try {
+      query_batcher.ReadValues(f.getPath(), "nope");
+      fail("missing column");
+    }
+    catch (IOException e) { }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testParseValue()
+  {
+    Query template = QueryFactory.create(RQ);
+    assertEquals(NodeFactory.createURI("http://x/a"), query_batcher.ParseValue("<http://x/a>", template));
+    assertEquals(NodeFactory.createURI("http://x/a"), query_batcher.ParseValue("http://x/a", template));
+    assertEquals(NodeFactory.createURI("http://x/a"), query_batcher.ParseValue("x:a", template));
+    assertEquals(NodeFactory.createLiteral("y:a"), query_batcher.ParseValue("y:a", template)); //undeclared prefix
+    assertEquals(NodeFactory.createLiteral("abc"), query_batcher.ParseValue("\"abc\"", template));
+    assertEquals(NodeFactory.createLiteral("abc"), query_batcher.ParseValue("abc", template));
+    assertTrue(query_batcher.ParseValue("_:b1", template).isBlank());
+  }
+}
@@ -0,0 +1,206 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // ByteArrayOutputStream, IOException, OutputStream
+import java.net.*; // InetSocketAddress, URLDecoder
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // ArrayList, List
+
+import org.junit.*; // After, Before, Test
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.*; // HttpExchange, HttpServer
+
+import org.apache.jena.query.*; // QueryExecution, QueryExecutionFactory, QueryFactory, ResultSet, ResultSetFormatter
+import org.apache.jena.rdf.model.*; // Model, ModelFactory
+import org.apache.jena.sparql.core.*; // Var
+import org.apache.jena.sparql.engine.*; // ResultSetStream
+import org.apache.jena.sparql.engine.binding.*; // Binding
+
+/**	query_pager against a local endpoint over an in-memory model, which
+	may cap rows per query, as e.g. Virtuoso ResultSetMaxRows, compared
+	with the unpaged query.
+*/
+public class QueryPagerTest
+{
+  static final int N = 25;
+  static final String RQ = "SELECT ?s ?v WHERE { ?s <http://x/v> ?v }";
+
+  private Model model;
+  private HttpServer server;
+  private String url;
+  private int cap; //rows per query, 0=none
+  private int n_busy; //requests to answer 429
+  private String retry_after; //Retry-After of 429s, or null
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Before public void setUp() throws IOException
+  {
+    model = ModelFactory.createDefaultModel();
+    for (int i=0; i<N; ++i)
+      model.add(model.createResource("http://x/s"+i), model.createProperty("http://x/v"), model.createTypedLiteral(i));
+    cap = 0;
+    n_busy = 0;
+    retry_after = null;
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/sparql", this::Serve);
+    server.start();
+    url = "http://127.0.0.1:"+server.getAddress().getPort()+"/sparql";
+    http_client.Configure(10, 0, 0, 0);
+  }
+
+  @After public void tearDown()
+  {
+    server.stop(0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  private synchronized void Serve(HttpExchange ex) throws IOException
+  {
+    if (n_busy>0)
+    {
+      --n_busy;
+      if (retry_after!=null) ex.getResponseHeaders().set("Retry-After", retry_after);
+      ex.sendResponseHeaders(429, -1);
+      ex.close();
+      return;
+    }
+    String params = ex.getRequestMethod().equals("GET")?ex.getRequestURI().getRawQuery():new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    String rq = null;
+    for (String param: params.split("&"))
+      if (param.startsWith("query=")) rq = URLDecoder.decode(param.substring(6), "UTF-8");
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (QueryExecution qex = QueryExecutionFactory.create(QueryFactory.create(rq), model))
+    {
+      ResultSet results = qex.execSelect();
+      List<Binding> rows = new ArrayList<Binding>();
+      while (results.hasNext() && (cap<=0 || rows.size()<cap)) rows.add(results.nextBinding());
+      ResultSetFormatter.outputAsJSON(buf, ResultSetStream.create(Var.varList(results.getResultVars()), rows.iterator()));
+    }
+    ex.getResponseHeaders().set("Content-Type", "application/sparql-results+json");
+    ex.sendResponseHeaders(200, buf.size());
+    try (OutputStream os = ex.getResponseBody()) { os.write(buf.toByteArray()); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Unpaged rows, in the pager's order.
+  */
+  private List<String> Expected(String rq)
+  {
+    try (QueryExecution qex = QueryExecutionFactory.create(QueryFactory.create(rq), model))
+    {
+      return Rows(qex.execSelect());
+    }
+  }
+
+  private static List<String> Rows(ResultSet results)
+  {
+    List<String> rows = new ArrayList<String>();
+    while (results.hasNext()) rows.add(results.nextBinding().toString());
+    return rows;
+  }
+
+  private List<String> Paged(String rq, int page_size, int nthreads) throws IOException
+  {
+    return Paged(rq, page_size, nthreads, 0);
+  }
+
+  private List<String> Paged(String rq, int page_size, int nthreads, int retries) throws IOException
+  {
+    List<String> rows = new ArrayList<String>();
+    long n = new query_pager(url, rq, page_size, nthreads, retries, 0).Fetch((ResultSet results) -> {
+      rows.addAll(Rows(results));
+      return rows.size();
+    });
+    assertEquals(rows.size(), n);
+    return rows;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testPages() throws IOException
+  {
+    List<String> expected = Expected(RQ+" ORDER BY ?s ?v");
+    assertEquals(N, expected.size());
+    assertEquals(expected, Paged(RQ, 7, 3)); //short last page
+    assertEquals(expected, Paged(RQ, 5, 2)); //exact multiple, empty last page
+    assertEquals(expected, Paged(RQ, 1, 4));
+    assertEquals(expected, Paged(RQ, 100, 2)); //one short page
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testLimitOffset() throws IOException
+  {
+    String rq = RQ+" ORDER BY DESC(?v) LIMIT 11 OFFSET 3";
+    List<String> expected = Expected(rq);
+    assertEquals(11, expected.size());
+    assertEquals(expected, Paged(rq, 4, 2));
+    assertEquals(expected, Paged(rq, 11, 2));
+    assertEquals(expected, Paged(rq, 20, 2));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEmpty() throws IOException
+  {
+    String rq = "SELECT ?s WHERE { ?s <http://x/none> ?o }";
+    assertEquals(0, Paged(rq, 5, 2).size());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Cap at or above the page size is harmless; below it, pages come
+	back short with rows following, which must fail, not truncate.
+  */
+  @Test public void testEndpointCap() throws IOException
+  {
+    List<String> expected = Expected(RQ+" ORDER BY ?s ?v");
+    cap = 10;
+    assertEquals(expected, Paged(RQ, 10, 2));
+    assertEquals(expected, Paged(RQ, 7, 2));
+    for (int page_size: new int[]{11, 20, 30})
+    {
+      try {
+        Paged(RQ, page_size, 2);
+        fail("page_size "+page_size+" over cap "+cap+" not detected");
+      }
+      catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("more rows follow")); }
+    }
+    //Cap at the end of results, i.e. short page with nothing after it.
+    cap = N-1;
+    try {
+      Paged(RQ, 30, 1);
+      fail("cap "+cap+" not detected");
+    }
+    catch (IOException e) { }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	HTTP retries apply only without page retries, so they do not
+	multiply; Retry-After is honoured by either.
+  */
+  @Test public void testRetries() throws IOException
+  {
+    String rq = RQ+" LIMIT 20"; //one page, one request per try
+    List<String> expected = Expected(RQ+" ORDER BY ?s ?v LIMIT 20");
+    http_client.Configure(10, 0, 2, 0);
+    //Page retries off: HTTP retries, after Retry-After, not the 500ms backoff.
+    n_busy = 1;
+    retry_after = "2";
+    long t0 = System.nanoTime();
+    assertEquals(expected, Paged(rq, 100, 1, 0));
+    assertTrue((System.nanoTime()-t0)/1e9>=2.0);
+    //Page retries on: 3 failures exceed 2 page retries, HTTP retries not added.
+    n_busy = 3;
+    retry_after = null;
+    try {
+      Paged(rq, 100, 1, 2);
+      fail("retries stacked");
+    }
+    catch (IOException e) { }
+    n_busy = 2;
+    assertEquals(expected, Paged(rq, 100, 1, 2));
+    //Page retries after Retry-After.
+    n_busy = 1;
+    retry_after = "2";
+    t0 = System.nanoTime();
+    assertEquals(expected, Paged(rq, 100, 1, 2));
+    assertTrue((System.nanoTime()-t0)/1e9>=2.0);
+  }
+}
@@ -0,0 +1,127 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException, PrintWriter
+import java.util.*; // ArrayList, Collections, HashSet, List, Random, Set
+
+import org.junit.*; // Rule, Test
+import org.junit.rules.*; // TemporaryFolder
+import static org.junit.Assert.*;
+
+import org.apache.jena.graph.*; // Factory, Graph, GraphUtil, Node, Triple
+import org.apache.jena.riot.*; // Lang, RDFParser
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+
+/**	rdf_loader chunked parsing against one single-stream parse, with
+	chunks far smaller than the file, so lines straddle chunk boundaries
+	and blank nodes recur across chunks.
+*/
+public class RdfLoaderTest
+{
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Lines of varied length; blank nodes _:b0.._:b4 as subjects and
+	objects throughout, so each occurs in many chunks; N-Quads with
+	graph names.
+  */
+  File WriteFile(String name, boolean quads, int n, boolean final_newline) throws IOException
+  {
+    Random rand = new Random(n);
+    File f = tmp.newFile(name);
+    try (PrintWriter w = new PrintWriter(f, "UTF-8"))
+    {
+      for (int i=0; i<n; ++i)
+      {
+        String s = (i%3==0)?("_:b"+rand.nextInt(5)):("<http://x/s"+i+">");
+        String o;
+        switch (rand.nextInt(3))
+        {
+          case 0: o = "_:b"+rand.nextInt(5); break;
+          case 1: o = "\"value "+i+" "+Long.toString(rand.nextLong(), 36)+"\""; break;
+          default: o = "<http://x/o"+rand.nextInt(n)+">";
+        }
+        String g = quads?(" <http://x/g"+(i%2)+">"):"";
+        w.print(s+" <http://x/p"+rand.nextInt(3)+"> "+o+g+" .");
+        if (i<n-1 || final_newline) w.print("\n");
+      }
+    }
+    return f;
+  }
+
+  static Graph Single(File f, Lang lang)
+  {
+    Graph graph = Factory.createDefaultGraph();
+    RDFParser.create().source(f.getPath()).forceLang(lang).parse(new rdf_loader.GraphSink(graph));
+    return graph;
+  }
+
+  static int BlankCount(Graph graph)
+  {
+    Set<Node> nodes = new HashSet<Node>();
+    ExtendedIterator<Triple> itr = graph.find();
+    try {
+      while (itr.hasNext())
+      {
+        Triple trp = itr.next();
+        if (trp.getSubject().isBlank()) nodes.add(trp.getSubject());
+        if (trp.getObject().isBlank()) nodes.add(trp.getObject());
+      }
+    }
+    finally { itr.close(); }
+    return nodes.size();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  void CheckChunked(File f, Lang lang, int n_line) throws IOException
+  {
+    Graph expected = Single(f, lang);
+    assertEquals(5, BlankCount(expected));
+    for (long chunksize: new long[]{1, 37, 200, 1000})
+    {
+      assertTrue(rdf_loader.IsChunkable(f.getPath(), lang, chunksize));
+      Graph graph = Factory.createDefaultGraph();
+      long n = rdf_loader.LoadFileChunked(f.getPath(), lang, new rdf_loader.GraphSink(graph), 3, chunksize, 0);
+      assertEquals(n_line, n); //statements parsed, duplicates included
+      assertEquals(5, BlankCount(graph)); //same label, same node, across chunks
+      assertTrue("chunksize "+chunksize, graph.isIsomorphicWith(expected));
+      //Per-chunk sinks, merged.
+      List<Graph> chunks = Collections.synchronizedList(new ArrayList<Graph>());
+      List<rdf_loader.GraphSink> sinks = rdf_loader.ParseFileChunked(f.getPath(), lang, () -> {
+        Graph chunk = Factory.createDefaultGraph();
+        chunks.add(chunk);
+        return new rdf_loader.GraphSink(chunk);
+      }, 3, chunksize, 0);
+      assertTrue(sinks.size()>1);
+      Graph merged = Factory.createDefaultGraph();
+      long n_sink=0;
+      for (rdf_loader.GraphSink sink: sinks) n_sink += sink.Count();
+      for (Graph chunk: chunks) GraphUtil.addInto(merged, chunk);
+      assertEquals(n_line, n_sink);
+      assertEquals(5, BlankCount(merged));
+      assertTrue("chunksize "+chunksize, merged.isIsomorphicWith(expected));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testNTriples() throws IOException
+  {
+    CheckChunked(WriteFile("a.nt", false, 300, true), Lang.NTRIPLES, 300);
+    CheckChunked(WriteFile("b.nt", false, 300, false), Lang.NTRIPLES, 300); //no final newline
+  }
+
+  @Test public void testNQuads() throws IOException
+  {
+    CheckChunked(WriteFile("a.nq", true, 300, true), Lang.NQUADS, 300);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testIsChunkable() throws IOException
+  {
+    File f = WriteFile("c.nt", false, 100, true);
+    assertFalse(rdf_loader.IsChunkable(f.getPath(), Lang.NTRIPLES, 0));
+    assertFalse(rdf_loader.IsChunkable(f.getPath(), Lang.NTRIPLES, f.length())); //one chunk
+    assertFalse(rdf_loader.IsChunkable(f.getPath(), Lang.TURTLE, 100));
+    assertFalse(rdf_loader.IsChunkable(f.getPath()+".gz", Lang.NTRIPLES, 100));
+    assertTrue(rdf_loader.IsChunkable(f.getPath(), Lang.NTRIPLES, 100));
+  }
+}
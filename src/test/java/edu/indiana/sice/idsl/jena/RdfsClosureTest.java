@@ -0,0 +1,199 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, FileOutputStream, IOException, OutputStream, StringReader, StringWriter
+import java.util.*; // HashSet, Random, Set
+
+import org.junit.*; // Rule, Test
+import org.junit.rules.*; // TemporaryFolder
+import static org.junit.Assert.*;
+
+import org.apache.jena.graph.*; // Graph, Node, Triple
+import org.apache.jena.rdf.model.*; // InfModel, Model, ModelFactory, Resource
+import org.apache.jena.reasoner.*; // ReasonerRegistry
+import org.apache.jena.riot.*; // Lang, RDFDataMgr, RDFParser
+import org.apache.jena.riot.system.*; // StreamRDF, StreamRDFLib
+import org.apache.jena.util.iterator.*; // ExtendedIterator
+import org.apache.jena.vocabulary.*; // RDF, RDFS
+
+/**	rdfs_closure against Jena reasoners on small hand-built and random
+	schemas: the schema closure against the transitive reasoner, and the
+	data entailments (RDFS rules 7 and 9) against the RDFS reasoner,
+	restricted to statements about data subjects, less rdfs:Resource
+	types; and chunked against unchunked closure.
+*/
+public class RdfsClosureTest
+{
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  static final String PREFIXES = "@prefix : <http://x/> .\n@prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> .\n@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n";
+
+  static Model Load(String ttl)
+  {
+    Model mod = ModelFactory.createDefaultModel();
+    mod.read(new StringReader(PREFIXES+ttl), null, "TTL");
+    return mod;
+  }
+
+  static Set<Triple> Triples(Graph graph)
+  {
+    Set<Triple> trps = new HashSet<Triple>();
+    ExtendedIterator<Triple> itr = graph.find();
+    try { while (itr.hasNext()) trps.add(itr.next()); }
+    finally { itr.close(); }
+    return trps;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  static final String SCHEMA =
+    ":B rdfs:subClassOf :A . :C rdfs:subClassOf :A , :B .\n"+ //multiple parents
+    ":D rdfs:subClassOf :C . :E rdfs:subClassOf :E .\n"+ //self
+    ":H rdfs:subClassOf :I . :I rdfs:subClassOf :J . :J rdfs:subClassOf :H .\n"+ //cycle
+    ":K rdfs:subClassOf [ a rdfs:Class ] .\n"+ //anonymous
+    ":q rdfs:subPropertyOf :p . :r rdfs:subPropertyOf :q , :s .\n"+
+    ":t rdfs:subPropertyOf :t .\n"+
+    ":kind rdfs:subPropertyOf rdf:type .\n"; //entails types
+
+  static final String DATA =
+    ":x a :D . :x :r :y . :y a :H . :y :kind :C .\n"+
+    ":z a :K , :E , :Z . :z :t \"lit\" . :z :other :x .\n"+
+    "_:b a :B ; :q :z .\n";
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Closure of the data, as rdfs_closure.Write() would, in memory.
+  */
+  static Set<Triple> Closure(rdfs_closure rc, Graph data)
+  {
+    Graph out = ModelFactory.createDefaultModel().getGraph();
+    StreamRDF sink = StreamRDFLib.graph(out);
+    rdfs_closure.ClosureSink csink = rc.new ClosureSink(sink);
+    ExtendedIterator<Triple> itr = data.find();
+    try { while (itr.hasNext()) csink.triple(itr.next()); }
+    finally { itr.close(); }
+    return Triples(out);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	RDFS reasoner entailments about data subjects, less rdfs:Resource
+	types, and types of anonymous classes, which rdfs_closure does not
+	entail.
+  */
+  static Set<Triple> Expected(Model schema, Model data)
+  {
+    InfModel inf = ModelFactory.createInfModel(ReasonerRegistry.getRDFSReasoner().bindSchema(schema), data);
+    Set<Node> subjects = new HashSet<Node>();
+    for (Triple trp: Triples(data.getGraph())) subjects.add(trp.getSubject());
+    Set<Triple> trps = new HashSet<Triple>();
+    for (Triple trp: Triples(inf.getGraph()))
+    {
+      if (!subjects.contains(trp.getSubject())) continue;
+      if (trp.getPredicate().equals(RDF.type.asNode()) && trp.getObject().equals(RDFS.Resource.asNode())) continue;
+      if (trp.getObject().isBlank() && !data.getGraph().contains(trp)) continue;
+      trps.add(trp);
+    }
+    return trps;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testDataMatchesRdfsReasoner()
+  {
+    Model schema = Load(SCHEMA);
+    Model data = Load(DATA);
+    rdfs_closure rc = new rdfs_closure(schema.getGraph(), 2);
+    assertEquals(Expected(schema, data), Closure(rc, data.getGraph()));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testSchemaMatchesTransitiveReasoner()
+  {
+    Model schema = Load(SCHEMA);
+    rdfs_closure rc = new rdfs_closure(schema.getGraph(), 2);
+    Graph out = ModelFactory.createDefaultModel().getGraph();
+    long n = rc.WriteSchema(StreamRDFLib.graph(out));
+    Set<Triple> closure = Triples(out);
+    assertEquals(n, closure.size()); //no duplicates
+    InfModel inf = ModelFactory.createInfModel(ReasonerRegistry.getTransitiveReasoner(), schema);
+    Set<Triple> expected = new HashSet<Triple>();
+    for (Triple trp: Triples(inf.getGraph()))
+    {
+      boolean sub = trp.getPredicate().equals(RDFS.subClassOf.asNode()) || trp.getPredicate().equals(RDFS.subPropertyOf.asNode());
+      //Named nodes only; the reasoner adds reflexive statements for anonymous ones.
+      if (!sub || (trp.getSubject().isURI() && trp.getObject().isURI())) expected.add(trp);
+    }
+    for (Triple trp: Triples(schema.getGraph())) expected.add(trp); //anonymous, as asserted
+    assertEquals(expected, closure);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Random class and property DAGs, plus back edges, so cycles.
+  */
+  static Model RandomSchema(int n_class, int n_prop, long seed)
+  {
+    Random rand = new Random(seed);
+    Model mod = ModelFactory.createDefaultModel();
+    for (int i=1; i<n_class; ++i)
+      for (int k=rand.nextInt(3); k>=0; --k)
+        mod.add(mod.createResource("http://x/C"+i), RDFS.subClassOf, mod.createResource("http://x/C"+rand.nextInt(i)));
+    for (int i=0; i<n_class/10; ++i)
+      mod.add(mod.createResource("http://x/C"+rand.nextInt(n_class)), RDFS.subClassOf, mod.createResource("http://x/C"+rand.nextInt(n_class)));
+    for (int i=1; i<n_prop; ++i)
+      mod.add(mod.createResource("http://x/p"+i), RDFS.subPropertyOf, mod.createResource("http://x/p"+rand.nextInt(i)));
+    return mod;
+  }
+
+  static Model RandomData(int n_class, int n_prop, int n, long seed)
+  {
+    Random rand = new Random(seed);
+    Model mod = ModelFactory.createDefaultModel();
+    for (int i=0; i<n; ++i)
+    {
+      Resource s = mod.createResource("http://x/i"+rand.nextInt(n/2));
+      if (rand.nextBoolean()) mod.add(s, RDF.type, mod.createResource("http://x/C"+rand.nextInt(n_class)));
+      else mod.add(s, mod.createProperty("http://x/p"+rand.nextInt(n_prop)), mod.createResource("http://x/i"+rand.nextInt(n/2)));
+    }
+    return mod;
+  }
+
+  @Test public void testRandom()
+  {
+    for (long seed=1; seed<=3; ++seed)
+    {
+      Model schema = RandomSchema(60, 15, seed);
+      Model data = RandomData(60, 15, 400, seed);
+      rdfs_closure rc = new rdfs_closure(schema.getGraph(), 3);
+      assertEquals("seed "+seed, Expected(schema, data), Closure(rc, data.getGraph()));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Write() of a file, chunked and not, as the in-memory closure.
+  */
+  @Test public void testWriteChunked() throws IOException
+  {
+    Model schema = RandomSchema(60, 15, 7);
+    Model data = RandomData(60, 15, 2000, 7);
+    File f = tmp.newFile("data.nt");
+    try (OutputStream os = new FileOutputStream(f)) { RDFDataMgr.write(os, data, Lang.NTRIPLES); }
+    rdfs_closure rc = new rdfs_closure(schema.getGraph(), 3);
+    Set<Triple> expected = Closure(rc, data.getGraph());
+    for (long chunksize: new long[]{0, 4096})
+    {
+      assertEquals(chunksize>0, rdf_loader.IsChunkable(f.getPath(), Lang.NTRIPLES, chunksize));
+      StringWriter sw = new StringWriter();
+      long n = rc.Write(f.getPath(), Lang.NTRIPLES, sw, 3, chunksize, 0);
+      Graph out = ModelFactory.createDefaultModel().getGraph();
+      RDFParser.fromString(sw.toString()).lang(Lang.NTRIPLES).parse(out);
+      assertEquals("chunksize "+chunksize, expected, Triples(out));
+      assertTrue(n>=expected.size()); //duplicates not removed
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testEmpty()
+  {
+    rdfs_closure rc = new rdfs_closure(ModelFactory.createDefaultModel().getGraph(), 2);
+    assertEquals(0, rc.ClassCount());
+    assertEquals(0, rc.PropertyCount());
+    Model data = Load(DATA);
+    assertEquals(Triples(data.getGraph()), Closure(rc, data.getGraph()));
+  }
+}
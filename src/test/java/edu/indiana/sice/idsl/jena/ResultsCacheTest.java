@@ -0,0 +1,186 @@
+package edu.indiana.sice.idsl.jena;
+
+import java.io.*; // File, IOException, RandomAccessFile, StringWriter, UncheckedIOException
+import java.nio.charset.*; // StandardCharsets
+import java.util.*; // Arrays, HashSet, Set
+
+import org.junit.*; // Before, Rule, Test
+import org.junit.rules.*; // TemporaryFolder
+import static org.junit.Assert.*;
+
+import org.apache.jena.query.*; // Dataset, DatasetFactory, QueryExecution, QueryExecutionFactory, QueryFactory
+import org.apache.jena.rdf.model.*; // Model, ModelFactory
+
+/**	results_cache over a small in-memory dataset as the source: replay in
+	another output format, TTL expiry, truncated entries, and LRU and TTL
+	eviction.
+*/
+public class ResultsCacheTest
+{
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  static final String URL = "http://example.org/sparql";
+  static final String RQ = "SELECT ?s ?v WHERE { ?s <http://x/v> ?v } ORDER BY ?s";
+
+  private Dataset dset;
+  private File cache_dir;
+  private int n_fetch; //source calls, i.e. misses
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Before public void setUp() throws IOException
+  {
+    Model mod = ModelFactory.createDefaultModel();
+    for (int i=0; i<50; ++i)
+    {
+      mod.add(mod.createResource("http://x/s"+i), mod.createProperty("http://x/v"), mod.createTypedLiteral(i));
+      mod.add(mod.createResource("http://x/s"+i), mod.createProperty("http://x/v"), "v"+i, "en");
+    }
+    dset = DatasetFactory.wrap(mod);
+    cache_dir = tmp.newFolder("cache");
+    n_fetch = 0;
+  }
+
+  private results_cache.Source Source(String rq)
+  {
+    return (h) -> {
+      ++n_fetch;
+      try (QueryExecution qex = QueryExecutionFactory.create(QueryFactory.create(rq), dset)) { return h.Handle(qex.execSelect()); }
+    };
+  }
+
+  /**	Results of rq in ofmt, via cache. */
+  private String Run(results_cache rcache, String rq, String ofmt) throws IOException
+  {
+    StringWriter sw = new StringWriter();
+    long n = rcache.Run(URL, rq, Source(rq), (results) -> results_writer.Write(results, ofmt, null, sw), 0);
+    assertTrue(n>=0);
+    return sw.toString();
+  }
+
+  /**	Results of rq in ofmt, uncached. */
+  private String Direct(String rq, String ofmt) throws IOException
+  {
+    StringWriter sw = new StringWriter();
+    try (QueryExecution qex = QueryExecutionFactory.create(QueryFactory.create(rq), dset)) { results_writer.Write(qex.execSelect(), ofmt, null, sw); }
+    return sw.toString();
+  }
+
+  private File [] Entries()
+  {
+    File [] files = new File(cache_dir, "results").listFiles((d, name) -> name.endsWith(".rs"));
+    return (files!=null)?files:new File[0];
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Stored while output in one format, replayed in others, from a
+	query differing only in layout.
+  */
+  @Test public void testRoundTrip() throws IOException
+  {
+    results_cache rcache = new results_cache(cache_dir.getPath(), 3600, 1L<<30);
+    assertEquals(Direct(RQ, "tsv"), Run(rcache, RQ, "tsv"));
+    assertEquals(1, n_fetch);
+    assertEquals(1, Entries().length);
+    String rq2 = RQ.replace(" ", "\n  ")+" # comment";
+    for (String ofmt: new String[]{"json", "csv", "ndjson", "tsv"})
+      assertEquals(ofmt, Direct(RQ, ofmt), Run(rcache, rq2, ofmt));
+    assertEquals(1, n_fetch);
+    //Empty results, cached too.
+    String rq_empty = "SELECT ?s WHERE { ?s <http://x/none> ?o }";
+    assertEquals(Direct(rq_empty, "json"), Run(rcache, rq_empty, "json"));
+    assertEquals(Direct(rq_empty, "json"), Run(rcache, rq_empty, "json"));
+    assertEquals(2, n_fetch);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Results not all consumed are not stored.
+  */
+  @Test public void testIncomplete() throws IOException
+  {
+    results_cache rcache = new results_cache(cache_dir.getPath(), 3600, 1L<<30);
+    long n = rcache.Run(URL, RQ, Source(RQ), (results) -> { results.next(); return 1; }, 0);
+    assertEquals(1, n);
+    assertEquals(0, Entries().length);
+    assertEquals(0, new File(cache_dir, "results").listFiles().length); //no temporary file left
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  @Test public void testExpiry() throws Exception
+  {
+    results_cache rcache = new results_cache(cache_dir.getPath(), 1, 1L<<30);
+    Run(rcache, RQ, "tsv");
+    Run(rcache, RQ, "tsv");
+    assertEquals(1, n_fetch);
+    Thread.sleep(1100);
+    assertEquals(Direct(RQ, "tsv"), Run(rcache, RQ, "tsv"));
+    assertEquals(2, n_fetch);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Entry with fewer rows than its header: replay fails, rather than
+	output a short result as complete.
+  */
+  @Test public void testTruncated() throws IOException
+  {
+    results_cache rcache = new results_cache(cache_dir.getPath(), 3600, 1L<<30);
+    Run(rcache, RQ, "tsv");
+    File f = Entries()[0];
+    String magic = "iu_idsl_jena results 2";
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+    {
+      long off = 2+magic.getBytes(StandardCharsets.UTF_8).length+8; //row count, after magic and creation time
+      raf.seek(off);
+      long n_row = raf.readLong();
+      raf.seek(off);
+      raf.writeLong(n_row+1); //one more row than written
+    }
+    try {
+      Run(rcache, RQ, "tsv");
+      fail("truncated entry not detected");
+    }
+    catch (UncheckedIOException e) { assertTrue(e.getMessage(), e.getMessage().contains("truncated")); }
+    assertEquals(1, n_fetch); //not silently re-fetched after output began
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Oldest by mtime evicted first, a hit refreshing it.
+  */
+  @Test public void testEvictLRU() throws Exception
+  {
+    String [] rqs = new String[4];
+    for (int i=0; i<rqs.length; ++i) rqs[i] = RQ+" LIMIT "+(20+i);
+    results_cache rcache = new results_cache(cache_dir.getPath(), 3600, 1L<<30);
+    File [] entries = new File[rqs.length];
+    for (int i=0; i<3; ++i)
+    {
+      Set<File> before = new HashSet<File>(Arrays.asList(Entries()));
+      Run(rcache, rqs[i], "tsv");
+      for (File f: Entries()) if (!before.contains(f)) entries[i] = f;
+    }
+    long size = entries[0].length(); //smallest
+    long t = System.currentTimeMillis()-100000;
+    for (int i=0; i<3; ++i) assertTrue(entries[i].setLastModified(t+1000*i)); //0 oldest
+    rcache = new results_cache(cache_dir.getPath(), 3600, 3*size+size/2); //3 entries fit, not 4
+    Run(rcache, rqs[0], "tsv"); //hit, so 1 now oldest
+    assertEquals(3, n_fetch);
+    Run(rcache, rqs[3], "tsv"); //stored, evicting 1
+    assertEquals(3, Entries().length);
+    assertTrue(entries[0].exists());
+    assertFalse(entries[1].exists());
+    assertTrue(entries[2].exists());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  /**	Expired by creation time, though recently hit.
+  */
+  @Test public void testEvictExpired() throws Exception
+  {
+    results_cache rcache = new results_cache(cache_dir.getPath(), 1, 1L<<30);
+    Run(rcache, RQ, "tsv");
+    Thread.sleep(1100);
+    File f = Entries()[0];
+    assertTrue(f.setLastModified(System.currentTimeMillis())); //as a hit would
+    rcache.Evict();
+    assertFalse(f.exists());
+  }
+}